@@ -0,0 +1,226 @@
+package com.example.paintoop;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+public class AlignmentIndex {
+    private static final int BULK_THRESHOLD = 32;
+
+    private final SortedCoordinates xs = new SortedCoordinates();
+    private final SortedCoordinates ys = new SortedCoordinates();
+    private final Map<Shape, double[]> registered = new IdentityHashMap<>();
+    private final Set<Shape> excluded = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public void add(Shape shape) {
+        if (registered.containsKey(shape)) {
+            remove(shape);
+        }
+        double[] edges = edgesOf(shape);
+        registered.put(shape, edges);
+        insertEdges(edges);
+    }
+
+    public void addAll(Collection<Shape> shapes) {
+        if (shapes.size() <= BULK_THRESHOLD) {
+            for (Shape shape : shapes) {
+                add(shape);
+            }
+            return;
+        }
+        for (Shape shape : shapes) {
+            registered.put(shape, edgesOf(shape));
+            excluded.remove(shape);
+        }
+        rebuildArrays();
+    }
+
+    public void remove(Shape shape) {
+        double[] edges = registered.remove(shape);
+        if (edges != null && !excluded.remove(shape)) {
+            removeEdges(edges);
+        }
+    }
+
+    public void update(Shape shape) {
+        double[] edges = registered.get(shape);
+        if (edges == null) {
+            return;
+        }
+        double[] current = edgesOf(shape);
+        if (Arrays.equals(edges, current)) {
+            return;
+        }
+        registered.put(shape, current);
+        if (!excluded.contains(shape)) {
+            removeEdges(edges);
+            insertEdges(current);
+        }
+    }
+
+    public void rebuild(Collection<Shape> shapes) {
+        registered.clear();
+        excluded.clear();
+        for (Shape shape : shapes) {
+            registered.put(shape, edgesOf(shape));
+        }
+        rebuildArrays();
+    }
+
+    public void clear() {
+        registered.clear();
+        excluded.clear();
+        xs.clear();
+        ys.clear();
+    }
+
+    public void exclude(Collection<Shape> shapes) {
+        includeAll();
+        for (Shape shape : shapes) {
+            if (registered.containsKey(shape)) {
+                excluded.add(shape);
+            }
+        }
+        if (excluded.size() > BULK_THRESHOLD) {
+            rebuildArrays();
+        } else {
+            for (Shape shape : excluded) {
+                removeEdges(registered.get(shape));
+            }
+        }
+    }
+
+    public void includeAll() {
+        if (excluded.isEmpty()) {
+            return;
+        }
+        boolean bulk = excluded.size() > BULK_THRESHOLD;
+        for (Shape shape : excluded) {
+            double[] current = edgesOf(shape);
+            registered.put(shape, current);
+            if (!bulk) {
+                insertEdges(current);
+            }
+        }
+        excluded.clear();
+        if (bulk) {
+            rebuildArrays();
+        }
+    }
+
+    public double nearestX(double value, double threshold) {
+        return xs.nearest(value, threshold);
+    }
+
+    public double nearestY(double value, double threshold) {
+        return ys.nearest(value, threshold);
+    }
+
+    public int size() {
+        return registered.size();
+    }
+
+    private void rebuildArrays() {
+        int count = (registered.size() - excluded.size()) * 3;
+        double[] xValues = new double[count];
+        double[] yValues = new double[count];
+        int i = 0;
+        for (Map.Entry<Shape, double[]> entry : registered.entrySet()) {
+            if (excluded.contains(entry.getKey())) {
+                continue;
+            }
+            double[] edges = entry.getValue();
+            System.arraycopy(edges, 0, xValues, i, 3);
+            System.arraycopy(edges, 3, yValues, i, 3);
+            i += 3;
+        }
+        xs.reset(xValues);
+        ys.reset(yValues);
+    }
+
+    private void insertEdges(double[] edges) {
+        for (int i = 0; i < 3; i++) {
+            xs.insert(edges[i]);
+            ys.insert(edges[i + 3]);
+        }
+    }
+
+    private void removeEdges(double[] edges) {
+        for (int i = 0; i < 3; i++) {
+            xs.remove(edges[i]);
+            ys.remove(edges[i + 3]);
+        }
+    }
+
+    private static double[] edgesOf(Shape shape) {
+        double x = shape.getX();
+        double y = shape.getY();
+        double width = shape.getWidth();
+        double height = shape.getHeight();
+        return new double[]{x, x + width / 2, x + width, y, y + height / 2, y + height};
+    }
+
+    private static final class SortedCoordinates {
+        private double[] values = new double[64];
+        private int size = 0;
+
+        void insert(double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            int index = lowerBound(value);
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = value;
+            size++;
+        }
+
+        void remove(double value) {
+            int index = lowerBound(value);
+            if (index < size && values[index] == value) {
+                System.arraycopy(values, index + 1, values, index, size - index - 1);
+                size--;
+            }
+        }
+
+        void reset(double[] unsorted) {
+            Arrays.sort(unsorted);
+            values = unsorted.length < 64 ? Arrays.copyOf(unsorted, 64) : unsorted;
+            size = unsorted.length;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        double nearest(double value, double threshold) {
+            int index = lowerBound(value);
+            double best = Double.NaN;
+            double bestDistance = threshold;
+            if (index < size && values[index] - value <= bestDistance) {
+                best = values[index];
+                bestDistance = values[index] - value;
+            }
+            if (index > 0 && value - values[index - 1] <= bestDistance) {
+                best = values[index - 1];
+            }
+            return best;
+        }
+
+        private int lowerBound(double value) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
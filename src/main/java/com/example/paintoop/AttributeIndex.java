@@ -0,0 +1,133 @@
+package com.example.paintoop;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+public class AttributeIndex {
+    private final Map<Class<?>, Map<Integer, Set<Shape>>> buckets = new HashMap<>();
+    private final Map<Shape, Integer> registered = new IdentityHashMap<>();
+    private final StyleTable styles;
+
+    public AttributeIndex() {
+        this(StyleTable.shared());
+    }
+
+    public AttributeIndex(StyleTable styles) {
+        this.styles = styles;
+    }
+
+    public void add(Shape shape) {
+        Integer previous = registered.put(shape, shape.getStyleId());
+        if (previous != null) {
+            unlink(shape, previous);
+        }
+        link(shape, shape.getStyleId());
+    }
+
+    public void addAll(Collection<Shape> shapes) {
+        for (Shape shape : shapes) {
+            add(shape);
+        }
+    }
+
+    public void remove(Shape shape) {
+        Integer styleId = registered.remove(shape);
+        if (styleId != null) {
+            unlink(shape, styleId);
+        }
+    }
+
+    public void update(Shape shape) {
+        Integer styleId = registered.get(shape);
+        if (styleId == null || styleId == shape.getStyleId()) {
+            return;
+        }
+        unlink(shape, styleId);
+        registered.put(shape, shape.getStyleId());
+        link(shape, shape.getStyleId());
+    }
+
+    public void rebuild(Collection<Shape> shapes) {
+        clear();
+        addAll(shapes);
+    }
+
+    public void clear() {
+        buckets.clear();
+        registered.clear();
+    }
+
+    public int size() {
+        return registered.size();
+    }
+
+    public List<Shape> find(Class<? extends Shape> type, Predicate<Style> style) {
+        List<Shape> found = new ArrayList<>();
+        if (type != null) {
+            collect(buckets.get(type), style, found);
+        } else {
+            for (Map<Integer, Set<Shape>> byStyle : buckets.values()) {
+                collect(byStyle, style, found);
+            }
+        }
+        return found;
+    }
+
+    public List<Shape> findByStyle(int styleId) {
+        List<Shape> found = new ArrayList<>();
+        for (Map<Integer, Set<Shape>> byStyle : buckets.values()) {
+            Set<Shape> bucket = byStyle.get(styleId);
+            if (bucket != null) {
+                found.addAll(bucket);
+            }
+        }
+        return found;
+    }
+
+    public List<Shape> findSimilar(Shape shape, boolean sameType) {
+        if (!sameType) {
+            return findByStyle(shape.getStyleId());
+        }
+        Map<Integer, Set<Shape>> byStyle = buckets.get(shape.getClass());
+        Set<Shape> bucket = byStyle != null ? byStyle.get(shape.getStyleId()) : null;
+        return bucket != null ? new ArrayList<>(bucket) : new ArrayList<>();
+    }
+
+    private void collect(Map<Integer, Set<Shape>> byStyle, Predicate<Style> style, List<Shape> found) {
+        if (byStyle == null) {
+            return;
+        }
+        for (Map.Entry<Integer, Set<Shape>> entry : byStyle.entrySet()) {
+            if (style == null || style.test(styles.get(entry.getKey()))) {
+                found.addAll(entry.getValue());
+            }
+        }
+    }
+
+    private void link(Shape shape, int styleId) {
+        buckets.computeIfAbsent(shape.getClass(), type -> new HashMap<>())
+                .computeIfAbsent(styleId, id -> Collections.newSetFromMap(new IdentityHashMap<>()))
+                .add(shape);
+    }
+
+    private void unlink(Shape shape, int styleId) {
+        Map<Integer, Set<Shape>> byStyle = buckets.get(shape.getClass());
+        if (byStyle == null) {
+            return;
+        }
+        Set<Shape> bucket = byStyle.get(styleId);
+        if (bucket != null && bucket.remove(shape) && bucket.isEmpty()) {
+            byStyle.remove(styleId);
+            if (byStyle.isEmpty()) {
+                buckets.remove(shape.getClass());
+            }
+        }
+    }
+}
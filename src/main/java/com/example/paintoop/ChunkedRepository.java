@@ -0,0 +1,791 @@
+package com.example.paintoop;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ChunkedRepository implements Repository, AutoCloseable {
+    static final double CHUNK_SIZE = 1024;
+    private static final int MAX_RESIDENT_CHUNKS = 64;
+    private static final int MAX_HISTORY_SIZE = 5;
+    private static final long ORDER_STEP = 1 << 16;
+    private static final int INDEX_MAGIC = 0x50574c44;
+    private static final int CHUNK_MAGIC = 0x5057434b;
+    private static final String INDEX_FILE = "world.idx";
+
+    private final File directory;
+    private final Executor applyExecutor;
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "chunk-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Long, Chunk> chunks = new HashMap<>();
+    private final Map<Long, Shape> resident = new HashMap<>();
+    private final Map<Shape, Chunk> owners = new IdentityHashMap<>();
+    private final SpatialIndex spatialIndex = new SpatialIndex();
+    private final AlignmentIndex alignmentIndex = new AlignmentIndex();
+    private final AttributeIndex attributeIndex = new AttributeIndex();
+    private final LayerStack layers = new LayerStack();
+    private final Deque<Snapshot> history = new ArrayDeque<>();
+    private long nextOrder = ORDER_STEP;
+    private long nextId = 1;
+    private long accessClock = 0;
+    private int residentChunks = 0;
+    private boolean indexDirty = false;
+    private int updateDepth = 0;
+    private boolean stateSavedInUpdate = false;
+    private boolean dirtyInUpdate = false;
+    private Runnable changeListener;
+
+    private long chunksLoaded = 0;
+    private long chunksEvicted = 0;
+    private long chunksWritten = 0;
+
+    public ChunkedRepository(File directory, Executor applyExecutor) throws IOException {
+        this.directory = directory;
+        this.applyExecutor = applyExecutor;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create world directory: " + directory);
+        }
+        readIndex();
+    }
+
+    @Override
+    public void addShape(Shape shape) {
+        saveState();
+        place(shape, true);
+        alignmentIndex.add(shape);
+        persist();
+    }
+
+    @Override
+    public void addShapes(Collection<Shape> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        saveState();
+        for (Shape shape : added) {
+            place(shape, true);
+        }
+        alignmentIndex.addAll(added);
+        persist();
+    }
+
+    @Override
+    public void removeShape(Shape shape) {
+        removeShapes(Collections.singletonList(shape));
+    }
+
+    @Override
+    public void removeShapes(Collection<Shape> toRemove) {
+        List<Shape> removed = new ArrayList<>(toRemove.size());
+        for (Shape shape : toRemove) {
+            if (resident.get(shape.getId()) == shape) {
+                removed.add(shape);
+            }
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+        saveState();
+        for (Shape shape : removed) {
+            unplace(shape);
+        }
+        persist();
+    }
+
+    @Override
+    public List<Shape> getAllShapes() {
+        loadAll(new ArrayList<>(chunks.values()));
+        List<Shape> shapes = new ArrayList<>(resident.values());
+        shapes.sort(Comparator.comparingLong(Shape::getOrder));
+        return shapes;
+    }
+
+    @Override
+    public void clear() {
+        getAllShapes();
+        saveState();
+        for (Shape shape : new ArrayList<>(resident.values())) {
+            unplace(shape);
+        }
+        persist();
+    }
+
+    @Override
+    public void undo() {
+        if (history.isEmpty()) {
+            return;
+        }
+        Snapshot snapshot = history.pop();
+        for (Chunk chunk : new ArrayList<>(chunks.values())) {
+            if (!snapshot.keys.contains(chunk.key)) {
+                evacuate(chunk);
+                chunkFile(chunk.key).delete();
+                chunks.remove(chunk.key);
+                indexDirty = true;
+            }
+        }
+        for (Long key : snapshot.chunks.keySet()) {
+            Chunk chunk = chunks.get(key);
+            if (chunk != null) {
+                evacuate(chunk);
+            }
+        }
+        for (Map.Entry<Long, List<Shape>> entry : snapshot.chunks.entrySet()) {
+            Chunk chunk = chunks.computeIfAbsent(entry.getKey(), Chunk::new);
+            install(chunk, entry.getValue());
+            alignmentIndex.addAll(entry.getValue());
+            chunk.dirty = true;
+        }
+        nextOrder = Math.max(nextOrder, snapshot.nextOrder);
+        flush();
+    }
+
+    @Override
+    public void saveState() {
+        if (updateDepth > 0) {
+            if (stateSavedInUpdate) {
+                return;
+            }
+            stateSavedInUpdate = true;
+        }
+        Map<Long, List<Shape>> copies = new HashMap<>();
+        for (Chunk chunk : chunks.values()) {
+            if (chunk.shapes != null) {
+                copies.put(chunk.key, copyOf(chunk.shapes));
+            }
+        }
+        history.push(new Snapshot(copies, new HashSet<>(chunks.keySet()), nextOrder));
+        while (history.size() > MAX_HISTORY_SIZE) {
+            history.removeLast();
+        }
+        persist();
+    }
+
+    private static List<Shape> copyOf(List<Shape> shapes) {
+        List<Shape> copy = new ArrayList<>(shapes.size());
+        for (Shape shape : shapes) {
+            Shape saved = shape.copy();
+            saved.setOrder(shape.getOrder());
+            copy.add(saved);
+        }
+        return copy;
+    }
+
+    private void remember(Chunk chunk) {
+        for (Snapshot snapshot : history) {
+            if (snapshot.keys.contains(chunk.key) && !snapshot.chunks.containsKey(chunk.key)) {
+                snapshot.chunks.put(chunk.key, copyOf(chunk.shapes));
+            }
+        }
+    }
+
+    @Override
+    public void clearPersistentData() {
+        history.clear();
+        for (Chunk chunk : chunks.values()) {
+            evacuate(chunk);
+            chunkFile(chunk.key).delete();
+        }
+        chunks.clear();
+        new File(directory, INDEX_FILE).delete();
+        nextOrder = ORDER_STEP;
+        nextId = 1;
+    }
+
+    @Override
+    public void bringToFront(Shape shape) {
+        Chunk chunk = owners.get(shape);
+        if (chunk == null) {
+            return;
+        }
+        saveState();
+        shape.setOrder(nextOrder);
+        nextOrder += ORDER_STEP;
+        chunk.dirty = true;
+        persist();
+    }
+
+    @Override
+    public List<Shape> findShapesInRegion(double x, double y, double width, double height) {
+        accessClock++;
+        List<Chunk> missing = new ArrayList<>();
+        for (Chunk chunk : chunks.values()) {
+            if (!chunk.intersects(x, y, width, height)) {
+                continue;
+            }
+            chunk.lastUsed = accessClock;
+            if (chunk.shapes == null && !chunk.loading) {
+                missing.add(chunk);
+            }
+        }
+        for (Chunk chunk : missing) {
+            loadInBackground(chunk);
+        }
+        List<Shape> found = spatialIndex.query(x, y, width, height);
+        evictIfNeeded();
+        return found;
+    }
+
+    @Override
+    public List<Shape> loadRegion(double x, double y, double width, double height) {
+        accessClock++;
+        List<Chunk> covered = new ArrayList<>();
+        for (Chunk chunk : chunks.values()) {
+            if (chunk.intersects(x, y, width, height)) {
+                covered.add(chunk);
+            }
+        }
+        loadAll(covered);
+        return spatialIndex.query(x, y, width, height);
+    }
+
+    @Override
+    public void updateShapes(Collection<Shape> changed) {
+        for (Shape shape : changed) {
+            Chunk chunk = owners.get(shape);
+            if (chunk == null) {
+                continue;
+            }
+            spatialIndex.update(shape);
+            attributeIndex.update(shape);
+            alignmentIndex.update(shape);
+            chunk.dirty = true;
+            long key = keyOf(shape);
+            if (key == chunk.key) {
+                chunk.include(shape);
+                continue;
+            }
+            chunk.shapes.remove(shape);
+            Chunk target = chunkAt(key);
+            target.shapes.add(shape);
+            target.include(shape);
+            target.dirty = true;
+            owners.put(shape, target);
+            indexDirty = true;
+        }
+    }
+
+    @Override
+    public void restyleAll(int styleId, Style style) {
+        int newStyleId = StyleTable.shared().intern(style);
+        if (newStyleId == styleId) {
+            return;
+        }
+        getAllShapes();
+        saveState();
+        for (Chunk chunk : chunks.values()) {
+            for (Shape shape : chunk.shapes) {
+                if (shape.replaceStyle(styleId, newStyleId)) {
+                    attributeIndex.update(shape);
+                    chunk.dirty = true;
+                }
+            }
+        }
+        persist();
+    }
+
+    @Override
+    public void beginUpdate() {
+        if (updateDepth++ == 0) {
+            stateSavedInUpdate = false;
+            dirtyInUpdate = false;
+        }
+    }
+
+    @Override
+    public void endUpdate() {
+        if (updateDepth == 0) {
+            return;
+        }
+        if (--updateDepth == 0 && dirtyInUpdate) {
+            dirtyInUpdate = false;
+            flush();
+        }
+    }
+
+    @Override
+    public void setChangeListener(Runnable listener) {
+        this.changeListener = listener;
+    }
+
+    @Override
+    public AlignmentIndex getAlignmentIndex() {
+        return alignmentIndex;
+    }
+
+    @Override
+    public AttributeIndex getAttributeIndex() {
+        return attributeIndex;
+    }
+
+    @Override
+    public LayerStack getLayers() {
+        return layers;
+    }
+
+    @Override
+    public ShapeGroup groupShapes(Collection<Shape> members) {
+        List<Shape> ordered = new ArrayList<>(members.size());
+        for (Shape shape : members) {
+            if (owners.containsKey(shape) && !ordered.contains(shape)) {
+                ordered.add(shape);
+            }
+        }
+        if (ordered.size() < 2) {
+            return null;
+        }
+        ordered.sort(Comparator.comparingLong(Shape::getOrder));
+        saveState();
+        long order = ordered.get(ordered.size() - 1).getOrder();
+        for (Shape shape : ordered) {
+            unplace(shape);
+        }
+        ShapeGroup group = new ShapeGroup(ordered);
+        place(group, false);
+        group.setOrder(order);
+        alignmentIndex.add(group);
+        persist();
+        return group;
+    }
+
+    @Override
+    public List<Shape> ungroup(ShapeGroup group) {
+        if (!owners.containsKey(group)) {
+            return Collections.emptyList();
+        }
+        saveState();
+        long order = group.getOrder();
+        unplace(group);
+        List<Shape> released = group.releaseChildren();
+        boolean fits = released.size() < ORDER_STEP;
+        for (int i = 0; i < released.size(); i++) {
+            Shape shape = released.get(i);
+            place(shape, !fits);
+            if (fits) {
+                shape.setOrder(order + i);
+            }
+        }
+        alignmentIndex.addAll(released);
+        persist();
+        return released;
+    }
+
+    public void flush() {
+        for (Chunk chunk : new ArrayList<>(chunks.values())) {
+            if (chunk.dirty && chunk.shapes != null) {
+                writeChunk(chunk);
+            }
+        }
+        if (indexDirty) {
+            writeIndex();
+        }
+    }
+
+    public int getResidentChunkCount() {
+        return residentChunks;
+    }
+
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    public int getResidentShapeCount() {
+        return resident.size();
+    }
+
+    public long getChunksLoaded() {
+        return chunksLoaded;
+    }
+
+    public long getChunksEvicted() {
+        return chunksEvicted;
+    }
+
+    public long getChunksWritten() {
+        return chunksWritten;
+    }
+
+    @Override
+    public void close() {
+        flush();
+        loader.shutdownNow();
+    }
+
+    private void persist() {
+        if (updateDepth > 0) {
+            dirtyInUpdate = true;
+            return;
+        }
+        flush();
+    }
+
+    private void place(Shape shape, boolean assignOrder) {
+        if (shape.getId() == 0) {
+            shape.setId(nextId++);
+        } else {
+            nextId = Math.max(nextId, shape.getId() + 1);
+        }
+        if (assignOrder) {
+            shape.setOrder(nextOrder);
+            nextOrder += ORDER_STEP;
+        }
+        Chunk chunk = chunkAt(keyOf(shape));
+        chunk.shapes.add(shape);
+        chunk.include(shape);
+        chunk.dirty = true;
+        owners.put(shape, chunk);
+        resident.put(shape.getId(), shape);
+        spatialIndex.insert(shape);
+        attributeIndex.add(shape);
+        indexDirty = true;
+    }
+
+    private void unplace(Shape shape) {
+        Chunk chunk = owners.remove(shape);
+        if (chunk == null) {
+            return;
+        }
+        chunk.shapes.remove(shape);
+        chunk.dirty = true;
+        resident.remove(shape.getId());
+        spatialIndex.remove(shape);
+        attributeIndex.remove(shape);
+        alignmentIndex.remove(shape);
+        indexDirty = true;
+    }
+
+    private Chunk chunkAt(long key) {
+        Chunk chunk = chunks.get(key);
+        if (chunk == null) {
+            chunk = new Chunk(key);
+            chunk.shapes = new ArrayList<>();
+            chunk.lastUsed = accessClock;
+            chunks.put(key, chunk);
+            residentChunks++;
+            indexDirty = true;
+            return chunk;
+        }
+        touch(chunk);
+        return chunk;
+    }
+
+    private void touch(Chunk chunk) {
+        chunk.lastUsed = accessClock;
+        if (chunk.shapes == null) {
+            alignmentIndex.addAll(read(chunk));
+        }
+    }
+
+    private void loadAll(Collection<Chunk> covered) {
+        List<Shape> loaded = new ArrayList<>();
+        for (Chunk chunk : covered) {
+            chunk.lastUsed = accessClock;
+            if (chunk.shapes == null) {
+                loaded.addAll(read(chunk));
+            }
+        }
+        alignmentIndex.addAll(loaded);
+    }
+
+    private List<Shape> read(Chunk chunk) {
+        List<Shape> shapes;
+        try {
+            shapes = readChunk(chunk.key);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            shapes = new ArrayList<>();
+        }
+        install(chunk, shapes);
+        remember(chunk);
+        return shapes;
+    }
+
+    private void loadInBackground(Chunk chunk) {
+        chunk.loading = true;
+        loader.execute(() -> {
+            List<Shape> loaded;
+            try {
+                loaded = readChunk(chunk.key);
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+                applyExecutor.execute(() -> chunk.loading = false);
+                return;
+            }
+            applyExecutor.execute(() -> {
+                chunk.loading = false;
+                if (chunk.shapes != null || chunks.get(chunk.key) != chunk) {
+                    return;
+                }
+                install(chunk, loaded);
+                remember(chunk);
+                alignmentIndex.addAll(loaded);
+                if (changeListener != null) {
+                    changeListener.run();
+                }
+            });
+        });
+    }
+
+    private void install(Chunk chunk, List<Shape> shapes) {
+        chunk.shapes = shapes;
+        residentChunks++;
+        chunksLoaded++;
+        for (Shape shape : shapes) {
+            nextId = Math.max(nextId, shape.getId() + 1);
+            nextOrder = Math.max(nextOrder, shape.getOrder() + ORDER_STEP);
+            owners.put(shape, chunk);
+            resident.put(shape.getId(), shape);
+            spatialIndex.insert(shape);
+            attributeIndex.add(shape);
+            chunk.include(shape);
+        }
+    }
+
+    private void evacuate(Chunk chunk) {
+        if (chunk.shapes == null) {
+            return;
+        }
+        for (Shape shape : chunk.shapes) {
+            owners.remove(shape);
+            resident.remove(shape.getId());
+            spatialIndex.remove(shape);
+            attributeIndex.remove(shape);
+            alignmentIndex.remove(shape);
+        }
+        chunk.shapes = null;
+        chunk.resetBounds();
+        residentChunks--;
+    }
+
+    private void evictIfNeeded() {
+        if (residentChunks <= MAX_RESIDENT_CHUNKS) {
+            return;
+        }
+        List<Chunk> candidates = new ArrayList<>();
+        for (Chunk chunk : chunks.values()) {
+            if (chunk.shapes != null && chunk.lastUsed < accessClock && !chunk.hasSelection()) {
+                candidates.add(chunk);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(chunk -> chunk.lastUsed));
+        for (int i = 0; i < candidates.size() && residentChunks > MAX_RESIDENT_CHUNKS; i++) {
+            Chunk chunk = candidates.get(i);
+            if (chunk.dirty) {
+                writeChunk(chunk);
+                if (chunk.shapes == null) {
+                    continue;
+                }
+            }
+            double minX = chunk.minX, minY = chunk.minY, maxX = chunk.maxX, maxY = chunk.maxY;
+            evacuate(chunk);
+            chunk.minX = minX;
+            chunk.minY = minY;
+            chunk.maxX = maxX;
+            chunk.maxY = maxY;
+            chunksEvicted++;
+        }
+        if (indexDirty) {
+            writeIndex();
+        }
+    }
+
+    private void writeChunk(Chunk chunk) {
+        chunk.recomputeBounds();
+        chunk.dirty = false;
+        indexDirty = true;
+        File file = chunkFile(chunk.key);
+        if (chunk.shapes.isEmpty()) {
+            file.delete();
+            chunks.remove(chunk.key);
+            chunk.shapes = null;
+            residentChunks--;
+            return;
+        }
+        File temp = new File(directory, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(CHUNK_MAGIC);
+            out.writeInt(chunk.shapes.size());
+            for (Shape shape : chunk.shapes) {
+                out.writeLong(shape.getOrder());
+                ShapeCodec.write(out, shape);
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            chunk.dirty = true;
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            chunksWritten++;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            chunk.dirty = true;
+        }
+    }
+
+    private List<Shape> readChunk(long key) throws IOException {
+        File file = chunkFile(key);
+        if (!file.exists()) {
+            return new ArrayList<>();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != CHUNK_MAGIC) {
+                throw new IOException("Unsupported chunk file: " + file);
+            }
+            int count = in.readInt();
+            List<Shape> shapes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long order = in.readLong();
+                Shape shape = ShapeCodec.read(in);
+                shape.setOrder(order);
+                shapes.add(shape);
+            }
+            return shapes;
+        }
+    }
+
+    private void writeIndex() {
+        File file = new File(directory, INDEX_FILE);
+        File temp = new File(directory, INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeLong(nextId);
+            out.writeLong(nextOrder);
+            out.writeInt(chunks.size());
+            for (Chunk chunk : chunks.values()) {
+                out.writeLong(chunk.key);
+                out.writeDouble(chunk.minX);
+                out.writeDouble(chunk.minY);
+                out.writeDouble(chunk.maxX);
+                out.writeDouble(chunk.maxY);
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            indexDirty = false;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private void readIndex() throws IOException {
+        File file = new File(directory, INDEX_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException("Unsupported world index: " + file);
+            }
+            nextId = in.readLong();
+            nextOrder = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Chunk chunk = new Chunk(in.readLong());
+                chunk.minX = in.readDouble();
+                chunk.minY = in.readDouble();
+                chunk.maxX = in.readDouble();
+                chunk.maxY = in.readDouble();
+                chunks.put(chunk.key, chunk);
+            }
+        }
+    }
+
+    private File chunkFile(long key) {
+        return new File(directory, "chunk_" + (int) (key >> 32) + "_" + (int) key + ".bin");
+    }
+
+    static long keyOf(Shape shape) {
+        int col = (int) Math.floor(shape.getX() / CHUNK_SIZE);
+        int row = (int) Math.floor(shape.getY() / CHUNK_SIZE);
+        return ((long) col << 32) | (row & 0xffffffffL);
+    }
+
+    private static final class Chunk {
+        final long key;
+        List<Shape> shapes;
+        double minX, minY, maxX, maxY;
+        boolean dirty = false;
+        boolean loading = false;
+        long lastUsed = 0;
+
+        Chunk(long key) {
+            this.key = key;
+            resetBounds();
+        }
+
+        void resetBounds() {
+            minX = minY = Double.MAX_VALUE;
+            maxX = maxY = -Double.MAX_VALUE;
+        }
+
+        void include(Shape shape) {
+            minX = Math.min(minX, shape.getX());
+            minY = Math.min(minY, shape.getY());
+            maxX = Math.max(maxX, shape.getX() + shape.getWidth());
+            maxY = Math.max(maxY, shape.getY() + shape.getHeight());
+        }
+
+        void recomputeBounds() {
+            resetBounds();
+            for (Shape shape : shapes) {
+                include(shape);
+            }
+        }
+
+        boolean intersects(double x, double y, double width, double height) {
+            return minX <= x + width && maxX >= x && minY <= y + height && maxY >= y;
+        }
+
+        boolean hasSelection() {
+            for (Shape shape : shapes) {
+                if (shape.isSelected()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Snapshot {
+        final Map<Long, List<Shape>> chunks;
+        final Set<Long> keys;
+        final long nextOrder;
+
+        Snapshot(Map<Long, List<Shape>> chunks, Set<Long> keys, long nextOrder) {
+            this.chunks = chunks;
+            this.keys = keys;
+            this.nextOrder = nextOrder;
+        }
+    }
+}
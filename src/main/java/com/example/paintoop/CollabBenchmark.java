@@ -0,0 +1,147 @@
+package com.example.paintoop;
+
+import javafx.scene.paint.Color;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class CollabBenchmark {
+    public static void main(String[] args) throws Exception {
+        int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int opsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        try (CollabRelayServer server = new CollabRelayServer(0)) {
+            List<CollaborativeRepository> clients = new ArrayList<>();
+            List<ExecutorService> executors = new ArrayList<>();
+            for (int i = 0; i < clientCount; i++) {
+                ExecutorService executor = Executors.newSingleThreadExecutor();
+                executors.add(executor);
+                clients.add(new CollaborativeRepository("127.0.0.1", server.getPort(), executor));
+            }
+
+            long start = System.nanoTime();
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < clientCount; i++) {
+                CollaborativeRepository client = clients.get(i);
+                ExecutorService executor = executors.get(i);
+                Random random = new Random(i);
+                Thread worker = new Thread(() -> {
+                    for (int n = 0; n < opsPerClient; n++) {
+                        executor.execute(() -> randomOperation(client, random));
+                        if (n % 64 == 0) {
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            for (int i = 0; i < clientCount; i++) {
+                CollaborativeRepository client = clients.get(i);
+                executors.get(i).submit(client::flush).get();
+            }
+            long sent = framesSent(clients);
+            while (server.getFramesRelayed() < sent || !allReceived(clients, sent)) {
+                Thread.sleep(5);
+                sent = framesSent(clients);
+            }
+            for (ExecutorService executor : executors) {
+                executor.submit(() -> { }).get();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            long ops = 0, bytes = 0;
+            double maxLatency = 0, averageLatency = 0;
+            for (CollaborativeRepository client : clients) {
+                ops += client.getOpsSent();
+                bytes += client.getBytesSent();
+                maxLatency = Math.max(maxLatency, client.getMaxLatencyMillis());
+                averageLatency += client.getAverageLatencyMillis() / clientCount;
+            }
+            System.out.printf("clients=%d ops=%d frames=%d bytes=%d time=%.2fs%n", clientCount, ops, sent, bytes, seconds);
+            System.out.printf("throughput=%.0f ops/s avgLatency=%.2fms maxLatency=%.2fms%n",
+                    ops / seconds, averageLatency, maxLatency);
+            System.out.println("converged=" + converged(clients) + " shapes=" + clients.get(0).getAllShapes().size());
+
+            for (int i = 0; i < clientCount; i++) {
+                clients.get(i).close();
+                executors.get(i).shutdown();
+                executors.get(i).awaitTermination(1, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private static long framesSent(List<CollaborativeRepository> clients) {
+        long sent = 0;
+        for (CollaborativeRepository client : clients) {
+            sent += client.getFramesSent();
+        }
+        return sent;
+    }
+
+    private static boolean allReceived(List<CollaborativeRepository> clients, long sent) {
+        for (CollaborativeRepository client : clients) {
+            if (client.getFramesReceived() + client.getFramesSent() < sent) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void randomOperation(CollaborativeRepository client, Random random) {
+        List<Shape> shapes = client.getAllShapes();
+        int action = shapes.isEmpty() ? 0 : random.nextInt(10);
+        if (action < 3) {
+            double x = random.nextDouble() * 2000;
+            double y = random.nextDouble() * 2000;
+            client.addShape(new Rectangle(x, y, 20 + random.nextDouble() * 80, 20 + random.nextDouble() * 80,
+                    Color.BLACK, Color.TRANSPARENT));
+            return;
+        }
+        Shape shape = shapes.get(random.nextInt(shapes.size()));
+        if (action < 4) {
+            client.removeShape(shape);
+        } else if (action < 8) {
+            shape.setX(shape.getX() + random.nextDouble() * 10 - 5);
+            shape.setY(shape.getY() + random.nextDouble() * 10 - 5);
+            client.updateShapes(List.of(shape));
+        } else if (action < 9) {
+            shape.setFillColor(Color.hsb(random.nextDouble() * 360, 0.8, 0.9));
+            client.updateShapes(List.of(shape));
+        } else {
+            client.bringToFront(shape);
+        }
+    }
+
+    private static boolean converged(List<CollaborativeRepository> clients) {
+        List<Shape> reference = clients.get(0).getAllShapes();
+        for (int i = 1; i < clients.size(); i++) {
+            List<Shape> other = clients.get(i).getAllShapes();
+            if (other.size() != reference.size()) {
+                return false;
+            }
+            for (int n = 0; n < reference.size(); n++) {
+                Shape a = reference.get(n);
+                Shape b = other.get(n);
+                if (a.getId() != b.getId()
+                        || Math.abs(a.getX() - b.getX()) > 1e-6 || Math.abs(a.getY() - b.getY()) > 1e-6
+                        || Math.abs(a.getWidth() - b.getWidth()) > 1e-6 || Math.abs(a.getHeight() - b.getHeight()) > 1e-6
+                        || ShapeCodec.toArgb(a.getFillColor()) != ShapeCodec.toArgb(b.getFillColor())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.paintoop;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+public class CollabConnection implements AutoCloseable {
+    private static final int HEADER_SIZE = 12;
+    private static final int MAX_FRAME_SIZE = 64 << 20;
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final int clientId;
+
+    private CollabConnection(Socket socket, DataInputStream in, Consumer<ByteBuffer> receiver,
+                             Consumer<IOException> onClose) throws IOException {
+        this.socket = socket;
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        ByteBuffer hello = ByteBuffer.wrap(readFrame(in));
+        hello.position(HEADER_SIZE);
+        this.clientId = hello.getInt();
+
+        Thread reader = new Thread(() -> {
+            try {
+                while (true) {
+                    receiver.accept(ByteBuffer.wrap(readFrame(in)));
+                }
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    onClose.accept(e);
+                }
+            }
+        }, "collab-client-" + clientId);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public static CollabConnection connect(String host, int port, Consumer<ByteBuffer> receiver,
+                                           Consumer<IOException> onClose) throws IOException {
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        return new CollabConnection(socket, in, receiver, onClose);
+    }
+
+    public int getClientId() {
+        return clientId;
+    }
+
+    public synchronized void send(byte[] frame) throws IOException {
+        out.write(frame);
+        out.flush();
+    }
+
+    static byte[] frame(byte[] payload) {
+        return ByteBuffer.allocate(HEADER_SIZE + payload.length)
+                .putInt(HEADER_SIZE - 4 + payload.length)
+                .putLong(System.nanoTime())
+                .put(payload)
+                .array();
+    }
+
+    static byte[] readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < HEADER_SIZE - 4 || length > MAX_FRAME_SIZE) {
+            throw new EOFException("Invalid frame length: " + length);
+        }
+        byte[] frame = new byte[4 + length];
+        ByteBuffer.wrap(frame).putInt(length);
+        in.readFully(frame, 4, length);
+        return frame;
+    }
+
+    static int payloadOffset() {
+        return HEADER_SIZE;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
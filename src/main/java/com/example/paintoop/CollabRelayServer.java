@@ -0,0 +1,153 @@
+package com.example.paintoop;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CollabRelayServer implements AutoCloseable {
+    private final ServerSocket serverSocket;
+    private final List<byte[]> log = new ArrayList<>();
+    private final List<ClientSession> sessions = new ArrayList<>();
+    private final AtomicLong framesRelayed = new AtomicLong();
+    private final AtomicLong bytesRelayed = new AtomicLong();
+    private int nextClientId = 1;
+    private volatile boolean running = true;
+
+    public CollabRelayServer(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptThread = new Thread(this::acceptLoop, "collab-relay-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getFramesRelayed() {
+        return framesRelayed.get();
+    }
+
+    public long getBytesRelayed() {
+        return bytesRelayed.get();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                ClientSession session = new ClientSession(socket);
+                synchronized (this) {
+                    session.clientId = nextClientId++;
+                    session.queue.add(CollabConnection.frame(ByteBuffer.allocate(4).putInt(session.clientId).array()));
+                    session.queue.addAll(log);
+                    sessions.add(session);
+                }
+                session.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println(e.getMessage());
+                }
+            }
+        }
+    }
+
+    private synchronized void relay(ClientSession sender, byte[] frame) {
+        log.add(frame);
+        framesRelayed.incrementAndGet();
+        bytesRelayed.addAndGet(frame.length);
+        for (ClientSession session : sessions) {
+            if (session != sender) {
+                session.queue.add(frame);
+            }
+        }
+    }
+
+    private synchronized void disconnect(ClientSession session) {
+        sessions.remove(session);
+        session.closeQuietly();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        synchronized (this) {
+            for (ClientSession session : sessions) {
+                session.closeQuietly();
+            }
+            sessions.clear();
+        }
+    }
+
+    private final class ClientSession {
+        private final Socket socket;
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+        private int clientId;
+
+        ClientSession(Socket socket) {
+            this.socket = socket;
+        }
+
+        void start() {
+            Thread reader = new Thread(this::readLoop, "collab-relay-read-" + clientId);
+            reader.setDaemon(true);
+            reader.start();
+            Thread writer = new Thread(this::writeLoop, "collab-relay-write-" + clientId);
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        private void readLoop() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                while (true) {
+                    relay(this, CollabConnection.readFrame(in));
+                }
+            } catch (IOException e) {
+                disconnect(this);
+            }
+        }
+
+        private void writeLoop() {
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                while (!socket.isClosed()) {
+                    byte[] frame = queue.take();
+                    out.write(frame);
+                    if (queue.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                disconnect(this);
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+        try (CollabRelayServer server = new CollabRelayServer(port)) {
+            System.out.println("Relay listening on 127.0.0.1:" + server.getPort());
+            Thread.currentThread().join();
+        }
+    }
+}
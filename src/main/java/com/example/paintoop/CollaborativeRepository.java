@@ -0,0 +1,710 @@
+package com.example.paintoop;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CollaborativeRepository implements Repository, AutoCloseable {
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_UPDATE = 3;
+    private static final byte OP_REORDER = 4;
+
+    private static final int MAX_HISTORY_SIZE = 5;
+    private static final long FLUSH_INTERVAL_MS = 16;
+
+    private final CollabConnection connection;
+    private final Executor applyExecutor;
+    private final ScheduledExecutorService flusher;
+    private final int clientId;
+
+    private final List<Shape> shapes = new ArrayList<>();
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final Set<Long> tombstones = new HashSet<>();
+    private final Deque<UndoStep> history = new ArrayDeque<>();
+    private final SpatialIndex spatialIndex = new SpatialIndex();
+    private final AlignmentIndex alignmentIndex = new AlignmentIndex();
+    private final AttributeIndex attributeIndex = new AttributeIndex();
+    private final LayerStack layers = new LayerStack();
+    private final Map<Long, Op> pending = new LinkedHashMap<>();
+
+    private long lamport = 0;
+    private long nextLocalId = 1;
+    private int updateDepth = 0;
+    private boolean stateSavedInUpdate = false;
+    private boolean undoing = false;
+    private volatile Runnable changeListener;
+
+    private final AtomicLong opsSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong opsReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong latencyTotalNanos = new AtomicLong();
+    private final AtomicLong latencyMaxNanos = new AtomicLong();
+
+    public CollaborativeRepository(String host, int port, Executor applyExecutor) throws IOException {
+        this.applyExecutor = applyExecutor;
+        this.connection = CollabConnection.connect(host, port, this::receive,
+                e -> System.err.println("Соединение с сервером совместной работы потеряно: " + e.getMessage()));
+        this.clientId = connection.getClientId();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "collab-flush-" + clientId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleAtFixedRate(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public int getClientId() {
+        return clientId;
+    }
+
+    @Override
+    public void addShape(Shape shape) {
+        saveState();
+        addLocal(shape, nextOrderKey());
+    }
+
+    @Override
+    public void addShapes(Collection<Shape> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        saveState();
+        for (Shape shape : added) {
+            addLocal(shape, nextOrderKey());
+        }
+    }
+
+    @Override
+    public void removeShape(Shape shape) {
+        removeShapes(Collections.singletonList(shape));
+    }
+
+    @Override
+    public void removeShapes(Collection<Shape> toRemove) {
+        if (toRemove.isEmpty()) {
+            return;
+        }
+        saveState();
+        for (Shape shape : toRemove) {
+            removeLocal(shape.getId());
+        }
+    }
+
+    @Override
+    public List<Shape> getAllShapes() {
+        return new ArrayList<>(shapes);
+    }
+
+    @Override
+    public void clear() {
+        saveState();
+        for (Shape shape : new ArrayList<>(shapes)) {
+            removeLocal(shape.getId());
+        }
+    }
+
+    @Override
+    public void undo() {
+        if (history.isEmpty()) {
+            return;
+        }
+        UndoStep step = history.pop();
+        undoing = true;
+        try {
+            for (Map.Entry<Long, Saved> change : step.before.entrySet()) {
+                long id = change.getKey();
+                Saved saved = change.getValue();
+                Entry entry = entries.get(id);
+                if (saved == null) {
+                    removeLocal(id);
+                    continue;
+                }
+                Shape restored = saved.shape.copy();
+                if (entry == null) {
+                    restored.setId(0);
+                    addLocal(restored, saved.orderKey);
+                    rekey(id, restored.getId());
+                    continue;
+                }
+                restored.setId(id);
+                replace(entry, restored);
+                publishChanges(entry);
+                if (entry.orderKey != saved.orderKey) {
+                    entry.orderStamp = nextStamp();
+                    moveInOrder(entry, saved.orderKey);
+                    Op op = new Op(OP_REORDER, entry.orderStamp, id);
+                    op.a = saved.orderKey;
+                    enqueue(op);
+                }
+            }
+        } finally {
+            undoing = false;
+        }
+    }
+
+    @Override
+    public void saveState() {
+        if (updateDepth > 0) {
+            if (stateSavedInUpdate) {
+                return;
+            }
+            stateSavedInUpdate = true;
+        }
+        UndoStep step = new UndoStep();
+        for (Entry entry : entries.values()) {
+            step.snapshot.put(entry.shape.getId(), new Saved(entry.shape.copy(), entry.orderKey));
+        }
+        history.push(step);
+        while (history.size() > MAX_HISTORY_SIZE) {
+            history.removeLast();
+        }
+    }
+
+    @Override
+    public void clearPersistentData() {
+        history.clear();
+    }
+
+    @Override
+    public void bringToFront(Shape shape) {
+        Entry entry = entries.get(shape.getId());
+        if (entry == null || entry.shape != shape) {
+            return;
+        }
+        saveState();
+        record(entry);
+        double orderKey = nextOrderKey();
+        entry.orderStamp = nextStamp();
+        moveInOrder(entry, orderKey);
+        Op op = new Op(OP_REORDER, entry.orderStamp, shape.getId());
+        op.a = orderKey;
+        enqueue(op);
+    }
+
+    @Override
+    public List<Shape> findShapesInRegion(double x, double y, double width, double height) {
+        return spatialIndex.query(x, y, width, height);
+    }
+
+    @Override
+    public List<Shape> loadRegion(double x, double y, double width, double height) {
+        return spatialIndex.query(x, y, width, height);
+    }
+
+    @Override
+    public void updateShapes(Collection<Shape> changed) {
+        for (Shape shape : changed) {
+            Entry entry = entries.get(shape.getId());
+            if (entry == null || entry.shape != shape) {
+                continue;
+            }
+            record(entry);
+            spatialIndex.update(shape);
+            attributeIndex.update(shape);
+            alignmentIndex.update(shape);
+            publishChanges(entry);
+        }
+    }
+
+    @Override
+    public void restyleAll(int styleId, Style style) {
+        int newStyleId = StyleTable.shared().intern(style);
+        if (newStyleId == styleId) {
+            return;
+        }
+        saveState();
+        List<Shape> changed = new ArrayList<>();
+        for (Shape shape : shapes) {
+            if (shape.replaceStyle(styleId, newStyleId)) {
+                changed.add(shape);
+            }
+        }
+        updateShapes(changed);
+    }
+
+    @Override
+    public void beginUpdate() {
+        if (updateDepth++ == 0) {
+            stateSavedInUpdate = false;
+        }
+    }
+
+    @Override
+    public void endUpdate() {
+        if (updateDepth > 0) {
+            updateDepth--;
+        }
+    }
+
+    @Override
+    public void setChangeListener(Runnable listener) {
+        this.changeListener = listener;
+    }
+
+    @Override
+    public AlignmentIndex getAlignmentIndex() {
+        return alignmentIndex;
+    }
+
+    @Override
+    public AttributeIndex getAttributeIndex() {
+        return attributeIndex;
+    }
+
+    @Override
+    public LayerStack getLayers() {
+        return layers;
+    }
+
+    @Override
+    public ShapeGroup groupShapes(Collection<Shape> members) {
+        Set<Shape> memberSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        memberSet.addAll(members);
+        List<Shape> ordered = new ArrayList<>(memberSet.size());
+        for (Shape shape : shapes) {
+            if (memberSet.contains(shape)) {
+                ordered.add(shape);
+            }
+        }
+        if (ordered.size() < 2) {
+            return null;
+        }
+        saveState();
+        double orderKey = entries.get(ordered.get(ordered.size() - 1).getId()).orderKey;
+        for (Shape shape : ordered) {
+            removeLocal(shape.getId());
+        }
+        ShapeGroup group = new ShapeGroup(ordered);
+        addLocal(group, orderKey);
+        return group;
+    }
+
+    @Override
+    public List<Shape> ungroup(ShapeGroup group) {
+        Entry entry = entries.get(group.getId());
+        if (entry == null || entry.shape != group) {
+            return Collections.emptyList();
+        }
+        saveState();
+        double lowKey = entry.orderKey;
+        int position = shapes.indexOf(group);
+        double highKey = position + 1 < shapes.size()
+                ? entries.get(shapes.get(position + 1).getId()).orderKey
+                : lowKey + 1;
+        removeLocal(group.getId());
+
+        List<Shape> released = group.releaseChildren();
+        double step = (highKey - lowKey) / (released.size() + 1);
+        for (int i = 0; i < released.size(); i++) {
+            Shape child = released.get(i);
+            child.setId(0);
+            addLocal(child, lowKey + step * (i + 1));
+        }
+        return released;
+    }
+
+    public void flush() {
+        List<Op> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + batch.size() * 48);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(batch.size());
+            for (Op op : batch) {
+                op.write(out);
+            }
+            byte[] frame = CollabConnection.frame(bytes.toByteArray());
+            connection.send(frame);
+            framesSent.incrementAndGet();
+            opsSent.addAndGet(batch.size());
+            bytesSent.addAndGet(frame.length);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdownNow();
+        flush();
+        connection.close();
+    }
+
+    public long getOpsSent() {
+        return opsSent.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getFramesSent() {
+        return framesSent.get();
+    }
+
+    public long getOpsReceived() {
+        return opsReceived.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getFramesReceived() {
+        return framesReceived.get();
+    }
+
+    public double getAverageLatencyMillis() {
+        long frames = framesReceived.get();
+        return frames == 0 ? 0 : latencyTotalNanos.get() / 1e6 / frames;
+    }
+
+    public double getMaxLatencyMillis() {
+        return latencyMaxNanos.get() / 1e6;
+    }
+
+    private void addLocal(Shape shape, double orderKey) {
+        if (shape.getId() == 0) {
+            shape.setId(((long) clientId << 40) | nextLocalId++);
+        }
+        record(shape.getId(), null);
+        Entry entry = new Entry(shape, ShapeCodec.toBytes(shape), orderKey, nextStamp());
+        insert(entry);
+        Op op = new Op(OP_ADD, entry.contentStamp, shape.getId());
+        op.a = orderKey;
+        op.data = entry.data;
+        enqueue(op);
+    }
+
+    private void removeLocal(long id) {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            return;
+        }
+        record(entry);
+        tombstones.add(id);
+        remove(entry);
+        enqueue(new Op(OP_REMOVE, nextStamp(), id));
+    }
+
+    private void record(long id, Saved before) {
+        UndoStep step = history.peek();
+        if (undoing || step == null || step.before.containsKey(id)) {
+            return;
+        }
+        step.before.put(id, before);
+    }
+
+    private void record(Entry entry) {
+        UndoStep step = history.peek();
+        if (step != null) {
+            Saved saved = step.snapshot.get(entry.shape.getId());
+            record(entry.shape.getId(), saved != null ? saved : new Saved(entry.shape.copy(), entry.orderKey));
+        }
+    }
+
+    private void rekey(long from, long to) {
+        for (UndoStep step : history) {
+            Saved saved = step.snapshot.remove(from);
+            if (saved != null) {
+                step.snapshot.put(to, saved);
+            }
+            if (step.before.containsKey(from)) {
+                step.before.put(to, step.before.remove(from));
+            }
+        }
+    }
+
+    private void publishChanges(Entry entry) {
+        byte[] data = ShapeCodec.toBytes(entry.shape);
+        if (Arrays.equals(data, entry.data)) {
+            return;
+        }
+        entry.data = data;
+        entry.contentStamp = nextStamp();
+        Op op = new Op(OP_UPDATE, entry.contentStamp, entry.shape.getId());
+        op.data = data;
+        enqueue(op);
+    }
+
+    private void enqueue(Op op) {
+        long key = op.shapeId * 8 + op.code;
+        synchronized (pending) {
+            if (op.code == OP_REMOVE && pending.remove(op.shapeId * 8 + OP_ADD) != null) {
+                pending.remove(op.shapeId * 8 + OP_UPDATE);
+                pending.remove(op.shapeId * 8 + OP_REORDER);
+                return;
+            }
+            Op previous = pending.get(key);
+            if (previous != null && op.code != OP_ADD) {
+                previous.copyFrom(op);
+            } else {
+                pending.put(key, op);
+            }
+        }
+    }
+
+    private void receive(ByteBuffer frame) {
+        long sentNanos = frame.getLong(4);
+        long latency = System.nanoTime() - sentNanos;
+        framesReceived.incrementAndGet();
+        bytesReceived.addAndGet(frame.limit());
+        latencyTotalNanos.addAndGet(latency);
+        latencyMaxNanos.accumulateAndGet(latency, Math::max);
+
+        frame.position(CollabConnection.payloadOffset());
+        int count = frame.getInt();
+        List<Op> ops = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ops.add(Op.read(frame));
+        }
+        opsReceived.addAndGet(count);
+        applyExecutor.execute(() -> applyRemote(ops));
+    }
+
+    private void applyRemote(List<Op> ops) {
+        for (Op op : ops) {
+            lamport = Math.max(lamport, op.stamp >>> 16);
+            Entry entry = entries.get(op.shapeId);
+            switch (op.code) {
+                case OP_ADD:
+                    if (entry != null || tombstones.contains(op.shapeId)) {
+                        break;
+                    }
+                    try {
+                        Shape shape = ShapeCodec.fromBytes(op.data);
+                        insert(new Entry(shape, op.data, op.a, op.stamp));
+                    } catch (IOException e) {
+                        System.err.println(e.getMessage());
+                    }
+                    break;
+                case OP_REMOVE:
+                    tombstones.add(op.shapeId);
+                    if (entry != null) {
+                        entry.shape.setSelected(false);
+                        remove(entry);
+                    }
+                    break;
+                case OP_UPDATE:
+                    if (entry != null && op.stamp > entry.contentStamp) {
+                        try {
+                            replace(entry, ShapeCodec.fromBytes(op.data));
+                            entry.data = op.data;
+                            entry.contentStamp = op.stamp;
+                        } catch (IOException e) {
+                            System.err.println(e.getMessage());
+                        }
+                    }
+                    break;
+                case OP_REORDER:
+                    if (entry != null && op.stamp > entry.orderStamp) {
+                        entry.orderStamp = op.stamp;
+                        moveInOrder(entry, op.a);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        Runnable listener = changeListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    private void insert(Entry entry) {
+        entries.put(entry.shape.getId(), entry);
+        int position = insertionPoint(entry.orderKey, entry.shape.getId());
+        shapes.add(position, entry.shape);
+        if (position == shapes.size() - 1) {
+            entry.shape.setOrder(position == 0 ? 0 : shapes.get(position - 1).getOrder() + 1);
+        } else {
+            renumber();
+        }
+        spatialIndex.insert(entry.shape);
+        attributeIndex.add(entry.shape);
+        alignmentIndex.add(entry.shape);
+    }
+
+    private void replace(Entry entry, Shape shape) {
+        Shape previous = entry.shape;
+        shapes.set(insertionPoint(entry.orderKey, previous.getId()), shape);
+        shape.setOrder(previous.getOrder());
+        shape.setSelected(previous.isSelected());
+        spatialIndex.remove(previous);
+        attributeIndex.remove(previous);
+        alignmentIndex.remove(previous);
+        entry.shape = shape;
+        spatialIndex.insert(shape);
+        attributeIndex.add(shape);
+        alignmentIndex.add(shape);
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.shape.getId());
+        shapes.remove(entry.shape);
+        spatialIndex.remove(entry.shape);
+        attributeIndex.remove(entry.shape);
+        alignmentIndex.remove(entry.shape);
+    }
+
+    private void moveInOrder(Entry entry, double orderKey) {
+        shapes.remove(entry.shape);
+        entry.orderKey = orderKey;
+        shapes.add(insertionPoint(orderKey, entry.shape.getId()), entry.shape);
+        renumber();
+    }
+
+    private int insertionPoint(double orderKey, long id) {
+        int low = 0;
+        int high = shapes.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Shape shape = shapes.get(mid);
+            double key = entries.get(shape.getId()).orderKey;
+            if (key < orderKey || (key == orderKey && shape.getId() < id)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private double nextOrderKey() {
+        return shapes.isEmpty() ? 0 : entries.get(shapes.get(shapes.size() - 1).getId()).orderKey + 1;
+    }
+
+    private void renumber() {
+        for (int i = 0; i < shapes.size(); i++) {
+            shapes.get(i).setOrder(i);
+        }
+    }
+
+    private long nextStamp() {
+        return (++lamport << 16) | (clientId & 0xffff);
+    }
+
+    private static final class Entry {
+        Shape shape;
+        byte[] data;
+        double orderKey;
+        long contentStamp;
+        long orderStamp;
+
+        Entry(Shape shape, byte[] data, double orderKey, long stamp) {
+            this.shape = shape;
+            this.data = data;
+            this.orderKey = orderKey;
+            this.contentStamp = stamp;
+            this.orderStamp = stamp;
+        }
+    }
+
+    private static final class UndoStep {
+        final Map<Long, Saved> snapshot = new HashMap<>();
+        final Map<Long, Saved> before = new LinkedHashMap<>();
+    }
+
+    private static final class Saved {
+        final Shape shape;
+        final double orderKey;
+
+        Saved(Shape shape, double orderKey) {
+            this.shape = shape;
+            this.orderKey = orderKey;
+        }
+    }
+
+    private static final class Op {
+        final byte code;
+        long stamp;
+        final long shapeId;
+        double a;
+        byte[] data;
+
+        Op(byte code, long stamp, long shapeId) {
+            this.code = code;
+            this.stamp = stamp;
+            this.shapeId = shapeId;
+        }
+
+        void copyFrom(Op other) {
+            stamp = other.stamp;
+            a = other.a;
+            data = other.data;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(code);
+            out.writeLong(stamp);
+            out.writeLong(shapeId);
+            switch (code) {
+                case OP_ADD:
+                    out.writeDouble(a);
+                    out.writeInt(data.length);
+                    out.write(data);
+                    break;
+                case OP_UPDATE:
+                    out.writeInt(data.length);
+                    out.write(data);
+                    break;
+                case OP_REORDER:
+                    out.writeDouble(a);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        static Op read(ByteBuffer in) {
+            Op op = new Op(in.get(), in.getLong(), in.getLong());
+            switch (op.code) {
+                case OP_ADD:
+                    op.a = in.getDouble();
+                    op.data = new byte[in.getInt()];
+                    in.get(op.data);
+                    break;
+                case OP_UPDATE:
+                    op.data = new byte[in.getInt()];
+                    in.get(op.data);
+                    break;
+                case OP_REORDER:
+                    op.a = in.getDouble();
+                    break;
+                default:
+                    break;
+            }
+            return op;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.paintoop;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import javafx.scene.paint.Color;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.SplittableRandom;
+
+public class DocumentGenerator {
+    public enum Distribution { UNIFORM, CLUSTERED, OVERLAPPING }
+
+    private static final String[] TYPES = {"rectangle", "ellipse", "polygon", "line", "polyline"};
+    private static final long SEED_STEP = 0x9E3779B97F4A7C15L;
+
+    private int shapeCount = 10_000;
+    private final int[] weights = {4, 3, 1, 1, 1};
+    private Distribution distribution = Distribution.UNIFORM;
+    private int styleCount = 16;
+    private int historyDepth = 0;
+    private int historyStep = 1;
+    private double areaWidth = 20_000;
+    private double areaHeight = 20_000;
+    private int clusterCount = 32;
+    private long seed = 1;
+
+    private int[] styleIds;
+    private double[] clusterCenters;
+    private int weightTotal;
+
+    public void setShapeCount(int shapeCount) {
+        if (shapeCount < 0) {
+            throw new IllegalArgumentException("Shape count must not be negative");
+        }
+        this.shapeCount = shapeCount;
+    }
+
+    public void setWeight(String type, int weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("Weight must not be negative: " + type);
+        }
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i].equals(type)) {
+                weights[i] = weight;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Unknown shape type: " + type);
+    }
+
+    public void setMix(String mix) {
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = 0;
+        }
+        for (String entry : mix.split(",")) {
+            int separator = entry.indexOf('=');
+            if (separator < 0) {
+                setWeight(entry.trim(), 1);
+            } else {
+                setWeight(entry.substring(0, separator).trim(),
+                        Integer.parseInt(entry.substring(separator + 1).trim()));
+            }
+        }
+    }
+
+    public void setDistribution(Distribution distribution) {
+        this.distribution = distribution;
+    }
+
+    public void setStyleCount(int styleCount) {
+        if (styleCount < 1) {
+            throw new IllegalArgumentException("At least one style is required");
+        }
+        this.styleCount = styleCount;
+    }
+
+    public void setHistoryDepth(int historyDepth) {
+        if (historyDepth < 0) {
+            throw new IllegalArgumentException("History depth must not be negative");
+        }
+        this.historyDepth = historyDepth;
+    }
+
+    public void setHistoryStep(int historyStep) {
+        if (historyStep < 1) {
+            throw new IllegalArgumentException("History step must be positive");
+        }
+        this.historyStep = historyStep;
+    }
+
+    public void setArea(double width, double height) {
+        if (!(width > 0) || !(height > 0)) {
+            throw new IllegalArgumentException("Area must be positive");
+        }
+        this.areaWidth = width;
+        this.areaHeight = height;
+    }
+
+    public void setClusterCount(int clusterCount) {
+        if (clusterCount < 1) {
+            throw new IllegalArgumentException("At least one cluster is required");
+        }
+        this.clusterCount = clusterCount;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public long write(File file) throws IOException {
+        JsonFactory factory = new JsonFactory();
+        try (JsonGenerator generator = factory.createGenerator(file, JsonEncoding.UTF8)) {
+            return write(generator);
+        }
+    }
+
+    public long write(OutputStream out) throws IOException {
+        JsonFactory factory = new JsonFactory();
+        try (JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8)) {
+            return write(generator);
+        }
+    }
+
+    private long write(JsonGenerator generator) throws IOException {
+        prepare();
+        StyleTable table = StyleTable.shared();
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("styles");
+        boolean[] written = new boolean[table.size()];
+        for (int styleId : styleIds) {
+            if (!written[styleId]) {
+                written[styleId] = true;
+                ShapeJson.writeStyle(generator, styleId, table.get(styleId));
+            }
+        }
+        generator.writeEndArray();
+
+        long shapesWritten = 0;
+        generator.writeFieldName("current");
+        shapesWritten += writeState(generator, shapeCount);
+        generator.writeArrayFieldStart("history");
+        for (int depth = 1; depth <= historyDepth; depth++) {
+            shapesWritten += writeState(generator, Math.max(0, shapeCount - (long) depth * historyStep));
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+        return shapesWritten;
+    }
+
+    private long writeState(JsonGenerator generator, long count) throws IOException {
+        generator.writeStartArray();
+        for (int i = 0; i < count; i++) {
+            ShapeJson.write(generator, createShape(i));
+        }
+        generator.writeEndArray();
+        return count;
+    }
+
+    private void prepare() {
+        weightTotal = 0;
+        for (int weight : weights) {
+            weightTotal += weight;
+        }
+        if (weightTotal == 0) {
+            throw new IllegalArgumentException("Shape mix is empty");
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+        StyleTable table = StyleTable.shared();
+        styleIds = new int[styleCount];
+        for (int i = 0; i < styleCount; i++) {
+            Color stroke = Color.hsb(random.nextDouble(360), 0.4 + random.nextDouble(0.6), random.nextDouble(0.8));
+            Color fill = random.nextInt(3) == 0 ? Color.TRANSPARENT
+                    : Color.hsb(random.nextDouble(360), random.nextDouble(), 0.5 + random.nextDouble(0.5));
+            double width = 1 + random.nextInt(4);
+            double[] dash = random.nextInt(8) == 0 ? new double[]{4 + random.nextInt(8)} : null;
+            double opacity = random.nextInt(6) == 0 ? 0.3 + random.nextDouble(0.7) : 1;
+            styleIds[i] = table.intern(new Style(stroke, fill, width, dash, opacity));
+        }
+
+        clusterCenters = new double[clusterCount * 2];
+        for (int i = 0; i < clusterCount; i++) {
+            clusterCenters[i * 2] = random.nextDouble(areaWidth);
+            clusterCenters[i * 2 + 1] = random.nextDouble(areaHeight);
+        }
+    }
+
+    Shape createShape(int index) {
+        SplittableRandom random = new SplittableRandom(seed + (index + 1) * SEED_STEP);
+        double x, y, size;
+        switch (distribution) {
+            case CLUSTERED: {
+                int cluster = random.nextInt(clusterCount);
+                double spread = Math.min(areaWidth, areaHeight) / clusterCount;
+                x = clusterCenters[cluster * 2] + random.nextGaussian() * spread;
+                y = clusterCenters[cluster * 2 + 1] + random.nextGaussian() * spread;
+                size = 5 + random.nextDouble(55);
+                break;
+            }
+            case OVERLAPPING: {
+                double spanX = areaWidth / 10;
+                double spanY = areaHeight / 10;
+                x = (areaWidth - spanX) / 2 + random.nextDouble(spanX);
+                y = (areaHeight - spanY) / 2 + random.nextDouble(spanY);
+                size = 50 + random.nextDouble(250);
+                break;
+            }
+            default:
+                x = random.nextDouble(areaWidth);
+                y = random.nextDouble(areaHeight);
+                size = 5 + random.nextDouble(55);
+                break;
+        }
+        double width = size * (0.5 + random.nextDouble());
+        double height = size * (0.5 + random.nextDouble());
+        int style = styleIds[random.nextInt(styleIds.length)];
+
+        int pick = random.nextInt(weightTotal);
+        int type = 0;
+        while (pick >= weights[type]) {
+            pick -= weights[type++];
+        }
+
+        Shape shape;
+        switch (TYPES[type]) {
+            case "ellipse":
+                shape = new Ellipse(x, y, width, height, style);
+                break;
+            case "polygon":
+                shape = new Polygon(x, y, width, height, style);
+                break;
+            case "line":
+                shape = new Line(x, y, x + width * (random.nextBoolean() ? 1 : -1), y + height, style);
+                break;
+            case "polyline": {
+                int points = 4 + random.nextInt(60);
+                double[] xPoints = new double[points];
+                double[] yPoints = new double[points];
+                xPoints[0] = x;
+                yPoints[0] = y;
+                double step = size / 4;
+                for (int i = 1; i < points; i++) {
+                    xPoints[i] = xPoints[i - 1] + (random.nextDouble() - 0.5) * step;
+                    yPoints[i] = yPoints[i - 1] + (random.nextDouble() - 0.5) * step;
+                }
+                shape = new Polyline(xPoints, yPoints, random.nextInt(4) == 0, style);
+                break;
+            }
+            default:
+                shape = new Rectangle(x, y, width, height, style);
+                break;
+        }
+        shape.setId(index + 1);
+        return shape;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: DocumentGenerator <output.json> [--count n] [--mix rectangle=4,ellipse=3,...]"
+                    + " [--distribution uniform|clustered|overlapping] [--styles n] [--history n]"
+                    + " [--history-step n] [--area width,height] [--clusters n] [--seed n]");
+            System.exit(2);
+        }
+        DocumentGenerator generator = new DocumentGenerator();
+        try {
+            for (int i = 1; i < args.length; i++) {
+                String option = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + option);
+                }
+                String value = args[++i];
+                switch (option) {
+                    case "--count": generator.setShapeCount(Integer.parseInt(value)); break;
+                    case "--mix": generator.setMix(value); break;
+                    case "--distribution":
+                        generator.setDistribution(Distribution.valueOf(value.toUpperCase()));
+                        break;
+                    case "--styles": generator.setStyleCount(Integer.parseInt(value)); break;
+                    case "--history": generator.setHistoryDepth(Integer.parseInt(value)); break;
+                    case "--history-step": generator.setHistoryStep(Integer.parseInt(value)); break;
+                    case "--area": {
+                        String[] size = value.split(",");
+                        generator.setArea(Double.parseDouble(size[0]), Double.parseDouble(size[1]));
+                        break;
+                    }
+                    case "--clusters": generator.setClusterCount(Integer.parseInt(value)); break;
+                    case "--seed": generator.setSeed(Long.parseLong(value)); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + option);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+
+        File output = new File(args[0]);
+        long start = System.nanoTime();
+        long shapes = generator.write(output);
+        System.out.printf("shapes=%d bytes=%d time=%.2fs%n", shapes, output.length(),
+                (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.paintoop;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+public class DocumentLoader extends Task<Integer> {
+    private static final int BATCH_SIZE = 2000;
+    private static final int MAX_PENDING_BATCHES = 4;
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    private final File file;
+    private final Consumer<List<Shape>> batchConsumer;
+    private final Semaphore pendingBatches = new Semaphore(MAX_PENDING_BATCHES);
+    private final List<String> errors = new ArrayList<>();
+    private List<Shape> batch = new ArrayList<>(BATCH_SIZE);
+    private int loaded = 0;
+    private int skipped = 0;
+    private int batchesApplied = 0;
+    private long bytesRead = 0;
+
+    public DocumentLoader(File file, Consumer<List<Shape>> batchConsumer) {
+        this.file = file;
+        this.batchConsumer = batchConsumer;
+    }
+
+    public int getBatchesApplied() {
+        return batchesApplied;
+    }
+
+    public int getSkippedCount() {
+        return skipped;
+    }
+
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    @Override
+    protected Integer call() throws IOException, InterruptedException {
+        long total = Math.max(1, file.length());
+        report(-1, total, "Загрузка документа...");
+        JsonFactory factory = new JsonFactory();
+        try (InputStream in = new CountingInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+             JsonParser parser = factory.createParser(in)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                readShapes(parser, Collections.emptyMap(), Collections.emptyMap(), total);
+            } else if (token == JsonToken.START_OBJECT) {
+                Map<Integer, Integer> styles = Collections.emptyMap();
+                Map<Integer, Integer> symbols = Collections.emptyMap();
+                while (parser.nextToken() == JsonToken.FIELD_NAME && !isCancelled()) {
+                    String name = parser.currentName();
+                    parser.nextToken();
+                    if (name.equals("styles")) {
+                        styles = ShapeJson.readStyles(parser);
+                    } else if (name.equals("symbols")) {
+                        symbols = ShapeJson.readSymbols(parser, styles);
+                    } else if (name.equals("current")) {
+                        readShapes(parser, styles, symbols, total);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                throw new JsonParseException(parser, "Unsupported document format");
+            }
+        }
+        if (isCancelled()) {
+            return loaded;
+        }
+        flushBatch();
+        report(total, total, null);
+        return loaded;
+    }
+
+    private void readShapes(JsonParser parser, Map<Integer, Integer> styles, Map<Integer, Integer> symbols,
+                            long total) throws IOException, InterruptedException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Expected shape array");
+        }
+        List<String> recordErrors = new ArrayList<>();
+        int records = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            Shape shape = ShapeJson.readOrSkip(parser, styles, symbols, recordErrors);
+            if (shape != null) {
+                batch.add(shape);
+                loaded++;
+                if (batch.size() >= BATCH_SIZE) {
+                    flushBatch();
+                }
+            } else {
+                skipped++;
+                if (errors.size() < MAX_REPORTED_ERRORS) {
+                    errors.add(recordErrors.get(recordErrors.size() - 1));
+                }
+                recordErrors.clear();
+            }
+            if (++records % 1024 == 0) {
+                if (isCancelled()) {
+                    return;
+                }
+                report(bytesRead, total, skipped == 0 ? "Загружено фигур: " + loaded
+                        : "Загружено фигур: " + loaded + ", пропущено: " + skipped);
+            }
+        }
+    }
+
+    private void flushBatch() throws InterruptedException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Shape> delivered = batch;
+        batch = new ArrayList<>(BATCH_SIZE);
+        deliver(delivered);
+    }
+
+    void deliver(List<Shape> delivered) throws InterruptedException {
+        pendingBatches.acquire();
+        Platform.runLater(() -> {
+            try {
+                if (!isCancelled()) {
+                    batchConsumer.accept(delivered);
+                    batchesApplied++;
+                }
+            } finally {
+                pendingBatches.release();
+            }
+        });
+    }
+
+    void report(long done, long total, String message) {
+        updateProgress(done, total);
+        if (message != null) {
+            updateMessage(message);
+        }
+    }
+
+    private final class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytesRead++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                bytesRead += n;
+            }
+            return n;
+        }
+    }
+}
@@ -1,14 +1,100 @@
 package com.example.paintoop;
 
+import javafx.animation.AnimationTimer;
+import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+
 public class DrawingCanvas {
     private Canvas canvas;
     private GraphicsContext gc;
     private Repository repository;
+    private RasterLayer rasterLayer;
+    private final Map<Integer, LayerCache> layerCaches = new HashMap<>();
+    private Canvas layerCanvas;
+    private SnapshotParameters layerSnapshot;
+    private Canvas frameCanvas;
+    private WritableImage frameImage;
     private Shape selectedShape;
+    private final Set<Shape> selection = new LinkedHashSet<>();
+    private Rectangle selectionFrame;
+    private List<Shape> transformShapes;
+    private double[] transformOrigins;
+    private double[] transformFrame;
+    private int editingSymbolId = -1;
+    private double editingOffsetX, editingOffsetY, editingScaleX, editingScaleY;
+
+    private boolean marqueeActive = false;
+    private double marqueeStartX, marqueeStartY, marqueeEndX, marqueeEndY;
+    private double[] lastMarquee;
+    private static final Color MARQUEE_FILL = Color.rgb(30, 144, 255, 0.15);
+
+    private StrokeBuilder activeStroke;
+    private Color activeStrokeColor;
+    private static final double STROKE_TOLERANCE = 0.75;
+
+    private boolean redrawPending = false;
+    private double[] pendingRegion;
+    private boolean externalFrames = false;
+    private final AnimationTimer redrawTimer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            stop();
+            if (redrawPending && (pendingRegion == null || renderJob == null)) {
+                drawPending();
+            } else if (renderJob != null) {
+                renderSlice(System.nanoTime() + frameBudgetNanos);
+            }
+        }
+    };
+    private RenderJob renderJob;
+    private long frameBudgetNanos = 8_000_000L;
+    private boolean previewEnabled = true;
+    private boolean previewSmoothing = true;
+    private long previewDelayNanos = 150_000_000L;
+    private WritableImage previewImage;
+    private boolean previewActive = false;
+    private double previewScale, previewTranslateX, previewTranslateY;
+    private long lastGestureNanos;
+    private final AnimationTimer previewTimer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (!previewActive) {
+                stop();
+            } else if (System.nanoTime() - lastGestureNanos >= previewDelayNanos) {
+                stop();
+                redrawAllShapes();
+            }
+        }
+    };
+    private double moveOriginX, moveOriginY;
+    private double moveAccumX, moveAccumY;
+
+    private Canvas overlay;
+    private GraphicsContext overlayGc;
+    private boolean gridEnabled = false;
+    private boolean snappingSuspended = false;
+    private double guideX = Double.NaN;
+    private double guideY = Double.NaN;
+    private static final double GRID_SIZE = 20;
+    private static final double SNAP_DISTANCE = 6;
+    private static final Color GRID_COLOR = Color.rgb(0, 0, 0, 0.08);
+
     private Shape.ResizeType currentResizeType = Shape.ResizeType.NONE;
 
     private double scale = 1.0;
@@ -16,17 +102,27 @@ public class DrawingCanvas {
     private double translateY = 0;
     private static final double MIN_SCALE = 0.1;
     private static final double MAX_SCALE = 5.0;
-    private double virtualWidth = 2000;
-    private double virtualHeight = 1500;
+    private static final double EXPORT_MARGIN = 10;
+    private static final int OVERLAY_SHAPES = 200;
 
     public DrawingCanvas(Canvas canvas, Repository repository) {
+        this(canvas, null, repository);
+    }
+
+    public DrawingCanvas(Canvas canvas, Canvas overlay, Repository repository) {
         this.canvas = canvas;
+        this.overlay = overlay;
+        this.overlayGc = overlay != null ? overlay.getGraphicsContext2D() : null;
         this.gc = canvas.getGraphicsContext2D();
         this.repository = repository;
         clearCanvas();
         centerView();
     }
 
+    public void setRasterLayer(RasterLayer rasterLayer) {
+        this.rasterLayer = rasterLayer;
+    }
+
     public void zoom(double delta, double pivotX, double pivotY) {
         scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale + delta));
 
@@ -36,51 +132,77 @@ public class DrawingCanvas {
         translateX = pivotX - modelX * scale;
         translateY = pivotY - modelY * scale;
 
-        applyPanBoundaries();
-        redrawAllShapes();
+        redrawForGesture();
     }
 
     public void pan(double deltaX, double deltaY) {
         translateX += deltaX;
         translateY += deltaY;
-        applyPanBoundaries();
-        redrawAllShapes();
+        redrawForGesture();
     }
 
-    public void resetView() {
-        scale = 1.0;
-        centerView();
+    public void setPreviewEnabled(boolean previewEnabled) {
+        this.previewEnabled = previewEnabled;
+        if (!previewEnabled && previewActive) {
+            redrawAllShapes();
+        }
     }
 
-    private void centerView() {
-        double canvasWidth = canvas.getWidth();
-        double canvasHeight = canvas.getHeight();
+    public void setPreviewSmoothing(boolean previewSmoothing) {
+        this.previewSmoothing = previewSmoothing;
+    }
 
-        translateX = (canvasWidth - virtualWidth * scale) / 2;
-        translateY = (canvasHeight - virtualHeight * scale) / 2;
+    public void setPreviewDelay(long millis) {
+        previewDelayNanos = Math.max(0, millis) * 1_000_000L;
+    }
 
-        applyPanBoundaries();
-        redrawAllShapes();
+    public void setFrameBudget(long millis) {
+        frameBudgetNanos = Math.max(1, millis) * 1_000_000L;
     }
 
-    private void applyPanBoundaries() {
-        double canvasWidth = canvas.getWidth();
-        double canvasHeight = canvas.getHeight();
+    private void redrawForGesture() {
+        if (!previewEnabled || externalFrames) {
+            redrawAllShapes();
+            return;
+        }
+        lastGestureNanos = System.nanoTime();
+        if (!previewActive) {
+            if (redrawPending && pendingRegion == null) {
+                redrawTimer.stop();
+                redrawAllShapes();
+            }
+            int width = (int) Math.ceil(canvas.getWidth());
+            int height = (int) Math.ceil(canvas.getHeight());
+            if (previewImage == null || previewImage.getWidth() != width || previewImage.getHeight() != height) {
+                previewImage = new WritableImage(width, height);
+            }
+            canvas.snapshot(null, previewImage);
+            cancelRender();
+            previewActive = true;
+            previewTimer.start();
+        }
+        drawPreview();
+    }
 
-        double scaledVirtualWidth = virtualWidth * scale;
-        double scaledVirtualHeight = virtualHeight * scale;
+    private void drawPreview() {
+        double factor = scale / previewScale;
+        clearCanvas();
+        gc.save();
+        gc.setImageSmoothing(previewSmoothing);
+        gc.drawImage(previewImage, translateX - previewTranslateX * factor, translateY - previewTranslateY * factor,
+                previewImage.getWidth() * factor, previewImage.getHeight() * factor);
+        gc.restore();
+    }
 
-        if (scaledVirtualWidth <= canvasWidth) {
-            translateX = (canvasWidth - scaledVirtualWidth) / 2;
-        } else {
-            translateX = Math.max(canvasWidth - scaledVirtualWidth, Math.min(0, translateX));
-        }
+    public void resetView() {
+        scale = 1.0;
+        centerView();
+    }
 
-        if (scaledVirtualHeight <= canvasHeight) {
-            translateY = (canvasHeight - scaledVirtualHeight) / 2;
-        } else {
-            translateY = Math.max(canvasHeight - scaledVirtualHeight, Math.min(0, translateY));
-        }
+    private void centerView() {
+        translateX = 0;
+        translateY = 0;
+        redrawAllShapes();
     }
 
     public double toModelX(double viewX) {
@@ -92,136 +214,575 @@ public class DrawingCanvas {
     }
 
     public void redrawAllShapes() {
-        clearCanvas();
+        redrawPending = false;
+        pendingRegion = null;
+        previewActive = false;
+        previewScale = scale;
+        previewTranslateX = translateX;
+        previewTranslateY = translateY;
+        cancelRender();
+        renderJob = new RenderJob();
+        renderSlice(externalFrames ? Long.MAX_VALUE : System.nanoTime() + frameBudgetNanos);
+    }
 
-        gc.save();
+    public boolean isRendering() {
+        return renderJob != null;
+    }
+
+    private void renderSlice(long deadline) {
+        RenderJob job = renderJob;
+        boolean done = job.layered ? job.renderLayers(deadline) : job.renderShapes(deadline);
+        if (done) {
+            renderJob = null;
+            if (job.overlayShapes != null) {
+                drawOverlay();
+            }
+            gc.save();
+            gc.translate(translateX, translateY);
+            gc.scale(scale, scale);
+            drawSelectionOverlay();
+            if (activeStroke != null) {
+                new Style(activeStrokeColor, null).applyStroke(gc);
+                activeStroke.draw(gc);
+            }
+            gc.restore();
+        }
+        if ((!done || redrawPending) && !externalFrames) {
+            redrawTimer.start();
+        }
+    }
+
+    private void cancelRender() {
+        if (renderJob != null && renderJob.currentLayer != null) {
+            layerCanvas.getGraphicsContext2D().restore();
+        }
+        boolean overlayShapes = renderJob != null && renderJob.overlayShapes != null;
+        renderJob = null;
+        if (overlayShapes) {
+            drawOverlay();
+        }
+    }
 
+    private void redrawRegion(double x, double y, double width, double height) {
+        double left = Math.max(0, Math.floor(x * scale + translateX) - 1);
+        double top = Math.max(0, Math.floor(y * scale + translateY) - 1);
+        double right = Math.min(canvas.getWidth(), Math.ceil((x + width) * scale + translateX) + 1);
+        double bottom = Math.min(canvas.getHeight(), Math.ceil((y + height) * scale + translateY) + 1);
+        if (right <= left || bottom <= top) {
+            return;
+        }
+        gc.save();
         gc.beginPath();
-        gc.rect(translateX, translateY, virtualWidth * scale, virtualHeight * scale);
+        gc.rect(left, top, right - left, bottom - top);
         gc.clip();
+        gc.setFill(Color.WHITE);
+        gc.fillRect(left, top, right - left, bottom - top);
 
         gc.translate(translateX, translateY);
         gc.scale(scale, scale);
-
-        gc.setFill(Color.WHITE);
-        gc.fillRect(0, 0, virtualWidth, virtualHeight);
-
-        for (Shape shape : repository.getAllShapes()) {
-            shape.draw(gc);
-        }
-
+        double modelX = toModelX(left);
+        double modelY = toModelY(top);
+        double modelWidth = (right - left) / scale;
+        double modelHeight = (bottom - top) / scale;
+        drawGrid(gc);
+        drawShapes(modelX, modelY, modelWidth, modelHeight);
+        drawSelectionOverlay();
         gc.restore();
     }
 
     public void drawPreview(Shape previewShape) {
+        cancelRender();
         clearCanvas();
 
         gc.save();
+        gc.translate(translateX, translateY);
+        gc.scale(scale, scale);
 
-        gc.beginPath();
-        gc.rect(translateX, translateY, virtualWidth * scale, virtualHeight * scale);
-        gc.clip();
+        drawVisibleShapes();
+
+        previewShape.draw(gc);
+
+        gc.restore();
+    }
+
+    public void beginStroke(double x, double y, Color color) {
+        activeStroke = new StrokeBuilder(toModelX(x), toModelY(y), STROKE_TOLERANCE / scale);
+        activeStrokeColor = color;
+    }
+
+    public void extendStroke(double x, double y) {
+        if (activeStroke == null) {
+            return;
+        }
+        double fromX = activeStroke.getLastX();
+        double fromY = activeStroke.getLastY();
+        double toX = toModelX(x);
+        double toY = toModelY(y);
+        if (!activeStroke.addPoint(toX, toY)) {
+            return;
+        }
 
+        gc.save();
         gc.translate(translateX, translateY);
         gc.scale(scale, scale);
+        new Style(activeStrokeColor, null).applyStroke(gc);
+        gc.strokeLine(fromX, fromY, toX, toY);
+        gc.restore();
+    }
 
-        gc.setFill(Color.WHITE);
-        gc.fillRect(0, 0, virtualWidth, virtualHeight);
-
-        for (Shape shape : repository.getAllShapes()) {
-            shape.draw(gc);
+    public Shape finishStroke() {
+        if (activeStroke == null) {
+            return null;
         }
+        Shape stroke = activeStroke.finish(activeStrokeColor);
+        activeStroke = null;
+        requestRedraw();
+        return stroke;
+    }
 
-        previewShape.draw(gc);
+    public double[] getVisibleRegion() {
+        double viewX = toModelX(0);
+        double viewY = toModelY(0);
+        return new double[]{viewX, viewY, canvas.getWidth() / scale, canvas.getHeight() / scale};
+    }
+
+    private void drawVisibleShapes() {
+        double[] region = getVisibleRegion();
+        drawShapes(region[0], region[1], region[2], region[3]);
+    }
+
+    private void drawShapes(double x, double y, double width, double height) {
+        if (rasterLayer != null) {
+            rasterLayer.draw(gc, x, y, width, height);
+        }
+        LayerStack layers = repository.getLayers();
+        if (layers.size() > 1) {
+            drawLayerCaches(layers);
+            return;
+        }
+        if (!layers.getLayers().get(0).isVisible()) {
+            return;
+        }
+        for (Shape shape : repository.findShapesInRegion(x, y, width, height)) {
+            shape.drawVisible(gc, x, y, width, height);
+        }
+    }
 
+    private void drawLayerCaches(LayerStack layers) {
+        int width = (int) Math.ceil(canvas.getWidth());
+        int height = (int) Math.ceil(canvas.getHeight());
+        boolean stale = false;
+        gc.save();
+        gc.setTransform(1, 0, 0, 1, 0, 0);
+        for (LayerStack.Layer layer : layers.getLayers()) {
+            LayerCache cache = layerCaches.get(layer.getId());
+            if (!layer.isVisible()) {
+                continue;
+            }
+            if (cache != null && cache.matchesView(scale, translateX, translateY, width, height)) {
+                gc.drawImage(cache.image, 0, 0);
+                stale |= cache.revision != layer.getRevision();
+            } else {
+                stale = true;
+            }
+        }
         gc.restore();
+        if (stale) {
+            requestRedraw();
+        }
+    }
+
+    public void invalidateLayers() {
+        repository.getLayers().touchAll();
+        requestRedraw();
+    }
+
+    private void touchLayers(Collection<Shape> shapes) {
+        LayerStack layers = repository.getLayers();
+        for (Shape shape : shapes) {
+            layers.touch(shape.getLayer());
+        }
+    }
+
+    public int[] renderRegion(int x, int y, int width, int height) {
+        Canvas target = new Canvas(width, height);
+        GraphicsContext targetGc = target.getGraphicsContext2D();
+        targetGc.setFill(Color.WHITE);
+        targetGc.fillRect(0, 0, width, height);
+        targetGc.translate(-x, -y);
+        if (rasterLayer != null) {
+            rasterLayer.draw(targetGc, x, y, width, height);
+        }
+        for (Shape shape : repository.getLayers().arrange(repository.findShapesInRegion(x, y, width, height))) {
+            shape.drawVisible(targetGc, x, y, width, height);
+        }
+        WritableImage image = target.snapshot(null, null);
+        int[] pixels = new int[width * height];
+        image.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        return pixels;
     }
 
     public void clearCanvas() {
-        gc.setFill(Color.LIGHTGRAY);
+        gc.setFill(Color.WHITE);
         gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
     }
 
     public void addShape(Shape shape) {
-        if (isShapeIntersectingVirtualCanvas(shape)) {
+        if (isFinite(shape.getX(), shape.getY(), shape.getWidth(), shape.getHeight())) {
+            shape.setLayer(repository.getLayers().getActiveLayerId());
+            repository.getLayers().touch(shape.getLayer());
             repository.addShape(shape);
             redrawAllShapes();
         }
     }
 
-    private boolean isShapeIntersectingVirtualCanvas(Shape shape) {
-        double x = shape.getX();
-        double y = shape.getY();
-        double width = shape.getWidth();
-        double height = shape.getHeight();
-
-        return x + width > 0 && x < virtualWidth &&
-                y + height > 0 && y < virtualHeight;
+    private static boolean isFinite(double x, double y, double width, double height) {
+        return Double.isFinite(x) && Double.isFinite(y) && Double.isFinite(width) && Double.isFinite(height);
     }
 
     private boolean isShapePositionValid(double x, double y, double width, double height) {
-
-        return width > 0 && height > 0 && isShapeIntersectingVirtualCanvas(new Rectangle(x, y, width, height, Color.BLACK, Color.BLACK));
+        return width > 0 && height > 0 && isFinite(x, y, width, height);
     }
 
     public Shape selectShapeAt(double x, double y) {
+        Shape hit = findShapeAt(x, y);
+        setSelection(hit == null ? Collections.emptyList() : Collections.singletonList(hit));
+        return hit;
+    }
+
+    public Shape toggleShapeAt(double x, double y) {
+        Shape hit = findShapeAt(x, y);
+        if (hit == null) {
+            return null;
+        }
+        List<Shape> updated = new ArrayList<>(selection);
+        if (!updated.remove(hit)) {
+            updated.add(hit);
+        }
+        setSelection(updated);
+        return hit;
+    }
+
+    public void clearSelection() {
+        setSelection(Collections.emptyList());
+    }
+
+    private Shape findShapeAt(double x, double y) {
         double modelX = toModelX(x);
         double modelY = toModelY(y);
 
-        if (modelX < 0 || modelX > virtualWidth || modelY < 0 || modelY > virtualHeight) {
-            return null;
+        LayerStack layers = repository.getLayers();
+        List<Shape> candidates = repository.findShapesInRegion(modelX, modelY, 0, 0);
+        Shape hit = null;
+        int hitLayer = -1;
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            Shape shape = candidates.get(i);
+            if (!layers.isEditable(shape.getLayer())) {
+                continue;
+            }
+            int layerIndex = layers.indexOf(shape.getLayer());
+            if (layerIndex > hitLayer && shape.contains(modelX, modelY)) {
+                hit = shape;
+                hitLayer = layerIndex;
+            }
         }
-        for (Shape shape : repository.getAllShapes()) {
+        return hit;
+    }
+
+    private void setSelection(Collection<Shape> shapes) {
+        touchLayers(selection);
+        touchLayers(shapes);
+        for (Shape shape : selection) {
             shape.setSelected(false);
         }
+        selection.clear();
+        selection.addAll(shapes);
+        selectedShape = null;
+        for (Shape shape : selection) {
+            selectedShape = shape;
+        }
+        if (selection.size() == 1) {
+            selectedShape.setSelected(true);
+        }
+        selectionFrame = null;
+        requestRedraw();
+    }
 
-        Shape selected = null;
-        for (int i = repository.getAllShapes().size() - 1; i >= 0; i--) {
-            Shape shape = repository.getAllShapes().get(i);
+    public boolean isSelectionAt(double x, double y) {
+        double modelX = toModelX(x);
+        double modelY = toModelY(y);
+        if (selection.size() > 1) {
+            Rectangle frame = getSelectionFrame();
+            if (frame == null || !frame.contains(modelX, modelY)) {
+                return false;
+            }
+        }
+        for (Shape shape : selection) {
             if (shape.contains(modelX, modelY)) {
-                selected = shape;
-                break;
+                return true;
             }
         }
+        return false;
+    }
 
-        if (selected != null) {
-            selected.setSelected(true);
-            selectedShape = selected;
-            repository.bringToFront(selected);
+    public void beginMarquee(double x, double y) {
+        marqueeActive = true;
+        marqueeStartX = marqueeEndX = toModelX(x);
+        marqueeStartY = marqueeEndY = toModelY(y);
+    }
 
-            redrawAllShapes();
-            return selected;
+    public void updateMarquee(double x, double y) {
+        if (marqueeActive) {
+            marqueeEndX = toModelX(x);
+            marqueeEndY = toModelY(y);
+            requestRedraw();
+        }
+    }
+
+    public List<Shape> finishMarquee(boolean additive) {
+        if (!marqueeActive) {
+            return getSelectedShapes();
+        }
+        marqueeActive = false;
+        double x = Math.min(marqueeStartX, marqueeEndX);
+        double y = Math.min(marqueeStartY, marqueeEndY);
+        double width = Math.abs(marqueeEndX - marqueeStartX);
+        double height = Math.abs(marqueeEndY - marqueeStartY);
+        if (width > 0 && height > 0) {
+            lastMarquee = new double[]{x, y, width, height};
         }
 
-        selectedShape = null;
-        redrawAllShapes();
-        return null;
+        List<Shape> picked = new ArrayList<>();
+        if (additive) {
+            picked.addAll(selection);
+        }
+        LayerStack layers = repository.getLayers();
+        for (Shape shape : repository.findShapesInRegion(x, y, width, height)) {
+            if (layers.isEditable(shape.getLayer()) && shape.getX() >= x && shape.getY() >= y &&
+                    shape.getX() + shape.getWidth() <= x + width &&
+                    shape.getY() + shape.getHeight() <= y + height &&
+                    !selection.contains(shape)) {
+                picked.add(shape);
+            }
+        }
+        setSelection(picked);
+        return getSelectedShapes();
+    }
+
+    public boolean isMarqueeActive() {
+        return marqueeActive;
     }
 
     public Shape.ResizeType getResizeTypeAt(double x, double y) {
-        if (selectedShape != null) {
-            double modelX = toModelX(x);
-            double modelY = toModelY(y);
+        double modelX = toModelX(x);
+        double modelY = toModelY(y);
+        if (selection.size() == 1) {
             return selectedShape.getResizeHandle(modelX, modelY);
         }
+        Rectangle frame = getSelectionFrame();
+        if (frame != null) {
+            return frame.getResizeHandle(modelX, modelY);
+        }
         return Shape.ResizeType.NONE;
     }
 
+    private Rectangle getSelectionFrame() {
+        if (selection.size() < 2) {
+            return null;
+        }
+        if (selectionFrame == null) {
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            for (Shape shape : selection) {
+                minX = Math.min(minX, shape.getX());
+                minY = Math.min(minY, shape.getY());
+                maxX = Math.max(maxX, shape.getX() + shape.getWidth());
+                maxY = Math.max(maxY, shape.getY() + shape.getHeight());
+            }
+            selectionFrame = new Rectangle(minX, minY, maxX - minX, maxY - minY, Color.TRANSPARENT, Color.TRANSPARENT);
+            selectionFrame.setSelected(true);
+        }
+        return selectionFrame;
+    }
+
+    public void beginTransform() {
+        transformShapes = new ArrayList<>(selection);
+        transformOrigins = new double[transformShapes.size() * 4];
+        for (int i = 0; i < transformShapes.size(); i++) {
+            Shape shape = transformShapes.get(i);
+            transformOrigins[i * 4] = shape.getX();
+            transformOrigins[i * 4 + 1] = shape.getY();
+            transformOrigins[i * 4 + 2] = shape.getWidth();
+            transformOrigins[i * 4 + 3] = shape.getHeight();
+        }
+        Rectangle frame = getSelectionFrame();
+        if (frame != null) {
+            transformFrame = new double[]{frame.getX(), frame.getY(), frame.getWidth(), frame.getHeight()};
+        }
+        Shape bounds = frame != null ? frame : selectedShape;
+        if (bounds != null) {
+            moveOriginX = bounds.getX();
+            moveOriginY = bounds.getY();
+        }
+        moveAccumX = 0;
+        moveAccumY = 0;
+        repository.getAlignmentIndex().exclude(transformShapes);
+    }
+
+    public void finishTransform() {
+        if (transformShapes != null) {
+            repository.updateShapes(transformShapes);
+        }
+        repository.getAlignmentIndex().includeAll();
+        transformShapes = null;
+        transformOrigins = null;
+        transformFrame = null;
+        guideX = Double.NaN;
+        guideY = Double.NaN;
+        drawOverlay();
+    }
+
+    public void setGridEnabled(boolean gridEnabled) {
+        this.gridEnabled = gridEnabled;
+        redrawAllShapes();
+    }
+
+    public boolean isGridEnabled() {
+        return gridEnabled;
+    }
+
+    public void setSnappingSuspended(boolean snappingSuspended) {
+        this.snappingSuspended = snappingSuspended;
+    }
+
+    private boolean isSnappingActive() {
+        return !snappingSuspended;
+    }
+
+    private double snapOffset(boolean horizontal, double start, double size) {
+        double threshold = SNAP_DISTANCE / scale;
+        AlignmentIndex index = repository.getAlignmentIndex();
+        double best = Double.NaN;
+        double guide = Double.NaN;
+        for (int i = 0; i < 3; i++) {
+            double candidate = start + size * i / 2;
+            double nearest = horizontal ? index.nearestX(candidate, threshold) : index.nearestY(candidate, threshold);
+            if (!Double.isNaN(nearest) && (Double.isNaN(best) || Math.abs(nearest - candidate) < Math.abs(best))) {
+                best = nearest - candidate;
+                guide = nearest;
+            }
+        }
+        if (Double.isNaN(best)) {
+            return gridEnabled ? Math.round(start / GRID_SIZE) * GRID_SIZE - start : 0;
+        }
+        if (horizontal) {
+            guideX = guide;
+        } else {
+            guideY = guide;
+        }
+        return best;
+    }
+
+    private double snapCoordinate(boolean horizontal, double value) {
+        return value + snapOffset(horizontal, value, 0);
+    }
+
+    private void drawOverlay() {
+        if (overlayGc == null) {
+            return;
+        }
+        overlayGc.clearRect(0, 0, overlay.getWidth(), overlay.getHeight());
+        if (renderJob != null && renderJob.overlayShapes != null) {
+            renderJob.drawOverlayShapes();
+        }
+        overlayGc.setStroke(Color.MAGENTA);
+        overlayGc.setLineWidth(1);
+        if (!Double.isNaN(guideX)) {
+            double viewX = Math.round(translateX + guideX * scale) + 0.5;
+            overlayGc.strokeLine(viewX, 0, viewX, overlay.getHeight());
+        }
+        if (!Double.isNaN(guideY)) {
+            double viewY = Math.round(translateY + guideY * scale) + 0.5;
+            overlayGc.strokeLine(0, viewY, overlay.getWidth(), viewY);
+        }
+    }
+
+    private void drawGrid(GraphicsContext gc) {
+        if (!gridEnabled || GRID_SIZE * scale < 4) {
+            return;
+        }
+        double viewX = toModelX(0);
+        double viewY = toModelY(0);
+        double viewRight = toModelX(canvas.getWidth());
+        double viewBottom = toModelY(canvas.getHeight());
+
+        gc.setStroke(GRID_COLOR);
+        gc.setLineWidth(1 / scale);
+        for (double x = Math.ceil(viewX / GRID_SIZE) * GRID_SIZE; x <= viewRight; x += GRID_SIZE) {
+            gc.strokeLine(x, viewY, x, viewBottom);
+        }
+        for (double y = Math.ceil(viewY / GRID_SIZE) * GRID_SIZE; y <= viewBottom; y += GRID_SIZE) {
+            gc.strokeLine(viewX, y, viewRight, y);
+        }
+    }
+
     public void moveSelectedShape(double deltaX, double deltaY) {
-        if (selectedShape != null) {
-            double newX = selectedShape.getX() + deltaX;
-            double newY = selectedShape.getY() + deltaY;
+        if (selection.isEmpty()) {
+            return;
+        }
+        if (transformShapes == null) {
+            beginTransform();
+        }
+        Shape bounds = selection.size() == 1 ? selectedShape : getSelectionFrame();
+        moveAccumX += deltaX;
+        moveAccumY += deltaY;
+        double targetX = moveOriginX + moveAccumX;
+        double targetY = moveOriginY + moveAccumY;
+        double width = bounds.getWidth();
+        double height = bounds.getHeight();
 
-            if (isShapePositionValid(newX, newY, selectedShape.getWidth(), selectedShape.getHeight())) {
-                selectedShape.setX(newX);
-                selectedShape.setY(newY);
-                redrawAllShapes();
+        guideX = Double.NaN;
+        guideY = Double.NaN;
+        if (isSnappingActive()) {
+            targetX += snapOffset(true, targetX, width);
+            targetY += snapOffset(false, targetY, height);
+        }
+        drawOverlay();
+
+        double stepX = targetX - bounds.getX();
+        double stepY = targetY - bounds.getY();
+        if ((stepX == 0 && stepY == 0) || !isShapePositionValid(targetX, targetY, width, height)) {
+            return;
+        }
+
+        if (selection.size() == 1) {
+            selectedShape.setX(targetX);
+            selectedShape.setY(targetY);
+        } else {
+            for (Shape shape : selection) {
+                shape.setX(shape.getX() + stepX);
+                shape.setY(shape.getY() + stepY);
             }
+            bounds.setX(targetX);
+            bounds.setY(targetY);
         }
+        repository.updateShapes(selection);
+        touchLayers(selection);
+        requestRedraw();
     }
 
     public void resizeSelectedShape(Shape.ResizeType resizeType, double newX, double newY) {
-        if (selectedShape != null && resizeType != Shape.ResizeType.NONE) {
+        if (selection.isEmpty() || resizeType == Shape.ResizeType.NONE) {
+            return;
+        }
+        guideX = Double.NaN;
+        guideY = Double.NaN;
+        if (isSnappingActive()) {
+            newX = snapCoordinate(true, newX);
+            newY = snapCoordinate(false, newY);
+        }
+        drawOverlay();
+        if (selection.size() == 1) {
             double oldX = selectedShape.getX();
             double oldY = selectedShape.getY();
             double oldWidth = selectedShape.getWidth();
@@ -236,22 +797,361 @@ public class DrawingCanvas {
                 selectedShape.setHeight(oldHeight);
             }
 
-            redrawAllShapes();
+            repository.updateShapes(selection);
+            touchLayers(selection);
+            requestRedraw();
+            return;
+        }
+
+        if (transformOrigins == null) {
+            beginTransform();
+        }
+        Rectangle frame = getSelectionFrame();
+        double oldX = frame.getX();
+        double oldY = frame.getY();
+        double oldWidth = frame.getWidth();
+        double oldHeight = frame.getHeight();
+        frame.resize(resizeType, newX, newY);
+        if (!isShapePositionValid(frame.getX(), frame.getY(), frame.getWidth(), frame.getHeight())) {
+            frame.setBounds(oldX, oldY, oldWidth, oldHeight);
+            return;
         }
+
+        double scaleX = transformFrame[2] == 0 ? 1 : frame.getWidth() / transformFrame[2];
+        double scaleY = transformFrame[3] == 0 ? 1 : frame.getHeight() / transformFrame[3];
+        for (int i = 0; i < transformShapes.size(); i++) {
+            transformShapes.get(i).setBounds(
+                    frame.getX() + (transformOrigins[i * 4] - transformFrame[0]) * scaleX,
+                    frame.getY() + (transformOrigins[i * 4 + 1] - transformFrame[1]) * scaleY,
+                    transformOrigins[i * 4 + 2] * scaleX,
+                    transformOrigins[i * 4 + 3] * scaleY);
+        }
+        repository.updateShapes(transformShapes);
+        touchLayers(transformShapes);
+        requestRedraw();
     }
 
     public void deleteSelectedShape() {
-        if (selectedShape != null) {
-            repository.removeShape(selectedShape);
+        if (!selection.isEmpty()) {
+            touchLayers(selection);
+            repository.removeShapes(new ArrayList<>(selection));
+            selection.clear();
             selectedShape = null;
-            redrawAllShapes();
+            selectionFrame = null;
+            requestRedraw();
+        }
+    }
+
+    public ShapeGroup groupSelection() {
+        if (selection.size() < 2) {
+            return null;
+        }
+        int layer = topLayer(selection);
+        touchLayers(selection);
+        ShapeGroup group = repository.groupShapes(new ArrayList<>(selection));
+        if (group != null) {
+            group.setLayer(layer);
+            setSelection(Collections.singletonList(group));
+        }
+        return group;
+    }
+
+    public List<Shape> ungroupSelection() {
+        List<Shape> released = new ArrayList<>();
+        for (Shape shape : new ArrayList<>(selection)) {
+            if (shape instanceof ShapeGroup) {
+                selection.remove(shape);
+                shape.setSelected(false);
+                List<Shape> children = repository.ungroup((ShapeGroup) shape);
+                for (Shape child : children) {
+                    child.setLayer(shape.getLayer());
+                }
+                released.addAll(children);
+            }
+        }
+        if (!released.isEmpty()) {
+            released.addAll(selection);
+            setSelection(released);
+        }
+        return released;
+    }
+
+    public List<Shape> selectSimilar(boolean strokeOnly) {
+        AttributeIndex index = repository.getAttributeIndex();
+        Set<Shape> matched = new LinkedHashSet<>();
+        for (Shape shape : selection) {
+            if (matched.contains(shape)) {
+                continue;
+            }
+            if (strokeOnly) {
+                Color stroke = shape.getStrokeColor();
+                matched.addAll(index.find(shape.getClass(), style -> Objects.equals(style.getStroke(), stroke)));
+            } else {
+                matched.addAll(index.findSimilar(shape, true));
+            }
+        }
+        return selectEditable(matched);
+    }
+
+    public List<Shape> selectMatching(Class<? extends Shape> type, Predicate<Style> style) {
+        return selectEditable(repository.getAttributeIndex().find(type, style));
+    }
+
+    private List<Shape> selectEditable(Collection<Shape> shapes) {
+        LayerStack layers = repository.getLayers();
+        List<Shape> selected = new ArrayList<>(shapes.size());
+        for (Shape shape : shapes) {
+            if (layers.isEditable(shape.getLayer())) {
+                selected.add(shape);
+            }
+        }
+        if (!selected.isEmpty()) {
+            setSelection(selected);
+        }
+        return selected;
+    }
+
+    public SymbolInstance createSymbolFromSelection(String name) {
+        List<Shape> members = symbolMembers();
+        if (members == null) {
+            return null;
+        }
+        int symbolId = SymbolTable.shared().define(name, members);
+        SymbolInstance instance = new SymbolInstance(symbolId, 0, 0, 1, 1);
+        replaceSelection(instance, topLayer(members), -1);
+        return instance;
+    }
+
+    public List<Shape> editSelectedSymbol() {
+        if (selection.size() != 1 || !(selectedShape instanceof SymbolInstance)) {
+            return Collections.emptyList();
+        }
+        SymbolInstance instance = (SymbolInstance) selectedShape;
+        List<Shape> released = new ArrayList<>();
+        for (Shape shape : instance.getSymbol().getShapes()) {
+            Shape copy = shape.copy();
+            copy.setBounds(instance.getOffsetX() + copy.getX() * instance.getScaleX(),
+                    instance.getOffsetY() + copy.getY() * instance.getScaleY(),
+                    copy.getWidth() * instance.getScaleX(), copy.getHeight() * instance.getScaleY());
+            copy.setLayer(instance.getLayer());
+            released.add(copy);
+        }
+        touchLayers(selection);
+        repository.beginUpdate();
+        try {
+            repository.removeShape(instance);
+            repository.addShapes(released);
+        } finally {
+            repository.endUpdate();
+        }
+        editingSymbolId = instance.getSymbolId();
+        editingOffsetX = instance.getOffsetX();
+        editingOffsetY = instance.getOffsetY();
+        editingScaleX = instance.getScaleX();
+        editingScaleY = instance.getScaleY();
+        setSelection(released);
+        return released;
+    }
+
+    public boolean isEditingSymbol() {
+        return editingSymbolId >= 0;
+    }
+
+    public SymbolInstance finishSymbolEdit() {
+        List<Shape> members = editingSymbolId >= 0 ? symbolMembers() : null;
+        if (members == null) {
+            return null;
+        }
+        List<Shape> local = new ArrayList<>(members.size());
+        for (Shape shape : members) {
+            Shape copy = shape.copy();
+            copy.setBounds((copy.getX() - editingOffsetX) / editingScaleX,
+                    (copy.getY() - editingOffsetY) / editingScaleY,
+                    copy.getWidth() / editingScaleX, copy.getHeight() / editingScaleY);
+            local.add(copy);
         }
+        SymbolTable table = SymbolTable.shared();
+        int symbolId = table.define(table.get(editingSymbolId).getName(), local);
+        SymbolInstance instance = new SymbolInstance(symbolId, editingOffsetX, editingOffsetY,
+                editingScaleX, editingScaleY);
+        replaceSelection(instance, topLayer(members), editingSymbolId);
+        editingSymbolId = -1;
+        invalidateLayers();
+        return instance;
+    }
+
+    private List<Shape> symbolMembers() {
+        if (selection.isEmpty()) {
+            return null;
+        }
+        List<Shape> members = new ArrayList<>(selection);
+        for (Shape shape : members) {
+            if (SymbolTable.containsInstance(shape)) {
+                return null;
+            }
+        }
+        members.sort(Comparator.comparingLong(Shape::getOrder));
+        return repository.getLayers().arrange(members);
+    }
+
+    private void replaceSelection(SymbolInstance instance, int layer, int retargetFrom) {
+        touchLayers(selection);
+        repository.beginUpdate();
+        try {
+            repository.removeShapes(new ArrayList<>(selection));
+            if (retargetFrom >= 0) {
+                List<Shape> retargeted = new ArrayList<>();
+                for (Shape shape : repository.getAllShapes()) {
+                    if (retargetSymbol(shape, retargetFrom, instance.getSymbolId())) {
+                        retargeted.add(shape);
+                    }
+                }
+                repository.updateShapes(retargeted);
+            }
+            instance.setLayer(layer);
+            repository.getLayers().touch(layer);
+            repository.addShape(instance);
+        } finally {
+            repository.endUpdate();
+        }
+        setSelection(Collections.singletonList(instance));
+    }
+
+    private static boolean retargetSymbol(Shape shape, int from, int to) {
+        if (shape instanceof SymbolInstance) {
+            SymbolInstance instance = (SymbolInstance) shape;
+            if (instance.getSymbolId() != from) {
+                return false;
+            }
+            instance.setSymbolId(to);
+            return true;
+        }
+        if (shape instanceof ShapeGroup) {
+            boolean retargeted = false;
+            for (Shape child : ((ShapeGroup) shape).getChildren()) {
+                retargeted |= retargetSymbol(child, from, to);
+            }
+            if (retargeted) {
+                ((ShapeGroup) shape).invalidateBounds();
+            }
+            return retargeted;
+        }
+        return false;
+    }
+
+    private int topLayer(Collection<Shape> shapes) {
+        LayerStack layers = repository.getLayers();
+        int layer = shapes.iterator().next().getLayer();
+        for (Shape shape : shapes) {
+            if (layers.indexOf(shape.getLayer()) > layers.indexOf(layer)) {
+                layer = shape.getLayer();
+            }
+        }
+        return layer;
+    }
+
+    public void restyleSelection(Color strokeColor, Color fillColor) {
+        for (Shape shape : selection) {
+            if (strokeColor != null) {
+                shape.setStrokeColor(strokeColor);
+            }
+            if (fillColor != null) {
+                shape.setFillColor(fillColor);
+            }
+        }
+        repository.updateShapes(selection);
+        touchLayers(selection);
+        requestRedraw();
     }
 
     public Shape getSelectedShape() {
         return selectedShape;
     }
 
+    public List<Shape> getSelectedShapes() {
+        return Collections.unmodifiableList(new ArrayList<>(selection));
+    }
+
+    public boolean hasSelection() {
+        return !selection.isEmpty();
+    }
+
+    public void requestRedraw() {
+        pendingRegion = null;
+        if (!redrawPending) {
+            redrawPending = true;
+            if (!externalFrames) {
+                redrawTimer.start();
+            }
+        }
+    }
+
+    public void requestRedraw(double x, double y, double width, double height) {
+        if (!redrawPending) {
+            pendingRegion = new double[]{x, y, x + width, y + height};
+            redrawPending = true;
+            if (!externalFrames) {
+                redrawTimer.start();
+            }
+        } else if (pendingRegion != null) {
+            pendingRegion[0] = Math.min(pendingRegion[0], x);
+            pendingRegion[1] = Math.min(pendingRegion[1], y);
+            pendingRegion[2] = Math.max(pendingRegion[2], x + width);
+            pendingRegion[3] = Math.max(pendingRegion[3], y + height);
+        }
+    }
+
+    private void drawPending() {
+        double[] region = pendingRegion;
+        if (region == null) {
+            redrawAllShapes();
+        } else {
+            redrawPending = false;
+            pendingRegion = null;
+            redrawRegion(region[0], region[1], region[2] - region[0], region[3] - region[1]);
+        }
+    }
+
+    void useExternalFrames() {
+        externalFrames = true;
+        redrawTimer.stop();
+    }
+
+    public boolean flushRedraw() {
+        if (!redrawPending) {
+            return false;
+        }
+        if (!externalFrames) {
+            redrawTimer.stop();
+        }
+        drawPending();
+        return true;
+    }
+
+    private void drawSelectionOverlay() {
+        if (selection.size() > 1) {
+            gc.setStroke(Color.RED);
+            gc.setLineWidth(1 / scale);
+            for (Shape shape : selection) {
+                gc.strokeRect(shape.getX(), shape.getY(), shape.getWidth(), shape.getHeight());
+            }
+            getSelectionFrame().drawSelection(gc);
+        }
+        if (marqueeActive) {
+            double x = Math.min(marqueeStartX, marqueeEndX);
+            double y = Math.min(marqueeStartY, marqueeEndY);
+            double width = Math.abs(marqueeEndX - marqueeStartX);
+            double height = Math.abs(marqueeEndY - marqueeStartY);
+            gc.setFill(MARQUEE_FILL);
+            gc.fillRect(x, y, width, height);
+            gc.setStroke(Color.DODGERBLUE);
+            gc.setLineWidth(1 / scale);
+            gc.setLineDashes(4 / scale);
+            gc.strokeRect(x, y, width, height);
+            gc.setLineDashes(null);
+        }
+    }
+
     public Shape.ResizeType getCurrentResizeType() {
         return currentResizeType;
     }
@@ -263,11 +1163,234 @@ public class DrawingCanvas {
     public double getScale() {
         return scale;
     }
-    public double getVirtualWidth() {
-        return virtualWidth;
+
+    public double[] getMarqueeRegion() {
+        return lastMarquee == null ? null : lastMarquee.clone();
+    }
+
+    public double[] getSelectionRegion() {
+        return boundsWithMargin(selection);
+    }
+
+    public double[] getDocumentRegion() {
+        double[] region = boundsWithMargin(repository.getAllShapes());
+        return region == null ? getVisibleRegion() : region;
+    }
+
+    private static double[] boundsWithMargin(Collection<Shape> shapes) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (Shape shape : shapes) {
+            minX = Math.min(minX, shape.getX());
+            minY = Math.min(minY, shape.getY());
+            maxX = Math.max(maxX, shape.getX() + shape.getWidth());
+            maxY = Math.max(maxY, shape.getY() + shape.getHeight());
+        }
+        if (minX > maxX) {
+            return null;
+        }
+        double margin = EXPORT_MARGIN;
+        return new double[]{minX - margin, minY - margin, maxX - minX + margin * 2, maxY - minY + margin * 2};
+    }
+
+    private static final class LayerCache {
+        WritableImage image;
+        long revision = -1;
+        double scale, translateX, translateY;
+
+        boolean matches(long revision, double scale, double translateX, double translateY, int width, int height) {
+            return this.revision == revision && matchesView(scale, translateX, translateY, width, height);
+        }
+
+        boolean matchesView(double scale, double translateX, double translateY, int width, int height) {
+            return image != null && this.scale == scale
+                    && this.translateX == translateX && this.translateY == translateY
+                    && image.getWidth() == width && image.getHeight() == height;
+        }
     }
 
-    public double getVirtualHeight() {
-        return virtualHeight;
+    private final class RenderJob {
+        private final double[] region = getVisibleRegion();
+        private final int width = (int) Math.ceil(canvas.getWidth());
+        private final int height = (int) Math.ceil(canvas.getHeight());
+        private final LayerStack layers = repository.getLayers();
+        private final boolean layered = layers.size() > 1;
+        private List<Shape> shapes;
+        private List<Shape> overlayShapes;
+        private int next;
+        private boolean started;
+        private List<LayerStack.Layer> queue;
+        private Map<Integer, List<Shape>> shapesByLayer;
+        private LayerStack.Layer currentLayer;
+        private long currentRevision;
+
+        boolean renderShapes(long deadline) {
+            if (frameCanvas == null || frameCanvas.getWidth() != width || frameCanvas.getHeight() != height) {
+                frameCanvas = new Canvas(width, height);
+            }
+            GraphicsContext frameGc = frameCanvas.getGraphicsContext2D();
+            frameGc.save();
+            if (!started) {
+                started = true;
+                frameGc.setFill(Color.WHITE);
+                frameGc.fillRect(0, 0, width, height);
+                frameGc.translate(translateX, translateY);
+                frameGc.scale(scale, scale);
+                drawGrid(frameGc);
+                if (rasterLayer != null) {
+                    rasterLayer.draw(frameGc, region[0], region[1], region[2], region[3]);
+                }
+                shapes = layers.getLayers().get(0).isVisible()
+                        ? repository.findShapesInRegion(region[0], region[1], region[2], region[3])
+                        : Collections.emptyList();
+            } else {
+                frameGc.translate(translateX, translateY);
+                frameGc.scale(scale, scale);
+            }
+            while (next < shapes.size()) {
+                shapes.get(next++).drawVisible(frameGc, region[0], region[1], region[2], region[3]);
+                if (System.nanoTime() >= deadline) {
+                    break;
+                }
+            }
+            frameGc.restore();
+            if (next < shapes.size()) {
+                if (overlayShapes == null && overlayGc != null) {
+                    overlayShapes = new ArrayList<>();
+                    for (int i = 0; i < shapes.size(); i++) {
+                        Shape shape = shapes.get(i);
+                        if (i >= shapes.size() - OVERLAY_SHAPES || selection.contains(shape)) {
+                            overlayShapes.add(shape);
+                        }
+                    }
+                    drawOverlay();
+                }
+                return false;
+            }
+            if (frameImage == null || frameImage.getWidth() != width || frameImage.getHeight() != height) {
+                frameImage = new WritableImage(width, height);
+            }
+            frameCanvas.snapshot(null, frameImage);
+            gc.drawImage(frameImage, 0, 0);
+            return true;
+        }
+
+        void drawOverlayShapes() {
+            overlayGc.save();
+            overlayGc.translate(translateX, translateY);
+            overlayGc.scale(scale, scale);
+            for (Shape shape : overlayShapes) {
+                shape.drawVisible(overlayGc, region[0], region[1], region[2], region[3]);
+            }
+            overlayGc.restore();
+        }
+
+        boolean renderLayers(long deadline) {
+            if (!started) {
+                started = true;
+                queue = new ArrayList<>();
+                Set<Integer> selectedLayers = new LinkedHashSet<>();
+                for (Shape shape : selection) {
+                    selectedLayers.add(layers.resolve(shape.getLayer()).getId());
+                }
+                for (int i = layers.size() - 1; i >= 0; i--) {
+                    LayerStack.Layer layer = layers.getLayers().get(i);
+                    if (layer.isVisible() && selectedLayers.contains(layer.getId())) {
+                        queue.add(layer);
+                    }
+                }
+                for (int i = layers.size() - 1; i >= 0; i--) {
+                    LayerStack.Layer layer = layers.getLayers().get(i);
+                    if (layer.isVisible() && !selectedLayers.contains(layer.getId())) {
+                        queue.add(layer);
+                    }
+                }
+            }
+            while (currentLayer != null || !queue.isEmpty()) {
+                if (currentLayer == null && !beginLayer(queue.remove(0))) {
+                    continue;
+                }
+                GraphicsContext layerGc = layerCanvas.getGraphicsContext2D();
+                List<Shape> layerShapes = shapesByLayer.getOrDefault(currentLayer.getId(), Collections.emptyList());
+                while (next < layerShapes.size() && System.nanoTime() < deadline) {
+                    layerShapes.get(next++).drawVisible(layerGc, region[0], region[1], region[2], region[3]);
+                }
+                if (next < layerShapes.size()) {
+                    break;
+                }
+                layerGc.restore();
+                LayerCache cache = layerCaches.get(currentLayer.getId());
+                if (cache.image == null || cache.image.getWidth() != width || cache.image.getHeight() != height) {
+                    cache.image = new WritableImage(width, height);
+                }
+                layerCanvas.snapshot(layerSnapshot, cache.image);
+                cache.revision = currentRevision;
+                cache.scale = scale;
+                cache.translateX = translateX;
+                cache.translateY = translateY;
+                currentLayer = null;
+                if (System.nanoTime() >= deadline) {
+                    break;
+                }
+            }
+            compose();
+            return currentLayer == null && queue.isEmpty();
+        }
+
+        private boolean beginLayer(LayerStack.Layer layer) {
+            LayerCache cache = layerCaches.get(layer.getId());
+            if (cache == null) {
+                cache = new LayerCache();
+                layerCaches.put(layer.getId(), cache);
+            }
+            if (cache.matches(layer.getRevision(), scale, translateX, translateY, width, height)) {
+                return false;
+            }
+            if (shapesByLayer == null) {
+                shapesByLayer = new HashMap<>();
+                for (Shape shape : repository.findShapesInRegion(region[0], region[1], region[2], region[3])) {
+                    shapesByLayer.computeIfAbsent(layers.resolve(shape.getLayer()).getId(),
+                            id -> new ArrayList<>()).add(shape);
+                }
+            }
+            if (layerCanvas == null || layerCanvas.getWidth() != width || layerCanvas.getHeight() != height) {
+                layerCanvas = new Canvas(width, height);
+            }
+            if (layerSnapshot == null) {
+                layerSnapshot = new SnapshotParameters();
+                layerSnapshot.setFill(Color.TRANSPARENT);
+            }
+            GraphicsContext layerGc = layerCanvas.getGraphicsContext2D();
+            layerGc.clearRect(0, 0, width, height);
+            layerGc.save();
+            layerGc.translate(translateX, translateY);
+            layerGc.scale(scale, scale);
+            currentLayer = layer;
+            currentRevision = layer.getRevision();
+            next = 0;
+            return true;
+        }
+
+        private void compose() {
+            clearCanvas();
+            gc.save();
+            gc.translate(translateX, translateY);
+            gc.scale(scale, scale);
+            drawGrid(gc);
+            if (rasterLayer != null) {
+                rasterLayer.draw(gc, region[0], region[1], region[2], region[3]);
+            }
+            gc.setTransform(1, 0, 0, 1, 0, 0);
+            for (LayerStack.Layer layer : layers.getLayers()) {
+                LayerCache cache = layerCaches.get(layer.getId());
+                if (layer.isVisible() && cache != null && cache.matchesView(scale, translateX, translateY, width, height)) {
+                    gc.drawImage(cache.image, 0, 0);
+                }
+            }
+            gc.restore();
+            if (layerCaches.size() > layers.size()) {
+                layerCaches.keySet().removeIf(id -> layers.get(id) == null);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,360 @@
+package com.example.paintoop;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class ExportEffects {
+    public enum Effect {
+        BLUR("Размытие"),
+        SHARPEN("Резкость"),
+        DROP_SHADOW("Тень"),
+        GRAYSCALE("Оттенки серого"),
+        THUMBNAIL("Миниатюра");
+
+        private final String title;
+
+        Effect(String title) {
+            this.title = title;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+    }
+
+    private static final double BLUR_SIGMA = 3;
+    private static final double SHARPEN_SIGMA = 1;
+    private static final int SHARPEN_AMOUNT = 256;
+    private static final double SHADOW_SIGMA = 4;
+    private static final int SHADOW_OFFSET = 6;
+    private static final int SHADOW_ALPHA = 128;
+    private static final int THUMBNAIL_SIZE = 512;
+    private static final int MIN_BAND_ROWS = 16;
+
+    private final ForkJoinPool pool;
+
+    public ExportEffects() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ExportEffects(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public Buffer apply(Buffer image, List<Effect> effects) {
+        Buffer result = image;
+        for (Effect effect : effects) {
+            switch (effect) {
+                case BLUR:
+                    result = blur(result, BLUR_SIGMA);
+                    break;
+                case SHARPEN:
+                    result = sharpen(result);
+                    break;
+                case DROP_SHADOW:
+                    result = dropShadow(result);
+                    break;
+                case GRAYSCALE:
+                    result = grayscale(result);
+                    break;
+                case THUMBNAIL:
+                    result = downscale(result, THUMBNAIL_SIZE);
+                    break;
+            }
+        }
+        return result;
+    }
+
+    public Buffer blur(Buffer image, double sigma) {
+        int[] kernel = gaussianKernel(sigma);
+        int width = image.width, height = image.height;
+        int[] source = image.pixels;
+        int[] horizontal = new int[source.length];
+        int[] target = new int[source.length];
+        forRows(height, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                convolveRow(source, horizontal, y * width, width, kernel);
+            }
+        });
+        forRows(height, (from, to) -> {
+            int[] sums = new int[width * 4];
+            for (int y = from; y < to; y++) {
+                convolveColumnRow(horizontal, target, y, width, height, kernel, sums);
+            }
+        });
+        return new Buffer(target, width, height);
+    }
+
+    public Buffer sharpen(Buffer image) {
+        Buffer blurred = blur(image, SHARPEN_SIGMA);
+        int[] source = image.pixels;
+        int[] soft = blurred.pixels;
+        int width = image.width;
+        forRows(image.height, (from, to) -> {
+            for (int i = from * width; i < to * width; i++) {
+                int original = source[i];
+                int smooth = soft[i];
+                int a = original >>> 24;
+                int r = sharpenChannel((original >> 16) & 0xff, (smooth >> 16) & 0xff, a);
+                int g = sharpenChannel((original >> 8) & 0xff, (smooth >> 8) & 0xff, a);
+                int b = sharpenChannel(original & 0xff, smooth & 0xff, a);
+                soft[i] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        });
+        return blurred;
+    }
+
+    private static int sharpenChannel(int original, int smooth, int limit) {
+        int value = original + (((original - smooth) * SHARPEN_AMOUNT) >> 8);
+        return value < 0 ? 0 : Math.min(value, limit);
+    }
+
+    public Buffer dropShadow(Buffer image) {
+        int width = image.width, height = image.height;
+        int[] source = image.pixels;
+        int[] shadow = new int[source.length];
+        forRows(height, (from, to) -> {
+            for (int y = Math.max(from, SHADOW_OFFSET); y < to; y++) {
+                int sourceRow = (y - SHADOW_OFFSET) * width - SHADOW_OFFSET;
+                int targetRow = y * width;
+                for (int x = SHADOW_OFFSET; x < width; x++) {
+                    shadow[targetRow + x] = ((source[sourceRow + x] >>> 24) * SHADOW_ALPHA / 255) << 24;
+                }
+            }
+        });
+        int[] blurred = blur(new Buffer(shadow, width, height), SHADOW_SIGMA).pixels;
+        forRows(height, (from, to) -> {
+            for (int i = from * width; i < to * width; i++) {
+                blurred[i] = over(source[i], blurred[i]);
+            }
+        });
+        return new Buffer(blurred, width, height);
+    }
+
+    public Buffer grayscale(Buffer image) {
+        int[] source = image.pixels;
+        int[] target = new int[source.length];
+        int width = image.width;
+        forRows(image.height, (from, to) -> {
+            for (int i = from * width; i < to * width; i++) {
+                int argb = source[i];
+                int luma = (((argb >> 16) & 0xff) * 77 + ((argb >> 8) & 0xff) * 150 + (argb & 0xff) * 29) >> 8;
+                target[i] = (argb & 0xff000000) | (luma << 16) | (luma << 8) | luma;
+            }
+        });
+        return new Buffer(target, width, image.height);
+    }
+
+    public Buffer downscale(Buffer image, int maxSize) {
+        int width = image.width, height = image.height;
+        double factor = Math.max(width, height) / (double) maxSize;
+        if (factor <= 1) {
+            return image;
+        }
+        int targetWidth = Math.max(1, (int) Math.round(width / factor));
+        int targetHeight = Math.max(1, (int) Math.round(height / factor));
+        double scaleX = width / (double) targetWidth;
+        double scaleY = height / (double) targetHeight;
+        int[] source = image.pixels;
+        int[] horizontal = new int[targetWidth * height];
+        int[] target = new int[targetWidth * targetHeight];
+        forRows(height, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                resample(source, y * width, 1, width, horizontal, y * targetWidth, 1, targetWidth, scaleX);
+            }
+        });
+        forRows(targetWidth, (from, to) -> {
+            for (int x = from; x < to; x++) {
+                resample(horizontal, x, targetWidth, height, target, x, targetWidth, targetHeight, scaleY);
+            }
+        });
+        return new Buffer(target, targetWidth, targetHeight);
+    }
+
+    public Buffer flatten(Buffer image, int rgb) {
+        int[] pixels = image.pixels;
+        int width = image.width;
+        int backgroundR = (rgb >> 16) & 0xff, backgroundG = (rgb >> 8) & 0xff, backgroundB = rgb & 0xff;
+        forRows(image.height, (from, to) -> {
+            for (int i = from * width; i < to * width; i++) {
+                int argb = pixels[i];
+                int inverse = 255 - (argb >>> 24);
+                int r = ((argb >> 16) & 0xff) + backgroundR * inverse / 255;
+                int g = ((argb >> 8) & 0xff) + backgroundG * inverse / 255;
+                int b = (argb & 0xff) + backgroundB * inverse / 255;
+                pixels[i] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        });
+        return image;
+    }
+
+    private static int over(int top, int bottom) {
+        int inverse = 255 - (top >>> 24);
+        if (inverse == 0) {
+            return top;
+        }
+        int a = (top >>> 24) + (bottom >>> 24) * inverse / 255;
+        int r = ((top >> 16) & 0xff) + ((bottom >> 16) & 0xff) * inverse / 255;
+        int g = ((top >> 8) & 0xff) + ((bottom >> 8) & 0xff) * inverse / 255;
+        int b = (top & 0xff) + (bottom & 0xff) * inverse / 255;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private static void convolveRow(int[] source, int[] target, int rowStart, int width, int[] kernel) {
+        int radius = kernel.length / 2;
+        int last = rowStart + width - 1;
+        for (int x = 0; x < width; x++) {
+            int a = 0, r = 0, g = 0, b = 0;
+            int first = rowStart + x - radius;
+            if (x >= radius && x + radius < width) {
+                for (int k = 0; k < kernel.length; k++) {
+                    int argb = source[first + k];
+                    int weight = kernel[k];
+                    a += (argb >>> 24) * weight;
+                    r += ((argb >> 16) & 0xff) * weight;
+                    g += ((argb >> 8) & 0xff) * weight;
+                    b += (argb & 0xff) * weight;
+                }
+            } else {
+                for (int k = 0; k < kernel.length; k++) {
+                    int argb = source[Math.max(rowStart, Math.min(last, first + k))];
+                    int weight = kernel[k];
+                    a += (argb >>> 24) * weight;
+                    r += ((argb >> 16) & 0xff) * weight;
+                    g += ((argb >> 8) & 0xff) * weight;
+                    b += (argb & 0xff) * weight;
+                }
+            }
+            target[rowStart + x] = pack(a, r, g, b);
+        }
+    }
+
+    private static void convolveColumnRow(int[] source, int[] target, int y, int width, int height, int[] kernel,
+                                          int[] sums) {
+        int radius = kernel.length / 2;
+        Arrays.fill(sums, 0);
+        for (int k = 0; k < kernel.length; k++) {
+            int sourceRow = Math.max(0, Math.min(height - 1, y + k - radius)) * width;
+            int weight = kernel[k];
+            for (int x = 0, s = 0; x < width; x++, s += 4) {
+                int argb = source[sourceRow + x];
+                sums[s] += (argb >>> 24) * weight;
+                sums[s + 1] += ((argb >> 16) & 0xff) * weight;
+                sums[s + 2] += ((argb >> 8) & 0xff) * weight;
+                sums[s + 3] += (argb & 0xff) * weight;
+            }
+        }
+        int rowStart = y * width;
+        for (int x = 0, s = 0; x < width; x++, s += 4) {
+            target[rowStart + x] = pack(sums[s], sums[s + 1], sums[s + 2], sums[s + 3]);
+        }
+    }
+
+    private static int pack(int a, int r, int g, int b) {
+        int alpha = (a + 32768) >> 16;
+        return (alpha << 24) | (Math.min(alpha, (r + 32768) >> 16) << 16)
+                | (Math.min(alpha, (g + 32768) >> 16) << 8) | Math.min(alpha, (b + 32768) >> 16);
+    }
+
+    private static void resample(int[] source, int sourceStart, int sourceStride, int sourceLength,
+                                 int[] target, int targetStart, int targetStride, int targetLength, double scale) {
+        for (int i = 0; i < targetLength; i++) {
+            double start = i * scale;
+            double end = start + scale;
+            double a = 0, r = 0, g = 0, b = 0;
+            for (int s = (int) start; s < end && s < sourceLength; s++) {
+                double weight = Math.min(end, s + 1) - Math.max(start, s);
+                int argb = source[sourceStart + s * sourceStride];
+                a += (argb >>> 24) * weight;
+                r += ((argb >> 16) & 0xff) * weight;
+                g += ((argb >> 8) & 0xff) * weight;
+                b += (argb & 0xff) * weight;
+            }
+            int alpha = Math.min(255, (int) Math.round(a / scale));
+            target[targetStart + i * targetStride] = (alpha << 24)
+                    | (Math.min(alpha, (int) Math.round(r / scale)) << 16)
+                    | (Math.min(alpha, (int) Math.round(g / scale)) << 8)
+                    | Math.min(alpha, (int) Math.round(b / scale));
+        }
+    }
+
+    static int[] gaussianKernel(double sigma) {
+        int radius = Math.max(1, (int) Math.ceil(sigma * 3));
+        double[] weights = new double[radius * 2 + 1];
+        double sum = 0;
+        for (int i = -radius; i <= radius; i++) {
+            weights[i + radius] = Math.exp(-(i * i) / (2 * sigma * sigma));
+            sum += weights[i + radius];
+        }
+        int[] kernel = new int[weights.length];
+        int total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            kernel[i] = (int) Math.round(weights[i] / sum * 65536);
+            total += kernel[i];
+        }
+        kernel[radius] += 65536 - total;
+        return kernel;
+    }
+
+    private void forRows(int rows, RowRange range) {
+        int bandRows = Math.max(MIN_BAND_ROWS, rows / (pool.getParallelism() * 4));
+        pool.invoke(new Band(range, 0, rows, bandRows));
+    }
+
+    private interface RowRange {
+        void process(int from, int to);
+    }
+
+    private static final class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient RowRange range;
+        private final int from, to, bandRows;
+
+        Band(RowRange range, int from, int to, int bandRows) {
+            this.range = range;
+            this.from = from;
+            this.to = to;
+            this.bandRows = bandRows;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= bandRows) {
+                range.process(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Band(range, from, middle, bandRows), new Band(range, middle, to, bandRows));
+        }
+    }
+
+    public static final class Buffer {
+        final int[] pixels;
+        final int width;
+        final int height;
+
+        public Buffer(int[] pixels, int width, int height) {
+            if (pixels.length != width * height) {
+                throw new IllegalArgumentException("Buffer size does not match " + width + "x" + height);
+            }
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+        }
+
+        public int[] getPixels() {
+            return pixels;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
+}
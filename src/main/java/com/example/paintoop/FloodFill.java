@@ -0,0 +1,86 @@
+package com.example.paintoop;
+
+import java.util.Arrays;
+
+public final class FloodFill {
+    private FloodFill() {
+    }
+
+    public static int fill(int[] pixels, int width, int height, int seedX, int seedY, int tolerance,
+                           boolean[] mask, int[] bounds) {
+        if (seedX < 0 || seedY < 0 || seedX >= width || seedY >= height) {
+            return 0;
+        }
+        int seed = pixels[seedY * width + seedX];
+        int seedA = seed >>> 24, seedR = (seed >> 16) & 0xff, seedG = (seed >> 8) & 0xff, seedB = seed & 0xff;
+        int minX = seedX, minY = seedY, maxX = seedX, maxY = seedY;
+        int filled = 0;
+
+        int[] stack = new int[256];
+        int top = 0;
+        stack[top++] = seedY * width + seedX;
+        while (top > 0) {
+            int index = stack[--top];
+            if (mask[index]) {
+                continue;
+            }
+            int y = index / width;
+            int rowStart = y * width;
+            int left = index, right = index;
+            while (left > rowStart && !mask[left - 1]
+                    && matches(pixels[left - 1], seedA, seedR, seedG, seedB, tolerance)) {
+                left--;
+            }
+            while (right < rowStart + width - 1 && !mask[right + 1]
+                    && matches(pixels[right + 1], seedA, seedR, seedG, seedB, tolerance)) {
+                right++;
+            }
+            for (int i = left; i <= right; i++) {
+                mask[i] = true;
+            }
+            filled += right - left + 1;
+            minX = Math.min(minX, left - rowStart);
+            maxX = Math.max(maxX, right - rowStart);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+
+            for (int neighbour = -1; neighbour <= 1; neighbour += 2) {
+                int ny = y + neighbour;
+                if (ny < 0 || ny >= height) {
+                    continue;
+                }
+                int offset = neighbour * width;
+                boolean inSpan = false;
+                for (int i = left; i <= right; i++) {
+                    int candidate = i + offset;
+                    if (!mask[candidate] && matches(pixels[candidate], seedA, seedR, seedG, seedB, tolerance)) {
+                        if (!inSpan) {
+                            if (top == stack.length) {
+                                stack = Arrays.copyOf(stack, stack.length * 2);
+                            }
+                            stack[top++] = candidate;
+                            inSpan = true;
+                        }
+                    } else {
+                        inSpan = false;
+                    }
+                }
+            }
+        }
+        bounds[0] = minX;
+        bounds[1] = minY;
+        bounds[2] = maxX;
+        bounds[3] = maxY;
+        return filled;
+    }
+
+    private static boolean matches(int argb, int a, int r, int g, int b, int tolerance) {
+        if (argb == (a << 24 | r << 16 | g << 8 | b)) {
+            return true;
+        }
+        return Math.abs((argb >>> 24) - a) <= tolerance
+                && Math.abs(((argb >> 16) & 0xff) - r) <= tolerance
+                && Math.abs(((argb >> 8) & 0xff) - g) <= tolerance
+                && Math.abs((argb & 0xff) - b) <= tolerance;
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.paintoop;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
@@ -9,8 +10,10 @@ import java.io.IOException;
 public class HelloApplication extends Application {
     @Override
     public void start(Stage stage) throws IOException {
+        StartupTimer.mark("fx-start");
         FXMLLoader fxmlLoader = new FXMLLoader(HelloApplication.class.getResource("hello-view.fxml"));
         Scene scene = new Scene(fxmlLoader.load(), 1280, 720);
+        StartupTimer.mark("fxml-loaded");
 
         HelloController controller = fxmlLoader.getController();
         controller.setPrimaryStage(stage);
@@ -19,5 +22,13 @@ public class HelloApplication extends Application {
         stage.setTitle("PaintOOP");
         stage.setScene(scene);
         stage.show();
+        StartupTimer.mark("window-shown");
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                StartupTimer.mark("first-frame");
+            }
+        }.start();
     }
 }
\ No newline at end of file
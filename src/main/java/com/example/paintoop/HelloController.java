@@ -1,19 +1,31 @@
 package com.example.paintoop;
 
+import javafx.application.Platform;
+import javafx.event.EventType;
 import javafx.fxml.FXML;
 import javafx.scene.Cursor;
+import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ColorPicker;
+import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
+import javafx.scene.control.RadioButton;
+import javafx.scene.control.TextInputDialog;
+import javafx.scene.control.ToggleGroup;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
+import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
@@ -23,6 +35,9 @@ import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 public class HelloController {
@@ -33,8 +48,12 @@ public class HelloController {
     @FXML
     private Canvas canvas;
     @FXML
+    private Canvas overlayCanvas;
+    @FXML
     private ListView<String> toolsListView;
     @FXML
+    private ListView<String> layersListView;
+    @FXML
     private Button outlineNoneButton;
     @FXML
     private Button outlineSolidButton;
@@ -47,13 +66,15 @@ public class HelloController {
     @FXML
     private ColorPicker fillColorPicker;
 
-    private Repository repository = new LocalRepository();
+    private final Repository repository;
     private DrawingCanvas drawingCanvas;
     private double startX, startY;
     private boolean isDrawing = false;
     private boolean isMoving = false;
     private boolean isResizing = false;
     private boolean isPanning = false;
+    private boolean isSelectingArea = false;
+    private boolean transformRecorded = false;
     private String currentTool = "select";
     private Shape previewShape;
 
@@ -63,8 +84,36 @@ public class HelloController {
     private Color fillColor = Color.BLUE;
     private double panStartX, panStartY;
 
+    private static final double MAX_IMAGE_SIZE = 8192;
+    private static final int MAX_FILL_SIZE = 4096;
+    private static final int FILL_TOLERANCE = 32;
+    private static final int MAX_BRUSH_RADIUS = 200;
+    private static final double BRUSH_HARDNESS = 0.4;
+    private static final long PREVIEW_IDLE_DELAY = 150;
+    private static final double TEXT_SIZE = 16;
+    private static final boolean PREVIEW_SMOOTHING = false;
+    private int brushRadius = 12;
+    private RasterBrush activeBrush;
+
     private Stage primaryStage;
     private boolean hasUnsavedChanges = false;
+    private InputRecorder recorder;
+    private boolean updatingLayers = false;
+
+    public HelloController() {
+        repository = createRepository();
+    }
+
+    HelloController(Repository repository, Canvas canvas, Canvas overlayCanvas) {
+        this.repository = repository;
+        this.canvas = canvas;
+        this.overlayCanvas = overlayCanvas;
+        drawingCanvas = new DrawingCanvas(canvas, overlayCanvas, repository);
+        repository.setChangeListener(drawingCanvas::invalidateLayers);
+        if (repository instanceof LocalRepository) {
+            drawingCanvas.setRasterLayer(((LocalRepository) repository).getRasterLayer());
+        }
+    }
 
     public void setPrimaryStage(Stage stage) {
         this.primaryStage = stage;
@@ -74,6 +123,7 @@ public class HelloController {
     private void setupCloseHandler() {
         if (primaryStage != null) {
             primaryStage.setOnCloseRequest(this::handleCloseRequest);
+            primaryStage.setOnHidden(e -> stopRecording());
         }
     }
 
@@ -120,28 +170,51 @@ public class HelloController {
         FileChooser.ExtensionFilter pngFilter = new FileChooser.ExtensionFilter("PNG files (*.png)", "*.png");
         FileChooser.ExtensionFilter jpgFilter = new FileChooser.ExtensionFilter("JPEG files (*.jpg)", "*.jpg");
         FileChooser.ExtensionFilter jsonFilter = new FileChooser.ExtensionFilter("JSON files (*.json)", "*.json");
+        FileChooser.ExtensionFilter svgFilter = new FileChooser.ExtensionFilter("SVG files (*.svg)", "*.svg");
+        FileChooser.ExtensionFilter pdfFilter = new FileChooser.ExtensionFilter("PDF files (*.pdf)", "*.pdf");
 
-        fileChooser.getExtensionFilters().addAll(pngFilter,jpgFilter,jsonFilter);
+        fileChooser.getExtensionFilters().addAll(pngFilter,jpgFilter,jsonFilter,svgFilter,pdfFilter);
         fileChooser.setSelectedExtensionFilter(pngFilter);
 
         File file = fileChooser.showSaveDialog(primaryStage);
 
         if (file != null) {
+            VectorExporter.Format vectorFormat = VectorExporter.formatFor(getFileExtension(file));
+            if (vectorFormat != null) {
+                return exportVector(file, vectorFormat);
+            }
+            double[] region = chooseExportRegion();
+            if (region == null) {
+                return false;
+            }
             try {
-                double virtualWidth = drawingCanvas.getVirtualWidth();
-                double virtualHeight = drawingCanvas.getVirtualHeight();
+                double imageScale = Math.min(1, MAX_IMAGE_SIZE / Math.max(region[2], region[3]));
+                double imageWidth = Math.ceil(region[2] * imageScale);
+                double imageHeight = Math.ceil(region[3] * imageScale);
+
+                List<ExportEffects.Effect> effects = chooseExportEffects();
+                if (effects == null) {
+                    return false;
+                }
 
-                Canvas tempCanvas = new Canvas(virtualWidth, virtualHeight);
+                Canvas tempCanvas = new Canvas(imageWidth, imageHeight);
                 GraphicsContext imageGC = tempCanvas.getGraphicsContext2D();
 
-                imageGC.setFill(Color.WHITE);
-                imageGC.fillRect(0, 0, virtualWidth, virtualHeight);
+                imageGC.scale(imageScale, imageScale);
+                imageGC.translate(-region[0], -region[1]);
 
-                for (Shape shape : repository.getAllShapes()) {
+                if (repository instanceof LocalRepository) {
+                    ((LocalRepository) repository).getRasterLayer().draw(imageGC,
+                            region[0], region[1], region[2], region[3]);
+                }
+                for (Shape shape : repository.getLayers().arrange(
+                        repository.loadRegion(region[0], region[1], region[2], region[3]))) {
                     shape.draw(imageGC);
                 }
 
-                WritableImage writableImage = tempCanvas.snapshot(null, null);
+                SnapshotParameters parameters = new SnapshotParameters();
+                parameters.setFill(Color.TRANSPARENT);
+                WritableImage writableImage = tempCanvas.snapshot(parameters, null);
 
                 String extension = getFileExtension(file);
                 if (extension == null) {
@@ -149,7 +222,7 @@ public class HelloController {
                     file = new File(file.getAbsolutePath() + extension);
                 }
 
-                BufferedImage bufferedImage = convertToBufferedImage(writableImage);
+                BufferedImage bufferedImage = convertToBufferedImage(writableImage, effects);
                 String format = extension.equals(".jpg") || extension.equals(".jpeg") ? "JPEG" : "PNG";
 
                 ImageIO.write(bufferedImage, format, file);
@@ -162,22 +235,215 @@ public class HelloController {
         return false;
     }
 
-    private BufferedImage convertToBufferedImage(WritableImage writableImage) {
-        int width = (int) writableImage.getWidth();
-        int height = (int) writableImage.getHeight();
-        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    private boolean exportVector(File file, VectorExporter.Format format) {
+        double[] region = chooseExportRegion();
+        if (region == null) {
+            return false;
+        }
+        VectorExporter exporter = new VectorExporter(
+                repository.getLayers().arrange(
+                        repository.loadRegion(region[0], region[1], region[2], region[3])), file, format,
+                region[0], region[1], region[2], region[3]);
+        boolean exported = TaskProgressDialog.runAndWait(primaryStage, "Экспорт " + format, exporter);
+        if (exported && exporter.getSubstitutedCharacters() > 0) {
+            showStatus("Экспортировано фигур: " + exporter.getValue() + ". Нет шрифта для "
+                    + exporter.getSubstitutedCharacters() + " символов, они заменены на \"?\"");
+        } else if (exported) {
+            showStatus("Экспортировано фигур: " + exporter.getValue());
+        } else if (exporter.getException() != null) {
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Экспорт");
+            alert.setHeaderText("Не удалось экспортировать файл");
+            alert.setContentText(exporter.getException().getMessage());
+            alert.showAndWait();
+        } else {
+            showStatus("Экспорт отменен");
+        }
+        return exported;
+    }
+
+    private void importSvg() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Импорт SVG");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("SVG files (*.svg)", "*.svg"));
+        File file = fileChooser.showOpenDialog(primaryStage);
+        if (file == null) {
+            return;
+        }
 
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                Color color = writableImage.getPixelReader().getColor(x, y);
-                int argb = (int) (color.getOpacity() * 255) << 24 | (int) (color.getRed() * 255) << 16 | (int) (color.getGreen() * 255) << 8 | (int) (color.getBlue() * 255);
-                bufferedImage.setRGB(x, y, argb);
+        drawingCanvas.clearSelection();
+        repository.beginUpdate();
+        SvgImporter importer = new SvgImporter(file, repository::addShapes, shapes -> {
+            repository.updateShapes(shapes);
+            drawingCanvas.invalidateLayers();
+        });
+        boolean imported;
+        try {
+            imported = TaskProgressDialog.runAndWait(primaryStage, "Импорт SVG", importer);
+        } finally {
+            repository.endUpdate();
+        }
+
+        if (imported) {
+            showStatus("Импортировано фигур: " + importer.getValue());
+            markUnsavedChanges();
+        } else {
+            if (importer.getBatchesApplied() > 0) {
+                repository.undo();
+            }
+            if (importer.getException() != null) {
+                Alert alert = new Alert(Alert.AlertType.ERROR);
+                alert.setTitle("Импорт");
+                alert.setHeaderText("Не удалось импортировать файл");
+                alert.setContentText(importer.getException().getMessage());
+                alert.showAndWait();
+            } else {
+                showStatus("Импорт отменен");
             }
         }
+        drawingCanvas.invalidateLayers();
+        drawingCanvas.redrawAllShapes();
+    }
+
+    private void openDocument() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Открыть документ");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("JSON files (*.json)", "*.json"));
+        File file = fileChooser.showOpenDialog(primaryStage);
+        if (file == null) {
+            return;
+        }
+
+        drawingCanvas.clearSelection();
+        repository.beginUpdate();
+        DocumentLoader loader = new DocumentLoader(file, batch -> {
+            repository.addShapes(repository instanceof LocalRepository ? batch : SymbolTable.expandInstances(batch));
+            drawingCanvas.requestRedraw();
+        });
+        boolean loaded;
+        try {
+            repository.clear();
+            loaded = TaskProgressDialog.runAndWait(primaryStage, "Открытие документа", loader);
+        } finally {
+            repository.endUpdate();
+        }
+
+        if (loaded) {
+            showStatus(loader.getSkippedCount() == 0 ? "Загружено фигур: " + loader.getValue()
+                    : "Загружено фигур: " + loader.getValue() + ", пропущено записей: " + loader.getSkippedCount());
+            markUnsavedChanges();
+            if (loader.getSkippedCount() > 0) {
+                Alert alert = new Alert(Alert.AlertType.WARNING);
+                alert.setTitle("Открытие документа");
+                alert.setHeaderText("Пропущено поврежденных записей: " + loader.getSkippedCount());
+                alert.setContentText(String.join("\n", loader.getErrors().subList(0,
+                        Math.min(10, loader.getErrors().size()))));
+                alert.showAndWait();
+            }
+        } else {
+            repository.undo();
+            if (loader.getException() != null) {
+                Alert alert = new Alert(Alert.AlertType.ERROR);
+                alert.setTitle("Открытие документа");
+                alert.setHeaderText("Не удалось открыть документ");
+                alert.setContentText(loader.getException().getMessage());
+                alert.showAndWait();
+            } else {
+                showStatus("Открытие отменено");
+            }
+        }
+        drawingCanvas.invalidateLayers();
+        drawingCanvas.redrawAllShapes();
+    }
+
+    private BufferedImage convertToBufferedImage(WritableImage writableImage, List<ExportEffects.Effect> effects) {
+        int width = (int) writableImage.getWidth();
+        int height = (int) writableImage.getHeight();
+        int[] pixels = new int[width * height];
+        writableImage.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbPreInstance(),
+                pixels, 0, width);
 
+        ExportEffects pipeline = new ExportEffects();
+        ExportEffects.Buffer image = pipeline.apply(new ExportEffects.Buffer(pixels, width, height), effects);
+        pipeline.flatten(image, 0xffffff);
+
+        BufferedImage bufferedImage = new BufferedImage(image.getWidth(), image.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        bufferedImage.setRGB(0, 0, image.getWidth(), image.getHeight(), image.getPixels(), 0, image.getWidth());
         return bufferedImage;
     }
 
+    private double[] chooseExportRegion() {
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.initOwner(primaryStage);
+        dialog.setTitle("Область экспорта");
+        dialog.setHeaderText("Выберите, какую часть документа экспортировать");
+
+        List<double[]> regions = new ArrayList<>();
+        List<RadioButton> buttons = new ArrayList<>();
+        ToggleGroup group = new ToggleGroup();
+        regions.add(drawingCanvas.getVisibleRegion());
+        buttons.add(new RadioButton("Видимая область"));
+        double[] marquee = drawingCanvas.getMarqueeRegion();
+        if (marquee != null) {
+            regions.add(marquee);
+            buttons.add(new RadioButton("Последняя рамка выделения"));
+        }
+        double[] selected = drawingCanvas.getSelectionRegion();
+        if (selected != null) {
+            regions.add(selected);
+            buttons.add(new RadioButton("Выделенные фигуры"));
+        }
+        if (repository instanceof LocalRepository) {
+            regions.add(null);
+            buttons.add(new RadioButton("Весь документ"));
+        }
+        VBox content = new VBox(8);
+        for (RadioButton button : buttons) {
+            button.setToggleGroup(group);
+            content.getChildren().add(button);
+        }
+        group.selectToggle(buttons.get(selected != null ? regions.indexOf(selected) : 0));
+        dialog.getDialogPane().setContent(content);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+
+        Optional<ButtonType> result = dialog.showAndWait();
+        if (!result.isPresent() || result.get() != ButtonType.OK) {
+            return null;
+        }
+        double[] region = regions.get(buttons.indexOf((RadioButton) group.getSelectedToggle()));
+        return region != null ? region : drawingCanvas.getDocumentRegion();
+    }
+
+    private List<ExportEffects.Effect> chooseExportEffects() {
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.initOwner(primaryStage);
+        dialog.setTitle("Эффекты экспорта");
+        dialog.setHeaderText("Эффекты применяются по порядку сверху вниз");
+
+        List<CheckBox> boxes = new ArrayList<>();
+        VBox content = new VBox(8);
+        for (ExportEffects.Effect effect : ExportEffects.Effect.values()) {
+            CheckBox box = new CheckBox(effect.getTitle());
+            boxes.add(box);
+            content.getChildren().add(box);
+        }
+        dialog.getDialogPane().setContent(content);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+
+        Optional<ButtonType> result = dialog.showAndWait();
+        if (!result.isPresent() || result.get() != ButtonType.OK) {
+            return null;
+        }
+        List<ExportEffects.Effect> effects = new ArrayList<>();
+        for (int i = 0; i < boxes.size(); i++) {
+            if (boxes.get(i).isSelected()) {
+                effects.add(ExportEffects.Effect.values()[i]);
+            }
+        }
+        return effects;
+    }
+
     private String getFileExtension(File file) {
         String name = file.getName();
         int lastIndexOf = name.lastIndexOf(".");
@@ -187,54 +453,204 @@ public class HelloController {
         return name.substring(lastIndexOf);
     }
 
+    private static Repository createRepository() {
+        String serve = System.getProperty("paintoop.collab.serve");
+        String address = System.getProperty("paintoop.collab");
+        String remoteServe = System.getProperty("paintoop.remote.serve");
+        String remote = System.getProperty("paintoop.remote");
+        String world = System.getProperty("paintoop.world");
+        try {
+            if (world != null) {
+                return new ChunkedRepository(new File(world), Platform::runLater);
+            }
+            if (remoteServe != null) {
+                MockDocumentServer server = new MockDocumentServer(Integer.parseInt(remoteServe));
+                if (remote == null) {
+                    remote = server.getUri().toString();
+                }
+            }
+            if (remote != null) {
+                return new RemoteRepository(URI.create(remote), new File("remote-outbox.bin"), Platform::runLater);
+            }
+            if (serve != null) {
+                CollabRelayServer server = new CollabRelayServer(Integer.parseInt(serve));
+                if (address == null) {
+                    address = "127.0.0.1:" + server.getPort();
+                }
+            }
+            if (address != null) {
+                int separator = address.lastIndexOf(':');
+                return new CollaborativeRepository(address.substring(0, separator),
+                        Integer.parseInt(address.substring(separator + 1)), Platform::runLater);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        }
+        return new LocalRepository(false);
+    }
+
+    private void handleLoadPhase(LocalRepository.LoadPhase phase) {
+        switch (phase) {
+            case VISIBLE:
+                StartupTimer.mark("visible-shapes-loaded");
+                StartupTimer.mark("interactive");
+                refreshLayers();
+                drawingCanvas.invalidateLayers();
+                break;
+            case SHAPES:
+                StartupTimer.mark("shapes-loaded");
+                break;
+            case HISTORY:
+                StartupTimer.mark("history-loaded");
+                StartupTimer.report();
+                break;
+        }
+    }
+
     private void markUnsavedChanges() {
         this.hasUnsavedChanges = true;
     }
 
+    private void showStatus(String text) {
+        if (welcomeText != null) {
+            welcomeText.setText(text);
+        }
+    }
+
+    private void startRecording() {
+        String path = System.getProperty("paintoop.record");
+        if (path == null) {
+            return;
+        }
+        try {
+            recorder = new InputRecorder(new File(path), canvas.getWidth(), canvas.getHeight());
+            recordState();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private void stopRecording() {
+        if (recorder != null) {
+            recorder.close();
+            recorder = null;
+        }
+    }
+
+    private void recordState() {
+        if (recorder != null) {
+            recorder.recordState(currentTool, hasOutline, hasFill, outlineColor, fillColor);
+        }
+    }
+
+    DrawingCanvas getDrawingCanvas() {
+        return drawingCanvas;
+    }
+
+    void replay(InputRecorder.Event event) {
+        switch (event.type) {
+            case InputRecorder.MOUSE_PRESSED:
+                handleMousePressed(replayMouseEvent(MouseEvent.MOUSE_PRESSED, event));
+                break;
+            case InputRecorder.MOUSE_DRAGGED:
+                handleMouseDragged(replayMouseEvent(MouseEvent.MOUSE_DRAGGED, event));
+                break;
+            case InputRecorder.MOUSE_RELEASED:
+                handleMouseReleased(replayMouseEvent(MouseEvent.MOUSE_RELEASED, event));
+                break;
+            case InputRecorder.MOUSE_MOVED:
+                handleMouseMoved(replayMouseEvent(MouseEvent.MOUSE_MOVED, event));
+                break;
+            case InputRecorder.SCROLL:
+                handleScroll(new ScrollEvent(ScrollEvent.SCROLL, event.x, event.y, event.x, event.y,
+                        event.has(InputRecorder.SHIFT), event.has(InputRecorder.CONTROL),
+                        event.has(InputRecorder.ALT), event.has(InputRecorder.META), false, false,
+                        0, event.deltaY, 0, event.deltaY, ScrollEvent.HorizontalTextScrollUnits.NONE, 0,
+                        ScrollEvent.VerticalTextScrollUnits.NONE, 0, 0, null));
+                break;
+            case InputRecorder.KEY_PRESSED:
+                if (event.has(InputRecorder.CONTROL)
+                        && (event.keyCode == KeyCode.S || event.keyCode == KeyCode.I || event.keyCode == KeyCode.L)) {
+                    break;
+                }
+                handleKeyPressed(new KeyEvent(KeyEvent.KEY_PRESSED, "", "", event.keyCode,
+                        event.has(InputRecorder.SHIFT), event.has(InputRecorder.CONTROL),
+                        event.has(InputRecorder.ALT), event.has(InputRecorder.META)));
+                break;
+            case InputRecorder.STATE:
+                currentTool = event.tool;
+                hasOutline = event.has(InputRecorder.OUTLINE);
+                hasFill = event.has(InputRecorder.FILL);
+                outlineColor = event.outlineColor;
+                fillColor = event.fillColor;
+                break;
+        }
+    }
+
+    private static MouseEvent replayMouseEvent(EventType<MouseEvent> type, InputRecorder.Event event) {
+        boolean primary = event.has(InputRecorder.PRIMARY);
+        boolean middle = event.has(InputRecorder.MIDDLE);
+        boolean secondary = event.has(InputRecorder.SECONDARY);
+        MouseButton button = primary ? MouseButton.PRIMARY : middle ? MouseButton.MIDDLE
+                : secondary ? MouseButton.SECONDARY : MouseButton.NONE;
+        return new MouseEvent(type, event.x, event.y, event.x, event.y, button, 1,
+                event.has(InputRecorder.SHIFT), event.has(InputRecorder.CONTROL), event.has(InputRecorder.ALT),
+                event.has(InputRecorder.META), primary, middle, secondary, true, false, false, null);
+    }
+
     @FXML
     public void initialize() {
-        drawingCanvas = new DrawingCanvas(canvas, repository);
+        drawingCanvas = new DrawingCanvas(canvas, overlayCanvas, repository);
+        repository.setChangeListener(drawingCanvas::invalidateLayers);
+        if (repository instanceof LocalRepository) {
+            drawingCanvas.setRasterLayer(((LocalRepository) repository).getRasterLayer());
+            double[] region = drawingCanvas.getVisibleRegion();
+            ((LocalRepository) repository).loadInBackground(region[0], region[1], region[2], region[3],
+                    Platform::runLater, this::handleLoadPhase);
+        }
+        drawingCanvas.setPreviewDelay(PREVIEW_IDLE_DELAY);
+        drawingCanvas.setPreviewSmoothing(PREVIEW_SMOOTHING);
         setupMouseHandlers();
         setupStyleButtons();
         setupZoomHandlers();
         setupToolsListView();
+        setupLayersListView();
 
         outlineColorPicker.setValue(outlineColor);
         fillColorPicker.setValue(fillColor);
+        startRecording();
 
         outlineColorPicker.setOnAction(e -> {
             outlineColor = outlineColorPicker.getValue();
-            Shape selectedShape = drawingCanvas.getSelectedShape();
-            if (selectedShape != null) {
-                repository.saveState();
+            recordState();
+            if (drawingCanvas.hasSelection()) {
                 if (hasOutline) {
-                    selectedShape.setStrokeColor(outlineColor);
-                    drawingCanvas.redrawAllShapes();
-                    welcomeText.setText("Цвет контура выделенной фигуры изменен");
+                    repository.saveState();
+                    drawingCanvas.restyleSelection(outlineColor, null);
+                    showStatus("Цвет контура выделенной фигуры изменен");
                     markUnsavedChanges();
                 } else {
-                    welcomeText.setText("Контур отключен. Включите контур для изменения цвета.");
+                    showStatus("Контур отключен. Включите контур для изменения цвета.");
                 }
             } else {
-                welcomeText.setText("Цвет контура установлен для новых фигур");
+                showStatus("Цвет контура установлен для новых фигур");
             }
         });
 
         fillColorPicker.setOnAction(e -> {
             fillColor = fillColorPicker.getValue();
-            Shape selectedShape = drawingCanvas.getSelectedShape();
-            if (selectedShape != null) {
-                repository.saveState();
+            recordState();
+            if (drawingCanvas.hasSelection()) {
                 if (hasFill) {
-                    selectedShape.setFillColor(fillColor);
-                    drawingCanvas.redrawAllShapes();
-                    welcomeText.setText("Цвет заливки выделенной фигуры изменен");
+                    repository.saveState();
+                    drawingCanvas.restyleSelection(null, fillColor);
+                    showStatus("Цвет заливки выделенной фигуры изменен");
                     markUnsavedChanges();
                 } else {
-                    welcomeText.setText("Заливка отключена. Включите заливку для изменения цвета.");
+                    showStatus("Заливка отключена. Включите заливку для изменения цвета.");
                 }
             } else {
-                welcomeText.setText("Цвет заливки установлен для новых фигур");
+                showStatus("Цвет заливки установлен для новых фигур");
             }
         });
     }
@@ -244,7 +660,13 @@ public class HelloController {
                 "Прямоугольник",
                 "Эллипс",
                 "Линия",
-                "Многоугольник"
+                "Многоугольник",
+                "Карандаш",
+                "Заливка",
+                "Кисть",
+                "Ластик",
+                "Текст",
+                "Кривая"
         );
 
         toolsListView.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> {
@@ -252,32 +674,199 @@ public class HelloController {
                 switch (newValue) {
                     case "Прямоугольник":
                         currentTool = "rectangle";
-                        welcomeText.setText("Инструмент: Прямоугольник");
+                        showStatus("Инструмент: Прямоугольник");
                         break;
                     case "Эллипс":
                         currentTool = "ellipse";
-                        welcomeText.setText("Инструмент: Эллипс");
+                        showStatus("Инструмент: Эллипс");
                         break;
                     case "Линия":
                         currentTool = "line";
-                        welcomeText.setText("Инструмент: Линия");
+                        showStatus("Инструмент: Линия");
                         break;
                     case "Многоугольник":
                         currentTool = "polygon";
-                        welcomeText.setText("Инструмент: Многоугольник");
+                        showStatus("Инструмент: Многоугольник");
+                        break;
+                    case "Карандаш":
+                        currentTool = "pencil";
+                        showStatus("Инструмент: Карандаш");
+                        break;
+                    case "Заливка":
+                        currentTool = "bucket";
+                        showStatus("Инструмент: Заливка");
+                        break;
+                    case "Кисть":
+                        currentTool = "brush";
+                        showStatus("Инструмент: Кисть, размер " + brushRadius * 2);
+                        break;
+                    case "Ластик":
+                        currentTool = "eraser";
+                        showStatus("Инструмент: Ластик, размер " + brushRadius * 2);
+                        break;
+                    case "Текст":
+                        currentTool = "text";
+                        showStatus("Инструмент: Текст");
+                        break;
+                    case "Кривая":
+                        currentTool = "curve";
+                        showStatus("Инструмент: Кривая");
                         break;
                 }
+                recordState();
             }
         });
 
         toolsListView.getSelectionModel().select(0);
     }
 
+    private void setupLayersListView() {
+        refreshLayers();
+        layersListView.getSelectionModel().selectedIndexProperty().addListener((observable, oldValue, newValue) -> {
+            LayerStack.Layer layer = layerAt(newValue.intValue());
+            if (!updatingLayers && layer != null) {
+                repository.getLayers().setActiveLayer(layer.getId());
+                showStatus("Активный слой: " + layer.getName());
+            }
+        });
+        layersListView.setOnMouseClicked(event -> {
+            if (event.getClickCount() == 2) {
+                renameActiveLayer();
+            }
+        });
+    }
+
+    private void refreshLayers() {
+        if (layersListView == null) {
+            return;
+        }
+        LayerStack layers = repository.getLayers();
+        updatingLayers = true;
+        try {
+            List<String> items = new ArrayList<>();
+            int selected = 0;
+            for (int i = layers.size() - 1; i >= 0; i--) {
+                LayerStack.Layer layer = layers.getLayers().get(i);
+                String item = layer.getName();
+                if (!layer.isVisible()) {
+                    item += " [скрыт]";
+                }
+                if (layer.isLocked()) {
+                    item += " [заблокирован]";
+                }
+                if (layer.getId() == layers.getActiveLayerId()) {
+                    selected = items.size();
+                }
+                items.add(item);
+            }
+            layersListView.getItems().setAll(items);
+            layersListView.getSelectionModel().select(selected);
+        } finally {
+            updatingLayers = false;
+        }
+    }
+
+    private LayerStack.Layer layerAt(int index) {
+        LayerStack layers = repository.getLayers();
+        if (index < 0 || index >= layers.size()) {
+            return null;
+        }
+        return layers.getLayers().get(layers.size() - 1 - index);
+    }
+
+    private void renameActiveLayer() {
+        LayerStack.Layer layer = repository.getLayers().getActiveLayer();
+        TextInputDialog dialog = new TextInputDialog(layer.getName());
+        dialog.setTitle("Слой");
+        dialog.setHeaderText("Название слоя");
+        dialog.initOwner(primaryStage);
+        Optional<String> name = dialog.showAndWait();
+        if (name.isPresent() && !name.get().trim().isEmpty()) {
+            repository.getLayers().rename(layer.getId(), name.get().trim());
+            refreshLayers();
+            markUnsavedChanges();
+        }
+    }
+
+    private void layersChanged(String status) {
+        drawingCanvas.invalidateLayers();
+        refreshLayers();
+        showStatus(status);
+        markUnsavedChanges();
+    }
+
+    @FXML
+    protected void onAddLayerClick() {
+        LayerStack.Layer layer = repository.getLayers().addLayer("Слой " + (repository.getLayers().size() + 1));
+        layersChanged("Добавлен слой: " + layer.getName());
+    }
+
+    @FXML
+    protected void onRemoveLayerClick() {
+        LayerStack layers = repository.getLayers();
+        if (layers.size() == 1) {
+            showStatus("Нельзя удалить единственный слой");
+            return;
+        }
+        LayerStack.Layer layer = layers.getActiveLayer();
+        List<Shape> shapes = new ArrayList<>();
+        for (Shape shape : repository.getAllShapes()) {
+            if (layers.resolve(shape.getLayer()) == layer) {
+                shapes.add(shape);
+            }
+        }
+        if (!shapes.isEmpty()) {
+            Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+            alert.setTitle("Слои");
+            alert.setHeaderText("Удалить слой \"" + layer.getName() + "\" вместе с фигурами: " + shapes.size() + "?");
+            Optional<ButtonType> result = alert.showAndWait();
+            if (!result.isPresent() || result.get() != ButtonType.OK) {
+                return;
+            }
+            drawingCanvas.clearSelection();
+            repository.removeShapes(shapes);
+        }
+        layers.removeLayer(layer.getId());
+        layersChanged("Слой удален: " + layer.getName());
+    }
+
+    @FXML
+    protected void onLayerUpClick() {
+        if (repository.getLayers().moveLayer(repository.getLayers().getActiveLayerId(), 1)) {
+            layersChanged("Слой перемещен выше");
+        }
+    }
+
+    @FXML
+    protected void onLayerDownClick() {
+        if (repository.getLayers().moveLayer(repository.getLayers().getActiveLayerId(), -1)) {
+            layersChanged("Слой перемещен ниже");
+        }
+    }
+
+    @FXML
+    protected void onToggleLayerVisibilityClick() {
+        LayerStack.Layer layer = repository.getLayers().getActiveLayer();
+        repository.getLayers().setVisible(layer.getId(), !layer.isVisible());
+        drawingCanvas.clearSelection();
+        layersChanged(layer.isVisible() ? "Слой показан: " + layer.getName() : "Слой скрыт: " + layer.getName());
+    }
+
+    @FXML
+    protected void onToggleLayerLockClick() {
+        LayerStack.Layer layer = repository.getLayers().getActiveLayer();
+        repository.getLayers().setLocked(layer.getId(), !layer.isLocked());
+        drawingCanvas.clearSelection();
+        layersChanged(layer.isLocked() ? "Слой заблокирован: " + layer.getName()
+                : "Слой разблокирован: " + layer.getName());
+    }
+
     @FXML
     protected void onSelectToolClick() {
         currentTool = "select";
-        welcomeText.setText("Инструмент: Выделение");
+        showStatus("Инструмент: Выделение");
         toolsListView.getSelectionModel().clearSelection();
+        recordState();
     }
 
     public void setupAfterSceneReady() {
@@ -293,15 +882,21 @@ public class HelloController {
     }
 
     private void handleScroll(ScrollEvent event) {
+        if (recorder != null) {
+            recorder.record(event);
+        }
         if (event.isControlDown()) {
             double zoomFactor = event.getDeltaY() > 0 ? 0.1 : -0.1;
             drawingCanvas.zoom(zoomFactor, event.getX(), event.getY());
-            welcomeText.setText(String.format("Масштаб: %.0f%%", drawingCanvas.getScale() * 100));
+            showStatus(String.format("Масштаб: %.0f%%", drawingCanvas.getScale() * 100));
             event.consume();
         }
     }
 
     private void handleKeyPressed(KeyEvent event) {
+        if (recorder != null) {
+            recorder.record(event);
+        }
         if (event.isControlDown()) {
             switch (event.getCode()) {
                 case Z:
@@ -311,17 +906,17 @@ public class HelloController {
                 case EQUALS:
                 case PLUS:
                     drawingCanvas.zoom(0.1, canvas.getWidth() / 2, canvas.getHeight() / 2);
-                    welcomeText.setText(String.format("Масштаб увеличен: %.0f%%", drawingCanvas.getScale() * 100));
+                    showStatus(String.format("Масштаб увеличен: %.0f%%", drawingCanvas.getScale() * 100));
                     event.consume();
                     break;
                 case MINUS:
                     drawingCanvas.zoom(-0.1, canvas.getWidth() / 2, canvas.getHeight() / 2);
-                    welcomeText.setText(String.format("Масштаб уменьшен: %.0f%%", drawingCanvas.getScale() * 100));
+                    showStatus(String.format("Масштаб уменьшен: %.0f%%", drawingCanvas.getScale() * 100));
                     event.consume();
                     break;
                 case R:
                     drawingCanvas.resetView();
-                    welcomeText.setText("Вид сброшен к масштабу 100%");
+                    showStatus("Вид сброшен к масштабу 100%");
                     event.consume();
                     break;
                 case O:
@@ -332,6 +927,58 @@ public class HelloController {
                     drawingCanvas.pan(-30, 0);
                     event.consume();
                     break;
+                case I:
+                    importSvg();
+                    event.consume();
+                    break;
+                case L:
+                    openDocument();
+                    event.consume();
+                    break;
+                case H:
+                    drawingCanvas.setGridEnabled(!drawingCanvas.isGridEnabled());
+                    showStatus(drawingCanvas.isGridEnabled() ? "Сетка: включена" : "Сетка: отключена");
+                    event.consume();
+                    break;
+                case G:
+                    if (event.isShiftDown()) {
+                        if (!drawingCanvas.ungroupSelection().isEmpty()) {
+                            showStatus("Группа разгруппирована");
+                            markUnsavedChanges();
+                        }
+                    } else if (drawingCanvas.groupSelection() != null) {
+                        showStatus("Фигуры сгруппированы");
+                        markUnsavedChanges();
+                    }
+                    event.consume();
+                    break;
+                case E:
+                    if (drawingCanvas.hasSelection()) {
+                        List<Shape> similar = drawingCanvas.selectSimilar(event.isShiftDown());
+                        showStatus("Выделено похожих фигур: " + similar.size());
+                    }
+                    event.consume();
+                    break;
+                case B:
+                    if (!(repository instanceof LocalRepository)) {
+                        showStatus("Символы доступны только для локального документа");
+                    } else if (event.isShiftDown()) {
+                        if (!drawingCanvas.editSelectedSymbol().isEmpty()) {
+                            showStatus("Редактирование символа: измените фигуры и нажмите Ctrl+B");
+                            markUnsavedChanges();
+                        }
+                    } else if (drawingCanvas.isEditingSymbol()) {
+                        if (drawingCanvas.finishSymbolEdit() != null) {
+                            showStatus("Символ обновлен во всех экземплярах");
+                            markUnsavedChanges();
+                        }
+                    } else if (drawingCanvas.createSymbolFromSelection(
+                            "Символ " + (SymbolTable.shared().size() + 1)) != null) {
+                        showStatus("Символ создан");
+                        markUnsavedChanges();
+                    }
+                    event.consume();
+                    break;
                 case S:
                     if (saveToFile()) {
                         hasUnsavedChanges = false;
@@ -361,16 +1008,23 @@ public class HelloController {
                     onDeleteButtonClick();
                     event.consume();
                     break;
+                case OPEN_BRACKET:
+                    setBrushRadius(brushRadius - Math.max(1, brushRadius / 4));
+                    event.consume();
+                    break;
+                case CLOSE_BRACKET:
+                    setBrushRadius(brushRadius + Math.max(1, brushRadius / 4));
+                    event.consume();
+                    break;
             }
         }
     }
 
     private void undo() {
+        drawingCanvas.clearSelection();
         repository.undo();
+        drawingCanvas.invalidateLayers();
         drawingCanvas.redrawAllShapes();
-        if (drawingCanvas.getSelectedShape() != null) {
-            drawingCanvas.getSelectedShape().setSelected(false);
-        }
         markUnsavedChanges();
     }
 
@@ -407,9 +1061,12 @@ public class HelloController {
     }
 
     private void handleMouseMoved(MouseEvent event) {
+        if (recorder != null) {
+            recorder.record(event);
+        }
         if (isPanning) {
             canvas.setCursor(Cursor.CLOSED_HAND);
-        } else if (currentTool.equals("select") && drawingCanvas.getSelectedShape() != null) {
+        } else if (currentTool.equals("select") && drawingCanvas.hasSelection()) {
             Shape.ResizeType resizeType = drawingCanvas.getResizeTypeAt(event.getX(), event.getY());
 
             switch (resizeType) {
@@ -430,7 +1087,7 @@ public class HelloController {
                     canvas.setCursor(Cursor.E_RESIZE);
                     break;
                 default:
-                    if (drawingCanvas.getSelectedShape().contains(drawingCanvas.toModelX(event.getX()), drawingCanvas.toModelY(event.getY()))) {
+                    if (drawingCanvas.isSelectionAt(event.getX(), event.getY())) {
                         canvas.setCursor(Cursor.MOVE);
                     } else {
                         canvas.setCursor(Cursor.DEFAULT);
@@ -443,10 +1100,14 @@ public class HelloController {
     }
 
     private void handleMousePressed(MouseEvent event) {
+        if (recorder != null) {
+            recorder.record(event);
+        }
         startX = event.getX();
         startY = event.getY();
 
-        if (event.isMiddleButtonDown() || (event.isPrimaryButtonDown() && event.isShiftDown())) {
+        boolean selectTool = currentTool.equals("select");
+        if (event.isMiddleButtonDown() || (event.isPrimaryButtonDown() && event.isShiftDown() && !selectTool)) {
             isPanning = true;
             panStartX = event.getX();
             panStartY = event.getY();
@@ -454,26 +1115,115 @@ public class HelloController {
             return;
         }
 
-        if (currentTool.equals("select")) {
+        if (selectTool) {
+            transformRecorded = false;
+            if (event.isShiftDown()) {
+                if (drawingCanvas.toggleShapeAt(startX, startY) == null) {
+                    isSelectingArea = true;
+                    drawingCanvas.beginMarquee(startX, startY);
+                }
+                return;
+            }
+
             Shape.ResizeType resizeType = drawingCanvas.getResizeTypeAt(startX, startY);
             if (resizeType != Shape.ResizeType.NONE) {
                 isResizing = true;
                 drawingCanvas.setCurrentResizeType(resizeType);
-                repository.saveState();
+                drawingCanvas.beginTransform();
+            } else if (drawingCanvas.isSelectionAt(startX, startY)) {
+                isMoving = true;
+                drawingCanvas.beginTransform();
             } else {
                 Shape selected = drawingCanvas.selectShapeAt(startX, startY);
                 isMoving = (selected != null);
                 if (isMoving) {
-                    repository.saveState();
+                    drawingCanvas.beginTransform();
+                } else {
+                    isSelectingArea = true;
+                    drawingCanvas.beginMarquee(startX, startY);
                 }
             }
+        } else if (currentTool.equals("bucket")) {
+            drawingCanvas.clearSelection();
+            fillAt(startX, startY);
+        } else if (currentTool.equals("brush") || currentTool.equals("eraser")) {
+            drawingCanvas.clearSelection();
+            beginBrushStroke(startX, startY);
+        } else if (!repository.getLayers().isEditable(repository.getLayers().getActiveLayerId())) {
+            showStatus("Слой \"" + repository.getLayers().getActiveLayer().getName() + "\" скрыт или заблокирован");
         } else {
             isDrawing = true;
-            drawingCanvas.selectShapeAt(-1, -1);
+            drawingCanvas.clearSelection();
+            if (currentTool.equals("pencil")) {
+                drawingCanvas.beginStroke(startX, startY, outlineColor);
+            }
+        }
+    }
+
+    private void fillAt(double viewX, double viewY) {
+        if (!(repository instanceof LocalRepository)) {
+            showStatus("Заливка доступна только для локального документа");
+            return;
+        }
+        LocalRepository localRepository = (LocalRepository) repository;
+        int seedX = (int) Math.floor(drawingCanvas.toModelX(viewX));
+        int seedY = (int) Math.floor(drawingCanvas.toModelY(viewY));
+        double[] visible = drawingCanvas.getVisibleRegion();
+        int visibleX = (int) Math.floor(visible[0]);
+        int visibleY = (int) Math.floor(visible[1]);
+        int width = (int) Math.min(MAX_FILL_SIZE, Math.ceil(visible[2]) + 1);
+        int height = (int) Math.min(MAX_FILL_SIZE, Math.ceil(visible[3]) + 1);
+        int x = Math.max(visibleX, Math.min(seedX - width / 2, visibleX + (int) Math.ceil(visible[2]) + 1 - width));
+        int y = Math.max(visibleY, Math.min(seedY - height / 2, visibleY + (int) Math.ceil(visible[3]) + 1 - height));
+
+        int[] pixels = drawingCanvas.renderRegion(x, y, width, height);
+        boolean[] mask = new boolean[width * height];
+        int[] bounds = new int[4];
+        if (FloodFill.fill(pixels, width, height, seedX - x, seedY - y, FILL_TOLERANCE, mask, bounds) == 0) {
+            return;
+        }
+        RasterLayer rasterLayer = localRepository.getRasterLayer();
+        RasterLayer.Edit edit = rasterLayer.beginEdit();
+        int filled = rasterLayer.fillMask(mask, x, y, width, bounds, toArgb(fillColor), edit);
+        localRepository.commitRasterEdit(edit);
+        drawingCanvas.redrawAllShapes();
+        showStatus("Залито пикселей: " + filled);
+        markUnsavedChanges();
+    }
+
+    private void beginBrushStroke(double viewX, double viewY) {
+        if (!(repository instanceof LocalRepository)) {
+            showStatus("Кисть доступна только для локального документа");
+            return;
+        }
+        RasterLayer rasterLayer = ((LocalRepository) repository).getRasterLayer();
+        activeBrush = new RasterBrush(rasterLayer, brushRadius, BRUSH_HARDNESS, toArgb(outlineColor),
+                currentTool.equals("eraser"));
+        activeBrush.begin(drawingCanvas.toModelX(viewX), drawingCanvas.toModelY(viewY));
+        requestBrushRedraw();
+    }
+
+    private void requestBrushRedraw() {
+        double[] dirty = activeBrush.takeDirtyRegion();
+        if (dirty != null) {
+            drawingCanvas.requestRedraw(dirty[0], dirty[1], dirty[2], dirty[3]);
         }
     }
 
+    private void setBrushRadius(int radius) {
+        brushRadius = Math.max(1, Math.min(MAX_BRUSH_RADIUS, radius));
+        showStatus("Размер кисти: " + brushRadius * 2);
+    }
+
+    private static int toArgb(Color color) {
+        return (int) Math.round(color.getOpacity() * 255) << 24 | (int) Math.round(color.getRed() * 255) << 16
+                | (int) Math.round(color.getGreen() * 255) << 8 | (int) Math.round(color.getBlue() * 255);
+    }
+
     private void handleMouseDragged(MouseEvent event) {
+        if (recorder != null) {
+            recorder.record(event);
+        }
         double currentX = event.getX();
         double currentY = event.getY();
         double deltaX = currentX - startX;
@@ -485,18 +1235,29 @@ public class HelloController {
             drawingCanvas.pan(panDeltaX, panDeltaY);
             panStartX = currentX;
             panStartY = currentY;
+        } else if (isSelectingArea) {
+            drawingCanvas.updateMarquee(currentX, currentY);
         } else if (isMoving && currentTool.equals("select")) {
+            recordTransform();
+            drawingCanvas.setSnappingSuspended(event.isAltDown());
             double modelDeltaX = deltaX / drawingCanvas.getScale();
             double modelDeltaY = deltaY / drawingCanvas.getScale();
             drawingCanvas.moveSelectedShape(modelDeltaX, modelDeltaY);
             startX = currentX;
             startY = currentY;
         } else if (isResizing && currentTool.equals("select")) {
+            recordTransform();
+            drawingCanvas.setSnappingSuspended(event.isAltDown());
             double modelX = drawingCanvas.toModelX(currentX);
             double modelY = drawingCanvas.toModelY(currentY);
             drawingCanvas.resizeSelectedShape(drawingCanvas.getCurrentResizeType(), modelX, modelY);
+        } else if (activeBrush != null) {
+            activeBrush.strokeTo(drawingCanvas.toModelX(currentX), drawingCanvas.toModelY(currentY));
+            requestBrushRedraw();
+        } else if (isDrawing && currentTool.equals("pencil")) {
+            drawingCanvas.extendStroke(currentX, currentY);
         } else if (isDrawing) {
-            if (currentTool.equals("line")) {
+            if (currentTool.equals("line") || currentTool.equals("curve")) {
                 double modelStartX = drawingCanvas.toModelX(startX);
                 double modelStartY = drawingCanvas.toModelY(startY);
                 double modelCurrentX = drawingCanvas.toModelX(currentX);
@@ -523,16 +1284,36 @@ public class HelloController {
     }
 
     private void handleMouseReleased(MouseEvent event) {
+        if (recorder != null) {
+            recorder.record(event);
+        }
         double endX = event.getX();
         double endY = event.getY();
 
         if (isPanning) {
             isPanning = false;
             canvas.setCursor(Cursor.DEFAULT);
+        } else if (isSelectingArea) {
+            isSelectingArea = false;
+            int count = drawingCanvas.finishMarquee(event.isShiftDown()).size();
+            showStatus("Выделено фигур: " + count);
+        } else if (activeBrush != null) {
+            activeBrush.strokeTo(drawingCanvas.toModelX(endX), drawingCanvas.toModelY(endY));
+            requestBrushRedraw();
+            ((LocalRepository) repository).commitRasterEdit(activeBrush.finish());
+            activeBrush = null;
+            markUnsavedChanges();
         } else if (isDrawing) {
             isDrawing = false;
 
-            if (currentTool.equals("line")) {
+            if (currentTool.equals("pencil")) {
+                drawingCanvas.extendStroke(endX, endY);
+                Shape finalShape = drawingCanvas.finishStroke();
+                if (finalShape != null) {
+                    drawingCanvas.addShape(finalShape);
+                    markUnsavedChanges();
+                }
+            } else if (currentTool.equals("line") || currentTool.equals("curve")) {
                 double modelStartX = drawingCanvas.toModelX(startX);
                 double modelStartY = drawingCanvas.toModelY(startY);
                 double modelEndX = drawingCanvas.toModelX(endX);
@@ -543,6 +1324,13 @@ public class HelloController {
                     drawingCanvas.addShape(finalShape);
                     markUnsavedChanges();
                 }
+            } else if (currentTool.equals("text")) {
+                double modelX1 = drawingCanvas.toModelX(startX);
+                double modelY1 = drawingCanvas.toModelY(startY);
+                double modelX2 = drawingCanvas.toModelX(endX);
+                double modelY2 = drawingCanvas.toModelY(endY);
+                double wrapWidth = Math.abs(modelX2 - modelX1) >= 20 ? Math.abs(modelX2 - modelX1) : 0;
+                createText(Math.min(modelX1, modelX2), Math.min(modelY1, modelY2), wrapWidth);
             } else {
                 double modelX1 = drawingCanvas.toModelX(startX);
                 double modelY1 = drawingCanvas.toModelY(startY);
@@ -562,13 +1350,30 @@ public class HelloController {
             }
         }
 
+        if (isMoving || isResizing) {
+            drawingCanvas.finishTransform();
+            if (transformRecorded) {
+                markUnsavedChanges();
+            }
+        }
         isMoving = false;
         isResizing = false;
+        transformRecorded = false;
         drawingCanvas.setCurrentResizeType(Shape.ResizeType.NONE);
     }
 
+    private void recordTransform() {
+        if (!transformRecorded) {
+            repository.saveState();
+            transformRecorded = true;
+        }
+    }
+
     private Shape createLinePreview(double startX, double startY, double endX, double endY) {
         Color strokeColor = hasOutline ? Color.GRAY : Color.TRANSPARENT;
+        if (currentTool.equals("curve")) {
+            return createConnector(startX, startY, endX, endY, strokeColor);
+        }
         return new Line(startX, startY, endX, endY, strokeColor);
     }
 
@@ -579,9 +1384,19 @@ public class HelloController {
         }
 
         Color strokeColor = hasOutline ? outlineColor : Color.TRANSPARENT;
+        if (currentTool.equals("curve")) {
+            return createConnector(startX, startY, endX, endY, strokeColor);
+        }
         return new Line(startX, startY, endX, endY, strokeColor);
     }
 
+    private static Shape createConnector(double startX, double startY, double endX, double endY, Color strokeColor) {
+        double middleX = (startX + endX) / 2;
+        return new PathShape(new byte[]{PathShape.MOVE, PathShape.CUBIC},
+                new double[]{startX, startY, middleX, startY, middleX, endY, endX, endY},
+                strokeColor, Color.TRANSPARENT);
+    }
+
     private Shape createShapePreview(double x, double y, double width, double height) {
         Color strokeColor = hasOutline ? Color.GRAY : Color.TRANSPARENT;
         Color fillColor = hasFill ? Color.LIGHTGRAY : Color.TRANSPARENT;
@@ -598,6 +1413,19 @@ public class HelloController {
         }
     }
 
+    private void createText(double x, double y, double wrapWidth) {
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setTitle("Текст");
+        dialog.setHeaderText("Введите текст надписи");
+        dialog.initOwner(primaryStage);
+        Optional<String> text = dialog.showAndWait();
+        if (text.isPresent() && !text.get().trim().isEmpty()) {
+            drawingCanvas.addShape(new TextShape(x, y, text.get(), TEXT_SIZE, wrapWidth,
+                    hasOutline ? outlineColor : Color.BLACK));
+            markUnsavedChanges();
+        }
+    }
+
     private Shape createShapeFinal(double x, double y, double width, double height) {
         if (width < 5 || height < 5) {
             return null;
@@ -620,26 +1448,25 @@ public class HelloController {
 
     @FXML
     protected void onDeleteButtonClick() {
-        Shape selectedShape = drawingCanvas.getSelectedShape();
-        if (selectedShape != null) {
-            repository.saveState();
+        if (drawingCanvas.hasSelection()) {
             drawingCanvas.deleteSelectedShape();
-            welcomeText.setText("Фигура удалена");
+            showStatus("Фигура удалена");
             if (statusText != null) {
                 statusText.setText("Фигура удалена");
             }
             markUnsavedChanges();
         } else {
-            welcomeText.setText("Нет выделенной фигуры для удаления");
+            showStatus("Нет выделенной фигуры для удаления");
         }
     }
 
     @FXML
     protected void onClearButtonClick() {
-        repository.saveState();
+        drawingCanvas.clearSelection();
         repository.clear();
+        drawingCanvas.invalidateLayers();
         drawingCanvas.redrawAllShapes();
-        welcomeText.setText("Холст очищен");
+        showStatus("Холст очищен");
         if (statusText != null) {
             statusText.setText("Холст очищен");
         }
@@ -650,27 +1477,31 @@ public class HelloController {
     protected void onOutlineNoneClick() {
         hasOutline = false;
         updateOutlineButtons();
-        welcomeText.setText("Контур: отключен");
+        showStatus("Контур: отключен");
+        recordState();
     }
 
     @FXML
     protected void onOutlineSolidClick() {
         hasOutline = true;
         updateOutlineButtons();
-        welcomeText.setText("Контур: сплошной");
+        showStatus("Контур: сплошной");
+        recordState();
     }
 
     @FXML
     protected void onFillNoneClick() {
         hasFill = false;
         updateFillButtons();
-        welcomeText.setText("Заливка: отключена");
+        showStatus("Заливка: отключена");
+        recordState();
     }
 
     @FXML
     protected void onFillSolidClick() {
         hasFill = true;
         updateFillButtons();
-        welcomeText.setText("Заливка: сплошная");
+        showStatus("Заливка: сплошная");
+        recordState();
     }
 }
\ No newline at end of file
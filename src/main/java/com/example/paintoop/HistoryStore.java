@@ -0,0 +1,490 @@
+package com.example.paintoop;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+public class HistoryStore implements Iterable<List<Shape>>, AutoCloseable {
+    private static final long COMPACT_THRESHOLD = 1 << 20;
+
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private final long memoryBudget;
+    private final int maxDepth;
+    private final StyleTable styleTable;
+    private long residentBytes = 0;
+    private int residentCount = 0;
+    private long spilledBytes = 0;
+    private int spilledCount = 0;
+
+    private FileChannel spillFile;
+    private long spillEnd = 0;
+
+    public HistoryStore(long memoryBudget, int maxDepth) {
+        this(memoryBudget, maxDepth, StyleTable.shared());
+    }
+
+    public HistoryStore(long memoryBudget, int maxDepth, StyleTable styleTable) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("History depth must be positive");
+        }
+        this.memoryBudget = Math.max(0, memoryBudget);
+        this.maxDepth = maxDepth;
+        this.styleTable = styleTable;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public int getResidentCount() {
+        return residentCount;
+    }
+
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public int getSpilledCount() {
+        return spilledCount;
+    }
+
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    public long getSpillFileSize() {
+        return spillEnd;
+    }
+
+    public void push(List<Shape> state) {
+        Entry entry = new Entry(state);
+        entries.push(entry);
+        residentCount++;
+        residentBytes += entry.estimatedBytes;
+        while (entries.size() > maxDepth) {
+            discard(entries.removeLast());
+        }
+        enforceBudget();
+    }
+
+    public void pushRaster(RasterLayer.Edit edit) {
+        pushRaster(edit, false);
+    }
+
+    public void pushRaster(RasterLayer.Edit edit, boolean joined) {
+        Entry entry = new Entry(edit);
+        entry.joined = joined;
+        entries.push(entry);
+        residentCount++;
+        residentBytes += entry.estimatedBytes;
+        while (entries.size() > maxDepth) {
+            discard(entries.removeLast());
+        }
+        enforceBudget();
+    }
+
+    public boolean isRasterNext() {
+        Entry entry = entries.peek();
+        return entry != null && entry.raster != null;
+    }
+
+    public boolean isJoinedNext() {
+        Entry entry = entries.peek();
+        return entry != null && entry.joined;
+    }
+
+    public RasterLayer.Edit popRaster() {
+        Entry entry = entries.peek();
+        if (entry == null || entry.raster == null) {
+            return null;
+        }
+        entries.poll();
+        residentCount--;
+        residentBytes -= entry.estimatedBytes;
+        return entry.raster;
+    }
+
+    public void addLast(List<Shape> state) {
+        if (entries.size() >= maxDepth) {
+            return;
+        }
+        Entry entry = new Entry(state);
+        entries.addLast(entry);
+        residentCount++;
+        residentBytes += entry.estimatedBytes;
+        if (spilledCount > 0 || residentBytes > memoryBudget) {
+            spill(entry);
+        }
+        enforceBudget();
+    }
+
+    public List<Shape> pop() {
+        Entry entry = entries.poll();
+        if (entry == null) {
+            return null;
+        }
+        if (entry.shapes != null) {
+            residentCount--;
+            residentBytes -= entry.estimatedBytes;
+            return entry.shapes;
+        }
+        try {
+            return load(entry);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return null;
+        } finally {
+            release(entry);
+        }
+    }
+
+    @Override
+    public Iterator<List<Shape>> iterator() {
+        Iterator<Entry> iterator = entries.iterator();
+        return new Iterator<List<Shape>>() {
+            private Entry next = advance();
+
+            private Entry advance() {
+                while (iterator.hasNext()) {
+                    Entry entry = iterator.next();
+                    if (entry.raster == null) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public List<Shape> next() {
+                Entry entry = next;
+                if (entry == null) {
+                    throw new NoSuchElementException();
+                }
+                next = advance();
+                if (entry.shapes != null) {
+                    return entry.shapes;
+                }
+                try {
+                    return load(entry);
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                    return new ArrayList<>();
+                }
+            }
+        };
+    }
+
+    public void writeStates(JsonGenerator generator) throws IOException {
+        for (Entry entry : entries) {
+            if (entry.raster != null) {
+                continue;
+            }
+            ShapeJson.writeArray(generator, entry.shapes != null ? entry.shapes : load(entry));
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        residentCount = 0;
+        residentBytes = 0;
+        spilledCount = 0;
+        spilledBytes = 0;
+        truncate(0);
+    }
+
+    public void replaceStyle(int from, int to) {
+        for (Entry entry : entries) {
+            if (entry.raster != null) {
+                continue;
+            }
+            if (entry.shapes != null) {
+                for (Shape shape : entry.shapes) {
+                    shape.replaceStyle(from, to);
+                }
+            } else if (entry.styles.get(from)) {
+                entry.styles.clear(from);
+                entry.styles.set(to);
+            }
+        }
+    }
+
+    public void collectStyles(BitSet used) {
+        for (Entry entry : entries) {
+            if (entry.raster != null) {
+                continue;
+            }
+            if (entry.shapes != null) {
+                ShapeJson.collectStyles(entry.shapes, used, styleTable);
+            } else {
+                used.or(entry.styles);
+            }
+        }
+    }
+
+    public void collectSymbols(BitSet used) {
+        for (Entry entry : entries) {
+            if (entry.raster != null) {
+                continue;
+            }
+            if (entry.shapes != null) {
+                ShapeJson.collectSymbols(entry.shapes, used);
+            } else {
+                used.or(entry.symbols);
+            }
+        }
+    }
+
+    private void enforceBudget() {
+        if (residentBytes <= memoryBudget) {
+            return;
+        }
+        Iterator<Entry> oldest = entries.descendingIterator();
+        while (residentBytes > memoryBudget && residentCount > 1 && oldest.hasNext()) {
+            Entry entry = oldest.next();
+            if (entry.shapes != null && entry.raster == null && !spill(entry)) {
+                return;
+            }
+        }
+    }
+
+    private boolean spill(Entry entry) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater, 1 << 16))) {
+                out.writeInt(entry.shapes.size());
+                for (Shape shape : entry.shapes) {
+                    ShapeCodec.write(out, shape);
+                }
+            } finally {
+                deflater.end();
+            }
+            if (spillFile == null) {
+                File file = File.createTempFile("paintoop-history", ".bin");
+                file.deleteOnExit();
+                spillFile = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            long offset = spillEnd;
+            while (buffer.hasRemaining()) {
+                spillFile.write(buffer, offset + buffer.position());
+            }
+            entry.styles = new BitSet();
+            collectDecodedStyles(entry.shapes, entry.styles, new HashMap<>());
+            entry.symbols = new BitSet();
+            ShapeJson.collectSymbols(entry.shapes, entry.symbols);
+            entry.offset = offset;
+            entry.length = buffer.limit();
+            spillEnd = offset + entry.length;
+            residentCount--;
+            residentBytes -= entry.estimatedBytes;
+            spilledCount++;
+            spilledBytes += entry.length;
+            entry.shapes = null;
+            return true;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+    }
+
+    private void collectDecodedStyles(List<Shape> shapes, BitSet used, Map<Integer, Integer> decoded)
+            throws IOException {
+        for (Shape shape : shapes) {
+            if (shape instanceof ShapeGroup) {
+                collectDecodedStyles(((ShapeGroup) shape).getChildren(), used, decoded);
+            } else if (shape instanceof SymbolInstance) {
+                ShapeJson.collectStyles(Collections.singletonList(shape), used, styleTable);
+            } else {
+                Integer id = decoded.get(shape.getStyleId());
+                if (id == null) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    ShapeCodec.writeStyle(new DataOutputStream(bytes), shape.getStyle());
+                    id = styleTable.intern(ShapeCodec.readStyle(
+                            new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+                    decoded.put(shape.getStyleId(), id);
+                }
+                used.set(id);
+            }
+        }
+    }
+
+    private List<Shape> load(Entry entry) throws IOException {
+        ByteBuffer buffer = read(entry.offset, entry.length);
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(buffer.array())))) {
+            int count = in.readInt();
+            List<Shape> shapes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                shapes.add(ShapeCodec.read(in, styleTable));
+            }
+            return shapes;
+        }
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (spillFile.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Truncated history spill file");
+            }
+        }
+        return buffer;
+    }
+
+    private void discard(Entry entry) {
+        if (entry.shapes != null || entry.raster != null) {
+            residentCount--;
+            residentBytes -= entry.estimatedBytes;
+        } else {
+            release(entry);
+        }
+    }
+
+    private void release(Entry entry) {
+        spilledCount--;
+        spilledBytes -= entry.length;
+        if (spilledCount == 0) {
+            truncate(0);
+        } else if (entry.offset + entry.length == spillEnd) {
+            truncate(entry.offset);
+        } else if (spillEnd - spilledBytes > Math.max(COMPACT_THRESHOLD, spilledBytes)) {
+            compact();
+        }
+    }
+
+    private void truncate(long size) {
+        spillEnd = size;
+        if (spillFile == null) {
+            return;
+        }
+        try {
+            spillFile.truncate(size);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private void compact() {
+        List<Entry> spilled = new ArrayList<>(spilledCount);
+        for (Entry entry : entries) {
+            if (entry.shapes == null && entry.raster == null) {
+                spilled.add(entry);
+            }
+        }
+        spilled.sort(Comparator.comparingLong(entry -> entry.offset));
+        long position = 0;
+        try {
+            for (Entry entry : spilled) {
+                if (entry.offset != position) {
+                    ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+                    while (buffer.hasRemaining()) {
+                        spillFile.read(buffer, entry.offset + buffer.position());
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        spillFile.write(buffer, position + buffer.position());
+                    }
+                    entry.offset = position;
+                }
+                position += entry.length;
+            }
+            truncate(position);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        clear();
+        if (spillFile != null) {
+            try {
+                spillFile.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+            spillFile = null;
+        }
+    }
+
+    static long estimateBytes(Shape shape) {
+        if (shape instanceof Polyline) {
+            return 128 + 16L * ((Polyline) shape).getPointCount();
+        } else if (shape instanceof PathShape) {
+            return 256 + 8L * ((PathShape) shape).getCoords().length;
+        } else if (shape instanceof ShapeGroup) {
+            long bytes = 128;
+            for (Shape child : ((ShapeGroup) shape).getChildren()) {
+                bytes += 8 + estimateBytes(child);
+            }
+            return bytes;
+        }
+        return 80;
+    }
+
+    private static final class Entry {
+        List<Shape> shapes;
+        final RasterLayer.Edit raster;
+        final long estimatedBytes;
+        BitSet styles;
+        BitSet symbols;
+        boolean joined;
+        long offset;
+        int length;
+
+        Entry(List<Shape> shapes) {
+            this.shapes = shapes;
+            this.raster = null;
+            long bytes = 24 + 4L * shapes.size();
+            for (Shape shape : shapes) {
+                bytes += estimateBytes(shape);
+            }
+            this.estimatedBytes = bytes;
+        }
+
+        Entry(RasterLayer.Edit raster) {
+            this.raster = raster;
+            this.estimatedBytes = raster.getByteSize();
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.paintoop;
+
+import javafx.scene.input.InputEvent;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.paint.Color;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class InputRecorder implements AutoCloseable {
+    static final int MAGIC = 0x50524543;
+    static final short VERSION = 1;
+
+    static final byte MOUSE_PRESSED = 1;
+    static final byte MOUSE_DRAGGED = 2;
+    static final byte MOUSE_RELEASED = 3;
+    static final byte MOUSE_MOVED = 4;
+    static final byte SCROLL = 5;
+    static final byte KEY_PRESSED = 6;
+    static final byte STATE = 7;
+
+    static final int PRIMARY = 1;
+    static final int MIDDLE = 2;
+    static final int SECONDARY = 4;
+    static final int SHIFT = 8;
+    static final int CONTROL = 16;
+    static final int ALT = 32;
+    static final int META = 64;
+
+    static final int OUTLINE = 1;
+    static final int FILL = 2;
+
+    private static final int FLUSH_INTERVAL = 256;
+
+    private final DataOutputStream out;
+    private final long startNanos = System.nanoTime();
+    private long lastMicros = 0;
+    private int unflushed = 0;
+    private int eventCount = 0;
+    private boolean failed = false;
+
+    public InputRecorder(File file, double canvasWidth, double canvasHeight) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeDouble(canvasWidth);
+        out.writeDouble(canvasHeight);
+    }
+
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    public void record(InputEvent event) {
+        if (failed) {
+            return;
+        }
+        try {
+            if (event instanceof MouseEvent) {
+                MouseEvent mouse = (MouseEvent) event;
+                byte type = mouseType(mouse);
+                if (type == 0) {
+                    return;
+                }
+                begin(type);
+                out.writeFloat((float) mouse.getX());
+                out.writeFloat((float) mouse.getY());
+                out.writeByte(mouseFlags(mouse));
+            } else if (event instanceof ScrollEvent) {
+                ScrollEvent scroll = (ScrollEvent) event;
+                begin(SCROLL);
+                out.writeFloat((float) scroll.getX());
+                out.writeFloat((float) scroll.getY());
+                out.writeFloat((float) scroll.getDeltaY());
+                out.writeByte(modifiers(scroll.isShiftDown(), scroll.isControlDown(), scroll.isAltDown(),
+                        scroll.isMetaDown()));
+            } else if (event instanceof KeyEvent && event.getEventType() == KeyEvent.KEY_PRESSED) {
+                KeyEvent key = (KeyEvent) event;
+                begin(KEY_PRESSED);
+                out.writeUTF(key.getCode().name());
+                out.writeByte(modifiers(key.isShiftDown(), key.isControlDown(), key.isAltDown(), key.isMetaDown()));
+            } else {
+                return;
+            }
+            finish();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public void recordState(String tool, boolean hasOutline, boolean hasFill, Color outlineColor, Color fillColor) {
+        if (failed) {
+            return;
+        }
+        try {
+            begin(STATE);
+            out.writeUTF(tool);
+            out.writeByte((hasOutline ? OUTLINE : 0) | (hasFill ? FILL : 0));
+            out.writeInt(ShapeCodec.toArgb(outlineColor));
+            out.writeInt(ShapeCodec.toArgb(fillColor));
+            finish();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void begin(byte type) throws IOException {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        out.writeByte(type);
+        writeVarLong(out, Math.max(0, micros - lastMicros));
+        lastMicros = Math.max(lastMicros, micros);
+    }
+
+    private void finish() throws IOException {
+        eventCount++;
+        if (++unflushed >= FLUSH_INTERVAL) {
+            unflushed = 0;
+            out.flush();
+        }
+    }
+
+    private void fail(IOException e) {
+        failed = true;
+        System.err.println(e.getMessage());
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private static byte mouseType(MouseEvent event) {
+        if (event.getEventType() == MouseEvent.MOUSE_PRESSED) {
+            return MOUSE_PRESSED;
+        } else if (event.getEventType() == MouseEvent.MOUSE_DRAGGED) {
+            return MOUSE_DRAGGED;
+        } else if (event.getEventType() == MouseEvent.MOUSE_RELEASED) {
+            return MOUSE_RELEASED;
+        } else if (event.getEventType() == MouseEvent.MOUSE_MOVED) {
+            return MOUSE_MOVED;
+        }
+        return 0;
+    }
+
+    private static int mouseFlags(MouseEvent event) {
+        int flags = modifiers(event.isShiftDown(), event.isControlDown(), event.isAltDown(), event.isMetaDown());
+        if (event.isPrimaryButtonDown()) {
+            flags |= PRIMARY;
+        }
+        if (event.isMiddleButtonDown()) {
+            flags |= MIDDLE;
+        }
+        if (event.isSecondaryButtonDown()) {
+            flags |= SECONDARY;
+        }
+        return flags;
+    }
+
+    private static int modifiers(boolean shift, boolean control, boolean alt, boolean meta) {
+        return (shift ? SHIFT : 0) | (control ? CONTROL : 0) | (alt ? ALT : 0) | (meta ? META : 0);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed time delta");
+    }
+
+    public static Session read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an input recording: " + file);
+            }
+            short version = in.readShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported recording version: " + version);
+            }
+            Session session = new Session(in.readDouble(), in.readDouble());
+            long micros = 0;
+            while (true) {
+                int type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    micros += readVarLong(in);
+                    Event event = new Event((byte) type, micros * 1000);
+                    switch (type) {
+                        case MOUSE_PRESSED:
+                        case MOUSE_DRAGGED:
+                        case MOUSE_RELEASED:
+                        case MOUSE_MOVED:
+                            event.x = in.readFloat();
+                            event.y = in.readFloat();
+                            event.flags = in.readUnsignedByte();
+                            break;
+                        case SCROLL:
+                            event.x = in.readFloat();
+                            event.y = in.readFloat();
+                            event.deltaY = in.readFloat();
+                            event.flags = in.readUnsignedByte();
+                            break;
+                        case KEY_PRESSED:
+                            event.keyCode = KeyCode.valueOf(in.readUTF());
+                            event.flags = in.readUnsignedByte();
+                            break;
+                        case STATE:
+                            event.tool = in.readUTF();
+                            event.flags = in.readUnsignedByte();
+                            event.outlineColor = ShapeCodec.fromArgb(in.readInt());
+                            event.fillColor = ShapeCodec.fromArgb(in.readInt());
+                            break;
+                        default:
+                            throw new IOException("Unknown event type: " + type);
+                    }
+                    session.events.add(event);
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+            return session;
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    public static class Session {
+        final double canvasWidth;
+        final double canvasHeight;
+        final List<Event> events = new ArrayList<>();
+
+        Session(double canvasWidth, double canvasHeight) {
+            this.canvasWidth = canvasWidth;
+            this.canvasHeight = canvasHeight;
+        }
+
+        public double getCanvasWidth() {
+            return canvasWidth;
+        }
+
+        public double getCanvasHeight() {
+            return canvasHeight;
+        }
+
+        public List<Event> getEvents() {
+            return events;
+        }
+    }
+
+    public static class Event {
+        final byte type;
+        final long timeNanos;
+        double x, y, deltaY;
+        int flags;
+        KeyCode keyCode;
+        String tool;
+        Color outlineColor, fillColor;
+
+        Event(byte type, long timeNanos) {
+            this.type = type;
+            this.timeNanos = timeNanos;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public long getTimeNanos() {
+            return timeNanos;
+        }
+
+        boolean has(int flag) {
+            return (flags & flag) != 0;
+        }
+    }
+}
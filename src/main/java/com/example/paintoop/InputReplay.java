@@ -0,0 +1,184 @@
+package com.example.paintoop;
+
+import com.sun.management.ThreadMXBean;
+import javafx.scene.canvas.Canvas;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+public final class InputReplay {
+    private static final long FRAME_NANOS = 16_666_667L;
+
+    private InputReplay() {
+    }
+
+    public static Report run(InputRecorder.Session session, Repository repository, boolean realtime) {
+        Canvas canvas = new Canvas(session.getCanvasWidth(), session.getCanvasHeight());
+        Canvas overlay = new Canvas(session.getCanvasWidth(), session.getCanvasHeight());
+        HelloController controller = new HelloController(repository, canvas, overlay);
+        DrawingCanvas drawingCanvas = controller.getDrawingCanvas();
+        drawingCanvas.useExternalFrames();
+        drawingCanvas.redrawAllShapes();
+
+        List<InputRecorder.Event> events = session.getEvents();
+        long[] latencies = new long[events.size()];
+        long[] frames = new long[events.size()];
+        int frameCount = 0;
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long gcCount = -gcCount();
+        long gcMillis = -gcMillis();
+        long allocated = -threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < events.size(); i++) {
+            InputRecorder.Event event = events.get(i);
+            if (realtime) {
+                long wait = event.getTimeNanos() - (System.nanoTime() - start);
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            long eventStart = System.nanoTime();
+            controller.replay(event);
+            long eventEnd = System.nanoTime();
+            latencies[i] = eventEnd - eventStart;
+
+            boolean frameEnds = i == events.size() - 1
+                    || events.get(i + 1).getTimeNanos() / FRAME_NANOS != event.getTimeNanos() / FRAME_NANOS;
+            if (frameEnds && drawingCanvas.flushRedraw()) {
+                frames[frameCount++] = System.nanoTime() - eventEnd;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated += threads.getCurrentThreadAllocatedBytes();
+        gcCount += gcCount();
+        gcMillis += gcMillis();
+        return new Report(latencies, Arrays.copyOf(frames, frameCount), elapsed, allocated, gcCount, gcMillis);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static Repository openDocument(File document) throws IOException {
+        File copy = File.createTempFile("paintoop-replay", ".json");
+        copy.deleteOnExit();
+        if (document != null) {
+            Files.copy(document.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            copy.delete();
+        }
+        return new LocalRepository(copy, true);
+    }
+
+    public static class Report {
+        private final long[] latencies;
+        private final long[] frames;
+        private final long elapsedNanos;
+        private final long allocatedBytes;
+        private final long gcCount;
+        private final long gcMillis;
+
+        Report(long[] latencies, long[] frames, long elapsedNanos, long allocatedBytes, long gcCount, long gcMillis) {
+            this.latencies = latencies.clone();
+            this.frames = frames.clone();
+            Arrays.sort(this.latencies);
+            Arrays.sort(this.frames);
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        public int getEventCount() {
+            return latencies.length;
+        }
+
+        public int getFrameCount() {
+            return frames.length;
+        }
+
+        public double getLatencyPercentile(double percentile) {
+            return percentile(latencies, percentile);
+        }
+
+        public double getFramePercentile(double percentile) {
+            return percentile(frames, percentile);
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public double getAllocationRate() {
+            return elapsedNanos == 0 ? 0 : allocatedBytes / (elapsedNanos / 1e9);
+        }
+
+        private static double percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("events=%d time=%.1fms%n"
+                            + "event latency ms: p50=%.3f p90=%.3f p99=%.3f max=%.3f%n"
+                            + "frames=%d frame time ms: p50=%.3f p90=%.3f p99=%.3f max=%.3f%n"
+                            + "allocated=%.1fMB rate=%.1fMB/s per event=%.0fB gc=%d (%dms)",
+                    latencies.length, elapsedNanos / 1e6,
+                    percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+                    percentile(latencies, 100),
+                    frames.length, percentile(frames, 50), percentile(frames, 90), percentile(frames, 99),
+                    percentile(frames, 100),
+                    allocatedBytes / 1e6, getAllocationRate() / 1e6,
+                    latencies.length == 0 ? 0.0 : (double) allocatedBytes / latencies.length, gcCount, gcMillis);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: InputReplay <recording> [--document history.json] [--warmup n] [--realtime]");
+            System.exit(2);
+        }
+        File document = null;
+        int warmup = 0;
+        boolean realtime = false;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--document": document = new File(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--realtime": realtime = true; break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        InputRecorder.Session session = InputRecorder.read(new File(args[0]));
+        for (int i = 0; i < warmup; i++) {
+            run(session, openDocument(document), false);
+        }
+        System.out.println(run(session, openDocument(document), realtime));
+    }
+}
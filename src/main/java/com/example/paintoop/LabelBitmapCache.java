@@ -0,0 +1,117 @@
+package com.example.paintoop;
+
+import javafx.geometry.Rectangle2D;
+import javafx.geometry.VPos;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+public class LabelBitmapCache {
+    private static final int MIN_BUCKET = -4;
+    private static final int MAX_BUCKET = 3;
+    private static final int MAX_IMAGE_SIZE = 2048;
+    private static final LabelBitmapCache SHARED = new LabelBitmapCache(32L << 20);
+
+    private final LinkedHashMap<Key, WritableImage> images = new LinkedHashMap<>(256, 0.75f, true);
+    private final long budget;
+    private long byteSize = 0;
+    private final Key probe = new Key();
+    private Canvas canvas;
+    private SnapshotParameters parameters;
+
+    public LabelBitmapCache(long budget) {
+        this.budget = budget;
+    }
+
+    public static LabelBitmapCache shared() {
+        return SHARED;
+    }
+
+    public static double bucketScale(double scale) {
+        int bucket = (int) Math.ceil(Math.log(scale) / Math.log(2) - 1e-9);
+        return Math.pow(2, Math.max(MIN_BUCKET, Math.min(MAX_BUCKET, bucket)));
+    }
+
+    public WritableImage get(TextLayoutCache.Layout layout, Color color, double scale) {
+        double rasterScale = bucketScale(scale);
+        int width = (int) Math.ceil(layout.getWidth() * rasterScale) + 1;
+        int height = (int) Math.ceil(layout.getHeight() * rasterScale) + 1;
+        if (width > MAX_IMAGE_SIZE || height > MAX_IMAGE_SIZE) {
+            return null;
+        }
+        probe.layout = layout;
+        probe.argb = ShapeCodec.toArgb(color);
+        probe.rasterScale = rasterScale;
+        WritableImage image = images.get(probe);
+        if (image != null) {
+            return image;
+        }
+
+        image = render(layout, color, rasterScale, width, height);
+        Key key = new Key();
+        key.layout = layout;
+        key.argb = probe.argb;
+        key.rasterScale = rasterScale;
+        images.put(key, image);
+        byteSize += (long) width * height * 4;
+        if (byteSize > budget) {
+            Iterator<WritableImage> eldest = images.values().iterator();
+            while (byteSize > budget && images.size() > 1 && eldest.hasNext()) {
+                WritableImage evicted = eldest.next();
+                byteSize -= (long) evicted.getWidth() * (long) evicted.getHeight() * 4;
+                eldest.remove();
+            }
+        }
+        return image;
+    }
+
+    private WritableImage render(TextLayoutCache.Layout layout, Color color, double rasterScale,
+                                 int width, int height) {
+        if (canvas == null) {
+            canvas = new Canvas(width, height);
+            parameters = new SnapshotParameters();
+            parameters.setFill(Color.TRANSPARENT);
+        } else if (canvas.getWidth() < width || canvas.getHeight() < height) {
+            canvas.setWidth(Math.max(canvas.getWidth(), width));
+            canvas.setHeight(Math.max(canvas.getHeight(), height));
+        }
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.clearRect(0, 0, width, height);
+        gc.save();
+        gc.scale(rasterScale, rasterScale);
+        gc.setFill(color);
+        gc.setFont(layout.getFont());
+        gc.setTextBaseline(VPos.TOP);
+        for (int i = 0; i < layout.getLineCount(); i++) {
+            gc.fillText(layout.getLine(i), 0, i * layout.getLineHeight());
+        }
+        gc.restore();
+        parameters.setViewport(new Rectangle2D(0, 0, width, height));
+        return canvas.snapshot(parameters, new WritableImage(width, height));
+    }
+
+    private static final class Key {
+        private TextLayoutCache.Layout layout;
+        private int argb;
+        private double rasterScale;
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return layout == other.layout && argb == other.argb && rasterScale == other.rasterScale;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(layout) * 31 + argb) * 31 + Double.hashCode(rasterScale);
+        }
+    }
+}
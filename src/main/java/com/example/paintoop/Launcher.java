@@ -4,6 +4,7 @@ import javafx.application.Application;
 
 public class Launcher {
     public static void main(String[] args) {
+        StartupTimer.mark("main");
         Application.launch(HelloApplication.class, args);
     }
 }
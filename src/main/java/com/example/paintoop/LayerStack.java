@@ -0,0 +1,287 @@
+package com.example.paintoop;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class LayerStack {
+    public static final int DEFAULT_LAYER = 0;
+
+    private final List<Layer> layers = new ArrayList<>();
+    private int nextId = DEFAULT_LAYER + 1;
+    private int activeLayerId = DEFAULT_LAYER;
+    private Runnable changeListener;
+
+    public LayerStack() {
+        layers.add(new Layer(DEFAULT_LAYER, "Слой 1"));
+    }
+
+    public void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    public int size() {
+        return layers.size();
+    }
+
+    public List<Layer> getLayers() {
+        return Collections.unmodifiableList(layers);
+    }
+
+    public Layer get(int layerId) {
+        for (Layer layer : layers) {
+            if (layer.id == layerId) {
+                return layer;
+            }
+        }
+        return null;
+    }
+
+    public Layer resolve(int layerId) {
+        Layer layer = get(layerId);
+        return layer != null ? layer : layers.get(0);
+    }
+
+    public int indexOf(int layerId) {
+        for (int i = 0; i < layers.size(); i++) {
+            if (layers.get(i).id == layerId) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    public boolean isVisible(int layerId) {
+        return resolve(layerId).visible;
+    }
+
+    public boolean isEditable(int layerId) {
+        Layer layer = resolve(layerId);
+        return layer.visible && !layer.locked;
+    }
+
+    public int getActiveLayerId() {
+        return activeLayerId;
+    }
+
+    public Layer getActiveLayer() {
+        return resolve(activeLayerId);
+    }
+
+    public void setActiveLayer(int layerId) {
+        activeLayerId = resolve(layerId).id;
+    }
+
+    public Layer addLayer(String name) {
+        Layer layer = new Layer(nextId++, name);
+        layers.add(indexOf(activeLayerId) + 1, layer);
+        activeLayerId = layer.id;
+        fireChanged();
+        return layer;
+    }
+
+    public boolean removeLayer(int layerId) {
+        Layer layer = get(layerId);
+        if (layer == null || layers.size() == 1) {
+            return false;
+        }
+        int index = layers.indexOf(layer);
+        layers.remove(index);
+        if (activeLayerId == layerId) {
+            activeLayerId = layers.get(Math.max(0, index - 1)).id;
+        }
+        touchAll();
+        fireChanged();
+        return true;
+    }
+
+    public boolean moveLayer(int layerId, int delta) {
+        Layer layer = get(layerId);
+        if (layer == null) {
+            return false;
+        }
+        int index = layers.indexOf(layer);
+        int target = Math.max(0, Math.min(layers.size() - 1, index + delta));
+        if (target == index) {
+            return false;
+        }
+        layers.remove(index);
+        layers.add(target, layer);
+        fireChanged();
+        return true;
+    }
+
+    public void rename(int layerId, String name) {
+        Layer layer = get(layerId);
+        if (layer != null && !layer.name.equals(name)) {
+            layer.name = name;
+            fireChanged();
+        }
+    }
+
+    public void setVisible(int layerId, boolean visible) {
+        Layer layer = get(layerId);
+        if (layer != null && layer.visible != visible) {
+            layer.visible = visible;
+            fireChanged();
+        }
+    }
+
+    public void setLocked(int layerId, boolean locked) {
+        Layer layer = get(layerId);
+        if (layer != null && layer.locked != locked) {
+            layer.locked = locked;
+            fireChanged();
+        }
+    }
+
+    public void touch(int layerId) {
+        resolve(layerId).revision++;
+    }
+
+    public void touchAll() {
+        for (Layer layer : layers) {
+            layer.revision++;
+        }
+    }
+
+    public List<Shape> arrange(Collection<Shape> shapes) {
+        List<Shape> arranged = new ArrayList<>(shapes.size());
+        for (Shape shape : shapes) {
+            if (isVisible(shape.getLayer())) {
+                arranged.add(shape);
+            }
+        }
+        if (layers.size() > 1) {
+            arranged.sort(Comparator.comparingInt(shape -> indexOf(shape.getLayer())));
+        }
+        return arranged;
+    }
+
+    public void write(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("active", activeLayerId);
+        generator.writeArrayFieldStart("items");
+        for (Layer layer : layers) {
+            generator.writeStartObject();
+            generator.writeNumberField("id", layer.id);
+            generator.writeStringField("name", layer.name);
+            if (!layer.visible) {
+                generator.writeBooleanField("visible", false);
+            }
+            if (layer.locked) {
+                generator.writeBooleanField("locked", true);
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    public void read(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected layers object");
+        }
+        List<Layer> loaded = new ArrayList<>();
+        int active = DEFAULT_LAYER;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("active")) {
+                active = parser.getIntValue();
+            } else if (field.equals("items")) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    Integer id = null;
+                    String name = null;
+                    boolean visible = true, locked = false;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String key = parser.currentName();
+                        parser.nextToken();
+                        switch (key) {
+                            case "id": id = parser.getIntValue(); break;
+                            case "name": name = parser.getText(); break;
+                            case "visible": visible = parser.getBooleanValue(); break;
+                            case "locked": locked = parser.getBooleanValue(); break;
+                            default: parser.skipChildren(); break;
+                        }
+                    }
+                    if (id == null) {
+                        throw new JsonParseException(parser, "Layer without id");
+                    }
+                    Layer layer = new Layer(id, name != null ? name : "Слой " + (loaded.size() + 1));
+                    layer.visible = visible;
+                    layer.locked = locked;
+                    loaded.add(layer);
+                }
+            } else if (value.isStructStart()) {
+                parser.skipChildren();
+            }
+        }
+        if (loaded.isEmpty()) {
+            return;
+        }
+        layers.clear();
+        layers.addAll(loaded);
+        nextId = DEFAULT_LAYER + 1;
+        for (Layer layer : loaded) {
+            nextId = Math.max(nextId, layer.id + 1);
+        }
+        activeLayerId = resolve(active).id;
+        touchAll();
+    }
+
+    public void replaceWith(LayerStack other) {
+        layers.clear();
+        layers.addAll(other.layers);
+        nextId = other.nextId;
+        activeLayerId = other.activeLayerId;
+        touchAll();
+    }
+
+    private void fireChanged() {
+        if (changeListener != null) {
+            changeListener.run();
+        }
+    }
+
+    public static final class Layer {
+        private final int id;
+        private String name;
+        private boolean visible = true;
+        private boolean locked = false;
+        private long revision = 0;
+
+        private Layer(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isVisible() {
+            return visible;
+        }
+
+        public boolean isLocked() {
+            return locked;
+        }
+
+        public long getRevision() {
+            return revision;
+        }
+    }
+}
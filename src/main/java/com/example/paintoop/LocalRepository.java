@@ -1,38 +1,182 @@
 package com.example.paintoop;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
 public class LocalRepository implements Repository {
     private List<Shape> shapes = new ArrayList<>();
-    private Deque<List<Shape>> history = new ArrayDeque<>();
-    private static final int MAX_HISTORY_SIZE = 5;
+    private static final int MAX_HISTORY_SIZE = Integer.getInteger("paintoop.history.depth", 5);
+    private static final long HISTORY_BUDGET = Long.getLong("paintoop.history.budget", 64) << 20;
+    private final StyleTable styleTable = new StyleTable();
+    private final HistoryStore history = new HistoryStore(HISTORY_BUDGET, MAX_HISTORY_SIZE, styleTable);
     private static final String HISTORY_FILE = "history.json";
-    private ObjectMapper objectMapper;
+    private static final int LOAD_CHUNK_SIZE = 4096;
+    private final File file;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final SpatialIndex spatialIndex = new SpatialIndex();
+    private final AlignmentIndex alignmentIndex = new AlignmentIndex();
+    private final AttributeIndex attributeIndex = new AttributeIndex(styleTable);
+    private final LayerStack layers = new LayerStack();
+    private final RasterLayer rasterLayer = new RasterLayer();
+    private long nextOrder = 0;
+    private long nextId = 1;
+    private int updateDepth = 0;
+    private boolean stateSavedInUpdate = false;
+    private boolean dirtyInUpdate = false;
+    private boolean historyLoaded = true;
+    private boolean saveDeferredUntilHistory = false;
+    private boolean shapesLoaded = true;
+    private final ArrayDeque<HeldState> heldHistory = new ArrayDeque<>();
+    private final Set<Shape> pendingAlignment = Collections.newSetFromMap(new IdentityHashMap<>());
+    private Runnable changeListener;
+
+    public enum LoadPhase { VISIBLE, SHAPES, HISTORY }
 
     public LocalRepository() {
-        objectMapper = new ObjectMapper();
-        objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
-        loadHistoryFromFile();
+        this(true);
+    }
+
+    public LocalRepository(boolean loadImmediately) {
+        this(new File(HISTORY_FILE), loadImmediately);
+    }
+
+    public LocalRepository(File file, boolean loadImmediately) {
+        this.file = file;
+        layers.setChangeListener(this::saveHistoryToFile);
+        if (loadImmediately) {
+            loadHistoryFromFile();
+        } else {
+            historyLoaded = false;
+        }
+    }
+
+    public HistoryStore getHistory() {
+        return history;
+    }
+
+    public StyleTable getStyleTable() {
+        return styleTable;
+    }
+
+    public RasterLayer getRasterLayer() {
+        return rasterLayer;
+    }
+
+    public void commitRasterEdit(RasterLayer.Edit edit) {
+        rasterLayer.finishEdit(edit);
+        if (edit.isEmpty()) {
+            return;
+        }
+        if (!shapesLoaded) {
+            hold(new HeldState(null, edit, false));
+            return;
+        }
+        history.pushRaster(edit);
+        saveHistoryToFile();
     }
 
     @Override
     public void addShape(Shape shape) {
-        saveState();
+        pushState();
+        assignId(shape);
+        shape.adoptStyles(styleTable);
         shapes.add(shape);
+        shape.setOrder(nextOrder++);
+        spatialIndex.insert(shape);
+        attributeIndex.add(shape);
+        alignmentIndex.add(shape);
+        saveHistoryToFile();
+    }
+
+    @Override
+    public void addShapes(Collection<Shape> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        pushState();
+        for (Shape shape : added) {
+            assignId(shape);
+            shape.adoptStyles(styleTable);
+            shapes.add(shape);
+            shape.setOrder(nextOrder++);
+            spatialIndex.insert(shape);
+            attributeIndex.add(shape);
+        }
+        if (updateDepth > 0) {
+            pendingAlignment.addAll(added);
+        } else {
+            alignmentIndex.addAll(added);
+        }
         saveHistoryToFile();
     }
 
+    @Override
+    public void beginUpdate() {
+        if (updateDepth++ == 0) {
+            stateSavedInUpdate = false;
+            dirtyInUpdate = false;
+        }
+    }
+
+    @Override
+    public void endUpdate() {
+        if (updateDepth == 0) {
+            return;
+        }
+        if (updateDepth == 1 && !pendingAlignment.isEmpty()) {
+            alignmentIndex.addAll(pendingAlignment);
+            pendingAlignment.clear();
+        }
+        if (--updateDepth == 0 && dirtyInUpdate) {
+            dirtyInUpdate = false;
+            saveHistoryToFile();
+        }
+    }
+
     @Override
     public void removeShape(Shape shape) {
-        saveState();
+        pushState();
         shapes.remove(shape);
+        spatialIndex.remove(shape);
+        attributeIndex.remove(shape);
+        alignmentIndex.remove(shape);
+        pendingAlignment.remove(shape);
+        saveHistoryToFile();
+    }
+
+    @Override
+    public void removeShapes(Collection<Shape> toRemove) {
+        if (toRemove.isEmpty()) {
+            return;
+        }
+        pushState();
+        Set<Shape> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        removed.addAll(toRemove);
+        shapes.removeIf(removed::contains);
+        for (Shape shape : removed) {
+            spatialIndex.remove(shape);
+            attributeIndex.remove(shape);
+            alignmentIndex.remove(shape);
+            pendingAlignment.remove(shape);
+        }
         saveHistoryToFile();
     }
 
@@ -43,33 +187,109 @@ public class LocalRepository implements Repository {
 
     @Override
     public void clear() {
-        saveState();
+        pushState();
+        if (!rasterLayer.isEmpty()) {
+            RasterLayer.Edit cleared = rasterLayer.clearAll();
+            if (shapesLoaded) {
+                history.pushRaster(cleared, true);
+            } else {
+                hold(new HeldState(null, cleared, true));
+            }
+        }
         shapes.clear();
+        spatialIndex.clear();
+        attributeIndex.clear();
+        alignmentIndex.clear();
+        pendingAlignment.clear();
         saveHistoryToFile();
     }
 
     @Override
     public void undo() {
-        if (!history.isEmpty()) {
-            List<Shape> previousState = history.pop();
+        if (!shapesLoaded) {
+            undoHeld();
+            return;
+        }
+        if (history.isRasterNext()) {
+            boolean joined = history.isJoinedNext();
+            rasterLayer.revert(history.popRaster());
+            if (!joined) {
+                saveHistoryToFile();
+                return;
+            }
+        }
+        List<Shape> previousState = history.pop();
+        if (previousState != null) {
             shapes.clear();
             shapes.addAll(previousState);
+            reindex();
             saveHistoryToFile();
         }
     }
 
     @Override
     public void saveState() {
+        pushState();
+        saveHistoryToFile();
+    }
+
+    private void pushState() {
+        if (updateDepth > 0) {
+            if (stateSavedInUpdate) {
+                return;
+            }
+            stateSavedInUpdate = true;
+        }
         List<Shape> stateCopy = new ArrayList<>();
         for (Shape shape : shapes) {
             stateCopy.add(shape.copy());
         }
+        if (!shapesLoaded) {
+            for (int i = 0; i < stateCopy.size(); i++) {
+                stateCopy.get(i).setOrder(shapes.get(i).getOrder());
+            }
+            hold(new HeldState(stateCopy, null, false));
+            return;
+        }
         history.push(stateCopy);
+    }
 
-        while (history.size() > MAX_HISTORY_SIZE) {
-            history.removeLast();
+    private void hold(HeldState state) {
+        heldHistory.push(state);
+        while (heldHistory.size() > MAX_HISTORY_SIZE) {
+            heldHistory.removeLast();
         }
-        saveHistoryToFile();
+    }
+
+    private void undoHeld() {
+        HeldState state = heldHistory.poll();
+        if (state == null) {
+            return;
+        }
+        if (state.raster != null) {
+            rasterLayer.revert(state.raster);
+            if (!state.joined) {
+                return;
+            }
+            state = heldHistory.poll();
+            if (state == null || state.shapes == null) {
+                return;
+            }
+        }
+        shapes.clear();
+        shapes.addAll(state.shapes);
+        for (Shape shape : shapes) {
+            assignId(shape);
+        }
+        spatialIndex.rebuild(shapes);
+        attributeIndex.rebuild(shapes);
+        alignmentIndex.rebuild(shapes);
+        pendingAlignment.clear();
+    }
+
+    @Override
+    public void setChangeListener(Runnable listener) {
+        this.changeListener = listener;
     }
 
     @Override
@@ -77,58 +297,463 @@ public class LocalRepository implements Repository {
         if (shapes.contains(shape)) {
             shapes.remove(shape);
             shapes.add(shape);
+            shape.setOrder(nextOrder++);
             saveState();
         }
     }
 
+    @Override
+    public List<Shape> findShapesInRegion(double x, double y, double width, double height) {
+        return spatialIndex.query(x, y, width, height);
+    }
+
+    @Override
+    public List<Shape> loadRegion(double x, double y, double width, double height) {
+        return spatialIndex.query(x, y, width, height);
+    }
+
+    @Override
+    public AlignmentIndex getAlignmentIndex() {
+        return alignmentIndex;
+    }
+
+    @Override
+    public AttributeIndex getAttributeIndex() {
+        return attributeIndex;
+    }
+
+    @Override
+    public LayerStack getLayers() {
+        return layers;
+    }
+
+    @Override
+    public void updateShapes(Collection<Shape> changed) {
+        for (Shape shape : changed) {
+            spatialIndex.update(shape);
+            attributeIndex.update(shape);
+            alignmentIndex.update(shape);
+        }
+    }
+
+    @Override
+    public void restyleAll(int styleId, Style style) {
+        Style previous = styleTable.get(styleId);
+        if (previous.equals(style)) {
+            return;
+        }
+        pushState();
+        styleTable.redefine(styleId, style);
+        int preservedId = styleTable.intern(previous);
+        history.replaceStyle(styleId, preservedId);
+        for (HeldState held : heldHistory) {
+            if (held.shapes != null) {
+                for (Shape shape : held.shapes) {
+                    shape.replaceStyle(styleId, preservedId);
+                }
+            }
+        }
+        saveHistoryToFile();
+    }
+
+    @Override
+    public ShapeGroup groupShapes(Collection<Shape> members) {
+        Set<Shape> memberSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        memberSet.addAll(members);
+
+        List<Shape> ordered = new ArrayList<>(memberSet.size());
+        int position = 0;
+        for (int i = 0; i < shapes.size(); i++) {
+            Shape shape = shapes.get(i);
+            if (memberSet.contains(shape)) {
+                ordered.add(shape);
+                position = i + 1 - ordered.size();
+            }
+        }
+        if (ordered.size() < 2) {
+            return null;
+        }
+        pushState();
+        shapes.removeIf(memberSet::contains);
+        for (Shape shape : ordered) {
+            spatialIndex.remove(shape);
+            attributeIndex.remove(shape);
+            alignmentIndex.remove(shape);
+            pendingAlignment.remove(shape);
+        }
+
+        ShapeGroup group = new ShapeGroup(ordered);
+        assignId(group);
+        shapes.add(position, group);
+        renumber();
+        spatialIndex.insert(group);
+        attributeIndex.add(group);
+        alignmentIndex.add(group);
+        saveHistoryToFile();
+        return group;
+    }
+
+    @Override
+    public List<Shape> ungroup(ShapeGroup group) {
+        int position = shapes.indexOf(group);
+        if (position < 0) {
+            return Collections.emptyList();
+        }
+        pushState();
+        shapes.remove(position);
+        spatialIndex.remove(group);
+        attributeIndex.remove(group);
+        alignmentIndex.remove(group);
+        pendingAlignment.remove(group);
+
+        List<Shape> released = group.releaseChildren();
+        shapes.addAll(position, released);
+        renumber();
+        for (Shape shape : released) {
+            spatialIndex.insert(shape);
+            attributeIndex.add(shape);
+            alignmentIndex.add(shape);
+        }
+        saveHistoryToFile();
+        return released;
+    }
+
+    private void assignId(Shape shape) {
+        if (shape.getId() == 0) {
+            shape.setId(nextId++);
+        } else {
+            nextId = Math.max(nextId, shape.getId() + 1);
+        }
+    }
+
+    private void adoptStyles(List<Shape> loaded) {
+        for (Shape shape : loaded) {
+            shape.adoptStyles(styleTable);
+        }
+    }
+
+    private void renumber() {
+        nextOrder = 0;
+        for (Shape shape : shapes) {
+            shape.setOrder(nextOrder++);
+        }
+    }
+
+    private void reindex() {
+        renumber();
+        for (Shape shape : shapes) {
+            assignId(shape);
+        }
+        spatialIndex.rebuild(shapes);
+        attributeIndex.rebuild(shapes);
+        alignmentIndex.rebuild(shapes);
+        pendingAlignment.clear();
+    }
+
     public void clearPersistentData() {
         history.clear();
+        heldHistory.clear();
+        rasterLayer.clear();
+        layers.replaceWith(new LayerStack());
         shapes.clear();
-        File file = new File(HISTORY_FILE);
+        spatialIndex.clear();
+        attributeIndex.clear();
+        alignmentIndex.clear();
+        pendingAlignment.clear();
         if (file.exists()) {
             file.delete();
         }
     }
 
     private void saveHistoryToFile() {
-        try {
-            RepositoryState repositoryState = new RepositoryState(new ArrayList<>(history), new ArrayList<>(shapes));
-            objectMapper.writeValue(new File(HISTORY_FILE), repositoryState);
+        if (updateDepth > 0) {
+            dirtyInUpdate = true;
+            return;
+        }
+        if (!historyLoaded) {
+            saveDeferredUntilHistory = true;
+            return;
+        }
+        try (JsonGenerator generator = jsonFactory.createGenerator(file, JsonEncoding.UTF8)) {
+            BitSet usedStyles = new BitSet();
+            ShapeJson.collectStyles(shapes, usedStyles, styleTable);
+            history.collectStyles(usedStyles);
+            BitSet usedSymbols = new BitSet();
+            ShapeJson.collectSymbols(shapes, usedSymbols);
+            history.collectSymbols(usedSymbols);
+            styleTable.retain(usedStyles);
+            generator.writeStartObject();
+            generator.writeFieldName("styles");
+            ShapeJson.writeStyles(generator, usedStyles, styleTable);
+            if (!usedSymbols.isEmpty()) {
+                generator.writeFieldName("symbols");
+                ShapeJson.writeSymbols(generator, usedSymbols, styleTable);
+            }
+            generator.writeFieldName("layers");
+            layers.write(generator);
+            generator.writeFieldName("current");
+            ShapeJson.writeArray(generator, shapes);
+            if (!rasterLayer.isEmpty()) {
+                generator.writeFieldName("raster");
+                rasterLayer.write(generator);
+            }
+            generator.writeArrayFieldStart("history");
+            history.writeStates(generator);
+            generator.writeEndArray();
+            generator.writeEndObject();
         } catch (IOException e) {
             System.err.println(e.getMessage());
         }
     }
 
     private void loadHistoryFromFile() {
+        if (!file.exists()) {
+            return;
+        }
         try {
-            File file = new File(HISTORY_FILE);
-            if (file.exists()) {
-                RepositoryState repositoryState = objectMapper.readValue(file, RepositoryState.class);
-                history.clear();
-                history.addAll(repositoryState.getHistory());
-                shapes.clear();
-                shapes.addAll(repositoryState.getCurrentShapes());
+            Map<Integer, Integer> styles = readStyles(file);
+            Map<Integer, Integer> symbols = readSymbols(file, styles);
+            List<Shape> current = readSection(file, "current", styles, symbols);
+            List<List<Shape>> states = readHistorySection(file, styles, symbols);
+            readRaster(file, rasterLayer);
+            readLayers(file, layers);
+            adoptStyles(current);
+            history.clear();
+            for (List<Shape> state : states) {
+                adoptStyles(state);
+                history.addLast(state);
             }
+            shapes.clear();
+            shapes.addAll(current);
+            reindex();
         } catch (IOException e) {
             System.err.println(e.getMessage());
         }
     }
 
-    private static class RepositoryState {
-        private List<List<Shape>> history;
-        private List<Shape> currentShapes;
+    public void loadInBackground(double viewX, double viewY, double viewWidth, double viewHeight,
+                                 Executor applyExecutor, Consumer<LoadPhase> phaseListener) {
+        shapesLoaded = false;
+        Thread loader = new Thread(() -> {
+            List<Shape> current = Collections.emptyList();
+            Map<Integer, Integer> styles = Collections.emptyMap();
+            Map<Integer, Integer> symbols = Collections.emptyMap();
+            LayerStack loadedLayers = new LayerStack();
+            if (file.exists()) {
+                try {
+                    styles = readStyles(file);
+                    symbols = readSymbols(file, styles);
+                    readLayers(file, loadedLayers);
+                    current = readSection(file, "current", styles, symbols);
+                    adoptStyles(current);
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+
+            int count = current.size();
+            List<Shape> visible = new ArrayList<>();
+            List<Shape> rest = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                Shape shape = current.get(i);
+                shape.setOrder(i - count);
+                if (shape.intersects(viewX, viewY, viewWidth, viewHeight)) {
+                    visible.add(shape);
+                } else {
+                    rest.add(shape);
+                }
+            }
+            applyExecutor.execute(() -> {
+                layers.replaceWith(loadedLayers);
+                appendLoaded(visible);
+                alignmentIndex.addAll(visible);
+                phaseListener.accept(LoadPhase.VISIBLE);
+            });
+            for (int from = 0; from < rest.size(); from += LOAD_CHUNK_SIZE) {
+                List<Shape> chunk = rest.subList(from, Math.min(rest.size(), from + LOAD_CHUNK_SIZE));
+                applyExecutor.execute(() -> appendLoaded(chunk));
+            }
+            RasterLayer raster = new RasterLayer();
+            if (file.exists()) {
+                try {
+                    readRaster(file, raster);
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+            applyExecutor.execute(() -> {
+                if (!raster.isEmpty()) {
+                    rasterLayer.replaceWith(raster);
+                }
+                Set<Shape> present = Collections.newSetFromMap(new IdentityHashMap<>());
+                present.addAll(shapes);
+                for (Shape shape : rest) {
+                    if (present.contains(shape)) {
+                        alignmentIndex.add(shape);
+                    }
+                }
+                shapes.sort(Comparator.comparingLong(Shape::getOrder));
+                renumber();
+                releaseHeldHistory();
+                phaseListener.accept(LoadPhase.SHAPES);
+            });
 
-        public RepositoryState(List<List<Shape>> history, List<Shape> currentShapes) {
-            this.history = history;
-            this.currentShapes = currentShapes;
+            List<List<Shape>> states = Collections.emptyList();
+            if (file.exists()) {
+                try {
+                    states = readHistorySection(file, styles, symbols);
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+            List<List<Shape>> loadedStates = states;
+            applyExecutor.execute(() -> {
+                mergeHistory(loadedStates);
+                phaseListener.accept(LoadPhase.HISTORY);
+            });
+        }, "history-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    private void appendLoaded(List<Shape> loaded) {
+        for (Shape shape : loaded) {
+            assignId(shape);
+            shapes.add(shape);
+            spatialIndex.insert(shape);
+            attributeIndex.add(shape);
+        }
+        for (HeldState held : heldHistory) {
+            if (held.shapes == null) {
+                continue;
+            }
+            for (Shape shape : loaded) {
+                Shape copy = shape.copy();
+                copy.setOrder(shape.getOrder());
+                held.shapes.add(copy);
+            }
+        }
+        if (changeListener != null && !loaded.isEmpty()) {
+            changeListener.run();
+        }
+    }
+
+    private void mergeHistory(List<List<Shape>> states) {
+        if (historyLoaded) {
+            return;
+        }
+        historyLoaded = true;
+        for (List<Shape> state : states) {
+            adoptStyles(state);
+            history.addLast(state);
+        }
+        if (saveDeferredUntilHistory) {
+            saveDeferredUntilHistory = false;
+            saveHistoryToFile();
         }
+    }
+
+    private void releaseHeldHistory() {
+        shapesLoaded = true;
+        while (!heldHistory.isEmpty()) {
+            HeldState held = heldHistory.removeLast();
+            if (held.raster != null) {
+                history.pushRaster(held.raster, held.joined);
+            } else {
+                held.shapes.sort(Comparator.comparingLong(Shape::getOrder));
+                history.push(held.shapes);
+            }
+        }
+        saveHistoryToFile();
+    }
 
-        public List<List<Shape>> getHistory() {
-            return history;
+    private Map<Integer, Integer> readStyles(File file) throws IOException {
+        try (JsonParser parser = openSection(file, "styles")) {
+            return parser == null ? Collections.emptyMap() : ShapeJson.readStyles(parser);
         }
+    }
+
+    private Map<Integer, Integer> readSymbols(File file, Map<Integer, Integer> styles) throws IOException {
+        try (JsonParser parser = openSection(file, "symbols")) {
+            return parser == null ? Collections.emptyMap() : ShapeJson.readSymbols(parser, styles);
+        }
+    }
+
+    private List<Shape> readSection(File file, String section, Map<Integer, Integer> styles,
+                                    Map<Integer, Integer> symbols) throws IOException {
+        try (JsonParser parser = openSection(file, section)) {
+            if (parser == null) {
+                return new ArrayList<>();
+            }
+            List<String> errors = new ArrayList<>();
+            List<Shape> loaded = ShapeJson.readArray(parser, styles, symbols, errors);
+            for (String error : errors) {
+                System.err.println(file.getName() + ":" + error);
+            }
+            return loaded;
+        }
+    }
+
+    private List<List<Shape>> readHistorySection(File file, Map<Integer, Integer> styles,
+                                                 Map<Integer, Integer> symbols) throws IOException {
+        List<List<Shape>> states = new ArrayList<>();
+        try (JsonParser parser = openSection(file, "history")) {
+            if (parser == null) {
+                return states;
+            }
+            if (parser.currentToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "Expected history array");
+            }
+            while (parser.nextToken() == JsonToken.START_ARRAY) {
+                states.add(ShapeJson.readArray(parser, styles, symbols));
+            }
+        }
+        return states;
+    }
+
+    private void readRaster(File file, RasterLayer raster) throws IOException {
+        try (JsonParser parser = openSection(file, "raster")) {
+            if (parser != null) {
+                raster.read(parser);
+            }
+        }
+    }
+
+    private void readLayers(File file, LayerStack target) throws IOException {
+        try (JsonParser parser = openSection(file, "layers")) {
+            if (parser != null) {
+                target.read(parser);
+            }
+        }
+    }
+
+    private JsonParser openSection(File file, String section) throws IOException {
+        JsonParser parser = jsonFactory.createParser(file);
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            parser.close();
+            throw new JsonParseException(parser, "Unsupported history file format");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            if (name.equals(section)) {
+                return parser;
+            }
+            parser.skipChildren();
+        }
+        parser.close();
+        return null;
+    }
+
+    private static final class HeldState {
+        private final List<Shape> shapes;
+        private final RasterLayer.Edit raster;
+        private final boolean joined;
 
-        public List<Shape> getCurrentShapes() {
-            return currentShapes;
+        private HeldState(List<Shape> shapes, RasterLayer.Edit raster, boolean joined) {
+            this.shapes = shapes;
+            this.raster = raster;
+            this.joined = joined;
         }
     }
-}
\ No newline at end of file
+}
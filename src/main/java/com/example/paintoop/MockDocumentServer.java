@@ -0,0 +1,251 @@
+package com.example.paintoop;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MockDocumentServer implements AutoCloseable {
+    static final byte OP_ADD = 1;
+    static final byte OP_REMOVE = 2;
+    static final byte OP_UPDATE = 3;
+    static final byte OP_CLEAR = 4;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(4, r -> {
+        Thread thread = new Thread(r, "mock-document-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Long, StoredShape> shapes = new LinkedHashMap<>();
+    private final SpatialIndex spatialIndex = new SpatialIndex();
+    private final Map<Long, ClientState> clients = new HashMap<>();
+    private long maxOrder = 0;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong opsApplied = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    public MockDocumentServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/shapes", this::handleShapes);
+        server.createContext("/ops", this::handleOps);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public URI getUri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getOpsApplied() {
+        return opsApplied.get();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    public synchronized int getShapeCount() {
+        return shapes.size();
+    }
+
+    private void handleShapes(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        Map<String, Double> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        synchronized (this) {
+            out.writeLong(maxOrder);
+            if (query.containsKey("x")) {
+                List<Shape> found = spatialIndex.query(query.get("x"), query.get("y"), query.get("w"), query.get("h"));
+                out.writeInt(found.size());
+                for (Shape shape : found) {
+                    writeShape(out, shapes.get(shape.getId()));
+                }
+            } else {
+                out.writeInt(shapes.size());
+                for (StoredShape stored : shapes.values()) {
+                    writeShape(out, stored);
+                }
+            }
+        }
+        respond(exchange, bytes.toByteArray());
+    }
+
+    private void handleOps(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = in.readAllBytes();
+        }
+        bytesIn.addAndGet(body.length);
+        long acked;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+            long clientKey = in.readLong();
+            long firstSeq = in.readLong();
+            synchronized (this) {
+                ClientState client = clients.computeIfAbsent(clientKey, k -> new ClientState());
+                if (firstSeq > client.appliedSeq + 1) {
+                    client.waiting.put(firstSeq, body);
+                } else {
+                    applyBatch(client, in);
+                    while (!client.waiting.isEmpty() && client.waiting.firstKey() <= client.appliedSeq + 1) {
+                        DataInputStream waiting = new DataInputStream(
+                                new ByteArrayInputStream(client.waiting.pollFirstEntry().getValue()));
+                        waiting.readLong();
+                        waiting.readLong();
+                        applyBatch(client, waiting);
+                    }
+                }
+                acked = client.appliedSeq;
+            }
+        } catch (IOException e) {
+            exchange.sendResponseHeaders(400, -1);
+            exchange.close();
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8);
+        new DataOutputStream(bytes).writeLong(acked);
+        respond(exchange, bytes.toByteArray());
+    }
+
+    private void applyBatch(ClientState client, DataInputStream in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            long seq = in.readLong();
+            byte code = in.readByte();
+            long id = in.readLong();
+            long order = in.readLong();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            if (seq <= client.appliedSeq) {
+                continue;
+            }
+            client.appliedSeq = seq;
+            opsApplied.incrementAndGet();
+            switch (code) {
+                case OP_ADD:
+                case OP_UPDATE: {
+                    StoredShape previous = shapes.remove(id);
+                    if (previous != null) {
+                        spatialIndex.remove(previous.shape);
+                    } else if (code == OP_UPDATE) {
+                        break;
+                    }
+                    Shape shape = ShapeCodec.fromBytes(data);
+                    shape.setOrder(order);
+                    shapes.put(id, new StoredShape(shape, data));
+                    spatialIndex.insert(shape);
+                    maxOrder = Math.max(maxOrder, order);
+                    break;
+                }
+                case OP_REMOVE: {
+                    StoredShape previous = shapes.remove(id);
+                    if (previous != null) {
+                        spatialIndex.remove(previous.shape);
+                    }
+                    break;
+                }
+                case OP_CLEAR:
+                    shapes.clear();
+                    spatialIndex.clear();
+                    break;
+                default:
+                    throw new IOException("Unknown op: " + code);
+            }
+        }
+    }
+
+    private static void writeShape(DataOutputStream out, StoredShape stored) throws IOException {
+        out.writeLong(stored.shape.getOrder());
+        out.writeInt(stored.data.length);
+        out.write(stored.data);
+    }
+
+    private void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        bytesOut.addAndGet(body.length);
+    }
+
+    private static Map<String, Double> parseQuery(String query) {
+        Map<String, Double> values = new HashMap<>();
+        if (query == null) {
+            return values;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                try {
+                    values.put(pair.substring(0, separator), Double.parseDouble(pair.substring(separator + 1)));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static final class StoredShape {
+        final Shape shape;
+        final byte[] data;
+
+        StoredShape(Shape shape, byte[] data) {
+            this.shape = shape;
+            this.data = data;
+        }
+    }
+
+    private static final class ClientState {
+        long appliedSeq = 0;
+        final TreeMap<Long, byte[]> waiting = new TreeMap<>();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7080;
+        MockDocumentServer server = new MockDocumentServer(port);
+        System.out.println("Mock document server listening on " + server.getUri());
+        if (args.length > 2 && args[1].equals("--bench")) {
+            RemoteRepository.benchmark(server, Integer.parseInt(args[2]));
+            server.close();
+            return;
+        }
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,636 @@
+package com.example.paintoop;
+
+import javafx.scene.paint.Color;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DeflaterOutputStream;
+
+public class PdfWriter extends VectorWriter {
+    private static final int FLUSH_THRESHOLD = 8192;
+    private static final double KAPPA = 0.5522847498;
+
+    private static final int CATALOG_ID = 1;
+    private static final int PAGES_ID = 2;
+    private static final int CONTENT_ID = 3;
+    private static final int LENGTH_ID = 4;
+    private static final int RESOURCES_ID = 5;
+    private static final int PAGE_ID = 6;
+    private static final int FONT_ID = 7;
+    private static final int CID_FONT_ID = 8;
+    private static final int DESCRIPTOR_ID = 9;
+    private static final int FONT_FILE_ID = 10;
+    private static final int TO_UNICODE_ID = 11;
+
+    private static final String[] FONT_PATHS = {
+            "/usr/share/fonts/truetype/dejavu/DejaVuSans.ttf",
+            "/usr/share/fonts/TTF/DejaVuSans.ttf",
+            "/usr/share/fonts/dejavu/DejaVuSans.ttf",
+            "/usr/share/fonts/truetype/liberation/LiberationSans-Regular.ttf",
+            "/usr/share/fonts/liberation/LiberationSans-Regular.ttf",
+            "C:/Windows/Fonts/arial.ttf",
+            "/Library/Fonts/Arial.ttf",
+            "/System/Library/Fonts/Supplemental/Arial.ttf"
+    };
+    private static TrueTypeFont unicodeFont;
+    private static boolean fontSearched;
+
+    private final CountingOutputStream out;
+    private final StringBuilder sb = new StringBuilder(FLUSH_THRESHOLD * 2);
+    private final long[] offsets = new long[TO_UNICODE_ID + 1];
+    private final Map<Long, String> graphicsStates = new LinkedHashMap<>();
+    private final TreeMap<Integer, Character> usedGlyphs = new TreeMap<>();
+    private TrueTypeFont embeddedFont;
+    private int substitutedCharacters = 0;
+    private double pageWidth;
+    private double pageHeight;
+    private long contentStart;
+
+    private Color currentStroke;
+    private Color currentFill;
+    private String currentState;
+    private double currentWidth = -1;
+    private double[] currentDash;
+    private boolean dashApplied;
+
+    public PdfWriter(OutputStream outputStream) {
+        this.out = new CountingOutputStream(new BufferedOutputStream(outputStream, 1 << 16));
+    }
+
+    @Override
+    public void begin(double width, double height) throws IOException {
+        pageWidth = width;
+        pageHeight = height;
+        write("%PDF-1.4\n%âãÏÓ\n");
+
+        beginObject(CATALOG_ID);
+        write("<< /Type /Catalog /Pages " + PAGES_ID + " 0 R >>\nendobj\n");
+        beginObject(PAGES_ID);
+        write("<< /Type /Pages /Kids [" + PAGE_ID + " 0 R] /Count 1 >>\nendobj\n");
+
+        beginObject(CONTENT_ID);
+        write("<< /Length " + LENGTH_ID + " 0 R >>\nstream\n");
+        contentStart = out.getCount();
+
+        sb.append("1 0 0 -1 0 ");
+        appendNumber(sb, height);
+        sb.append(" cm\n1 1 1 rg 0 0 ");
+        appendNumber(sb, width);
+        sb.append(' ');
+        appendNumber(sb, height);
+        sb.append(" re f\n1 j\n");
+        flushIfNeeded();
+    }
+
+    @Override
+    public void rect(double x, double y, double width, double height, Style style) throws IOException {
+        if (!applyStyle(style, true)) {
+            return;
+        }
+        appendNumber(sb, x);
+        sb.append(' ');
+        appendNumber(sb, y);
+        sb.append(' ');
+        appendNumber(sb, width);
+        sb.append(' ');
+        appendNumber(sb, height);
+        sb.append(" re ");
+        paint(style, true, true);
+    }
+
+    @Override
+    public void ellipse(double x, double y, double width, double height, Style style) throws IOException {
+        if (!applyStyle(style, true)) {
+            return;
+        }
+        double rx = width / 2;
+        double ry = height / 2;
+        double cx = x + rx;
+        double cy = y + ry;
+        double kx = rx * KAPPA;
+        double ky = ry * KAPPA;
+
+        moveTo(cx + rx, cy);
+        curveTo(cx + rx, cy + ky, cx + kx, cy + ry, cx, cy + ry);
+        curveTo(cx - kx, cy + ry, cx - rx, cy + ky, cx - rx, cy);
+        curveTo(cx - rx, cy - ky, cx - kx, cy - ry, cx, cy - ry);
+        curveTo(cx + kx, cy - ry, cx + rx, cy - ky, cx + rx, cy);
+        paint(style, true, true);
+    }
+
+    @Override
+    public void line(double x1, double y1, double x2, double y2, Style style) throws IOException {
+        if (!applyStyle(style, false)) {
+            return;
+        }
+        moveTo(x1, y1);
+        lineTo(x2, y2);
+        paint(style, false, false);
+    }
+
+    @Override
+    public void polygon(double[] xPoints, double[] yPoints, int count, Style style) throws IOException {
+        if (count < 2 || !applyStyle(style, true)) {
+            return;
+        }
+        path(xPoints, yPoints, count);
+        paint(style, true, true);
+    }
+
+    @Override
+    public void polyline(double[] xPoints, double[] yPoints, int count, Style style) throws IOException {
+        if (count < 2 || !applyStyle(style, false)) {
+            return;
+        }
+        path(xPoints, yPoints, count);
+        paint(style, false, false);
+    }
+
+    @Override
+    public void path(byte[] verbs, double[] coords, boolean closed, Style style) throws IOException {
+        if (!applyStyle(style, closed)) {
+            return;
+        }
+        double lastX = 0, lastY = 0, startX = 0, startY = 0;
+        int c = 0;
+        for (byte verb : verbs) {
+            switch (verb) {
+                case PathShape.MOVE:
+                    lastX = startX = coords[c++];
+                    lastY = startY = coords[c++];
+                    moveTo(lastX, lastY);
+                    break;
+                case PathShape.LINE:
+                    lastX = coords[c++];
+                    lastY = coords[c++];
+                    lineTo(lastX, lastY);
+                    break;
+                case PathShape.QUAD: {
+                    double cx = coords[c++], cy = coords[c++];
+                    double x2 = coords[c++], y2 = coords[c++];
+                    curveTo(lastX + 2.0 / 3 * (cx - lastX), lastY + 2.0 / 3 * (cy - lastY),
+                            x2 + 2.0 / 3 * (cx - x2), y2 + 2.0 / 3 * (cy - y2), x2, y2);
+                    lastX = x2;
+                    lastY = y2;
+                    break;
+                }
+                case PathShape.CUBIC:
+                    curveTo(coords[c], coords[c + 1], coords[c + 2], coords[c + 3], coords[c + 4], coords[c + 5]);
+                    lastX = coords[c + 4];
+                    lastY = coords[c + 5];
+                    c += 6;
+                    break;
+                default:
+                    sb.append("h ");
+                    lastX = startX;
+                    lastY = startY;
+                    break;
+            }
+            flushIfNeeded();
+        }
+        paint(style, closed, closed && isVisible(style.getFillPaint()));
+    }
+
+    @Override
+    public void text(double x, double baselineY, String[] lines, double lineHeight, String fontFamily,
+                     double fontSize, Color fill) throws IOException {
+        if (!applyColors(null, fill)) {
+            return;
+        }
+        TrueTypeFont font = isLatin(lines) ? null : unicodeFont();
+        if (font != null) {
+            embeddedFont = font;
+        }
+        sb.append(font != null ? "BT /F2 " : "BT /F1 ");
+        appendNumber(sb, fontSize);
+        sb.append(" Tf\n");
+        for (int i = 0; i < lines.length; i++) {
+            sb.append("1 0 0 -1 ");
+            appendNumber(sb, x);
+            sb.append(' ');
+            appendNumber(sb, baselineY + i * lineHeight);
+            if (font != null) {
+                sb.append(" Tm <");
+                appendGlyphs(font, lines[i]);
+                sb.append("> Tj\n");
+                continue;
+            }
+            sb.append(" Tm (");
+            for (int j = 0; j < lines[i].length(); j++) {
+                char c = lines[i].charAt(j);
+                if (c == '(' || c == ')' || c == '\\') {
+                    sb.append('\\').append(c);
+                } else if (c < 32 || c > 255) {
+                    sb.append('?');
+                    substitutedCharacters++;
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append(") Tj\n");
+        }
+        sb.append("ET\n");
+        flushIfNeeded();
+    }
+
+    @Override
+    public void beginGroup(double offsetX, double offsetY, double scaleX, double scaleY) throws IOException {
+        sb.append("q ");
+        appendNumber(sb, scaleX);
+        sb.append(" 0 0 ");
+        appendNumber(sb, scaleY);
+        sb.append(' ');
+        appendNumber(sb, offsetX);
+        sb.append(' ');
+        appendNumber(sb, offsetY);
+        sb.append(" cm\n");
+        resetStyle();
+        flushIfNeeded();
+    }
+
+    @Override
+    public void endGroup() throws IOException {
+        sb.append("Q\n");
+        resetStyle();
+        flushIfNeeded();
+    }
+
+    @Override
+    public void end() throws IOException {
+        flush();
+        long length = out.getCount() - contentStart;
+        write("\nendstream\nendobj\n");
+
+        beginObject(LENGTH_ID);
+        write(length + "\nendobj\n");
+
+        beginObject(RESOURCES_ID);
+        StringBuilder resources = new StringBuilder("<< /ExtGState <<");
+        for (Map.Entry<Long, String> entry : graphicsStates.entrySet()) {
+            long key = entry.getKey();
+            resources.append(" /").append(entry.getValue()).append(" << /CA ");
+            appendNumber(resources, (key >> 16) / 1000.0);
+            resources.append(" /ca ");
+            appendNumber(resources, (key & 0xffff) / 1000.0);
+            resources.append(" >>");
+        }
+        resources.append(" >> /Font << /F1 << /Type /Font /Subtype /Type1 /BaseFont /Helvetica")
+                .append(" /Encoding /WinAnsiEncoding >>");
+        if (embeddedFont != null) {
+            resources.append(" /F2 ").append(FONT_ID).append(" 0 R");
+        }
+        resources.append(" >> >>\nendobj\n");
+        write(resources.toString());
+
+        beginObject(PAGE_ID);
+        StringBuilder page = new StringBuilder("<< /Type /Page /Parent " + PAGES_ID + " 0 R /MediaBox [0 0 ");
+        appendNumber(page, pageWidth);
+        page.append(' ');
+        appendNumber(page, pageHeight);
+        page.append("] /Contents " + CONTENT_ID + " 0 R /Resources " + RESOURCES_ID + " 0 R >>\nendobj\n");
+        write(page.toString());
+
+        int lastId = PAGE_ID;
+        if (embeddedFont != null) {
+            writeFont();
+            lastId = TO_UNICODE_ID;
+        }
+
+        long xref = out.getCount();
+        StringBuilder table = new StringBuilder("xref\n0 " + (lastId + 1) + "\n0000000000 65535 f \n");
+        for (int id = 1; id <= lastId; id++) {
+            String offset = Long.toString(offsets[id]);
+            table.append("0".repeat(10 - offset.length())).append(offset).append(" 00000 n \n");
+        }
+        table.append("trailer\n<< /Size ").append(lastId + 1).append(" /Root ").append(CATALOG_ID)
+                .append(" 0 R >>\nstartxref\n").append(xref).append("\n%%EOF\n");
+        write(table.toString());
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    public int getSubstitutedCharacters() {
+        return substitutedCharacters;
+    }
+
+    static synchronized TrueTypeFont unicodeFont() {
+        if (fontSearched) {
+            return unicodeFont;
+        }
+        fontSearched = true;
+        String configured = System.getProperty("paintoop.pdf.font");
+        if (configured != null) {
+            unicodeFont = loadFont(new File(configured));
+        }
+        for (int i = 0; i < FONT_PATHS.length && unicodeFont == null; i++) {
+            File file = new File(FONT_PATHS[i]);
+            if (file.isFile()) {
+                unicodeFont = loadFont(file);
+            }
+        }
+        return unicodeFont;
+    }
+
+    private static TrueTypeFont loadFont(File file) {
+        try {
+            return TrueTypeFont.load(file);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean isLatin(String[] lines) {
+        for (String line : lines) {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c < 32 || c > 255) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void appendGlyphs(TrueTypeFont font, String line) {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            int glyph = font.glyph(c);
+            if (glyph == 0) {
+                substitutedCharacters++;
+            } else {
+                usedGlyphs.putIfAbsent(glyph, c);
+            }
+            String hex = Integer.toHexString(glyph);
+            sb.append("0".repeat(4 - hex.length())).append(hex);
+        }
+    }
+
+    private void writeFont() throws IOException {
+        String name = embeddedFont.getName();
+        beginObject(FONT_ID);
+        write("<< /Type /Font /Subtype /Type0 /BaseFont /" + name + " /Encoding /Identity-H /DescendantFonts ["
+                + CID_FONT_ID + " 0 R] /ToUnicode " + TO_UNICODE_ID + " 0 R >>\nendobj\n");
+
+        beginObject(CID_FONT_ID);
+        StringBuilder font = new StringBuilder("<< /Type /Font /Subtype /CIDFontType2 /BaseFont /").append(name)
+                .append(" /CIDSystemInfo << /Registry (Adobe) /Ordering (Identity) /Supplement 0 >> /FontDescriptor ")
+                .append(DESCRIPTOR_ID).append(" 0 R /CIDToGIDMap /Identity /W [");
+        for (int glyph : usedGlyphs.keySet()) {
+            font.append(' ').append(glyph).append(" [");
+            appendNumber(font, embeddedFont.advance(glyph));
+            font.append(']');
+        }
+        font.append(" ] >>\nendobj\n");
+        write(font.toString());
+
+        beginObject(DESCRIPTOR_ID);
+        StringBuilder descriptor = new StringBuilder("<< /Type /FontDescriptor /FontName /").append(name)
+                .append(" /Flags 32 /FontBBox [");
+        for (double value : embeddedFont.getBoundingBox()) {
+            descriptor.append(' ');
+            appendNumber(descriptor, value);
+        }
+        descriptor.append(" ] /ItalicAngle 0 /Ascent ");
+        appendNumber(descriptor, embeddedFont.getAscent());
+        descriptor.append(" /Descent ");
+        appendNumber(descriptor, embeddedFont.getDescent());
+        descriptor.append(" /CapHeight ");
+        appendNumber(descriptor, embeddedFont.getAscent());
+        descriptor.append(" /StemV 80 /FontFile2 ").append(FONT_FILE_ID).append(" 0 R >>\nendobj\n");
+        write(descriptor.toString());
+
+        byte[] data = embeddedFont.getData();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2);
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(compressed)) {
+            deflater.write(data);
+        }
+        beginObject(FONT_FILE_ID);
+        write("<< /Length " + compressed.size() + " /Length1 " + data.length + " /Filter /FlateDecode >>\nstream\n");
+        compressed.writeTo(out);
+        write("\nendstream\nendobj\n");
+
+        StringBuilder cmap = new StringBuilder("/CIDInit /ProcSet findresource begin\n12 dict begin\nbegincmap\n")
+                .append("/CIDSystemInfo << /Registry (Adobe) /Ordering (UCS) /Supplement 0 >> def\n")
+                .append("/CMapName /Adobe-Identity-UCS def\n/CMapType 2 def\n")
+                .append("1 begincodespacerange\n<0000> <FFFF>\nendcodespacerange\n");
+        int index = 0;
+        for (Map.Entry<Integer, Character> entry : usedGlyphs.entrySet()) {
+            if (index % 100 == 0) {
+                if (index > 0) {
+                    cmap.append("endbfchar\n");
+                }
+                cmap.append(Math.min(100, usedGlyphs.size() - index)).append(" beginbfchar\n");
+            }
+            index++;
+            cmap.append(String.format("<%04X> <%04X>\n", entry.getKey(), (int) entry.getValue()));
+        }
+        if (index > 0) {
+            cmap.append("endbfchar\n");
+        }
+        cmap.append("endcmap\nCMapName currentdict /CMap defineresource pop\nend\nend\n");
+        beginObject(TO_UNICODE_ID);
+        write("<< /Length " + cmap.length() + " >>\nstream\n" + cmap + "endstream\nendobj\n");
+    }
+
+    private boolean applyStyle(Style style, boolean filled) {
+        if (!applyColors(style.getStrokePaint(), filled ? style.getFillPaint() : null)) {
+            return false;
+        }
+        if (!isVisible(style.getStrokePaint())) {
+            return true;
+        }
+        if (style.getWidth() != currentWidth) {
+            appendNumber(sb, style.getWidth());
+            sb.append(" w\n");
+            currentWidth = style.getWidth();
+        }
+        double[] dash = style.getDash();
+        if (!dashApplied || !Arrays.equals(dash, currentDash)) {
+            sb.append('[');
+            if (dash != null) {
+                for (int i = 0; i < dash.length; i++) {
+                    if (i > 0) {
+                        sb.append(' ');
+                    }
+                    appendNumber(sb, dash[i]);
+                }
+            }
+            sb.append("] 0 d\n");
+            currentDash = dash;
+            dashApplied = true;
+        }
+        return true;
+    }
+
+    private boolean applyColors(Color stroke, Color fill) {
+        boolean hasStroke = isVisible(stroke);
+        boolean hasFill = isVisible(fill);
+        if (!hasStroke && !hasFill) {
+            return false;
+        }
+        if (hasStroke && !sameColor(stroke, currentStroke)) {
+            appendColor(stroke);
+            sb.append(" RG\n");
+            currentStroke = stroke;
+        }
+        if (hasFill && !sameColor(fill, currentFill)) {
+            appendColor(fill);
+            sb.append(" rg\n");
+            currentFill = fill;
+        }
+        double strokeAlpha = hasStroke ? stroke.getOpacity() : 1;
+        double fillAlpha = hasFill ? fill.getOpacity() : 1;
+        long key = (Math.round(strokeAlpha * 1000) << 16) | Math.round(fillAlpha * 1000);
+        String state = graphicsStates.get(key);
+        if (state == null) {
+            state = "GS" + graphicsStates.size();
+            graphicsStates.put(key, state);
+        }
+        if (!state.equals(currentState)) {
+            sb.append('/').append(state).append(" gs\n");
+            currentState = state;
+        }
+        return true;
+    }
+
+    private void paint(Style style, boolean filled, boolean closed) throws IOException {
+        boolean hasStroke = isVisible(style.getStrokePaint());
+        boolean hasFill = filled && closed && isVisible(style.getFillPaint());
+        if (hasStroke && hasFill) {
+            sb.append("b\n");
+        } else if (hasFill) {
+            sb.append("h f\n");
+        } else if (closed) {
+            sb.append("s\n");
+        } else {
+            sb.append("S\n");
+        }
+        flushIfNeeded();
+    }
+
+    private void path(double[] xPoints, double[] yPoints, int count) throws IOException {
+        moveTo(xPoints[0], yPoints[0]);
+        for (int i = 1; i < count; i++) {
+            lineTo(xPoints[i], yPoints[i]);
+            flushIfNeeded();
+        }
+    }
+
+    private void moveTo(double x, double y) {
+        appendNumber(sb, x);
+        sb.append(' ');
+        appendNumber(sb, y);
+        sb.append(" m ");
+    }
+
+    private void lineTo(double x, double y) {
+        appendNumber(sb, x);
+        sb.append(' ');
+        appendNumber(sb, y);
+        sb.append(" l ");
+    }
+
+    private void curveTo(double x1, double y1, double x2, double y2, double x3, double y3) {
+        appendNumber(sb, x1);
+        sb.append(' ');
+        appendNumber(sb, y1);
+        sb.append(' ');
+        appendNumber(sb, x2);
+        sb.append(' ');
+        appendNumber(sb, y2);
+        sb.append(' ');
+        appendNumber(sb, x3);
+        sb.append(' ');
+        appendNumber(sb, y3);
+        sb.append(" c ");
+    }
+
+    private void appendColor(Color color) {
+        appendNumber(sb, color.getRed());
+        sb.append(' ');
+        appendNumber(sb, color.getGreen());
+        sb.append(' ');
+        appendNumber(sb, color.getBlue());
+    }
+
+    private static boolean sameColor(Color a, Color b) {
+        return b != null && a.getRed() == b.getRed() && a.getGreen() == b.getGreen() && a.getBlue() == b.getBlue();
+    }
+
+    private void resetStyle() {
+        currentStroke = null;
+        currentFill = null;
+        currentState = null;
+        currentWidth = -1;
+        currentDash = null;
+        dashApplied = false;
+    }
+
+    private void beginObject(int id) throws IOException {
+        offsets[id] = out.getCount();
+        write(id + " 0 obj\n");
+    }
+
+    private void write(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private void flushIfNeeded() throws IOException {
+        if (sb.length() > FLUSH_THRESHOLD) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        write(sb.toString());
+        sb.setLength(0);
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream delegate;
+        private long count = 0;
+
+        CountingOutputStream(OutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.paintoop;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class RasterBrush {
+    private static final Map<Long, int[]> MASKS = new HashMap<>();
+    private static final double SPACING = 0.25;
+
+    private final RasterLayer layer;
+    private final RasterLayer.Edit edit;
+    private final int radius;
+    private final int argb;
+    private final boolean eraser;
+    private final int[] mask;
+    private final double spacing;
+    private double lastX, lastY;
+    private int dirtyMinX, dirtyMinY, dirtyMaxX, dirtyMaxY;
+    private boolean dirty = false;
+
+    public RasterBrush(RasterLayer layer, int radius, double hardness, int argb, boolean eraser) {
+        if (radius < 1) {
+            throw new IllegalArgumentException("Brush radius must be positive");
+        }
+        this.layer = layer;
+        this.edit = layer.beginEdit();
+        this.radius = radius;
+        this.argb = argb;
+        this.eraser = eraser;
+        this.mask = maskFor(radius, hardness);
+        this.spacing = Math.max(1, radius * SPACING);
+    }
+
+    public void begin(double x, double y) {
+        stamp(x, y);
+        lastX = x;
+        lastY = y;
+    }
+
+    public void strokeTo(double x, double y) {
+        double distance = Math.hypot(x - lastX, y - lastY);
+        if (distance < spacing) {
+            return;
+        }
+        int steps = (int) (distance / spacing);
+        double stepX = (x - lastX) * spacing / distance;
+        double stepY = (y - lastY) * spacing / distance;
+        for (int i = 1; i <= steps; i++) {
+            stamp(lastX + stepX * i, lastY + stepY * i);
+        }
+        lastX += stepX * steps;
+        lastY += stepY * steps;
+    }
+
+    public double[] takeDirtyRegion() {
+        if (!dirty) {
+            return null;
+        }
+        dirty = false;
+        return new double[]{dirtyMinX, dirtyMinY, dirtyMaxX - dirtyMinX, dirtyMaxY - dirtyMinY};
+    }
+
+    public RasterLayer.Edit finish() {
+        return edit;
+    }
+
+    private void stamp(double x, double y) {
+        int left = (int) Math.round(x) - radius;
+        int top = (int) Math.round(y) - radius;
+        int size = radius * 2 + 1;
+        layer.stampDab(mask, size, left, top, argb, eraser, edit);
+        if (!dirty) {
+            dirty = true;
+            dirtyMinX = left;
+            dirtyMinY = top;
+            dirtyMaxX = left + size;
+            dirtyMaxY = top + size;
+        } else {
+            dirtyMinX = Math.min(dirtyMinX, left);
+            dirtyMinY = Math.min(dirtyMinY, top);
+            dirtyMaxX = Math.max(dirtyMaxX, left + size);
+            dirtyMaxY = Math.max(dirtyMaxY, top + size);
+        }
+    }
+
+    static int[] maskFor(int radius, double hardness) {
+        double clampedHardness = Math.max(0, Math.min(1, hardness));
+        long key = ((long) radius << 32) | Math.round(clampedHardness * 255);
+        int[] mask = MASKS.get(key);
+        if (mask != null) {
+            return mask;
+        }
+        int size = radius * 2 + 1;
+        mask = new int[size * size];
+        double outer = radius + 0.5;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                double distance = Math.hypot(x - radius, y - radius) / outer;
+                double coverage;
+                if (distance >= 1) {
+                    coverage = 0;
+                } else if (distance <= clampedHardness) {
+                    coverage = 1;
+                } else {
+                    double t = (distance - clampedHardness) / (1 - clampedHardness);
+                    coverage = 1 - t * t * (3 - 2 * t);
+                }
+                mask[y * size + x] = (int) Math.round(coverage * 255);
+            }
+        }
+        MASKS.put(key, mask);
+        return mask;
+    }
+}
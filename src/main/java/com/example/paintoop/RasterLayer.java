@@ -0,0 +1,457 @@
+package com.example.paintoop;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class RasterLayer {
+    public static final int TILE_SIZE = 256;
+    private static final int TILE_PIXELS = TILE_SIZE * TILE_SIZE;
+
+    private final Map<Long, Tile> tiles = new HashMap<>();
+    private boolean visible = true;
+
+    public boolean isEmpty() {
+        return tiles.isEmpty();
+    }
+
+    public int getTileCount() {
+        return tiles.size();
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+    }
+
+    public int getPixel(int x, int y) {
+        Tile tile = tiles.get(keyOf(Math.floorDiv(x, TILE_SIZE), Math.floorDiv(y, TILE_SIZE)));
+        return tile == null ? 0 : tile.pixels[Math.floorMod(y, TILE_SIZE) * TILE_SIZE + Math.floorMod(x, TILE_SIZE)];
+    }
+
+    public Edit beginEdit() {
+        return new Edit();
+    }
+
+    public int fillMask(boolean[] mask, int maskX, int maskY, int maskWidth, int[] bounds, int argb, Edit edit) {
+        int filled = 0;
+        int minX = maskX + bounds[0], minY = maskY + bounds[1];
+        int maxX = maskX + bounds[2], maxY = maskY + bounds[3];
+        for (int row = Math.floorDiv(minY, TILE_SIZE); row <= Math.floorDiv(maxY, TILE_SIZE); row++) {
+            for (int col = Math.floorDiv(minX, TILE_SIZE); col <= Math.floorDiv(maxX, TILE_SIZE); col++) {
+                int tileX = col * TILE_SIZE, tileY = row * TILE_SIZE;
+                int fromX = Math.max(minX, tileX), toX = Math.min(maxX, tileX + TILE_SIZE - 1);
+                int fromY = Math.max(minY, tileY), toY = Math.min(maxY, tileY + TILE_SIZE - 1);
+                Tile tile = null;
+                for (int y = fromY; y <= toY; y++) {
+                    int maskRow = (y - maskY) * maskWidth - maskX;
+                    int tileRow = (y - tileY) * TILE_SIZE - tileX;
+                    for (int x = fromX; x <= toX; x++) {
+                        if (mask[maskRow + x]) {
+                            if (tile == null) {
+                                tile = writableTile(col, row, edit);
+                            }
+                            tile.pixels[tileRow + x] = argb;
+                            filled++;
+                        }
+                    }
+                }
+                if (tile != null) {
+                    tile.markDirty(fromX - tileX, fromY - tileY, toX - tileX, toY - tileY);
+                }
+            }
+        }
+        return filled;
+    }
+
+    public void stampDab(int[] mask, int size, int left, int top, int argb, boolean erase, Edit edit) {
+        int right = left + size - 1, bottom = top + size - 1;
+        int colorAlpha = argb >>> 24;
+        int color = argb & 0xffffff;
+        for (int row = Math.floorDiv(top, TILE_SIZE); row <= Math.floorDiv(bottom, TILE_SIZE); row++) {
+            for (int col = Math.floorDiv(left, TILE_SIZE); col <= Math.floorDiv(right, TILE_SIZE); col++) {
+                if (erase && !tiles.containsKey(keyOf(col, row))) {
+                    continue;
+                }
+                Tile tile = writableTile(col, row, edit);
+                int tileX = col * TILE_SIZE, tileY = row * TILE_SIZE;
+                int fromX = Math.max(left, tileX), toX = Math.min(right, tileX + TILE_SIZE - 1);
+                int fromY = Math.max(top, tileY), toY = Math.min(bottom, tileY + TILE_SIZE - 1);
+                int[] pixels = tile.pixels;
+                for (int y = fromY; y <= toY; y++) {
+                    int maskRow = (y - top) * size - left;
+                    int tileRow = (y - tileY) * TILE_SIZE - tileX;
+                    for (int x = fromX; x <= toX; x++) {
+                        int coverage = mask[maskRow + x];
+                        if (coverage == 0) {
+                            continue;
+                        }
+                        int alpha = coverage * colorAlpha / 255;
+                        int destination = pixels[tileRow + x];
+                        if (erase) {
+                            int remaining = (destination >>> 24) * (255 - alpha) / 255;
+                            pixels[tileRow + x] = remaining == 0 ? 0 : (remaining << 24) | (destination & 0xffffff);
+                        } else if (alpha != 0) {
+                            pixels[tileRow + x] = blend((alpha << 24) | color, destination);
+                        }
+                    }
+                }
+                tile.markDirty(fromX - tileX, fromY - tileY, toX - tileX, toY - tileY);
+            }
+        }
+    }
+
+    static int blend(int source, int destination) {
+        int alpha = source >>> 24;
+        if (alpha == 255) {
+            return source;
+        }
+        int destinationAlpha = (destination >>> 24) * (255 - alpha) / 255;
+        int outAlpha = alpha + destinationAlpha;
+        if (outAlpha == 0) {
+            return 0;
+        }
+        int r = (((source >> 16) & 0xff) * alpha + ((destination >> 16) & 0xff) * destinationAlpha) / outAlpha;
+        int g = (((source >> 8) & 0xff) * alpha + ((destination >> 8) & 0xff) * destinationAlpha) / outAlpha;
+        int b = ((source & 0xff) * alpha + (destination & 0xff) * destinationAlpha) / outAlpha;
+        return (outAlpha << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    public void finishEdit(Edit edit) {
+        for (Map.Entry<Long, int[]> entry : edit.previous.entrySet()) {
+            int[] before = entry.getValue();
+            if (before == null) {
+                edit.diffs.put(entry.getKey(), new TileDiff(0, 0, TILE_SIZE, TILE_SIZE, null));
+                continue;
+            }
+            int[] after = tiles.get(entry.getKey()).pixels;
+            int minX = TILE_SIZE, minY = TILE_SIZE, maxX = -1, maxY = -1;
+            for (int y = 0; y < TILE_SIZE; y++) {
+                int rowStart = y * TILE_SIZE;
+                int first = -1, last = -1;
+                for (int x = 0; x < TILE_SIZE; x++) {
+                    if (before[rowStart + x] != after[rowStart + x]) {
+                        if (first < 0) {
+                            first = x;
+                        }
+                        last = x;
+                    }
+                }
+                if (first >= 0) {
+                    minX = Math.min(minX, first);
+                    maxX = Math.max(maxX, last);
+                    minY = Math.min(minY, y);
+                    maxY = y;
+                }
+            }
+            if (maxX < 0) {
+                continue;
+            }
+            int width = maxX - minX + 1, height = maxY - minY + 1;
+            int[] saved = new int[width * height];
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(before, (minY + y) * TILE_SIZE + minX, saved, y * width, width);
+            }
+            edit.diffs.put(entry.getKey(), new TileDiff(minX, minY, width, height, saved));
+        }
+        edit.previous.clear();
+        edit.finished = true;
+    }
+
+    public void revert(Edit edit) {
+        if (!edit.finished) {
+            finishEdit(edit);
+        }
+        for (Map.Entry<Long, TileDiff> entry : edit.diffs.entrySet()) {
+            TileDiff diff = entry.getValue();
+            if (diff.pixels == null) {
+                tiles.remove(entry.getKey());
+                continue;
+            }
+            Tile tile = tiles.get(entry.getKey());
+            if (tile == null) {
+                tile = new Tile(new int[TILE_PIXELS]);
+                tiles.put(entry.getKey(), tile);
+            }
+            for (int y = 0; y < diff.height; y++) {
+                System.arraycopy(diff.pixels, y * diff.width, tile.pixels, (diff.y + y) * TILE_SIZE + diff.x, diff.width);
+            }
+            tile.markDirty(diff.x, diff.y, diff.x + diff.width - 1, diff.y + diff.height - 1);
+        }
+    }
+
+    public void clear() {
+        tiles.clear();
+    }
+
+    public Edit clearAll() {
+        Edit edit = new Edit();
+        for (Map.Entry<Long, Tile> entry : tiles.entrySet()) {
+            edit.diffs.put(entry.getKey(), new TileDiff(0, 0, TILE_SIZE, TILE_SIZE, entry.getValue().pixels));
+        }
+        edit.finished = true;
+        tiles.clear();
+        return edit;
+    }
+
+    public void replaceWith(RasterLayer other) {
+        tiles.clear();
+        tiles.putAll(other.tiles);
+    }
+
+    public void draw(GraphicsContext gc, double viewX, double viewY, double viewWidth, double viewHeight) {
+        if (!visible || tiles.isEmpty()) {
+            return;
+        }
+        int firstCol = (int) Math.floor(viewX / TILE_SIZE);
+        int lastCol = (int) Math.floor((viewX + viewWidth) / TILE_SIZE);
+        int firstRow = (int) Math.floor(viewY / TILE_SIZE);
+        int lastRow = (int) Math.floor((viewY + viewHeight) / TILE_SIZE);
+        if ((long) (lastCol - firstCol + 1) * (lastRow - firstRow + 1) > tiles.size()) {
+            for (Map.Entry<Long, Tile> entry : tiles.entrySet()) {
+                int col = (int) (entry.getKey() >> 32);
+                int row = (int) (long) entry.getKey();
+                if (col >= firstCol && col <= lastCol && row >= firstRow && row <= lastRow) {
+                    drawTile(gc, entry.getValue(), col, row);
+                }
+            }
+            return;
+        }
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                Tile tile = tiles.get(keyOf(col, row));
+                if (tile != null) {
+                    drawTile(gc, tile, col, row);
+                }
+            }
+        }
+    }
+
+    private static void drawTile(GraphicsContext gc, Tile tile, int col, int row) {
+        if (tile.image == null) {
+            tile.image = new WritableImage(TILE_SIZE, TILE_SIZE);
+            tile.dirtyMinX = 0;
+            tile.dirtyMinY = 0;
+            tile.dirtyMaxX = TILE_SIZE - 1;
+            tile.dirtyMaxY = TILE_SIZE - 1;
+        }
+        if (tile.dirtyMaxX >= tile.dirtyMinX) {
+            tile.image.getPixelWriter().setPixels(tile.dirtyMinX, tile.dirtyMinY,
+                    tile.dirtyMaxX - tile.dirtyMinX + 1, tile.dirtyMaxY - tile.dirtyMinY + 1,
+                    PixelFormat.getIntArgbInstance(), tile.pixels,
+                    tile.dirtyMinY * TILE_SIZE + tile.dirtyMinX, TILE_SIZE);
+            tile.clearDirty();
+        }
+        gc.drawImage(tile.image, (double) col * TILE_SIZE, (double) row * TILE_SIZE);
+    }
+
+    private Tile writableTile(int col, int row, Edit edit) {
+        long key = keyOf(col, row);
+        Tile tile = tiles.get(key);
+        if (edit.previous.containsKey(key)) {
+            return tile;
+        }
+        if (tile == null) {
+            tile = new Tile(new int[TILE_PIXELS]);
+            tiles.put(key, tile);
+            edit.previous.put(key, null);
+        } else {
+            edit.previous.put(key, tile.pixels);
+            tile.pixels = tile.pixels.clone();
+        }
+        return tile;
+    }
+
+    public void write(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("tileSize", TILE_SIZE);
+        generator.writeArrayFieldStart("tiles");
+        for (Map.Entry<Long, Tile> entry : tiles.entrySet()) {
+            generator.writeStartObject();
+            generator.writeNumberField("col", (int) (entry.getKey() >> 32));
+            generator.writeNumberField("row", (int) (long) entry.getKey());
+            generator.writeFieldName("data");
+            generator.writeBinary(entry.getValue().compressed());
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    public void read(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected raster object");
+        }
+        Map<Long, Tile> loaded = new HashMap<>();
+        int tileSize = TILE_SIZE;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("tileSize")) {
+                tileSize = parser.getIntValue();
+            } else if (field.equals("tiles")) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    int col = 0, row = 0;
+                    byte[] data = null;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String name = parser.currentName();
+                        parser.nextToken();
+                        switch (name) {
+                            case "col": col = parser.getIntValue(); break;
+                            case "row": row = parser.getIntValue(); break;
+                            case "data": data = parser.getBinaryValue(); break;
+                            default: parser.skipChildren(); break;
+                        }
+                    }
+                    if (data == null) {
+                        throw new JsonParseException(parser, "Raster tile without data");
+                    }
+                    loaded.put(keyOf(col, row), Tile.decompress(data));
+                }
+            } else if (value.isStructStart()) {
+                parser.skipChildren();
+            }
+        }
+        if (tileSize != TILE_SIZE) {
+            throw new JsonParseException(parser, "Unsupported raster tile size: " + tileSize);
+        }
+        tiles.clear();
+        tiles.putAll(loaded);
+    }
+
+    static long keyOf(int col, int row) {
+        return ((long) col << 32) | (row & 0xffffffffL);
+    }
+
+    public static final class Edit {
+        private final Map<Long, int[]> previous = new HashMap<>();
+        private final Map<Long, TileDiff> diffs = new HashMap<>();
+        private boolean finished = false;
+
+        private Edit() {
+        }
+
+        public boolean isEmpty() {
+            return finished ? diffs.isEmpty() : previous.isEmpty();
+        }
+
+        public int getTileCount() {
+            return finished ? diffs.size() : previous.size();
+        }
+
+        public long getByteSize() {
+            long bytes = 96;
+            for (int[] pixels : previous.values()) {
+                bytes += 48 + (pixels == null ? 0 : 4L * pixels.length);
+            }
+            for (TileDiff diff : diffs.values()) {
+                bytes += 64 + (diff.pixels == null ? 0 : 4L * diff.pixels.length);
+            }
+            return bytes;
+        }
+    }
+
+    private static final class TileDiff {
+        final int x, y, width, height;
+        final int[] pixels;
+
+        TileDiff(int x, int y, int width, int height, int[] pixels) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+    }
+
+    private static final class Tile {
+        int[] pixels;
+        WritableImage image;
+        byte[] compressed;
+        int dirtyMinX = TILE_SIZE, dirtyMinY = TILE_SIZE, dirtyMaxX = -1, dirtyMaxY = -1;
+
+        Tile(int[] pixels) {
+            this.pixels = pixels;
+        }
+
+        void markDirty(int minX, int minY, int maxX, int maxY) {
+            dirtyMinX = Math.min(dirtyMinX, minX);
+            dirtyMinY = Math.min(dirtyMinY, minY);
+            dirtyMaxX = Math.max(dirtyMaxX, maxX);
+            dirtyMaxY = Math.max(dirtyMaxY, maxY);
+            compressed = null;
+        }
+
+        void clearDirty() {
+            dirtyMinX = TILE_SIZE;
+            dirtyMinY = TILE_SIZE;
+            dirtyMaxX = -1;
+            dirtyMaxY = -1;
+        }
+
+        byte[] compressed() {
+            if (compressed == null) {
+                ByteBuffer raw = ByteBuffer.allocate(TILE_PIXELS * 4);
+                raw.asIntBuffer().put(pixels);
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                try {
+                    deflater.setInput(raw.array());
+                    deflater.finish();
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+                    byte[] buffer = new byte[16384];
+                    while (!deflater.finished()) {
+                        out.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                    compressed = out.toByteArray();
+                } finally {
+                    deflater.end();
+                }
+            }
+            return compressed;
+        }
+
+        static Tile decompress(byte[] data) throws IOException {
+            byte[] raw = new byte[TILE_PIXELS * 4];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data);
+                int length = 0;
+                while (length < raw.length && !inflater.finished()) {
+                    int n = inflater.inflate(raw, length, raw.length - length);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += n;
+                }
+                if (length != raw.length) {
+                    throw new IOException("Corrupted raster tile");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted raster tile: " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+            int[] pixels = new int[TILE_PIXELS];
+            ByteBuffer.wrap(raw).asIntBuffer().get(pixels);
+            Tile tile = new Tile(pixels);
+            tile.compressed = data;
+            return tile;
+        }
+    }
+}
@@ -0,0 +1,902 @@
+package com.example.paintoop;
+
+import javafx.scene.paint.Color;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+public class RemoteRepository implements Repository, AutoCloseable {
+    private static final int MAX_HISTORY_SIZE = 5;
+    private static final double TILE_SIZE = 2048;
+    private static final int MAX_TILES_PER_FETCH = 64;
+    private static final long ORDER_STEP = 1 << 16;
+    private static final int BATCH_SIZE = 512;
+    private static final int MAX_IN_FLIGHT = 4;
+    private static final long PUMP_INTERVAL_MS = 20;
+    private static final long MAX_BACKOFF_MS = 10_000;
+    private static final int OUTBOX_MAGIC = 0x50544f42;
+    private static final byte RECORD_OP = 1;
+    private static final byte RECORD_ACK = 2;
+
+    private final URI baseUri;
+    private final Executor applyExecutor;
+    private final HttpClient http;
+    private final ScheduledExecutorService pump;
+    private final File outboxFile;
+    private DataOutputStream outbox;
+    private boolean outboxDirty = false;
+    private long clientKey;
+
+    private final Map<Long, Shape> cache = new LinkedHashMap<>();
+    private final SpatialIndex spatialIndex = new SpatialIndex();
+    private final AlignmentIndex alignmentIndex = new AlignmentIndex();
+    private final AttributeIndex attributeIndex = new AttributeIndex();
+    private final LayerStack layers = new LayerStack();
+    private final Deque<UndoStep> history = new ArrayDeque<>();
+    private final Set<Long> requestedTiles = new HashSet<>();
+    private final Map<Long, Long> lastLocalSeq = new HashMap<>();
+    private boolean fullyLoaded = false;
+    private long maxOrder = 0;
+    private int updateDepth = 0;
+    private boolean undoing = false;
+    private boolean stateSavedInUpdate = false;
+    private volatile Runnable changeListener;
+
+    private final List<Op> unacked = new ArrayList<>();
+    private int sendIndex = 0;
+    private int unsentIndex = 0;
+    private int inFlight = 0;
+    private long nextSeq = 1;
+    private long ackedSeq = 0;
+    private long backoffMs = 0;
+    private long retryAt = 0;
+    private volatile boolean offline = false;
+
+    private long opsSent = 0;
+    private long batchesSent = 0;
+    private long bytesSent = 0;
+
+    public RemoteRepository(URI baseUri, File outboxFile, Executor applyExecutor) throws IOException {
+        this.baseUri = baseUri;
+        this.outboxFile = outboxFile;
+        this.applyExecutor = applyExecutor;
+        this.http = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(2))
+                .executor(Executors.newCachedThreadPool(r -> {
+                    Thread thread = new Thread(r, "remote-repository-http");
+                    thread.setDaemon(true);
+                    return thread;
+                }))
+                .build();
+        replayOutbox();
+        this.pump = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "remote-repository-pump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pump.scheduleWithFixedDelay(this::pump, PUMP_INTERVAL_MS, PUMP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void addShape(Shape shape) {
+        saveState();
+        addLocal(shape, nextOrder());
+    }
+
+    @Override
+    public void addShapes(Collection<Shape> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        saveState();
+        for (Shape shape : added) {
+            addLocal(shape, nextOrder());
+        }
+    }
+
+    @Override
+    public void removeShape(Shape shape) {
+        removeShapes(Collections.singletonList(shape));
+    }
+
+    @Override
+    public void removeShapes(Collection<Shape> toRemove) {
+        if (toRemove.isEmpty()) {
+            return;
+        }
+        saveState();
+        for (Shape shape : toRemove) {
+            removeLocal(shape);
+        }
+    }
+
+    @Override
+    public List<Shape> getAllShapes() {
+        if (!fullyLoaded) {
+            fetchAll();
+        }
+        List<Shape> shapes = new ArrayList<>(cache.values());
+        shapes.sort(Comparator.comparingLong(Shape::getOrder));
+        return shapes;
+    }
+
+    @Override
+    public void clear() {
+        if (!fetchNow(null)) {
+            saveState();
+            for (Shape shape : new ArrayList<>(cache.values())) {
+                removeLocal(shape);
+            }
+            return;
+        }
+        saveState();
+        for (Shape shape : cache.values()) {
+            record(shape.getId(), copyWithOrder(shape));
+            lastLocalSeq.put(shape.getId(), nextSeq);
+        }
+        cache.clear();
+        spatialIndex.clear();
+        attributeIndex.clear();
+        alignmentIndex.clear();
+        fullyLoaded = true;
+        enqueue(new Op(MockDocumentServer.OP_CLEAR, 0, 0, new byte[0]));
+    }
+
+    @Override
+    public void undo() {
+        if (history.isEmpty()) {
+            return;
+        }
+        UndoStep step = history.pop();
+        undoing = true;
+        try {
+            for (Map.Entry<Long, Shape> entry : step.before.entrySet()) {
+                Shape current = cache.get(entry.getKey());
+                Shape saved = entry.getValue();
+                if (saved == null) {
+                    if (current != null) {
+                        removeLocal(current);
+                    }
+                    continue;
+                }
+                if (current == null) {
+                    addLocal(saved, saved.getOrder());
+                    continue;
+                }
+                byte[] data = ShapeCodec.toBytes(saved);
+                if (current.getOrder() == saved.getOrder() && Arrays.equals(data, ShapeCodec.toBytes(current))) {
+                    continue;
+                }
+                uncache(current);
+                cacheShape(saved);
+                enqueue(new Op(MockDocumentServer.OP_UPDATE, saved.getId(), saved.getOrder(), data));
+            }
+        } finally {
+            undoing = false;
+        }
+    }
+
+    @Override
+    public void saveState() {
+        if (updateDepth > 0) {
+            if (stateSavedInUpdate) {
+                return;
+            }
+            stateSavedInUpdate = true;
+        }
+        UndoStep step = new UndoStep();
+        for (Shape shape : cache.values()) {
+            step.snapshot.put(shape.getId(), copyWithOrder(shape));
+        }
+        history.push(step);
+        while (history.size() > MAX_HISTORY_SIZE) {
+            history.removeLast();
+        }
+    }
+
+    @Override
+    public void clearPersistentData() {
+        history.clear();
+    }
+
+    @Override
+    public void bringToFront(Shape shape) {
+        if (cache.get(shape.getId()) != shape) {
+            return;
+        }
+        saveState();
+        recordUpdate(shape);
+        shape.setOrder(nextOrder());
+        maxOrder = Math.max(maxOrder, shape.getOrder());
+        spatialIndex.update(shape);
+        enqueueUpdate(shape);
+    }
+
+    @Override
+    public List<Shape> findShapesInRegion(double x, double y, double width, double height) {
+        if (!fullyLoaded) {
+            fetchMissingTiles(x, y, width, height);
+        }
+        return spatialIndex.query(x, y, width, height);
+    }
+
+    @Override
+    public List<Shape> loadRegion(double x, double y, double width, double height) {
+        if (!fullyLoaded) {
+            fetchNow(new double[]{x, y, width, height});
+        }
+        return spatialIndex.query(x, y, width, height);
+    }
+
+    @Override
+    public void updateShapes(Collection<Shape> changed) {
+        for (Shape shape : changed) {
+            if (cache.get(shape.getId()) != shape) {
+                continue;
+            }
+            recordUpdate(shape);
+            spatialIndex.update(shape);
+            attributeIndex.update(shape);
+            alignmentIndex.update(shape);
+            enqueueUpdate(shape);
+        }
+    }
+
+    @Override
+    public void restyleAll(int styleId, Style style) {
+        int newStyleId = StyleTable.shared().intern(style);
+        if (newStyleId == styleId) {
+            return;
+        }
+        saveState();
+        List<Shape> changed = new ArrayList<>();
+        for (Shape shape : cache.values()) {
+            if (shape.replaceStyle(styleId, newStyleId)) {
+                changed.add(shape);
+            }
+        }
+        updateShapes(changed);
+    }
+
+    @Override
+    public void beginUpdate() {
+        if (updateDepth++ == 0) {
+            stateSavedInUpdate = false;
+        }
+    }
+
+    @Override
+    public void endUpdate() {
+        if (updateDepth > 0) {
+            updateDepth--;
+        }
+    }
+
+    @Override
+    public void setChangeListener(Runnable listener) {
+        this.changeListener = listener;
+    }
+
+    @Override
+    public AlignmentIndex getAlignmentIndex() {
+        return alignmentIndex;
+    }
+
+    @Override
+    public AttributeIndex getAttributeIndex() {
+        return attributeIndex;
+    }
+
+    @Override
+    public LayerStack getLayers() {
+        return layers;
+    }
+
+    @Override
+    public ShapeGroup groupShapes(Collection<Shape> members) {
+        Set<Shape> memberSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Shape shape : members) {
+            if (cache.get(shape.getId()) == shape) {
+                memberSet.add(shape);
+            }
+        }
+        if (memberSet.size() < 2) {
+            return null;
+        }
+        List<Shape> ordered = new ArrayList<>(memberSet);
+        ordered.sort(Comparator.comparingLong(Shape::getOrder));
+        saveState();
+        long order = ordered.get(ordered.size() - 1).getOrder();
+        for (Shape shape : ordered) {
+            removeLocal(shape);
+        }
+        ShapeGroup group = new ShapeGroup(ordered);
+        addLocal(group, order);
+        return group;
+    }
+
+    @Override
+    public List<Shape> ungroup(ShapeGroup group) {
+        if (cache.get(group.getId()) != group) {
+            return Collections.emptyList();
+        }
+        saveState();
+        long order = group.getOrder();
+        removeLocal(group);
+        List<Shape> released = group.releaseChildren();
+        for (int i = 0; i < released.size(); i++) {
+            Shape child = released.get(i);
+            child.setId(0);
+            addLocal(child, order + i);
+        }
+        return released;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public synchronized int getPendingOps() {
+        return unacked.size();
+    }
+
+    public synchronized long getOpsSent() {
+        return opsSent;
+    }
+
+    public synchronized long getBatchesSent() {
+        return batchesSent;
+    }
+
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    public boolean awaitSynced(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (this) {
+                if (unacked.isEmpty()) {
+                    return true;
+                }
+            }
+            Thread.sleep(5);
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        pump.shutdownNow();
+        synchronized (this) {
+            outbox.close();
+        }
+    }
+
+    private void addLocal(Shape shape, long order) {
+        if (shape.getId() == 0) {
+            long id;
+            do {
+                id = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+            } while (id == 0 || cache.containsKey(id));
+            shape.setId(id);
+        }
+        record(shape.getId(), null);
+        shape.setOrder(order);
+        maxOrder = Math.max(maxOrder, order);
+        cacheShape(shape);
+        enqueue(new Op(MockDocumentServer.OP_ADD, shape.getId(), order, ShapeCodec.toBytes(shape)));
+    }
+
+    private void removeLocal(Shape shape) {
+        if (cache.get(shape.getId()) != shape) {
+            return;
+        }
+        record(shape.getId(), copyWithOrder(shape));
+        uncache(shape);
+        enqueue(new Op(MockDocumentServer.OP_REMOVE, shape.getId(), 0, new byte[0]));
+    }
+
+    private void cacheShape(Shape shape) {
+        cache.put(shape.getId(), shape);
+        spatialIndex.insert(shape);
+        attributeIndex.add(shape);
+        alignmentIndex.add(shape);
+    }
+
+    private void uncache(Shape shape) {
+        cache.remove(shape.getId());
+        spatialIndex.remove(shape);
+        attributeIndex.remove(shape);
+        alignmentIndex.remove(shape);
+    }
+
+    private void record(long id, Shape before) {
+        UndoStep step = history.peek();
+        if (undoing || step == null || step.before.containsKey(id)) {
+            return;
+        }
+        step.before.put(id, before);
+    }
+
+    private void recordUpdate(Shape shape) {
+        UndoStep step = history.peek();
+        if (step != null && step.snapshot.containsKey(shape.getId())) {
+            record(shape.getId(), step.snapshot.get(shape.getId()));
+        }
+    }
+
+    private static Shape copyWithOrder(Shape shape) {
+        Shape copy = shape.copy();
+        copy.setOrder(shape.getOrder());
+        return copy;
+    }
+
+    private long nextOrder() {
+        return (maxOrder / ORDER_STEP + 1) * ORDER_STEP;
+    }
+
+    private void enqueueUpdate(Shape shape) {
+        byte[] data = ShapeCodec.toBytes(shape);
+        synchronized (this) {
+            for (int i = unacked.size() - 1; i >= unsentIndex; i--) {
+                Op op = unacked.get(i);
+                if (op.id == shape.getId() && op.code != MockDocumentServer.OP_REMOVE
+                        && op.code != MockDocumentServer.OP_CLEAR) {
+                    op.order = shape.getOrder();
+                    op.data = data;
+                    journal(op);
+                    return;
+                }
+                if (op.id == shape.getId() || op.code == MockDocumentServer.OP_CLEAR) {
+                    break;
+                }
+            }
+        }
+        enqueue(new Op(MockDocumentServer.OP_UPDATE, shape.getId(), shape.getOrder(), data));
+    }
+
+    private synchronized void enqueue(Op op) {
+        op.seq = nextSeq++;
+        unacked.add(op);
+        if (op.id != 0) {
+            lastLocalSeq.put(op.id, op.seq);
+        }
+        journal(op);
+    }
+
+    private synchronized long ackedSeq() {
+        return ackedSeq;
+    }
+
+    private void journal(Op op) {
+        try {
+            outbox.writeByte(RECORD_OP);
+            op.write(outbox);
+            outboxDirty = true;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private void pump() {
+        List<Op> batch;
+        synchronized (this) {
+            flushOutbox();
+            if (inFlight >= MAX_IN_FLIGHT || sendIndex >= unacked.size() || System.currentTimeMillis() < retryAt) {
+                return;
+            }
+            int end = Math.min(unacked.size(), sendIndex + BATCH_SIZE);
+            batch = new ArrayList<>(unacked.subList(sendIndex, end));
+            sendIndex = end;
+            unsentIndex = Math.max(unsentIndex, end);
+            inFlight++;
+        }
+        byte[] body;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + batch.size() * 64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(clientKey);
+            out.writeLong(batch.get(0).seq);
+            out.writeInt(batch.size());
+            for (Op op : batch) {
+                op.write(out);
+            }
+            body = bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        HttpRequest request = HttpRequest.newBuilder(baseUri.resolve("/ops"))
+                .timeout(Duration.ofSeconds(5))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        http.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).whenComplete((response, error) -> {
+            if (error == null && response.statusCode() == 200) {
+                long acked;
+                try {
+                    acked = new DataInputStream(new ByteArrayInputStream(response.body())).readLong();
+                } catch (IOException e) {
+                    acked = -1;
+                }
+                acknowledge(acked, batch.size(), body.length);
+            } else {
+                failed(error != null ? error.getMessage() : "HTTP " + response.statusCode());
+            }
+        });
+        if (inFlightBelowLimit()) {
+            pump();
+        }
+    }
+
+    private synchronized boolean inFlightBelowLimit() {
+        return inFlight < MAX_IN_FLIGHT && sendIndex < unacked.size() && System.currentTimeMillis() >= retryAt;
+    }
+
+    private synchronized void acknowledge(long acked, int batchSize, int batchBytes) {
+        inFlight--;
+        offline = false;
+        backoffMs = 0;
+        opsSent += batchSize;
+        batchesSent++;
+        bytesSent += batchBytes;
+        if (acked <= ackedSeq) {
+            return;
+        }
+        ackedSeq = acked;
+        int count = 0;
+        while (count < unacked.size() && unacked.get(count).seq <= acked) {
+            count++;
+        }
+        unacked.subList(0, count).clear();
+        sendIndex = Math.max(0, sendIndex - count);
+        unsentIndex = Math.max(0, unsentIndex - count);
+        try {
+            if (unacked.isEmpty()) {
+                outbox.close();
+                openOutbox(false);
+            } else {
+                outbox.writeByte(RECORD_ACK);
+                outbox.writeLong(acked);
+                outboxDirty = true;
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private synchronized void failed(String message) {
+        inFlight--;
+        sendIndex = 0;
+        markUnreachable(message);
+    }
+
+    private synchronized void markUnreachable(String message) {
+        if (!offline) {
+            System.err.println("Сервер документов недоступен, изменения сохранены локально: " + message);
+        }
+        offline = true;
+        backoffMs = Math.min(MAX_BACKOFF_MS, backoffMs == 0 ? 250 : backoffMs * 2);
+        retryAt = System.currentTimeMillis() + backoffMs;
+    }
+
+    private void flushOutbox() {
+        if (!outboxDirty) {
+            return;
+        }
+        try {
+            outbox.flush();
+            outboxDirty = false;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private synchronized boolean backingOff() {
+        return offline && System.currentTimeMillis() < retryAt;
+    }
+
+    private void fetchAll() {
+        if (backingOff()) {
+            return;
+        }
+        fetch(null, null);
+        fullyLoaded = true;
+    }
+
+    private void fetchMissingTiles(double x, double y, double width, double height) {
+        if (backingOff()) {
+            return;
+        }
+        int minCol = (int) Math.floor(x / TILE_SIZE);
+        int minRow = (int) Math.floor(y / TILE_SIZE);
+        int maxCol = (int) Math.floor((x + width) / TILE_SIZE);
+        int maxRow = (int) Math.floor((y + height) / TILE_SIZE);
+        if ((long) (maxCol - minCol + 1) * (maxRow - minRow + 1) > MAX_TILES_PER_FETCH) {
+            fetchAll();
+            return;
+        }
+        int fetchMinCol = Integer.MAX_VALUE, fetchMinRow = Integer.MAX_VALUE;
+        int fetchMaxCol = Integer.MIN_VALUE, fetchMaxRow = Integer.MIN_VALUE;
+        List<Long> missing = new ArrayList<>();
+        for (int col = minCol; col <= maxCol; col++) {
+            for (int row = minRow; row <= maxRow; row++) {
+                long key = ((long) col << 32) | (row & 0xffffffffL);
+                if (requestedTiles.add(key)) {
+                    missing.add(key);
+                    fetchMinCol = Math.min(fetchMinCol, col);
+                    fetchMinRow = Math.min(fetchMinRow, row);
+                    fetchMaxCol = Math.max(fetchMaxCol, col);
+                    fetchMaxRow = Math.max(fetchMaxRow, row);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            fetch(new double[]{fetchMinCol * TILE_SIZE, fetchMinRow * TILE_SIZE,
+                    (fetchMaxCol - fetchMinCol + 1) * TILE_SIZE, (fetchMaxRow - fetchMinRow + 1) * TILE_SIZE}, missing);
+        }
+    }
+
+    private void fetch(double[] region, List<Long> tiles) {
+        long ackAtRequest = ackedSeq();
+        http.sendAsync(shapesRequest(region), HttpResponse.BodyHandlers.ofByteArray()).whenComplete((response, error) -> {
+            if (error == null && response.statusCode() == 200) {
+                applyExecutor.execute(() -> {
+                    try {
+                        merge(response.body(), ackAtRequest);
+                    } catch (IOException e) {
+                        System.err.println(e.getMessage());
+                    }
+                    Runnable listener = changeListener;
+                    if (listener != null) {
+                        listener.run();
+                    }
+                });
+            } else {
+                markUnreachable(error != null ? error.getMessage() : "HTTP " + response.statusCode());
+                applyExecutor.execute(() -> {
+                    if (tiles == null) {
+                        fullyLoaded = false;
+                    } else {
+                        requestedTiles.removeAll(tiles);
+                    }
+                });
+            }
+        });
+    }
+
+    private boolean fetchNow(double[] region) {
+        if (backingOff()) {
+            return false;
+        }
+        long ackAtRequest = ackedSeq();
+        try {
+            HttpResponse<byte[]> response = http.send(shapesRequest(region), HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != 200) {
+                markUnreachable("HTTP " + response.statusCode());
+                return false;
+            }
+            merge(response.body(), ackAtRequest);
+        } catch (IOException e) {
+            markUnreachable(e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (region == null) {
+            fullyLoaded = true;
+        }
+        return true;
+    }
+
+    private HttpRequest shapesRequest(double[] region) {
+        String path = "/shapes";
+        if (region != null) {
+            path += "?x=" + region[0] + "&y=" + region[1] + "&w=" + region[2] + "&h=" + region[3];
+        }
+        return HttpRequest.newBuilder(baseUri.resolve(path)).timeout(Duration.ofSeconds(5)).GET().build();
+    }
+
+    private void merge(byte[] body, long ackAtRequest) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        maxOrder = Math.max(maxOrder, in.readLong());
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            long order = in.readLong();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            Shape shape = ShapeCodec.fromBytes(data);
+            Long localSeq = lastLocalSeq.get(shape.getId());
+            if (cache.containsKey(shape.getId()) || (localSeq != null && localSeq > ackAtRequest)) {
+                continue;
+            }
+            shape.setOrder(order);
+            cacheShape(shape);
+        }
+    }
+
+    private void replayOutbox() throws IOException {
+        if (outboxFile.exists() && outboxFile.length() > 0) {
+            Map<Long, Op> bySeq = new LinkedHashMap<>();
+            long acked = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(outboxFile)))) {
+                if (in.readInt() != OUTBOX_MAGIC) {
+                    throw new IOException("Invalid outbox file: " + outboxFile);
+                }
+                clientKey = in.readLong();
+                acked = in.readLong();
+                while (true) {
+                    byte record;
+                    try {
+                        record = in.readByte();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    try {
+                        if (record == RECORD_OP) {
+                            Op op = Op.read(in);
+                            bySeq.put(op.seq, op);
+                        } else if (record == RECORD_ACK) {
+                            acked = Math.max(acked, in.readLong());
+                        } else {
+                            break;
+                        }
+                    } catch (EOFException e) {
+                        break;
+                    }
+                }
+            }
+            ackedSeq = acked;
+            nextSeq = acked + 1;
+            for (Op op : bySeq.values()) {
+                nextSeq = Math.max(nextSeq, op.seq + 1);
+                if (op.seq > acked) {
+                    unacked.add(op);
+                    applyReplayed(op);
+                }
+            }
+            unacked.sort(Comparator.comparingLong(op -> op.seq));
+            unsentIndex = unacked.size();
+        } else {
+            clientKey = ThreadLocalRandom.current().nextLong();
+        }
+        openOutbox(true);
+    }
+
+    private void applyReplayed(Op op) throws IOException {
+        if (op.id != 0) {
+            lastLocalSeq.put(op.id, op.seq);
+        }
+        Shape existing = cache.get(op.id);
+        if (existing != null) {
+            uncache(existing);
+        }
+        if (op.code == MockDocumentServer.OP_ADD || op.code == MockDocumentServer.OP_UPDATE) {
+            Shape shape = ShapeCodec.fromBytes(op.data);
+            shape.setOrder(op.order);
+            maxOrder = Math.max(maxOrder, op.order);
+            cacheShape(shape);
+        } else if (op.code == MockDocumentServer.OP_CLEAR) {
+            cache.clear();
+            spatialIndex.clear();
+            attributeIndex.clear();
+            alignmentIndex.clear();
+        }
+    }
+
+    private void openOutbox(boolean keepPending) throws IOException {
+        outbox = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outboxFile), 1 << 16));
+        outbox.writeInt(OUTBOX_MAGIC);
+        outbox.writeLong(clientKey);
+        outbox.writeLong(ackedSeq);
+        if (keepPending) {
+            for (Op op : unacked) {
+                outbox.writeByte(RECORD_OP);
+                op.write(outbox);
+            }
+        }
+        outbox.flush();
+    }
+
+    static void benchmark(MockDocumentServer server, int opCount) throws Exception {
+        File outbox = File.createTempFile("paintoop-outbox", ".bin");
+        outbox.deleteOnExit();
+        outbox.delete();
+        Executor direct = Runnable::run;
+        try (RemoteRepository repository = new RemoteRepository(server.getUri(), outbox, direct)) {
+            long start = System.nanoTime();
+            repository.beginUpdate();
+            for (int i = 0; i < opCount; i++) {
+                repository.addShape(new Rectangle(i % 1000 * 30, i / 1000 * 30, 20, 20, Color.BLACK, Color.TRANSPARENT));
+            }
+            repository.endUpdate();
+            boolean synced = repository.awaitSynced(60_000);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("ops=%d synced=%b batches=%d bytes=%d time=%.2fs throughput=%.0f ops/s serverShapes=%d%n",
+                    repository.getOpsSent(), synced, repository.getBatchesSent(), repository.getBytesSent(),
+                    seconds, opCount / seconds, server.getShapeCount());
+
+            try (RemoteRepository reader = new RemoteRepository(server.getUri(),
+                    File.createTempFile("paintoop-reader", ".bin"), direct)) {
+                long fetchStart = System.nanoTime();
+                reader.findShapesInRegion(0, 0, 1920, 1080);
+                while (reader.cache.isEmpty() && System.nanoTime() - fetchStart < 5_000_000_000L) {
+                    Thread.sleep(1);
+                }
+                System.out.printf("viewport fetch: %d shapes in %.1fms%n", reader.cache.size(),
+                        (System.nanoTime() - fetchStart) / 1e6);
+            }
+        }
+    }
+
+    private static final class UndoStep {
+        final Map<Long, Shape> snapshot = new HashMap<>();
+        final Map<Long, Shape> before = new LinkedHashMap<>();
+    }
+
+    private static final class Op {
+        long seq;
+        final byte code;
+        final long id;
+        long order;
+        byte[] data;
+
+        Op(byte code, long id, long order, byte[] data) {
+            this.code = code;
+            this.id = id;
+            this.order = order;
+            this.data = data;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(seq);
+            out.writeByte(code);
+            out.writeLong(id);
+            out.writeLong(order);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+
+        static Op read(DataInputStream in) throws IOException {
+            long seq = in.readLong();
+            Op op = new Op(in.readByte(), in.readLong(), in.readLong(), null);
+            op.seq = seq;
+            op.data = new byte[in.readInt()];
+            in.readFully(op.data);
+            return op;
+        }
+    }
+}
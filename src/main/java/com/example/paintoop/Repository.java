@@ -1,14 +1,29 @@
 package com.example.paintoop;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface Repository {
     void addShape(Shape shape);
+    void addShapes(Collection<Shape> shapes);
     void removeShape(Shape shape);
+    void removeShapes(Collection<Shape> shapes);
     List<Shape> getAllShapes();
     void clear();
     void undo();
     void saveState();
     void clearPersistentData();
     void bringToFront(Shape shape);
+    List<Shape> findShapesInRegion(double x, double y, double width, double height);
+    List<Shape> loadRegion(double x, double y, double width, double height);
+    void updateShapes(Collection<Shape> shapes);
+    void restyleAll(int styleId, Style style);
+    void beginUpdate();
+    void endUpdate();
+    void setChangeListener(Runnable listener);
+    AlignmentIndex getAlignmentIndex();
+    AttributeIndex getAttributeIndex();
+    LayerStack getLayers();
+    ShapeGroup groupShapes(Collection<Shape> shapes);
+    List<Shape> ungroup(ShapeGroup group);
 }
\ No newline at end of file
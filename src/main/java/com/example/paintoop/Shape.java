@@ -1,19 +1,74 @@
 package com.example.paintoop;
 
+import javafx.geometry.VPos;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 
+import java.io.IOException;
+import java.util.Arrays;
+
 public abstract class Shape {
     protected double x;
     protected double y;
     protected double width;
     protected double height;
     protected boolean isSelected = false;
+    protected long id;
+    protected int layer;
+    private long order;
+    protected int styleId;
+    protected StyleTable styles = StyleTable.shared();
     protected static final double RESIZE_HANDLE_SIZE = 8;
+    protected static final Style SELECTION_STYLE = new Style(Color.RED, Color.WHITE, 1, new double[] {5}, 1);
     public abstract Shape copy();
 
-    public abstract void setStrokeColor(Color color);
-    public abstract void setFillColor(Color color);
+    public Style getStyle() {
+        return styles.get(styleId);
+    }
+
+    public void setStyle(Style style) {
+        styleId = styles.intern(style);
+    }
+
+    public int getStyleId() {
+        return styleId;
+    }
+
+    public StyleTable getStyleTable() {
+        return styles;
+    }
+
+    void adoptStyles(StyleTable table) {
+        if (styles != table) {
+            styleId = table.intern(getStyle());
+            styles = table;
+        }
+    }
+
+    boolean replaceStyle(int fromStyleId, int toStyleId) {
+        if (styleId != fromStyleId) {
+            return false;
+        }
+        styleId = toStyleId;
+        return true;
+    }
+
+    public void setStrokeColor(Color color) {
+        setStyle(getStyle().withStroke(color));
+    }
+
+    public void setFillColor(Color color) {
+        setStyle(getStyle().withFill(color));
+    }
+
+    public Color getStrokeColor() {
+        return getStyle().getStroke();
+    }
+
+    public Color getFillColor() {
+        return getStyle().getFill();
+    }
 
     public enum ResizeType {
         NONE, NORTH, SOUTH, EAST, WEST, NORTHEAST, NORTHWEST, SOUTHEAST, SOUTHWEST
@@ -26,8 +81,30 @@ public abstract class Shape {
         this.height = height;
     }
 
+    protected Shape(double x, double y, double width, double height, int styleId) {
+        this(x, y, width, height);
+        this.styleId = styleId;
+    }
+
+    protected static int internStyle(Color strokeColor, Color fillColor) {
+        return StyleTable.shared().intern(new Style(strokeColor, fillColor));
+    }
+
     public abstract void draw(GraphicsContext gc);
 
+    public abstract void export(VectorWriter writer) throws IOException;
+
+    public void drawVisible(GraphicsContext gc, double viewX, double viewY, double viewWidth, double viewHeight) {
+        if (intersects(viewX, viewY, viewWidth, viewHeight)) {
+            draw(gc);
+        }
+    }
+
+    public boolean intersects(double rectX, double rectY, double rectWidth, double rectHeight) {
+        return x <= rectX + rectWidth && x + width >= rectX &&
+                y <= rectY + rectHeight && y + height >= rectY;
+    }
+
     public boolean contains(double pointX, double pointY) {
         return pointX >= x && pointX <= x + width &&
                 pointY >= y && pointY <= y + height;
@@ -130,14 +207,11 @@ public abstract class Shape {
     public void drawSelection(GraphicsContext gc) {
         if (!isSelected) return;
 
-        gc.setStroke(Color.RED);
-        gc.setLineWidth(1);
-        gc.setLineDashes(5);
+        SELECTION_STYLE.applyStroke(gc);
         gc.strokeRect(x - 2, y - 2, width + 4, height + 4);
         gc.setLineDashes(null);
 
-        gc.setFill(Color.WHITE);
-        gc.setStroke(Color.RED);
+        SELECTION_STYLE.applyFill(gc);
 
         drawResizeHandle(gc, x, y);
         drawResizeHandle(gc, x + width, y);
@@ -169,137 +243,165 @@ public abstract class Shape {
     public double getHeight() { return height; }
     public void setHeight(double height) { this.height = height; }
     public void setSelected(boolean selected) { isSelected = selected; }
+    public boolean isSelected() { return isSelected; }
+
+    public long getId() { return id; }
+    void setId(long id) { this.id = id; }
+
+    public int getLayer() { return layer; }
+    public void setLayer(int layer) { this.layer = layer; }
+
+    long getOrder() { return order; }
+    void setOrder(long order) { this.order = order; }
+
+    public void setBounds(double x, double y, double width, double height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
 }
 
 class Rectangle extends Shape {
-    private Color strokeColor;
-    private Color fillColor;
 
     public Rectangle(double x, double y, double width, double height, Color strokeColor, Color fillColor) {
-        super(x, y, width, height);
-        this.strokeColor = strokeColor;
-        this.fillColor = fillColor;
+        super(x, y, width, height, internStyle(strokeColor, fillColor));
+    }
+
+    Rectangle(double x, double y, double width, double height, int styleId) {
+        super(x, y, width, height, styleId);
     }
 
     @Override
     public Shape copy() {
-        Rectangle copy = new Rectangle(x, y, width, height, strokeColor, fillColor);
+        Rectangle copy = new Rectangle(x, y, width, height, styleId);
         copy.setSelected(this.isSelected);
+        copy.id = id;
+        copy.styles = styles;
+        copy.layer = layer;
         return copy;
     }
 
-    @Override
-    public void setStrokeColor(Color color) {
-        this.strokeColor = color;
-    }
-
-    @Override
-    public void setFillColor(Color color) {
-        this.fillColor = color;
-    }
-
     @Override
     public void draw(GraphicsContext gc) {
-        if (fillColor != null && !fillColor.equals(Color.TRANSPARENT)) {
-            gc.setFill(fillColor);
+        Style style = getStyle();
+        if (style.hasFill()) {
+            style.applyFill(gc);
             gc.fillRect(x, y, width, height);
         }
 
-        if (strokeColor != null && !strokeColor.equals(Color.TRANSPARENT)) {
-            gc.setStroke(strokeColor);
-            gc.setLineWidth(2);
+        if (style.hasStroke()) {
+            style.applyStroke(gc);
             gc.strokeRect(x, y, width, height);
         }
 
         drawSelection(gc);
     }
 
+    @Override
+    public void export(VectorWriter writer) throws IOException {
+        writer.rect(x, y, width, height, getStyle());
+    }
+
 }
 
 class Ellipse extends Shape {
-    private Color strokeColor;
-    private Color fillColor;
 
     public Ellipse(double x, double y, double width, double height, Color strokeColor, Color fillColor) {
-        super(x, y, width, height);
-        this.strokeColor = strokeColor;
-        this.fillColor = fillColor;
+        super(x, y, width, height, internStyle(strokeColor, fillColor));
+    }
+
+    Ellipse(double x, double y, double width, double height, int styleId) {
+        super(x, y, width, height, styleId);
     }
 
     @Override
     public Shape copy() {
-        Ellipse copy = new Ellipse(x, y, width, height, strokeColor, fillColor);
+        Ellipse copy = new Ellipse(x, y, width, height, styleId);
         copy.setSelected(this.isSelected);
+        copy.id = id;
+        copy.styles = styles;
+        copy.layer = layer;
         return copy;
     }
 
-    @Override
-    public void setStrokeColor(Color color) {
-        this.strokeColor = color;
-    }
-
-    @Override
-    public void setFillColor(Color color) {
-        this.fillColor = color;
-    }
-
     @Override
     public void draw(GraphicsContext gc) {
-        if (fillColor != null && !fillColor.equals(Color.TRANSPARENT)) {
-            gc.setFill(fillColor);
+        Style style = getStyle();
+        if (style.hasFill()) {
+            style.applyFill(gc);
             gc.fillOval(x, y, width, height);
         }
 
-        if (strokeColor != null && !strokeColor.equals(Color.TRANSPARENT)) {
-            gc.setStroke(strokeColor);
-            gc.setLineWidth(2);
+        if (style.hasStroke()) {
+            style.applyStroke(gc);
             gc.strokeOval(x, y, width, height);
         }
 
         drawSelection(gc);
     }
+
+    @Override
+    public void export(VectorWriter writer) throws IOException {
+        writer.ellipse(x, y, width, height, getStyle());
+    }
 }
 
 class Line extends Shape {
-    private Color strokeColor;
     private double startX, startY, endX, endY;
 
     public Line(double startX, double startY, double endX, double endY, Color strokeColor) {
-        super(Math.min(startX, endX), Math.min(startY, endY), Math.abs(endX - startX), Math.abs(endY - startY));
+        this(startX, startY, endX, endY, internStyle(strokeColor, Color.TRANSPARENT));
+    }
+
+    Line(double startX, double startY, double endX, double endY, int styleId) {
+        super(Math.min(startX, endX), Math.min(startY, endY), Math.abs(endX - startX), Math.abs(endY - startY), styleId);
         this.startX = startX;
         this.startY = startY;
         this.endX = endX;
         this.endY = endY;
-        this.strokeColor = strokeColor;
     }
 
     @Override
     public Shape copy() {
-        Line copy = new Line(startX, startY, endX, endY, strokeColor);
+        Line copy = new Line(startX, startY, endX, endY, styleId);
         copy.setSelected(this.isSelected);
+        copy.id = id;
+        copy.styles = styles;
+        copy.layer = layer;
         return copy;
     }
 
     @Override
-    public void setStrokeColor(Color color) {
-        this.strokeColor = color;
+    public void setFillColor(Color color) {
     }
 
     @Override
-    public void setFillColor(Color color) {
+    public Color getFillColor() {
+        return Color.TRANSPARENT;
     }
 
+    public double getStartX() { return startX; }
+    public double getStartY() { return startY; }
+    public double getEndX() { return endX; }
+    public double getEndY() { return endY; }
+
     @Override
     public void draw(GraphicsContext gc) {
-        if (strokeColor != null && !strokeColor.equals(Color.TRANSPARENT)) {
-            gc.setStroke(strokeColor);
-            gc.setLineWidth(2);
+        Style style = getStyle();
+        if (style.hasStroke()) {
+            style.applyStroke(gc);
             gc.strokeLine(startX, startY, endX, endY);
         }
 
         drawSelection(gc);
     }
 
+    @Override
+    public void export(VectorWriter writer) throws IOException {
+        writer.line(startX, startY, endX, endY, getStyle());
+    }
+
     @Override
     public boolean contains(double pointX, double pointY) {
         double lineLength = Math.sqrt(Math.pow(endX - startX, 2) + Math.pow(endY - startY, 2));
@@ -344,19 +446,27 @@ class Line extends Shape {
     public void drawSelection(GraphicsContext gc) {
         if (!isSelected) return;
 
-        gc.setStroke(Color.RED);
-        gc.setLineWidth(1);
-        gc.setLineDashes(5);
+        SELECTION_STYLE.applyStroke(gc);
         gc.strokeRect(x - 2, y - 2, width + 4, height + 4);
         gc.setLineDashes(null);
 
-        gc.setFill(Color.WHITE);
-        gc.setStroke(Color.RED);
+        SELECTION_STYLE.applyFill(gc);
 
         drawResizeHandle(gc, startX, startY);
         drawResizeHandle(gc, endX, endY);
     }
 
+    @Override
+    public void setBounds(double x, double y, double width, double height) {
+        double scaleX = this.width == 0 ? 0 : width / this.width;
+        double scaleY = this.height == 0 ? 0 : height / this.height;
+        startX = x + (startX - this.x) * scaleX;
+        endX = x + (endX - this.x) * scaleX;
+        startY = y + (startY - this.y) * scaleY;
+        endY = y + (endY - this.y) * scaleY;
+        updateBoundingBox();
+    }
+
     private void updateBoundingBox() {
         x = Math.min(startX, endX);
         y = Math.min(startY, endY);
@@ -383,57 +493,61 @@ class Line extends Shape {
 }
 
 class Polygon extends Shape {
-    private Color strokeColor;
-    private Color fillColor;
     private int sides = 6;
 
     public Polygon(double x, double y, double width, double height, Color strokeColor, Color fillColor) {
-        super(x, y, width, height);
-        this.strokeColor = strokeColor;
-        this.fillColor = fillColor;
+        super(x, y, width, height, internStyle(strokeColor, fillColor));
+    }
+
+    Polygon(double x, double y, double width, double height, int styleId) {
+        super(x, y, width, height, styleId);
     }
 
     @Override
     public Shape copy() {
-        Polygon copy = new Polygon(x, y, width, height, strokeColor, fillColor);
+        Polygon copy = new Polygon(x, y, width, height, styleId);
         copy.setSelected(this.isSelected);
+        copy.id = id;
+        copy.styles = styles;
+        copy.layer = layer;
         return copy;
     }
 
-    @Override
-    public void setStrokeColor(Color color) {
-        this.strokeColor = color;
-    }
-
-    @Override
-    public void setFillColor(Color color) {
-        this.fillColor = color;
-    }
-
-    @Override
-    public void draw(GraphicsContext gc) {
+    private void computePoints(double[] xPoints, double[] yPoints) {
         double centerX = x + width / 2;
         double centerY = y + height / 2;
         double radiusX = width / 2;
         double radiusY = height / 2;
 
-        double[] xPoints = new double[sides];
-        double[] yPoints = new double[sides];
-
         for (int i = 0; i < sides; i++) {
             double angle = 2 * Math.PI * i / sides;
             xPoints[i] = centerX + radiusX * Math.cos(angle);
             yPoints[i] = centerY + radiusY * Math.sin(angle);
         }
+    }
 
-        if (fillColor != null && !fillColor.equals(Color.TRANSPARENT)) {
-            gc.setFill(fillColor);
+    @Override
+    public void export(VectorWriter writer) throws IOException {
+        double[] xPoints = new double[sides];
+        double[] yPoints = new double[sides];
+        computePoints(xPoints, yPoints);
+        writer.polygon(xPoints, yPoints, sides, getStyle());
+    }
+
+    @Override
+    public void draw(GraphicsContext gc) {
+        double[] xPoints = new double[sides];
+        double[] yPoints = new double[sides];
+        computePoints(xPoints, yPoints);
+
+        Style style = getStyle();
+        if (style.hasFill()) {
+            style.applyFill(gc);
             gc.fillPolygon(xPoints, yPoints, sides);
         }
 
-        if (strokeColor != null && !strokeColor.equals(Color.TRANSPARENT)) {
-            gc.setStroke(strokeColor);
-            gc.setLineWidth(2);
+        if (style.hasStroke()) {
+            style.applyStroke(gc);
             gc.strokePolygon(xPoints, yPoints, sides);
         }
         drawSelection(gc);
@@ -444,4 +558,761 @@ class Polygon extends Shape {
         return pointX >= x && pointX <= x + width &&
                 pointY >= y && pointY <= y + height;
     }
-}
\ No newline at end of file
+}
+
+class Polyline extends Shape {
+    private final boolean closed;
+    private final double[] xPoints;
+    private final double[] yPoints;
+
+    public Polyline(double[] xPoints, double[] yPoints, Color strokeColor) {
+        this(xPoints, yPoints, false, strokeColor, Color.TRANSPARENT);
+    }
+
+    public Polyline(double[] xPoints, double[] yPoints, boolean closed, Color strokeColor, Color fillColor) {
+        this(xPoints, yPoints, closed, internStyle(strokeColor, fillColor));
+    }
+
+    Polyline(double[] xPoints, double[] yPoints, boolean closed, int styleId) {
+        super(0, 0, 0, 0, styleId);
+        this.xPoints = xPoints;
+        this.yPoints = yPoints;
+        this.closed = closed;
+        updateBoundingBox();
+    }
+
+    @Override
+    public Shape copy() {
+        Polyline copy = new Polyline(xPoints.clone(), yPoints.clone(), closed, styleId);
+        copy.setSelected(this.isSelected);
+        copy.id = id;
+        copy.styles = styles;
+        copy.layer = layer;
+        return copy;
+    }
+
+    @Override
+    public void setFillColor(Color color) {
+        if (closed) {
+            super.setFillColor(color);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getPointCount() {
+        return xPoints.length;
+    }
+
+    double[] getXPoints() {
+        return xPoints;
+    }
+
+    double[] getYPoints() {
+        return yPoints;
+    }
+
+    @Override
+    public void draw(GraphicsContext gc) {
+        Style style = getStyle();
+        if (closed && style.hasFill()) {
+            style.applyFill(gc);
+            gc.fillPolygon(xPoints, yPoints, xPoints.length);
+        }
+
+        if (style.hasStroke()) {
+            style.applyStroke(gc);
+            if (closed) {
+                gc.strokePolygon(xPoints, yPoints, xPoints.length);
+            } else {
+                gc.strokePolyline(xPoints, yPoints, xPoints.length);
+            }
+        }
+
+        drawSelection(gc);
+    }
+
+    @Override
+    public void export(VectorWriter writer) throws IOException {
+        if (closed) {
+            writer.polygon(xPoints, yPoints, xPoints.length, getStyle());
+        } else {
+            writer.polyline(xPoints, yPoints, xPoints.length, getStyle());
+        }
+    }
+
+    @Override
+    public boolean contains(double pointX, double pointY) {
+        double tolerance = 5;
+        if (pointX < x - tolerance || pointX > x + width + tolerance ||
+                pointY < y - tolerance || pointY > y + height + tolerance) {
+            return false;
+        }
+        if (closed && getStyle().hasFill() && containsInside(pointX, pointY)) {
+            return true;
+        }
+        for (int i = 1; i < xPoints.length; i++) {
+            double segX = xPoints[i] - xPoints[i - 1];
+            double segY = yPoints[i] - yPoints[i - 1];
+            double lengthSquared = segX * segX + segY * segY;
+            double t = lengthSquared == 0 ? 0 :
+                    ((pointX - xPoints[i - 1]) * segX + (pointY - yPoints[i - 1]) * segY) / lengthSquared;
+            t = Math.max(0, Math.min(1, t));
+            double dx = xPoints[i - 1] + t * segX - pointX;
+            double dy = yPoints[i - 1] + t * segY - pointY;
+            if (dx * dx + dy * dy <= tolerance * tolerance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean containsInside(double pointX, double pointY) {
+        boolean inside = false;
+        for (int i = 0, j = xPoints.length - 1; i < xPoints.length; j = i++) {
+            if ((yPoints[i] > pointY) != (yPoints[j] > pointY) &&
+                    pointX < (xPoints[j] - xPoints[i]) * (pointY - yPoints[i]) / (yPoints[j] - yPoints[i]) + xPoints[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    @Override
+    public void resize(ResizeType resizeType, double newX, double newY) {
+        double oldX = x, oldY = y, oldWidth = width, oldHeight = height;
+        super.resize(resizeType, newX, newY);
+        double targetX = x, targetY = y, targetWidth = width, targetHeight = height;
+        x = oldX;
+        y = oldY;
+        width = oldWidth;
+        height = oldHeight;
+        setBounds(targetX, targetY, targetWidth, targetHeight);
+    }
+
+    @Override
+    public void setBounds(double x, double y, double width, double height) {
+        double scaleX = this.width == 0 ? 1 : width / this.width;
+        double scaleY = this.height == 0 ? 1 : height / this.height;
+        for (int i = 0; i < xPoints.length; i++) {
+            xPoints[i] = x + (xPoints[i] - this.x) * scaleX;
+            yPoints[i] = y + (yPoints[i] - this.y) * scaleY;
+        }
+        updateBoundingBox();
+    }
+
+    @Override
+    public void setX(double x) {
+        double deltaX = x - this.x;
+        for (int i = 0; i < xPoints.length; i++) {
+            xPoints[i] += deltaX;
+        }
+        this.x = x;
+    }
+
+    @Override
+    public void setY(double y) {
+        double deltaY = y - this.y;
+        for (int i = 0; i < yPoints.length; i++) {
+            yPoints[i] += deltaY;
+        }
+        this.y = y;
+    }
+
+    @Override
+    public void setWidth(double width) {
+        setBounds(x, y, width, height);
+    }
+
+    @Override
+    public void setHeight(double height) {
+        setBounds(x, y, width, height);
+    }
+
+    private void updateBoundingBox() {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < xPoints.length; i++) {
+            minX = Math.min(minX, xPoints[i]);
+            minY = Math.min(minY, yPoints[i]);
+            maxX = Math.max(maxX, xPoints[i]);
+            maxY = Math.max(maxY, yPoints[i]);
+        }
+        x = minX;
+        y = minY;
+        width = maxX - minX;
+        height = maxY - minY;
+    }
+}
+
+class TextShape extends Shape {
+    static final String DEFAULT_FONT = "System";
+
+    private String text;
+    private final String fontFamily;
+    private final double fontSize;
+    private double wrapWidth;
+    private TextLayoutCache.Layout layout;
+
+    public TextShape(double x, double y, String text, double fontSize, double wrapWidth, Color color) {
+        this(x, y, text, DEFAULT_FONT, fontSize, wrapWidth, internStyle(color, Color.TRANSPARENT));
+    }
+
+    TextShape(double x, double y, String text, String fontFamily, double fontSize, double wrapWidth, int styleId) {
+        super(x, y, 0, 0, styleId);
+        this.text = text;
+        this.fontFamily = fontFamily;
+        this.fontSize = fontSize;
+        this.wrapWidth = wrapWidth;
+        updateLayout();
+    }
+
+    @Override
+    public Shape copy() {
+        TextShape copy = new TextShape(x, y, text, fontFamily, fontSize, wrapWidth, styleId, layout);
+        copy.setSelected(this.isSelected);
+        copy.id = id;
+        copy.styles = styles;
+        copy.layer = layer;
+        return copy;
+    }
+
+    private TextShape(double x, double y, String text, String fontFamily, double fontSize, double wrapWidth,
+                      int styleId, TextLayoutCache.Layout layout) {
+        super(x, y, layout.getWidth(), layout.getHeight(), styleId);
+        this.text = text;
+        this.fontFamily = fontFamily;
+        this.fontSize = fontSize;
+        this.wrapWidth = wrapWidth;
+        this.layout = layout;
+    }
+
+    public String getText() { return text; }
+    public String getFontFamily() { return fontFamily; }
+    public double getFontSize() { return fontSize; }
+    public double getWrapWidth() { return wrapWidth; }
+
+    public void setText(String text) {
+        this.text = text;
+        updateLayout();
+    }
+
+    private void updateLayout() {
+        layout = TextLayoutCache.shared().layout(text, fontFamily, fontSize, wrapWidth);
+        width = layout.getWidth();
+        height = layout.getHeight();
+    }
+
+    private Color getTextColor() {
+        Style style = getStyle();
+        return style.hasStroke() ? style.getStroke() : style.hasFill() ? style.getFill() : Color.BLACK;
+    }
+
+    @Override
+    public void draw(GraphicsContext gc) {
+        Color color = getTextColor();
+        double scale = Math.abs(gc.getTransform().getMxx());
+        WritableImage image = LabelBitmapCache.shared().get(layout, color, scale);
+        if (image != null) {
+            double rasterScale = LabelBitmapCache.bucketScale(scale);
+            gc.drawImage(image, x, y, image.getWidth() / rasterScale, image.getHeight() / rasterScale);
+        } else {
+            gc.setFill(color);
+            gc.setFont(layout.getFont());
+            gc.setTextBaseline(VPos.TOP);
+            for (int i = 0; i < layout.getLineCount(); i++) {
+                gc.fillText(layout.getLine(i), x, y + i * layout.getLineHeight());
+            }
+        }
+
+        drawSelection(gc);
+    }
+
+    @Override
+    public void export(VectorWriter writer) throws IOException {
+        writer.text(x, y + layout.getBaseline(), layout.getLines(), layout.getLineHeight(), fontFamily, fontSize,
+                getTextColor());
+    }
+
+    @Override
+    public boolean contains(double pointX, double pointY) {
+        if (!super.contains(pointX, pointY)) {
+            return false;
+        }
+        int line = (int) ((pointY - y) / layout.getLineHeight());
+        return line >= layout.getLineCount() || pointX <= x + layout.getLineWidth(line);
+    }
+
+    @Override
+    public void resize(ResizeType resizeType, double newX, double newY) {
+        double right = x + width;
+        super.resize(resizeType, newX, newY);
+        if (width != layout.getWidth()) {
+            wrapWidth = width;
+            updateLayout();
+            if (resizeType == ResizeType.WEST || resizeType == ResizeType.NORTHWEST
+                    || resizeType == ResizeType.SOUTHWEST) {
+                x = right - width;
+            }
+        } else {
+            height = layout.getHeight();
+        }
+    }
+
+    @Override
+    public void setBounds(double x, double y, double width, double height) {
+        this.x = x;
+        this.y = y;
+        if (width != this.width) {
+            wrapWidth = width;
+            updateLayout();
+        }
+    }
+
+    @Override
+    public void setWidth(double width) {
+        setBounds(x, y, width, height);
+    }
+
+    @Override
+    public void setHeight(double height) {
+    }
+}
+
+class PathShape extends Shape {
+    static final byte MOVE = 0;
+    static final byte LINE = 1;
+    static final byte QUAD = 2;
+    static final byte CUBIC = 3;
+    static final byte CLOSE = 4;
+    private static final int[] POINTS = {1, 1, 2, 3, 0};
+    private static final double FLATNESS = 0.25;
+    private static final int MAX_STEPS = 256;
+
+    private final byte[] verbs;
+    private final double[] coords;
+    private final boolean closed;
+
+    private double flatScale = -1;
+    private double[] flatX = new double[0], flatY = new double[0];
+    private int[] flatVerb = new int[0];
+    private double[] flatT = new double[0];
+    private int flatCount;
+    private int subpaths;
+
+    public PathShape(byte[] verbs, double[] coords, Color strokeColor, Color fillColor) {
+        this(verbs, coords, internStyle(strokeColor, fillColor));
+    }
+
+    PathShape(byte[] verbs, double[] coords, int styleId) {
+        super(0, 0, 0, 0, styleId);
+        int expected = 0;
+        boolean hasClose = false;
+        for (int i = 0; i < verbs.length; i++) {
+            if (verbs[i] < MOVE || verbs[i] > CLOSE || (i == 0 && verbs[i] != MOVE)) {
+                throw new IllegalArgumentException("Invalid path command: " + verbs[i]);
+            }
+            expected += POINTS[verbs[i]] * 2;
+            hasClose |= verbs[i] == CLOSE;
+        }
+        if (verbs.length < 2 || expected != coords.length) {
+            throw new IllegalArgumentException("Invalid path data");
+        }
+        this.verbs = verbs;
+        this.coords = coords;
+        this.closed = hasClose;
+        updateBounds();
+    }
+
+    @Override
+    public Shape copy() {
+        PathShape copy = new PathShape(verbs.clone(), coords.clone(), styleId, this);
+        copy.setSelected(this.isSelected);
+        copy.id = id;
+        copy.styles = styles;
+        copy.layer = layer;
+        return copy;
+    }
+
+    private PathShape(byte[] verbs, double[] coords, int styleId, PathShape source) {
+        super(source.x, source.y, source.width, source.height, styleId);
+        this.verbs = verbs;
+        this.coords = coords;
+        this.closed = source.closed;
+        flatScale = source.flatScale;
+        flatX = source.flatX.clone();
+        flatY = source.flatY.clone();
+        flatVerb = source.flatVerb.clone();
+        flatT = source.flatT.clone();
+        flatCount = source.flatCount;
+        subpaths = source.subpaths;
+    }
+
+    byte[] getVerbs() {
+        return verbs;
+    }
+
+    double[] getCoords() {
+        return coords;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void setFillColor(Color color) {
+        if (closed) {
+            super.setFillColor(color);
+        }
+    }
+
+    static double zoomBucket(double scale) {
+        int bucket = (int) Math.ceil(Math.log(Math.max(scale, 1e-6)) / Math.log(2) - 1e-9);
+        return Math.pow(2, Math.max(-4, Math.min(4, bucket)));
+    }
+
+    private void flatten(double bucket) {
+        double tolerance = FLATNESS / bucket;
+        flatCount = 0;
+        subpaths = 0;
+        double lastX = 0, lastY = 0, startX = 0, startY = 0;
+        int c = 0;
+        for (int v = 0; v < verbs.length; v++) {
+            switch (verbs[v]) {
+                case MOVE:
+                    lastX = startX = coords[c++];
+                    lastY = startY = coords[c++];
+                    subpaths++;
+                    addFlat(lastX, lastY, v, 0);
+                    break;
+                case LINE:
+                    lastX = coords[c++];
+                    lastY = coords[c++];
+                    addFlat(lastX, lastY, v, 1);
+                    break;
+                case QUAD: {
+                    double cx = coords[c], cy = coords[c + 1], x2 = coords[c + 2], y2 = coords[c + 3];
+                    double ddx = lastX - 2 * cx + x2, ddy = lastY - 2 * cy + y2;
+                    int steps = steps(0.25 * Math.hypot(ddx, ddy), tolerance);
+                    for (int i = 1; i <= steps; i++) {
+                        double t = (double) i / steps, u = 1 - t;
+                        addFlat(u * u * lastX + 2 * u * t * cx + t * t * x2,
+                                u * u * lastY + 2 * u * t * cy + t * t * y2, v, t);
+                    }
+                    lastX = x2;
+                    lastY = y2;
+                    c += 4;
+                    break;
+                }
+                case CUBIC: {
+                    double c1x = coords[c], c1y = coords[c + 1], c2x = coords[c + 2], c2y = coords[c + 3];
+                    double x2 = coords[c + 4], y2 = coords[c + 5];
+                    double dd = Math.max(Math.hypot(lastX - 2 * c1x + c2x, lastY - 2 * c1y + c2y),
+                            Math.hypot(c1x - 2 * c2x + x2, c1y - 2 * c2y + y2));
+                    int steps = steps(0.75 * dd, tolerance);
+                    for (int i = 1; i <= steps; i++) {
+                        double t = (double) i / steps;
+                        addFlat(cubic(lastX, c1x, c2x, x2, t), cubic(lastY, c1y, c2y, y2, t), v, t);
+                    }
+                    lastX = x2;
+                    lastY = y2;
+                    c += 6;
+                    break;
+                }
+                case CLOSE:
+                    if (lastX != startX || lastY != startY) {
+                        addFlat(startX, startY, v, 1);
+                    }
+                    lastX = startX;
+                    lastY = startY;
+                    break;
+            }
+        }
+        flatScale = bucket;
+    }
+
+    private static int steps(double curvature, double tolerance) {
+        return Math.max(1, Math.min(MAX_STEPS, (int) Math.ceil(Math.sqrt(curvature / tolerance))));
+    }
+
+    private static double cubic(double p0, double p1, double p2, double p3, double t) {
+        double u = 1 - t;
+        return u * u * u * p0 + 3 * u * u * t * p1 + 3 * u * t * t * p2 + t * t * t * p3;
+    }
+
+    private void addFlat(double px, double py, int verb, double t) {
+        if (flatCount == flatX.length) {
+            int capacity = Math.max(16, flatCount * 2);
+            flatX = Arrays.copyOf(flatX, capacity);
+            flatY = Arrays.copyOf(flatY, capacity);
+            flatVerb = Arrays.copyOf(flatVerb, capacity);
+            flatT = Arrays.copyOf(flatT, capacity);
+        }
+        flatX[flatCount] = px;
+        flatY[flatCount] = py;
+        flatVerb[flatCount] = verb;
+        flatT[flatCount] = t;
+        flatCount++;
+    }
+
+    private void updateBounds() {
+        double[] bounds = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        double lastX = 0, lastY = 0;
+        int c = 0;
+        for (byte verb : verbs) {
+            switch (verb) {
+                case QUAD:
+                    quadExtrema(bounds, 0, lastX, coords[c], coords[c + 2]);
+                    quadExtrema(bounds, 1, lastY, coords[c + 1], coords[c + 3]);
+                    break;
+                case CUBIC:
+                    cubicExtrema(bounds, 0, lastX, coords[c], coords[c + 2], coords[c + 4]);
+                    cubicExtrema(bounds, 1, lastY, coords[c + 1], coords[c + 3], coords[c + 5]);
+                    break;
+                default:
+                    break;
+            }
+            if (verb != CLOSE) {
+                c += POINTS[verb] * 2;
+                lastX = coords[c - 2];
+                lastY = coords[c - 1];
+                include(bounds, 0, lastX);
+                include(bounds, 1, lastY);
+            }
+        }
+        x = bounds[0];
+        y = bounds[1];
+        width = bounds[2] - bounds[0];
+        height = bounds[3] - bounds[1];
+    }
+
+    private static void quadExtrema(double[] bounds, int axis, double p0, double p1, double p2) {
+        double denominator = p0 - 2 * p1 + p2;
+        if (denominator != 0) {
+            double t = (p0 - p1) / denominator;
+            if (t > 0 && t < 1) {
+                double u = 1 - t;
+                include(bounds, axis, u * u * p0 + 2 * u * t * p1 + t * t * p2);
+            }
+        }
+    }
+
+    private static void cubicExtrema(double[] bounds, int axis, double p0, double p1, double p2, double p3) {
+        double a = -p0 + 3 * p1 - 3 * p2 + p3;
+        double b = 2 * (p0 - 2 * p1 + p2);
+        double c = p1 - p0;
+        if (Math.abs(a) < 1e-12) {
+            if (b != 0) {
+                includeCubic(bounds, axis, p0, p1, p2, p3, -c / b);
+            }
+            return;
+        }
+        double discriminant = b * b - 4 * a * c;
+        if (discriminant < 0) {
+            return;
+        }
+        double root = Math.sqrt(discriminant);
+        includeCubic(bounds, axis, p0, p1, p2, p3, (-b + root) / (2 * a));
+        includeCubic(bounds, axis, p0, p1, p2, p3, (-b - root) / (2 * a));
+    }
+
+    private static void includeCubic(double[] bounds, int axis, double p0, double p1, double p2, double p3, double t) {
+        if (t > 0 && t < 1) {
+            include(bounds, axis, cubic(p0, p1, p2, p3, t));
+        }
+    }
+
+    private static void include(double[] bounds, int axis, double value) {
+        bounds[axis] = Math.min(bounds[axis], value);
+        bounds[axis + 2] = Math.max(bounds[axis + 2], value);
+    }
+
+    @Override
+    public void draw(GraphicsContext gc) {
+        double bucket = zoomBucket(Math.abs(gc.getTransform().getMxx()));
+        if (bucket != flatScale) {
+            flatten(bucket);
+        }
+        Style style = getStyle();
+        if (subpaths == 1) {
+            if (closed && style.hasFill()) {
+                style.applyFill(gc);
+                gc.fillPolygon(flatX, flatY, flatCount);
+            }
+            if (style.hasStroke()) {
+                style.applyStroke(gc);
+                gc.strokePolyline(flatX, flatY, flatCount);
+            }
+        } else {
+            gc.beginPath();
+            for (int i = 0; i < flatCount; i++) {
+                if (verbs[flatVerb[i]] == MOVE) {
+                    gc.moveTo(flatX[i], flatY[i]);
+                } else {
+                    gc.lineTo(flatX[i], flatY[i]);
+                }
+            }
+            if (closed && style.hasFill()) {
+                style.applyFill(gc);
+                gc.fill();
+            }
+            if (style.hasStroke()) {
+                style.applyStroke(gc);
+                gc.stroke();
+            }
+        }
+
+        drawSelection(gc);
+    }
+
+    @Override
+    public void export(VectorWriter writer) throws IOException {
+        writer.path(verbs, coords, closed, getStyle());
+    }
+
+    @Override
+    public boolean contains(double pointX, double pointY) {
+        double tolerance = 5;
+        if (pointX < x - tolerance || pointX > x + width + tolerance ||
+                pointY < y - tolerance || pointY > y + height + tolerance) {
+            return false;
+        }
+        if (flatScale < 0) {
+            flatten(1);
+        }
+        if (closed && getStyle().hasFill() && containsInside(pointX, pointY)) {
+            return true;
+        }
+        double slack = FLATNESS / flatScale;
+        for (int i = 1; i < flatCount; i++) {
+            if (verbs[flatVerb[i]] == MOVE) {
+                continue;
+            }
+            double distance = segmentDistance(pointX, pointY, flatX[i - 1], flatY[i - 1], flatX[i], flatY[i]);
+            if (distance <= tolerance) {
+                return true;
+            }
+            if (distance <= tolerance + slack && curveDistance(pointX, pointY, i) <= tolerance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private double curveDistance(double pointX, double pointY, int flatIndex) {
+        int verb = flatVerb[flatIndex];
+        if (verbs[verb] != QUAD && verbs[verb] != CUBIC) {
+            return Double.MAX_VALUE;
+        }
+        int c = 0;
+        for (int v = 0; v < verb; v++) {
+            c += POINTS[verbs[v]] * 2;
+        }
+        double x0 = coords[c - 2], y0 = coords[c - 1];
+        double low = flatVerb[flatIndex - 1] == verb ? flatT[flatIndex - 1] : 0;
+        double high = flatT[flatIndex];
+        double best = Double.MAX_VALUE;
+        for (int iteration = 0; iteration < 24; iteration++) {
+            double t1 = low + (high - low) / 3, t2 = high - (high - low) / 3;
+            double d1 = curvePointDistance(pointX, pointY, verbs[verb], x0, y0, c, t1);
+            double d2 = curvePointDistance(pointX, pointY, verbs[verb], x0, y0, c, t2);
+            best = Math.min(best, Math.min(d1, d2));
+            if (d1 < d2) {
+                high = t2;
+            } else {
+                low = t1;
+            }
+        }
+        return best;
+    }
+
+    private double curvePointDistance(double pointX, double pointY, byte verb, double x0, double y0, int c,
+                                      double t) {
+        double px, py;
+        if (verb == QUAD) {
+            double u = 1 - t;
+            px = u * u * x0 + 2 * u * t * coords[c] + t * t * coords[c + 2];
+            py = u * u * y0 + 2 * u * t * coords[c + 1] + t * t * coords[c + 3];
+        } else {
+            px = cubic(x0, coords[c], coords[c + 2], coords[c + 4], t);
+            py = cubic(y0, coords[c + 1], coords[c + 3], coords[c + 5], t);
+        }
+        return Math.hypot(px - pointX, py - pointY);
+    }
+
+    private static double segmentDistance(double pointX, double pointY, double x1, double y1, double x2, double y2) {
+        double segX = x2 - x1;
+        double segY = y2 - y1;
+        double lengthSquared = segX * segX + segY * segY;
+        double t = lengthSquared == 0 ? 0 : ((pointX - x1) * segX + (pointY - y1) * segY) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(x1 + t * segX - pointX, y1 + t * segY - pointY);
+    }
+
+    private boolean containsInside(double pointX, double pointY) {
+        boolean inside = false;
+        for (int i = 0, j = flatCount - 1; i < flatCount; j = i++) {
+            if ((flatY[i] > pointY) != (flatY[j] > pointY) &&
+                    pointX < (flatX[j] - flatX[i]) * (pointY - flatY[i]) / (flatY[j] - flatY[i]) + flatX[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    @Override
+    public void resize(ResizeType resizeType, double newX, double newY) {
+        double oldX = x, oldY = y, oldWidth = width, oldHeight = height;
+        super.resize(resizeType, newX, newY);
+        double targetX = x, targetY = y, targetWidth = width, targetHeight = height;
+        x = oldX;
+        y = oldY;
+        width = oldWidth;
+        height = oldHeight;
+        setBounds(targetX, targetY, targetWidth, targetHeight);
+    }
+
+    @Override
+    public void setBounds(double x, double y, double width, double height) {
+        double scaleX = this.width == 0 ? 1 : width / this.width;
+        double scaleY = this.height == 0 ? 1 : height / this.height;
+        for (int i = 0; i < coords.length; i += 2) {
+            coords[i] = x + (coords[i] - this.x) * scaleX;
+            coords[i + 1] = y + (coords[i + 1] - this.y) * scaleY;
+        }
+        for (int i = 0; i < flatCount; i++) {
+            flatX[i] = x + (flatX[i] - this.x) * scaleX;
+            flatY[i] = y + (flatY[i] - this.y) * scaleY;
+        }
+        if (scaleX != 1 || scaleY != 1) {
+            flatScale = -1;
+        }
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public void setX(double x) {
+        setBounds(x, y, width, height);
+    }
+
+    @Override
+    public void setY(double y) {
+        setBounds(x, y, width, height);
+    }
+
+    @Override
+    public void setWidth(double width) {
+        setBounds(x, y, width, height);
+    }
+
+    @Override
+    public void setHeight(double height) {
+        setBounds(x, y, width, height);
+    }
+}
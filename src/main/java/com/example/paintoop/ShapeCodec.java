@@ -0,0 +1,298 @@
+package com.example.paintoop;
+
+import javafx.scene.paint.Color;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class ShapeCodec {
+    private static final byte RECTANGLE = 1;
+    private static final byte ELLIPSE = 2;
+    private static final byte LINE = 3;
+    private static final byte POLYGON = 4;
+    private static final byte POLYLINE = 5;
+    private static final byte GROUP = 6;
+    private static final byte TEXT = 7;
+    private static final byte PATH = 8;
+    private static final byte SYMBOL = 9;
+    private static final int HAS_LAYER = 0x80;
+
+    private static final int STYLE_WIDTH = 1;
+    private static final int STYLE_DASH = 2;
+    private static final int STYLE_OPACITY = 4;
+
+    private ShapeCodec() {
+    }
+
+    public static void write(DataOutput out, Shape shape) throws IOException {
+        if (shape instanceof Rectangle || shape instanceof Ellipse || shape instanceof Polygon) {
+            writeHeader(out, shape instanceof Rectangle ? RECTANGLE : shape instanceof Ellipse ? ELLIPSE : POLYGON,
+                    shape);
+            out.writeDouble(shape.getX());
+            out.writeDouble(shape.getY());
+            out.writeDouble(shape.getWidth());
+            out.writeDouble(shape.getHeight());
+            writeStyle(out, shape.getStyle());
+        } else if (shape instanceof Line) {
+            Line line = (Line) shape;
+            writeHeader(out, LINE, shape);
+            out.writeDouble(line.getStartX());
+            out.writeDouble(line.getStartY());
+            out.writeDouble(line.getEndX());
+            out.writeDouble(line.getEndY());
+            writeStyle(out, line.getStyle());
+        } else if (shape instanceof Polyline) {
+            Polyline polyline = (Polyline) shape;
+            double[] xPoints = polyline.getXPoints();
+            double[] yPoints = polyline.getYPoints();
+            writeHeader(out, POLYLINE, shape);
+            out.writeBoolean(polyline.isClosed());
+            out.writeInt(xPoints.length);
+            for (int i = 0; i < xPoints.length; i++) {
+                out.writeDouble(xPoints[i]);
+                out.writeDouble(yPoints[i]);
+            }
+            writeStyle(out, polyline.getStyle());
+        } else if (shape instanceof PathShape) {
+            PathShape path = (PathShape) shape;
+            writeHeader(out, PATH, shape);
+            out.writeInt(path.getVerbs().length);
+            out.write(path.getVerbs());
+            for (double coord : path.getCoords()) {
+                out.writeDouble(coord);
+            }
+            writeStyle(out, path.getStyle());
+        } else if (shape instanceof TextShape) {
+            TextShape text = (TextShape) shape;
+            writeHeader(out, TEXT, shape);
+            out.writeDouble(text.getX());
+            out.writeDouble(text.getY());
+            byte[] bytes = text.getText().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeUTF(text.getFontFamily());
+            out.writeDouble(text.getFontSize());
+            out.writeDouble(text.getWrapWidth());
+            writeStyle(out, text.getStyle());
+        } else if (shape instanceof SymbolInstance) {
+            SymbolInstance instance = (SymbolInstance) shape;
+            writeHeader(out, SYMBOL, shape);
+            out.writeInt(instance.getSymbolId());
+            out.writeDouble(instance.getOffsetX());
+            out.writeDouble(instance.getOffsetY());
+            out.writeDouble(instance.getScaleX());
+            out.writeDouble(instance.getScaleY());
+        } else if (shape instanceof ShapeGroup) {
+            ShapeGroup group = (ShapeGroup) shape;
+            writeHeader(out, GROUP, shape);
+            out.writeDouble(group.getOffsetX());
+            out.writeDouble(group.getOffsetY());
+            out.writeDouble(group.getScaleX());
+            out.writeDouble(group.getScaleY());
+            out.writeInt(group.getChildCount());
+            for (Shape child : group.getChildren()) {
+                write(out, child);
+            }
+        } else {
+            throw new IOException("Unsupported shape type: " + shape.getClass().getSimpleName());
+        }
+    }
+
+    private static void writeHeader(DataOutput out, byte type, Shape shape) throws IOException {
+        out.writeByte(shape.getLayer() != 0 ? type | HAS_LAYER : type);
+        out.writeLong(shape.getId());
+        if (shape.getLayer() != 0) {
+            out.writeInt(shape.getLayer());
+        }
+    }
+
+    public static Shape read(DataInput in, StyleTable styles) throws IOException {
+        Shape shape = read(in);
+        shape.adoptStyles(styles);
+        return shape;
+    }
+
+    public static Shape read(DataInput in) throws IOException {
+        int header = in.readUnsignedByte();
+        byte type = (byte) (header & ~HAS_LAYER);
+        long id = in.readLong();
+        int layer = (header & HAS_LAYER) != 0 ? in.readInt() : 0;
+        Shape shape;
+        switch (type) {
+            case RECTANGLE:
+            case ELLIPSE:
+            case POLYGON: {
+                double x = in.readDouble(), y = in.readDouble();
+                double width = in.readDouble(), height = in.readDouble();
+                int styleId = readStyleId(in);
+                shape = type == RECTANGLE ? new Rectangle(x, y, width, height, styleId)
+                        : type == ELLIPSE ? new Ellipse(x, y, width, height, styleId)
+                        : new Polygon(x, y, width, height, styleId);
+                break;
+            }
+            case LINE:
+                shape = new Line(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), readStyleId(in));
+                break;
+            case POLYLINE: {
+                boolean closed = in.readBoolean();
+                int count = readCount(in);
+                double[] xPoints = new double[count];
+                double[] yPoints = new double[count];
+                for (int i = 0; i < count; i++) {
+                    xPoints[i] = in.readDouble();
+                    yPoints[i] = in.readDouble();
+                }
+                shape = new Polyline(xPoints, yPoints, closed, readStyleId(in));
+                break;
+            }
+            case PATH: {
+                byte[] verbs = new byte[readCount(in)];
+                in.readFully(verbs);
+                if (verbs.length < 2 || verbs[0] != PathShape.MOVE) {
+                    throw new IOException("Invalid path data");
+                }
+                int count = 0;
+                for (byte verb : verbs) {
+                    if (verb < PathShape.MOVE || verb > PathShape.CLOSE) {
+                        throw new IOException("Invalid path command: " + verb);
+                    }
+                    count += verb == PathShape.CUBIC ? 6 : verb == PathShape.QUAD ? 4 : verb == PathShape.CLOSE ? 0 : 2;
+                }
+                double[] coords = new double[count];
+                for (int i = 0; i < count; i++) {
+                    coords[i] = in.readDouble();
+                }
+                shape = new PathShape(verbs, coords, readStyleId(in));
+                break;
+            }
+            case TEXT: {
+                double x = in.readDouble(), y = in.readDouble();
+                byte[] bytes = new byte[readCount(in)];
+                in.readFully(bytes);
+                String font = in.readUTF();
+                double size = in.readDouble(), wrap = in.readDouble();
+                shape = new TextShape(x, y, new String(bytes, StandardCharsets.UTF_8), font, size, wrap,
+                        readStyleId(in));
+                break;
+            }
+            case SYMBOL: {
+                int symbolId = in.readInt();
+                if (SymbolTable.shared().get(symbolId) == null) {
+                    throw new IOException("Unknown symbol: " + symbolId);
+                }
+                shape = new SymbolInstance(symbolId, in.readDouble(), in.readDouble(), in.readDouble(),
+                        in.readDouble());
+                break;
+            }
+            case GROUP: {
+                double offsetX = in.readDouble(), offsetY = in.readDouble();
+                double scaleX = in.readDouble(), scaleY = in.readDouble();
+                int count = readCount(in);
+                if (count == 0) {
+                    throw new IOException("Empty group");
+                }
+                List<Shape> children = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    children.add(read(in));
+                }
+                shape = ShapeGroup.restore(children, offsetX, offsetY, scaleX, scaleY);
+                break;
+            }
+            default:
+                throw new IOException("Unknown shape type: " + type);
+        }
+        shape.setId(id);
+        shape.setLayer(layer);
+        return shape;
+    }
+
+    public static void writeStyle(DataOutput out, Style style) throws IOException {
+        double[] dash = style.getDash();
+        int flags = (style.getWidth() != Style.DEFAULT_WIDTH ? STYLE_WIDTH : 0)
+                | (dash != null ? STYLE_DASH : 0)
+                | (style.getOpacity() != 1 ? STYLE_OPACITY : 0);
+        out.writeInt(toArgb(style.getStroke()));
+        out.writeInt(toArgb(style.getFill()));
+        out.writeByte(flags);
+        if ((flags & STYLE_WIDTH) != 0) {
+            out.writeDouble(style.getWidth());
+        }
+        if ((flags & STYLE_DASH) != 0) {
+            out.writeByte(dash.length);
+            for (double segment : dash) {
+                out.writeDouble(segment);
+            }
+        }
+        if ((flags & STYLE_OPACITY) != 0) {
+            out.writeDouble(style.getOpacity());
+        }
+    }
+
+    public static Style readStyle(DataInput in) throws IOException {
+        Color stroke = fromArgb(in.readInt());
+        Color fill = fromArgb(in.readInt());
+        int flags = in.readByte();
+        double width = (flags & STYLE_WIDTH) != 0 ? in.readDouble() : Style.DEFAULT_WIDTH;
+        double[] dash = null;
+        if ((flags & STYLE_DASH) != 0) {
+            dash = new double[in.readUnsignedByte()];
+            for (int i = 0; i < dash.length; i++) {
+                dash[i] = in.readDouble();
+            }
+        }
+        double opacity = (flags & STYLE_OPACITY) != 0 ? in.readDouble() : 1;
+        return new Style(stroke, fill, width, dash, opacity);
+    }
+
+    private static int readCount(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid element count: " + count);
+        }
+        return count;
+    }
+
+    private static int readStyleId(DataInput in) throws IOException {
+        return StyleTable.shared().intern(readStyle(in));
+    }
+
+    public static byte[] toBytes(Shape shape) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            write(new DataOutputStream(bytes), shape);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Shape fromBytes(byte[] data) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    public static int toArgb(Color color) {
+        if (color == null) {
+            return 0;
+        }
+        return (int) Math.round(color.getOpacity() * 255) << 24
+                | (int) Math.round(color.getRed() * 255) << 16
+                | (int) Math.round(color.getGreen() * 255) << 8
+                | (int) Math.round(color.getBlue() * 255);
+    }
+
+    public static Color fromArgb(int argb) {
+        if (argb == 0) {
+            return Color.TRANSPARENT;
+        }
+        return Color.rgb((argb >> 16) & 0xff, (argb >> 8) & 0xff, argb & 0xff, ((argb >>> 24) & 0xff) / 255.0);
+    }
+}
@@ -0,0 +1,317 @@
+package com.example.paintoop;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+public class ShapeGroup extends Shape {
+    private final List<Shape> children = new ArrayList<>();
+    private double offsetX = 0;
+    private double offsetY = 0;
+    private double scaleX = 1;
+    private double scaleY = 1;
+
+    private double localX, localY, localWidth, localHeight;
+    private boolean boundsValid = false;
+
+    public ShapeGroup(Collection<Shape> children) {
+        super(0, 0, 0, 0);
+        for (Shape child : children) {
+            child.setSelected(false);
+            this.children.add(child);
+        }
+        updateBounds();
+    }
+
+    private ShapeGroup() {
+        super(0, 0, 0, 0);
+    }
+
+    public List<Shape> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    public void addChild(Shape child) {
+        child.setSelected(false);
+        children.add(toLocal(child));
+        invalidateBounds();
+    }
+
+    public void removeChild(Shape child) {
+        if (children.remove(child)) {
+            invalidateBounds();
+        }
+    }
+
+    public void invalidateBounds() {
+        boundsValid = false;
+        updateBounds();
+    }
+
+    public List<Shape> releaseChildren() {
+        List<Shape> released = new ArrayList<>(children.size());
+        for (Shape child : children) {
+            released.add(toWorld(child));
+        }
+        children.clear();
+        boundsValid = false;
+        return released;
+    }
+
+    private Shape toLocal(Shape child) {
+        child.setBounds((child.getX() - offsetX) / scaleX, (child.getY() - offsetY) / scaleY,
+                child.getWidth() / scaleX, child.getHeight() / scaleY);
+        return child;
+    }
+
+    private Shape toWorld(Shape child) {
+        if (child instanceof ShapeGroup) {
+            ShapeGroup group = (ShapeGroup) child;
+            group.offsetX = offsetX + group.offsetX * scaleX;
+            group.offsetY = offsetY + group.offsetY * scaleY;
+            group.scaleX *= scaleX;
+            group.scaleY *= scaleY;
+            group.applyTransformToBounds();
+        } else {
+            child.setBounds(offsetX + child.getX() * scaleX, offsetY + child.getY() * scaleY,
+                    child.getWidth() * scaleX, child.getHeight() * scaleY);
+        }
+        return child;
+    }
+
+    private void updateBounds() {
+        if (boundsValid) {
+            return;
+        }
+        if (children.isEmpty()) {
+            localX = localY = localWidth = localHeight = 0;
+        } else {
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            for (Shape child : children) {
+                minX = Math.min(minX, child.getX());
+                minY = Math.min(minY, child.getY());
+                maxX = Math.max(maxX, child.getX() + child.getWidth());
+                maxY = Math.max(maxY, child.getY() + child.getHeight());
+            }
+            localX = minX;
+            localY = minY;
+            localWidth = maxX - minX;
+            localHeight = maxY - minY;
+        }
+        boundsValid = true;
+        applyTransformToBounds();
+    }
+
+    private void applyTransformToBounds() {
+        x = offsetX + localX * scaleX;
+        y = offsetY + localY * scaleY;
+        width = localWidth * scaleX;
+        height = localHeight * scaleY;
+    }
+
+    private void applyBoundsToTransform() {
+        scaleX = localWidth == 0 ? scaleX : width / localWidth;
+        scaleY = localHeight == 0 ? scaleY : height / localHeight;
+        offsetX = x - localX * scaleX;
+        offsetY = y - localY * scaleY;
+    }
+
+    @Override
+    public void draw(GraphicsContext gc) {
+        drawVisible(gc, -Double.MAX_VALUE / 2, -Double.MAX_VALUE / 2, Double.MAX_VALUE, Double.MAX_VALUE);
+    }
+
+    @Override
+    public void drawVisible(GraphicsContext gc, double viewX, double viewY, double viewWidth, double viewHeight) {
+        if (!intersects(viewX, viewY, viewWidth, viewHeight)) {
+            return;
+        }
+        double localViewX = (viewX - offsetX) / scaleX;
+        double localViewY = (viewY - offsetY) / scaleY;
+        double localViewWidth = viewWidth / scaleX;
+        double localViewHeight = viewHeight / scaleY;
+
+        gc.save();
+        gc.translate(offsetX, offsetY);
+        gc.scale(scaleX, scaleY);
+        for (Shape child : children) {
+            child.drawVisible(gc, localViewX, localViewY, localViewWidth, localViewHeight);
+        }
+        gc.restore();
+
+        drawSelection(gc);
+    }
+
+    @Override
+    public void export(VectorWriter writer) throws IOException {
+        writer.beginGroup(offsetX, offsetY, scaleX, scaleY);
+        for (Shape child : children) {
+            child.export(writer);
+        }
+        writer.endGroup();
+    }
+
+    @Override
+    public boolean contains(double pointX, double pointY) {
+        if (!super.contains(pointX, pointY)) {
+            return false;
+        }
+        double localPointX = (pointX - offsetX) / scaleX;
+        double localPointY = (pointY - offsetY) / scaleY;
+        for (int i = children.size() - 1; i >= 0; i--) {
+            if (children.get(i).contains(localPointX, localPointY)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Shape copy() {
+        ShapeGroup copy = new ShapeGroup();
+        for (Shape child : children) {
+            copy.children.add(child.copy());
+        }
+        copy.offsetX = offsetX;
+        copy.offsetY = offsetY;
+        copy.scaleX = scaleX;
+        copy.scaleY = scaleY;
+        copy.updateBounds();
+        copy.setSelected(this.isSelected);
+        copy.id = id;
+        copy.styles = styles;
+        copy.layer = layer;
+        return copy;
+    }
+
+    @Override
+    public Style getStyle() {
+        return children.isEmpty() ? super.getStyle() : children.get(0).getStyle();
+    }
+
+    @Override
+    public void setStyle(Style style) {
+        for (Shape child : children) {
+            child.setStyle(style);
+        }
+    }
+
+    @Override
+    public int getStyleId() {
+        return children.isEmpty() ? super.getStyleId() : children.get(0).getStyleId();
+    }
+
+    @Override
+    void adoptStyles(StyleTable table) {
+        for (Shape child : children) {
+            child.adoptStyles(table);
+        }
+        super.adoptStyles(table);
+    }
+
+    @Override
+    boolean replaceStyle(int fromStyleId, int toStyleId) {
+        boolean replaced = false;
+        for (Shape child : children) {
+            replaced |= child.replaceStyle(fromStyleId, toStyleId);
+        }
+        return replaced;
+    }
+
+    @Override
+    public void setStrokeColor(Color color) {
+        for (Shape child : children) {
+            child.setStrokeColor(color);
+        }
+    }
+
+    @Override
+    public void setFillColor(Color color) {
+        for (Shape child : children) {
+            child.setFillColor(color);
+        }
+    }
+
+    @Override
+    public Color getStrokeColor() {
+        return children.isEmpty() ? null : children.get(0).getStrokeColor();
+    }
+
+    @Override
+    public Color getFillColor() {
+        return children.isEmpty() ? null : children.get(0).getFillColor();
+    }
+
+    @Override
+    public void resize(ResizeType resizeType, double newX, double newY) {
+        super.resize(resizeType, newX, newY);
+        applyBoundsToTransform();
+    }
+
+    @Override
+    public void setBounds(double x, double y, double width, double height) {
+        super.setBounds(x, y, width, height);
+        applyBoundsToTransform();
+    }
+
+    @Override
+    public void setX(double x) {
+        offsetX += x - this.x;
+        this.x = x;
+    }
+
+    @Override
+    public void setY(double y) {
+        offsetY += y - this.y;
+        this.y = y;
+    }
+
+    @Override
+    public void setWidth(double width) {
+        this.width = width;
+        applyBoundsToTransform();
+    }
+
+    @Override
+    public void setHeight(double height) {
+        this.height = height;
+        applyBoundsToTransform();
+    }
+
+    public double getOffsetX() {
+        return offsetX;
+    }
+
+    public double getOffsetY() {
+        return offsetY;
+    }
+
+    public double getScaleX() {
+        return scaleX;
+    }
+
+    public double getScaleY() {
+        return scaleY;
+    }
+
+    static ShapeGroup restore(List<Shape> children, double offsetX, double offsetY, double scaleX, double scaleY) {
+        ShapeGroup group = new ShapeGroup();
+        group.children.addAll(children);
+        group.offsetX = offsetX;
+        group.offsetY = offsetY;
+        group.scaleX = scaleX;
+        group.scaleY = scaleY;
+        group.updateBounds();
+        return group;
+    }
+
+    public int getChildCount() {
+        return children.size();
+    }
+}
@@ -0,0 +1,558 @@
+package com.example.paintoop;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.exc.StreamReadException;
+import javafx.scene.paint.Color;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class ShapeJson {
+    private static final String PATH_VERBS = "MLQCZ";
+
+    private ShapeJson() {
+    }
+
+    public static void write(JsonGenerator generator, Shape shape) throws IOException {
+        generator.writeStartObject();
+        if (shape instanceof Line) {
+            Line line = (Line) shape;
+            generator.writeStringField("type", "line");
+            generator.writeNumberField("id", shape.getId());
+            generator.writeNumberField("x1", line.getStartX());
+            generator.writeNumberField("y1", line.getStartY());
+            generator.writeNumberField("x2", line.getEndX());
+            generator.writeNumberField("y2", line.getEndY());
+            generator.writeNumberField("style", line.getStyleId());
+        } else if (shape instanceof Polyline) {
+            Polyline polyline = (Polyline) shape;
+            double[] xPoints = polyline.getXPoints();
+            double[] yPoints = polyline.getYPoints();
+            generator.writeStringField("type", "polyline");
+            generator.writeNumberField("id", shape.getId());
+            generator.writeBooleanField("closed", polyline.isClosed());
+            generator.writeArrayFieldStart("points");
+            for (int i = 0; i < xPoints.length; i++) {
+                generator.writeNumber(xPoints[i]);
+                generator.writeNumber(yPoints[i]);
+            }
+            generator.writeEndArray();
+            generator.writeNumberField("style", polyline.getStyleId());
+        } else if (shape instanceof PathShape) {
+            PathShape path = (PathShape) shape;
+            double[] coords = path.getCoords();
+            generator.writeStringField("type", "path");
+            generator.writeNumberField("id", shape.getId());
+            StringBuilder verbs = new StringBuilder();
+            for (byte verb : path.getVerbs()) {
+                verbs.append(PATH_VERBS.charAt(verb));
+            }
+            generator.writeStringField("verbs", verbs.toString());
+            generator.writeFieldName("points");
+            generator.writeArray(coords, 0, coords.length);
+            generator.writeNumberField("style", path.getStyleId());
+        } else if (shape instanceof TextShape) {
+            TextShape text = (TextShape) shape;
+            generator.writeStringField("type", "text");
+            generator.writeNumberField("id", shape.getId());
+            generator.writeNumberField("x", text.getX());
+            generator.writeNumberField("y", text.getY());
+            generator.writeStringField("text", text.getText());
+            if (!text.getFontFamily().equals(TextShape.DEFAULT_FONT)) {
+                generator.writeStringField("font", text.getFontFamily());
+            }
+            generator.writeNumberField("size", text.getFontSize());
+            if (text.getWrapWidth() > 0) {
+                generator.writeNumberField("wrap", text.getWrapWidth());
+            }
+            generator.writeNumberField("style", text.getStyleId());
+        } else if (shape instanceof SymbolInstance) {
+            SymbolInstance instance = (SymbolInstance) shape;
+            generator.writeStringField("type", "symbol");
+            generator.writeNumberField("id", shape.getId());
+            generator.writeNumberField("symbol", instance.getSymbolId());
+            generator.writeNumberField("offsetX", instance.getOffsetX());
+            generator.writeNumberField("offsetY", instance.getOffsetY());
+            generator.writeNumberField("scaleX", instance.getScaleX());
+            generator.writeNumberField("scaleY", instance.getScaleY());
+        } else if (shape instanceof ShapeGroup) {
+            ShapeGroup group = (ShapeGroup) shape;
+            generator.writeStringField("type", "group");
+            generator.writeNumberField("id", shape.getId());
+            generator.writeNumberField("offsetX", group.getOffsetX());
+            generator.writeNumberField("offsetY", group.getOffsetY());
+            generator.writeNumberField("scaleX", group.getScaleX());
+            generator.writeNumberField("scaleY", group.getScaleY());
+            generator.writeArrayFieldStart("children");
+            for (Shape child : group.getChildren()) {
+                write(generator, child);
+            }
+            generator.writeEndArray();
+        } else {
+            generator.writeStringField("type", typeName(shape));
+            generator.writeNumberField("id", shape.getId());
+            generator.writeNumberField("x", shape.getX());
+            generator.writeNumberField("y", shape.getY());
+            generator.writeNumberField("width", shape.getWidth());
+            generator.writeNumberField("height", shape.getHeight());
+            generator.writeNumberField("style", shape.getStyleId());
+        }
+        if (shape.getLayer() != 0) {
+            generator.writeNumberField("layer", shape.getLayer());
+        }
+        generator.writeEndObject();
+    }
+
+    public static void writeArray(JsonGenerator generator, List<Shape> shapes) throws IOException {
+        generator.writeStartArray();
+        for (Shape shape : shapes) {
+            write(generator, shape);
+        }
+        generator.writeEndArray();
+    }
+
+    public static void writeStyles(JsonGenerator generator, Collection<? extends Collection<Shape>> states)
+            throws IOException {
+        BitSet used = new BitSet();
+        for (Collection<Shape> state : states) {
+            collectStyles(state, used);
+        }
+        writeStyles(generator, used);
+    }
+
+    public static void writeStyles(JsonGenerator generator, BitSet used) throws IOException {
+        writeStyles(generator, used, StyleTable.shared());
+    }
+
+    public static void writeStyles(JsonGenerator generator, BitSet used, StyleTable table) throws IOException {
+        generator.writeStartArray();
+        for (int id = used.nextSetBit(0); id >= 0; id = used.nextSetBit(id + 1)) {
+            writeStyle(generator, id, table.get(id));
+        }
+        generator.writeEndArray();
+    }
+
+    public static void writeStyle(JsonGenerator generator, int id, Style style) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("id", id);
+        writeColor(generator, "stroke", style.getStroke());
+        writeColor(generator, "fill", style.getFill());
+        if (style.getWidth() != Style.DEFAULT_WIDTH) {
+            generator.writeNumberField("width", style.getWidth());
+        }
+        double[] dash = style.getDash();
+        if (dash != null) {
+            generator.writeFieldName("dash");
+            generator.writeArray(dash, 0, dash.length);
+        }
+        if (style.getOpacity() != 1) {
+            generator.writeNumberField("opacity", style.getOpacity());
+        }
+        generator.writeEndObject();
+    }
+
+    public static Map<Integer, Integer> readStyles(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Expected style array");
+        }
+        Map<Integer, Integer> styles = new HashMap<>();
+        StyleTable table = StyleTable.shared();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            Integer id = null;
+            Color stroke = null, fill = null;
+            double width = Style.DEFAULT_WIDTH, opacity = 1;
+            double[] dash = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "id": id = parser.getIntValue(); break;
+                    case "stroke": stroke = readColor(parser); break;
+                    case "fill": fill = readColor(parser); break;
+                    case "width": width = parser.getDoubleValue(); break;
+                    case "opacity": opacity = parser.getDoubleValue(); break;
+                    case "dash": {
+                        List<Double> segments = new ArrayList<>();
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            segments.add(parser.getDoubleValue());
+                        }
+                        dash = new double[segments.size()];
+                        for (int i = 0; i < dash.length; i++) {
+                            dash[i] = segments.get(i);
+                        }
+                        break;
+                    }
+                    default:
+                        if (value.isStructStart()) {
+                            parser.skipChildren();
+                        }
+                        break;
+                }
+            }
+            if (id == null) {
+                throw new JsonParseException(parser, "Style without id");
+            }
+            styles.put(id, table.intern(new Style(stroke, fill, width, dash, opacity)));
+        }
+        return styles;
+    }
+
+    public static void writeSymbols(JsonGenerator generator, BitSet used) throws IOException {
+        writeSymbols(generator, used, StyleTable.shared());
+    }
+
+    public static void writeSymbols(JsonGenerator generator, BitSet used, StyleTable styles) throws IOException {
+        SymbolTable table = SymbolTable.shared();
+        generator.writeStartArray();
+        for (int id = used.nextSetBit(0); id >= 0; id = used.nextSetBit(id + 1)) {
+            SymbolTable.Symbol symbol = table.get(id);
+            List<Shape> shapes = new ArrayList<>(symbol.getShapes().size());
+            for (Shape shape : symbol.getShapes()) {
+                Shape copy = shape.copy();
+                copy.adoptStyles(styles);
+                shapes.add(copy);
+            }
+            generator.writeStartObject();
+            generator.writeNumberField("id", id);
+            generator.writeStringField("name", symbol.getName());
+            generator.writeFieldName("shapes");
+            writeArray(generator, shapes);
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
+
+    public static Map<Integer, Integer> readSymbols(JsonParser parser, Map<Integer, Integer> styles)
+            throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Expected symbol array");
+        }
+        Map<Integer, Integer> symbols = new HashMap<>();
+        SymbolTable table = SymbolTable.shared();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            Integer id = null;
+            String name = null;
+            List<Shape> shapes = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "id": id = parser.getIntValue(); break;
+                    case "name": name = parser.getText(); break;
+                    case "shapes": shapes = readArray(parser, styles); break;
+                    default:
+                        if (value.isStructStart()) {
+                            parser.skipChildren();
+                        }
+                        break;
+                }
+            }
+            if (id == null || shapes == null || shapes.isEmpty()) {
+                throw new JsonParseException(parser, "Invalid symbol");
+            }
+            symbols.put(id, table.define(name != null ? name : "Символ " + (id + 1), shapes));
+        }
+        return symbols;
+    }
+
+    public static Shape read(JsonParser parser) throws IOException {
+        return read(parser, Collections.emptyMap());
+    }
+
+    public static Shape read(JsonParser parser, Map<Integer, Integer> styles) throws IOException {
+        return read(parser, styles, Collections.emptyMap());
+    }
+
+    public static Shape read(JsonParser parser, Map<Integer, Integer> styles, Map<Integer, Integer> symbols)
+            throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected shape object");
+        }
+        String type = null;
+        long id = 0;
+        int layer = 0;
+        double x = 0, y = 0, width = 0, height = 0;
+        double x1 = 0, y1 = 0, x2 = 0, y2 = 0;
+        double offsetX = 0, offsetY = 0, scaleX = 1, scaleY = 1;
+        boolean closed = false;
+        String text = null, font = TextShape.DEFAULT_FONT, verbs = null;
+        double size = 16, wrap = 0;
+        Color stroke = null, fill = null;
+        Integer styleId = null, symbolRef = null;
+        double[] points = null;
+        int pointCount = 0;
+        List<Shape> children = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "type": type = parser.getText(); break;
+                case "id": id = parser.getLongValue(); break;
+                case "layer": layer = parser.getIntValue(); break;
+                case "x": x = parser.getDoubleValue(); break;
+                case "y": y = parser.getDoubleValue(); break;
+                case "width": width = parser.getDoubleValue(); break;
+                case "height": height = parser.getDoubleValue(); break;
+                case "x1": x1 = parser.getDoubleValue(); break;
+                case "y1": y1 = parser.getDoubleValue(); break;
+                case "x2": x2 = parser.getDoubleValue(); break;
+                case "y2": y2 = parser.getDoubleValue(); break;
+                case "offsetX": offsetX = parser.getDoubleValue(); break;
+                case "offsetY": offsetY = parser.getDoubleValue(); break;
+                case "scaleX": scaleX = parser.getDoubleValue(); break;
+                case "scaleY": scaleY = parser.getDoubleValue(); break;
+                case "closed": closed = parser.getBooleanValue(); break;
+                case "text": text = parser.getText(); break;
+                case "verbs": verbs = parser.getText(); break;
+                case "font": font = parser.getText(); break;
+                case "size": size = parser.getDoubleValue(); break;
+                case "wrap": wrap = parser.getDoubleValue(); break;
+                case "stroke": stroke = readColor(parser); break;
+                case "fill": fill = readColor(parser); break;
+                case "style":
+                    styleId = styles.get(parser.getIntValue());
+                    if (styleId == null) {
+                        throw new JsonParseException(parser, "Unknown style: " + parser.getText());
+                    }
+                    break;
+                case "symbol": symbolRef = parser.getIntValue(); break;
+                case "points":
+                    points = new double[64];
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        if (pointCount == points.length) {
+                            points = Arrays.copyOf(points, pointCount * 2);
+                        }
+                        points[pointCount++] = parser.getDoubleValue();
+                    }
+                    break;
+                case "children":
+                    children = new ArrayList<>();
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        children.add(read(parser, styles, symbols));
+                    }
+                    break;
+                default:
+                    if (value.isStructStart()) {
+                        parser.skipChildren();
+                    }
+                    break;
+            }
+        }
+        if (type == null) {
+            throw new JsonParseException(parser, "Shape without type");
+        }
+
+        int style = styleId != null ? styleId
+                : StyleTable.shared().intern(new Style(stroke, type.equals("line") ? Color.TRANSPARENT : fill));
+        Shape shape;
+        switch (type) {
+            case "rectangle": shape = new Rectangle(x, y, width, height, style); break;
+            case "ellipse": shape = new Ellipse(x, y, width, height, style); break;
+            case "polygon": shape = new Polygon(x, y, width, height, style); break;
+            case "line": shape = new Line(x1, y1, x2, y2, style); break;
+            case "polyline": {
+                if (points == null || pointCount < 4 || pointCount % 2 != 0) {
+                    throw new JsonParseException(parser, "Invalid polyline points");
+                }
+                double[] xPoints = new double[pointCount / 2];
+                double[] yPoints = new double[pointCount / 2];
+                for (int i = 0; i < xPoints.length; i++) {
+                    xPoints[i] = points[i * 2];
+                    yPoints[i] = points[i * 2 + 1];
+                }
+                shape = new Polyline(xPoints, yPoints, closed, style);
+                break;
+            }
+            case "path": {
+                if (verbs == null || points == null) {
+                    throw new JsonParseException(parser, "Invalid path");
+                }
+                byte[] pathVerbs = new byte[verbs.length()];
+                for (int i = 0; i < pathVerbs.length; i++) {
+                    int verb = PATH_VERBS.indexOf(verbs.charAt(i));
+                    if (verb < 0) {
+                        throw new JsonParseException(parser, "Invalid path command: " + verbs.charAt(i));
+                    }
+                    pathVerbs[i] = (byte) verb;
+                }
+                shape = new PathShape(pathVerbs, Arrays.copyOf(points, pointCount), style);
+                break;
+            }
+            case "text":
+                if (text == null || !(size > 0)) {
+                    throw new JsonParseException(parser, "Invalid text shape");
+                }
+                shape = new TextShape(x, y, text, font, size, wrap, style);
+                break;
+            case "symbol": {
+                Integer symbolId = symbolRef != null ? symbols.get(symbolRef) : null;
+                if (symbolId == null) {
+                    throw new JsonParseException(parser, "Unknown symbol: " + symbolRef);
+                }
+                shape = new SymbolInstance(symbolId, offsetX, offsetY, scaleX, scaleY);
+                break;
+            }
+            case "group":
+                if (children == null || children.isEmpty()) {
+                    throw new JsonParseException(parser, "Empty group");
+                }
+                shape = ShapeGroup.restore(children, offsetX, offsetY, scaleX, scaleY);
+                break;
+            default:
+                throw new JsonParseException(parser, "Unknown shape type: " + type);
+        }
+        shape.setId(id);
+        shape.setLayer(layer);
+        return shape;
+    }
+
+    public static List<Shape> readArray(JsonParser parser) throws IOException {
+        return readArray(parser, Collections.emptyMap());
+    }
+
+    public static Shape readOrSkip(JsonParser parser, Map<Integer, Integer> styles, Map<Integer, Integer> symbols,
+                                   List<String> errors) throws IOException {
+        JsonStreamContext container = parser.getParsingContext();
+        if (parser.currentToken() != null && parser.currentToken().isStructStart()) {
+            container = container.getParent();
+        }
+        long line = parser.currentLocation().getLineNr();
+        long column = parser.currentLocation().getColumnNr();
+        try {
+            return read(parser, styles, symbols);
+        } catch (StreamReadException | IllegalArgumentException e) {
+            String message = e instanceof StreamReadException ? ((StreamReadException) e).getOriginalMessage()
+                    : e.getMessage();
+            errors.add(line + ":" + column + ": " + message);
+            while (parser.getParsingContext() != container) {
+                if (parser.nextToken() == null) {
+                    throw e;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static List<Shape> readArray(JsonParser parser, Map<Integer, Integer> styles,
+                                        Map<Integer, Integer> symbols, List<String> errors) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Expected shape array");
+        }
+        List<Shape> shapes = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            Shape shape = readOrSkip(parser, styles, symbols, errors);
+            if (shape != null) {
+                shapes.add(shape);
+            }
+        }
+        return shapes;
+    }
+
+    public static List<Shape> readArray(JsonParser parser, Map<Integer, Integer> styles) throws IOException {
+        return readArray(parser, styles, Collections.emptyMap());
+    }
+
+    public static List<Shape> readArray(JsonParser parser, Map<Integer, Integer> styles,
+                                        Map<Integer, Integer> symbols) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Expected shape array");
+        }
+        List<Shape> shapes = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            shapes.add(read(parser, styles, symbols));
+        }
+        return shapes;
+    }
+
+    public static void collectStyles(Collection<Shape> shapes, BitSet used) {
+        collectStyles(shapes, used, StyleTable.shared());
+    }
+
+    public static void collectStyles(Collection<Shape> shapes, BitSet used, StyleTable table) {
+        for (Shape shape : shapes) {
+            if (shape instanceof ShapeGroup) {
+                collectStyles(((ShapeGroup) shape).getChildren(), used, table);
+            } else if (shape instanceof SymbolInstance) {
+                collectSymbolStyles(((SymbolInstance) shape).getSymbol().getShapes(), used, table);
+            } else {
+                used.set(shape.getStyleId());
+            }
+        }
+    }
+
+    private static void collectSymbolStyles(Collection<Shape> shapes, BitSet used, StyleTable table) {
+        for (Shape shape : shapes) {
+            if (shape instanceof ShapeGroup) {
+                collectSymbolStyles(((ShapeGroup) shape).getChildren(), used, table);
+            } else {
+                used.set(table.intern(shape.getStyle()));
+            }
+        }
+    }
+
+    public static void collectSymbols(Collection<Shape> shapes, BitSet used) {
+        for (Shape shape : shapes) {
+            if (shape instanceof ShapeGroup) {
+                collectSymbols(((ShapeGroup) shape).getChildren(), used);
+            } else if (shape instanceof SymbolInstance) {
+                used.set(((SymbolInstance) shape).getSymbolId());
+            }
+        }
+    }
+
+    private static String typeName(Shape shape) {
+        if (shape instanceof Rectangle) {
+            return "rectangle";
+        } else if (shape instanceof Ellipse) {
+            return "ellipse";
+        } else if (shape instanceof Polygon) {
+            return "polygon";
+        }
+        throw new IllegalArgumentException("Unsupported shape type: " + shape.getClass().getSimpleName());
+    }
+
+    private static void writeColor(JsonGenerator generator, String field, Color color) throws IOException {
+        if (color == null) {
+            return;
+        }
+        int argb = ShapeCodec.toArgb(color);
+        char[] hex = new char[9];
+        hex[0] = '#';
+        int rgba = (argb << 8) | (argb >>> 24);
+        for (int i = 8; i >= 1; i--) {
+            hex[i] = Character.forDigit(rgba & 0xf, 16);
+            rgba >>>= 4;
+        }
+        generator.writeFieldName(field);
+        generator.writeString(hex, 0, hex.length);
+    }
+
+    private static Color readColor(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        String text = parser.getText();
+        if (text.length() != 9 || text.charAt(0) != '#') {
+            throw new JsonParseException(parser, "Invalid color: " + text);
+        }
+        try {
+            long rgba = Long.parseLong(text.substring(1), 16);
+            return Color.rgb((int) (rgba >> 24) & 0xff, (int) (rgba >> 16) & 0xff, (int) (rgba >> 8) & 0xff,
+                    (rgba & 0xff) / 255.0);
+        } catch (NumberFormatException e) {
+            throw new JsonParseException(parser, "Invalid color: " + text);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.paintoop;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SpatialIndex {
+    private static final double DEFAULT_CELL_SIZE = 256;
+    private static final int MAX_CELLS_PER_SHAPE = 64;
+
+    private final double cellSize;
+    private final Map<Long, List<Shape>> cells = new HashMap<>();
+    private final Map<Shape, int[]> entries = new IdentityHashMap<>();
+    private final List<Shape> oversized = new ArrayList<>();
+    private int queryStamp = 0;
+    private final Map<Shape, Integer> visited = new IdentityHashMap<>();
+
+    public SpatialIndex() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    public SpatialIndex(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public void insert(Shape shape) {
+        if (entries.containsKey(shape)) {
+            remove(shape);
+        }
+        int minCol = cellOf(shape.getX());
+        int minRow = cellOf(shape.getY());
+        int maxCol = cellOf(shape.getX() + shape.getWidth());
+        int maxRow = cellOf(shape.getY() + shape.getHeight());
+        int[] range = {minCol, minRow, maxCol, maxRow};
+        entries.put(shape, range);
+
+        if ((long) (maxCol - minCol + 1) * (maxRow - minRow + 1) > MAX_CELLS_PER_SHAPE) {
+            oversized.add(shape);
+            return;
+        }
+        for (int col = minCol; col <= maxCol; col++) {
+            for (int row = minRow; row <= maxRow; row++) {
+                cells.computeIfAbsent(key(col, row), k -> new ArrayList<>()).add(shape);
+            }
+        }
+    }
+
+    public void remove(Shape shape) {
+        int[] range = entries.remove(shape);
+        if (range == null) {
+            return;
+        }
+        visited.remove(shape);
+        if ((long) (range[2] - range[0] + 1) * (range[3] - range[1] + 1) > MAX_CELLS_PER_SHAPE) {
+            oversized.remove(shape);
+            return;
+        }
+        for (int col = range[0]; col <= range[2]; col++) {
+            for (int row = range[1]; row <= range[3]; row++) {
+                long key = key(col, row);
+                List<Shape> cell = cells.get(key);
+                if (cell != null) {
+                    cell.remove(shape);
+                    if (cell.isEmpty()) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    public void update(Shape shape) {
+        int[] range = entries.get(shape);
+        if (range != null
+                && range[0] == cellOf(shape.getX())
+                && range[1] == cellOf(shape.getY())
+                && range[2] == cellOf(shape.getX() + shape.getWidth())
+                && range[3] == cellOf(shape.getY() + shape.getHeight())) {
+            return;
+        }
+        insert(shape);
+    }
+
+    public void rebuild(Collection<Shape> shapes) {
+        clear();
+        for (Shape shape : shapes) {
+            insert(shape);
+        }
+    }
+
+    public void clear() {
+        cells.clear();
+        entries.clear();
+        oversized.clear();
+        visited.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public List<Shape> query(double x, double y, double width, double height) {
+        List<Shape> result = new ArrayList<>();
+        int stamp = ++queryStamp;
+        if (stamp == Integer.MAX_VALUE) {
+            visited.clear();
+            queryStamp = 0;
+        }
+
+        int minCol = cellOf(x);
+        int minRow = cellOf(y);
+        int maxCol = cellOf(x + width);
+        int maxRow = cellOf(y + height);
+
+        if ((long) (maxCol - minCol + 1) * (maxRow - minRow + 1) > cells.size()) {
+            for (List<Shape> cell : cells.values()) {
+                collect(cell, x, y, width, height, stamp, result);
+            }
+        } else {
+            for (int col = minCol; col <= maxCol; col++) {
+                for (int row = minRow; row <= maxRow; row++) {
+                    List<Shape> cell = cells.get(key(col, row));
+                    if (cell != null) {
+                        collect(cell, x, y, width, height, stamp, result);
+                    }
+                }
+            }
+        }
+        collect(oversized, x, y, width, height, stamp, result);
+
+        result.sort(Comparator.comparingLong(Shape::getOrder));
+        return result;
+    }
+
+    private void collect(List<Shape> candidates, double x, double y, double width, double height,
+                         int stamp, List<Shape> result) {
+        for (Shape shape : candidates) {
+            Integer seen = visited.put(shape, stamp);
+            if (seen != null && seen == stamp) {
+                continue;
+            }
+            if (shape.getX() <= x + width && shape.getX() + shape.getWidth() >= x &&
+                    shape.getY() <= y + height && shape.getY() + shape.getHeight() >= y) {
+                result.add(shape);
+            }
+        }
+    }
+
+    private int cellOf(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int col, int row) {
+        return ((long) col << 32) | (row & 0xffffffffL);
+    }
+}
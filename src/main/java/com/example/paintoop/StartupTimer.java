@@ -0,0 +1,46 @@
+package com.example.paintoop;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public final class StartupTimer {
+    private static final long ORIGIN_NANOS = System.nanoTime();
+    private static final long PROCESS_START_OFFSET_MS = ProcessHandle.current().info().startInstant()
+            .map(start -> Math.max(0, System.currentTimeMillis() - start.toEpochMilli()))
+            .orElse(0L);
+    private static final Map<String, Double> phases = new LinkedHashMap<>();
+    private static boolean reported = false;
+
+    private StartupTimer() {
+    }
+
+    public static synchronized void mark(String phase) {
+        if (!phases.containsKey(phase)) {
+            phases.put(phase, PROCESS_START_OFFSET_MS + (System.nanoTime() - ORIGIN_NANOS) / 1e6);
+        }
+    }
+
+    public static synchronized double elapsed(String phase) {
+        Double millis = phases.get(phase);
+        return millis == null ? Double.NaN : millis;
+    }
+
+    public static synchronized Map<String, Double> getPhases() {
+        return new LinkedHashMap<>(phases);
+    }
+
+    public static synchronized void report() {
+        if (reported || !Boolean.getBoolean("paintoop.startup.timing")) {
+            return;
+        }
+        reported = true;
+        StringBuilder sb = new StringBuilder("Startup timing (ms since process start):\n");
+        double previous = 0;
+        for (Map.Entry<String, Double> entry : phases.entrySet()) {
+            sb.append(String.format("  %-24s %9.1f  (+%.1f)%n", entry.getKey(), entry.getValue(),
+                    entry.getValue() - previous));
+            previous = entry.getValue();
+        }
+        System.out.print(sb);
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.paintoop;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+import java.util.Arrays;
+
+public class StrokeBuilder {
+    private static final int MAX_PENDING = 256;
+
+    private final double tolerance;
+    private double[] xs = new double[64];
+    private double[] ys = new double[64];
+    private int size = 0;
+
+    private double[] pendingXs = new double[MAX_PENDING];
+    private double[] pendingYs = new double[MAX_PENDING];
+    private int pendingSize = 0;
+
+    private double lastX, lastY;
+    private int sampleCount = 0;
+
+    public StrokeBuilder(double startX, double startY, double tolerance) {
+        this.tolerance = tolerance;
+        commit(startX, startY);
+        lastX = startX;
+        lastY = startY;
+        sampleCount = 1;
+    }
+
+    public boolean addPoint(double x, double y) {
+        double dx = x - lastX;
+        double dy = y - lastY;
+        if (dx * dx + dy * dy < tolerance * tolerance) {
+            return false;
+        }
+        sampleCount++;
+        lastX = x;
+        lastY = y;
+
+        if (pendingSize == MAX_PENDING || exceedsTolerance(x, y)) {
+            commit(pendingXs[pendingSize - 1], pendingYs[pendingSize - 1]);
+            pendingSize = 0;
+        }
+        pendingXs[pendingSize] = x;
+        pendingYs[pendingSize] = y;
+        pendingSize++;
+        return true;
+    }
+
+    private boolean exceedsTolerance(double x, double y) {
+        if (pendingSize == 0) {
+            return false;
+        }
+        double anchorX = xs[size - 1];
+        double anchorY = ys[size - 1];
+        double segX = x - anchorX;
+        double segY = y - anchorY;
+        double lengthSquared = segX * segX + segY * segY;
+        double limit = tolerance * tolerance;
+
+        for (int i = 0; i < pendingSize; i++) {
+            double px = pendingXs[i] - anchorX;
+            double py = pendingYs[i] - anchorY;
+            double distanceSquared;
+            if (lengthSquared == 0) {
+                distanceSquared = px * px + py * py;
+            } else {
+                double cross = px * segY - py * segX;
+                distanceSquared = cross * cross / lengthSquared;
+            }
+            if (distanceSquared > limit) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void commit(double x, double y) {
+        if (size == xs.length) {
+            xs = Arrays.copyOf(xs, size * 2);
+            ys = Arrays.copyOf(ys, size * 2);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        size++;
+    }
+
+    public double getLastX() {
+        return lastX;
+    }
+
+    public double getLastY() {
+        return lastY;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public void draw(GraphicsContext gc) {
+        gc.strokePolyline(xs, ys, size);
+        if (pendingSize > 0) {
+            gc.strokeLine(xs[size - 1], ys[size - 1], pendingXs[0], pendingYs[0]);
+            gc.strokePolyline(pendingXs, pendingYs, pendingSize);
+        }
+    }
+
+    public Polyline finish(Color strokeColor) {
+        if (pendingSize > 0) {
+            commit(pendingXs[pendingSize - 1], pendingYs[pendingSize - 1]);
+            pendingSize = 0;
+        }
+        if (size < 2) {
+            return null;
+        }
+        return new Polyline(Arrays.copyOf(xs, size), Arrays.copyOf(ys, size), strokeColor);
+    }
+}
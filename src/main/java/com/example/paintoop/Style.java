@@ -0,0 +1,128 @@
+package com.example.paintoop;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+public final class Style {
+    public static final double DEFAULT_WIDTH = 2;
+
+    private final Color stroke;
+    private final Color fill;
+    private final double width;
+    private final double[] dash;
+    private final double opacity;
+    private final Color strokePaint;
+    private final Color fillPaint;
+    private final int hash;
+
+    public Style(Color stroke, Color fill) {
+        this(stroke, fill, DEFAULT_WIDTH, null, 1);
+    }
+
+    public Style(Color stroke, Color fill, double width, double[] dash, double opacity) {
+        this.stroke = stroke;
+        this.fill = fill;
+        this.width = width;
+        this.dash = dash == null || dash.length == 0 ? null : dash.clone();
+        this.opacity = Math.max(0, Math.min(1, opacity));
+        this.strokePaint = withOpacity(stroke, this.opacity);
+        this.fillPaint = withOpacity(fill, this.opacity);
+        this.hash = Objects.hash(stroke, fill, width, Arrays.hashCode(this.dash), this.opacity);
+    }
+
+    public Color getStroke() {
+        return stroke;
+    }
+
+    public Color getFill() {
+        return fill;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double[] getDash() {
+        return dash == null ? null : dash.clone();
+    }
+
+    public double getOpacity() {
+        return opacity;
+    }
+
+    public Style withStroke(Color stroke) {
+        return new Style(stroke, fill, width, dash, opacity);
+    }
+
+    public Style withFill(Color fill) {
+        return new Style(stroke, fill, width, dash, opacity);
+    }
+
+    public Style withWidth(double width) {
+        return new Style(stroke, fill, width, dash, opacity);
+    }
+
+    public Style withDash(double... dash) {
+        return new Style(stroke, fill, width, dash, opacity);
+    }
+
+    public Style withOpacity(double opacity) {
+        return new Style(stroke, fill, width, dash, opacity);
+    }
+
+    public boolean hasStroke() {
+        return strokePaint != null;
+    }
+
+    public boolean hasFill() {
+        return fillPaint != null;
+    }
+
+    public Color getStrokePaint() {
+        return strokePaint;
+    }
+
+    public Color getFillPaint() {
+        return fillPaint;
+    }
+
+    public void applyStroke(GraphicsContext gc) {
+        gc.setStroke(strokePaint);
+        gc.setLineWidth(width);
+        gc.setLineDashes(dash);
+    }
+
+    public void applyFill(GraphicsContext gc) {
+        gc.setFill(fillPaint);
+    }
+
+    private static Color withOpacity(Color color, double opacity) {
+        if (color == null || color.equals(Color.TRANSPARENT) || opacity == 0) {
+            return null;
+        }
+        return opacity == 1 ? color : Color.color(color.getRed(), color.getGreen(), color.getBlue(),
+                color.getOpacity() * opacity);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Style)) {
+            return false;
+        }
+        Style other = (Style) o;
+        return hash == other.hash && width == other.width && opacity == other.opacity
+                && Objects.equals(stroke, other.stroke) && Objects.equals(fill, other.fill)
+                && Arrays.equals(dash, other.dash);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.paintoop;
+
+import javafx.scene.paint.Color;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+public class StyleTable {
+    private static final StyleTable SHARED = new StyleTable();
+
+    private volatile Style[] styles = new Style[16];
+    private int size = 0;
+    private final Map<Style, Integer> ids = new HashMap<>();
+    private final Deque<Integer> freeIds = new ArrayDeque<>();
+    private volatile int revision = 0;
+
+    public StyleTable() {
+        intern(new Style(Color.BLACK, Color.TRANSPARENT));
+    }
+
+    public static StyleTable shared() {
+        return SHARED;
+    }
+
+    public synchronized int intern(Style style) {
+        Integer id = ids.get(style);
+        if (id != null) {
+            return id;
+        }
+        if (!freeIds.isEmpty()) {
+            int reused = freeIds.pop();
+            styles[reused] = style;
+            ids.put(style, reused);
+            return reused;
+        }
+        Style[] current = styles;
+        if (size == current.length) {
+            Style[] grown = new Style[size * 2];
+            System.arraycopy(current, 0, grown, 0, size);
+            current = grown;
+        }
+        current[size] = style;
+        styles = current;
+        ids.put(style, size);
+        return size++;
+    }
+
+    public Style get(int id) {
+        return styles[id];
+    }
+
+    public synchronized void redefine(int id, Style style) {
+        Style previous = styles[id];
+        if (Integer.valueOf(id).equals(ids.get(previous))) {
+            ids.remove(previous);
+        }
+        Style[] current = styles;
+        current[id] = style;
+        styles = current;
+        ids.putIfAbsent(style, id);
+        revision++;
+    }
+
+    public synchronized int retain(BitSet used) {
+        int released = 0;
+        for (int id = 1; id < size; id++) {
+            Style style = styles[id];
+            if (style == null || used.get(id)) {
+                continue;
+            }
+            if (Integer.valueOf(id).equals(ids.get(style))) {
+                ids.remove(style);
+            }
+            styles[id] = null;
+            freeIds.push(id);
+            released++;
+        }
+        if (released > 0) {
+            revision++;
+        }
+        return released;
+    }
+
+    public int getRevision() {
+        return revision;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
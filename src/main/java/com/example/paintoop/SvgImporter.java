@@ -0,0 +1,494 @@
+package com.example.paintoop;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.scene.paint.Color;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+public class SvgImporter extends Task<Integer> {
+    private static final int BATCH_SIZE = 2000;
+    private static final int MAX_PENDING_BATCHES = 4;
+
+    private final File file;
+    private final Consumer<List<Shape>> batchConsumer;
+    private final Consumer<List<Shape>> restyleConsumer;
+    private final Semaphore pendingBatches = new Semaphore(MAX_PENDING_BATCHES);
+
+    private final Deque<SvgState> states = new ArrayDeque<>();
+    private final Map<String, Map<String, String>> classRules = new HashMap<>();
+    private final List<Shape> deferredShapes = new ArrayList<>();
+    private final List<SvgState> deferredStates = new ArrayList<>();
+    private List<Shape> batch = new ArrayList<>(BATCH_SIZE);
+    private int imported = 0;
+    private int batchesApplied = 0;
+    private long bytesRead = 0;
+
+    public SvgImporter(File file, Consumer<List<Shape>> batchConsumer, Consumer<List<Shape>> restyleConsumer) {
+        this.file = file;
+        this.batchConsumer = batchConsumer;
+        this.restyleConsumer = restyleConsumer;
+    }
+
+    public int getBatchesApplied() {
+        return batchesApplied;
+    }
+
+    @Override
+    protected Integer call() throws IOException, XMLStreamException, InterruptedException {
+        long total = Math.max(1, file.length());
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        updateMessage("Импорт SVG...");
+        try (InputStream in = new CountingInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            states.push(new SvgState());
+            boolean inStyle = false;
+            StringBuilder styleText = new StringBuilder();
+            int events = 0;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    SvgState state = states.peek().inherit(reader, classRules);
+                    states.push(state);
+                    if (name.equals("style")) {
+                        inStyle = true;
+                        styleText.setLength(0);
+                    } else {
+                        Shape shape = createShape(name, reader, state);
+                        if (shape != null) {
+                            emit(shape, state);
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    states.pop();
+                    if (inStyle && reader.getLocalName().equals("style")) {
+                        inStyle = false;
+                        parseCss(styleText, classRules);
+                    }
+                } else if (inStyle && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+                    styleText.append(reader.getText());
+                }
+
+                if (++events % 4096 == 0) {
+                    if (isCancelled()) {
+                        return imported;
+                    }
+                    updateProgress(bytesRead, total);
+                    updateMessage("Импортировано фигур: " + imported);
+                }
+            }
+            reader.close();
+        }
+
+        flushBatch();
+        if (!deferredShapes.isEmpty()) {
+            List<Shape> shapes = new ArrayList<>(deferredShapes);
+            List<SvgState> resolved = new ArrayList<>(deferredStates);
+            Platform.runLater(() -> {
+                if (isCancelled()) {
+                    return;
+                }
+                for (int i = 0; i < shapes.size(); i++) {
+                    SvgState state = resolved.get(i);
+                    state.applyClassRules(classRules);
+                    shapes.get(i).setStrokeColor(state.strokeColor());
+                    shapes.get(i).setFillColor(state.fillColor());
+                }
+                restyleConsumer.accept(shapes);
+            });
+        }
+        updateProgress(total, total);
+        return imported;
+    }
+
+    private void emit(Shape shape, SvgState state) throws InterruptedException {
+        if (state.hasUnresolvedClass(classRules)) {
+            deferredShapes.add(shape);
+            deferredStates.add(state);
+        }
+        batch.add(shape);
+        imported++;
+        if (batch.size() >= BATCH_SIZE) {
+            flushBatch();
+        }
+    }
+
+    private void flushBatch() throws InterruptedException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Shape> delivered = batch;
+        batch = new ArrayList<>(BATCH_SIZE);
+        pendingBatches.acquire();
+        Platform.runLater(() -> {
+            try {
+                if (!isCancelled()) {
+                    batchConsumer.accept(delivered);
+                    batchesApplied++;
+                }
+            } finally {
+                pendingBatches.release();
+            }
+        });
+    }
+
+    private Shape createShape(String name, XMLStreamReader reader, SvgState state) {
+        Color stroke = state.strokeColor();
+        Color fill = state.fillColor();
+        switch (name) {
+            case "rect": {
+                double x = number(reader, "x"), y = number(reader, "y");
+                double width = number(reader, "width"), height = number(reader, "height");
+                if (width <= 0 || height <= 0) {
+                    return null;
+                }
+                return new Rectangle(state.mapX(x), state.mapY(y), state.scaleX(width), state.scaleY(height), stroke, fill);
+            }
+            case "ellipse":
+            case "circle": {
+                double cx = number(reader, "cx"), cy = number(reader, "cy");
+                double rx = name.equals("circle") ? number(reader, "r") : number(reader, "rx");
+                double ry = name.equals("circle") ? rx : number(reader, "ry");
+                if (rx <= 0 || ry <= 0) {
+                    return null;
+                }
+                return new Ellipse(state.mapX(cx - rx), state.mapY(cy - ry), state.scaleX(2 * rx), state.scaleY(2 * ry), stroke, fill);
+            }
+            case "line":
+                return new Line(state.mapX(number(reader, "x1")), state.mapY(number(reader, "y1")),
+                        state.mapX(number(reader, "x2")), state.mapY(number(reader, "y2")), stroke);
+            case "polygon":
+            case "polyline": {
+                double[] values = parseNumbers(reader.getAttributeValue(null, "points"));
+                int count = values.length / 2;
+                if (count < 2) {
+                    return null;
+                }
+                double[] xPoints = new double[count];
+                double[] yPoints = new double[count];
+                for (int i = 0; i < count; i++) {
+                    xPoints[i] = state.mapX(values[i * 2]);
+                    yPoints[i] = state.mapY(values[i * 2 + 1]);
+                }
+                boolean closed = name.equals("polygon");
+                return new Polyline(xPoints, yPoints, closed, stroke, closed ? fill : Color.TRANSPARENT);
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static double number(XMLStreamReader reader, String attribute) {
+        return parseLength(reader.getAttributeValue(null, attribute));
+    }
+
+    static double parseLength(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int end = 0;
+        String trimmed = value.trim();
+        if (trimmed.endsWith("%")) {
+            return 0;
+        }
+        while (end < trimmed.length() && "+-.0123456789eE".indexOf(trimmed.charAt(end)) >= 0) {
+            end++;
+        }
+        try {
+            return end == 0 ? 0 : Double.parseDouble(trimmed.substring(0, end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static double[] parseNumbers(String text) {
+        if (text == null) {
+            return new double[0];
+        }
+        double[] values = new double[16];
+        int count = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == ',' || Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            i++;
+            boolean seenDot = c == '.';
+            while (i < length) {
+                char next = text.charAt(i);
+                if (Character.isDigit(next)) {
+                    i++;
+                } else if (next == '.' && !seenDot) {
+                    seenDot = true;
+                    i++;
+                } else if ((next == 'e' || next == 'E') && i + 1 < length) {
+                    i++;
+                    if (text.charAt(i) == '-' || text.charAt(i) == '+') {
+                        i++;
+                    }
+                } else {
+                    break;
+                }
+            }
+            try {
+                double value = Double.parseDouble(text.substring(start, i));
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = value;
+            } catch (NumberFormatException e) {
+                i = Math.max(i, start + 1);
+            }
+        }
+        return Arrays.copyOf(values, count);
+    }
+
+    static void parseCss(CharSequence css, Map<String, Map<String, String>> rules) {
+        String text = css.toString().replaceAll("/\\*.*?\\*/", "");
+        int position = 0;
+        while (true) {
+            int open = text.indexOf('{', position);
+            int close = open < 0 ? -1 : text.indexOf('}', open);
+            if (open < 0 || close < 0) {
+                break;
+            }
+            Map<String, String> declarations = parseDeclarations(text.substring(open + 1, close));
+            for (String selector : text.substring(position, open).split(",")) {
+                String trimmed = selector.trim();
+                if (trimmed.startsWith(".") && trimmed.indexOf(' ') < 0) {
+                    rules.computeIfAbsent(trimmed.substring(1), k -> new HashMap<>()).putAll(declarations);
+                }
+            }
+            position = close + 1;
+        }
+    }
+
+    static Map<String, String> parseDeclarations(String text) {
+        Map<String, String> declarations = new HashMap<>();
+        if (text == null) {
+            return declarations;
+        }
+        for (String declaration : text.split(";")) {
+            int colon = declaration.indexOf(':');
+            if (colon > 0) {
+                declarations.put(declaration.substring(0, colon).trim(), declaration.substring(colon + 1).trim());
+            }
+        }
+        return declarations;
+    }
+
+    private static final class SvgState {
+        private String fill = "black";
+        private String stroke = "none";
+        private double fillOpacity = 1;
+        private double strokeOpacity = 1;
+        private double opacity = 1;
+        private double parentOpacity = 1;
+        private double offsetX = 0, offsetY = 0, scaleX = 1, scaleY = 1;
+        private String className;
+        private Map<String, String> inlineStyle;
+        private Map<String, String> attributes;
+
+        SvgState inherit(XMLStreamReader reader, Map<String, Map<String, String>> classRules) {
+            SvgState child = new SvgState();
+            child.fill = fill;
+            child.stroke = stroke;
+            child.fillOpacity = fillOpacity;
+            child.strokeOpacity = strokeOpacity;
+            child.opacity = opacity;
+            child.parentOpacity = opacity;
+            child.offsetX = offsetX;
+            child.offsetY = offsetY;
+            child.scaleX = scaleX;
+            child.scaleY = scaleY;
+
+            child.attributes = new HashMap<>();
+            for (String property : new String[]{"fill", "stroke", "fill-opacity", "stroke-opacity", "opacity"}) {
+                String value = reader.getAttributeValue(null, property);
+                if (value != null) {
+                    child.attributes.put(property, value);
+                }
+            }
+            child.className = reader.getAttributeValue(null, "class");
+            child.inlineStyle = parseDeclarations(reader.getAttributeValue(null, "style"));
+            child.applyClassRules(classRules);
+            child.applyTransform(reader.getAttributeValue(null, "transform"));
+            return child;
+        }
+
+        void applyClassRules(Map<String, Map<String, String>> classRules) {
+            apply(attributes);
+            if (className != null) {
+                for (String name : className.trim().split("\\s+")) {
+                    Map<String, String> rule = classRules.get(name);
+                    if (rule != null) {
+                        apply(rule);
+                    }
+                }
+            }
+            apply(inlineStyle);
+        }
+
+        boolean hasUnresolvedClass(Map<String, Map<String, String>> classRules) {
+            if (className == null) {
+                return false;
+            }
+            for (String name : className.trim().split("\\s+")) {
+                if (!classRules.containsKey(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void apply(Map<String, String> properties) {
+            if (properties == null) {
+                return;
+            }
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                switch (entry.getKey()) {
+                    case "fill":
+                        fill = entry.getValue();
+                        break;
+                    case "stroke":
+                        stroke = entry.getValue();
+                        break;
+                    case "fill-opacity":
+                        fillOpacity = parseLength(entry.getValue());
+                        break;
+                    case "stroke-opacity":
+                        strokeOpacity = parseLength(entry.getValue());
+                        break;
+                    case "opacity":
+                        opacity = parentOpacity * parseLength(entry.getValue());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        private void applyTransform(String transform) {
+            if (transform == null) {
+                return;
+            }
+            int position = 0;
+            while (position < transform.length()) {
+                int open = transform.indexOf('(', position);
+                int close = open < 0 ? -1 : transform.indexOf(')', open);
+                if (open < 0 || close < 0) {
+                    break;
+                }
+                String name = transform.substring(position, open).trim();
+                double[] args = parseNumbers(transform.substring(open + 1, close));
+                double a = 1, d = 1, e = 0, f = 0;
+                if (name.endsWith("translate") && args.length > 0) {
+                    e = args[0];
+                    f = args.length > 1 ? args[1] : 0;
+                } else if (name.endsWith("scale") && args.length > 0) {
+                    a = args[0];
+                    d = args.length > 1 ? args[1] : args[0];
+                } else if (name.endsWith("matrix") && args.length == 6) {
+                    a = args[0];
+                    d = args[3];
+                    e = args[4];
+                    f = args[5];
+                }
+                offsetX += e * scaleX;
+                offsetY += f * scaleY;
+                scaleX *= a;
+                scaleY *= d;
+                position = close + 1;
+            }
+        }
+
+        double mapX(double x) {
+            return offsetX + x * scaleX;
+        }
+
+        double mapY(double y) {
+            return offsetY + y * scaleY;
+        }
+
+        double scaleX(double length) {
+            return Math.abs(length * scaleX);
+        }
+
+        double scaleY(double length) {
+            return Math.abs(length * scaleY);
+        }
+
+        Color fillColor() {
+            return paint(fill, fillOpacity * opacity);
+        }
+
+        Color strokeColor() {
+            return paint(stroke, strokeOpacity * opacity);
+        }
+
+        private static Color paint(String value, double alpha) {
+            if (value == null || value.equals("none") || value.startsWith("url(")) {
+                return Color.TRANSPARENT;
+            }
+            try {
+                Color color = Color.web(value.trim());
+                double opacity = Math.max(0, Math.min(1, color.getOpacity() * alpha));
+                return opacity == color.getOpacity() ? color
+                        : Color.color(color.getRed(), color.getGreen(), color.getBlue(), opacity);
+            } catch (IllegalArgumentException e) {
+                return Color.BLACK;
+            }
+        }
+    }
+
+    private final class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytesRead++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                bytesRead += n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.paintoop;
+
+import javafx.scene.paint.Color;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class SvgWriter extends VectorWriter {
+    private static final int FLUSH_THRESHOLD = 8192;
+
+    private final Writer out;
+    private final StringBuilder sb = new StringBuilder(FLUSH_THRESHOLD * 2);
+    private final Map<String, String> styleClasses = new LinkedHashMap<>();
+    private final Map<Style, String> filledClasses = new HashMap<>();
+    private final Map<Style, String> strokedClasses = new HashMap<>();
+    private final StringBuilder styleKey = new StringBuilder();
+
+    public SvgWriter(OutputStream outputStream) {
+        this.out = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    @Override
+    public void begin(double width, double height) throws IOException {
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"");
+        appendNumber(sb, width);
+        sb.append("\" height=\"");
+        appendNumber(sb, height);
+        sb.append("\" viewBox=\"0 0 ");
+        appendNumber(sb, width);
+        sb.append(' ');
+        appendNumber(sb, height);
+        sb.append("\">\n<rect width=\"100%\" height=\"100%\" fill=\"#ffffff\"/>\n");
+        flushIfNeeded();
+    }
+
+    @Override
+    public void rect(double x, double y, double width, double height, Style style) throws IOException {
+        sb.append("<rect class=\"").append(styleClass(style, true)).append("\" x=\"");
+        appendNumber(sb, x);
+        sb.append("\" y=\"");
+        appendNumber(sb, y);
+        sb.append("\" width=\"");
+        appendNumber(sb, width);
+        sb.append("\" height=\"");
+        appendNumber(sb, height);
+        sb.append("\"/>\n");
+        flushIfNeeded();
+    }
+
+    @Override
+    public void ellipse(double x, double y, double width, double height, Style style) throws IOException {
+        sb.append("<ellipse class=\"").append(styleClass(style, true)).append("\" cx=\"");
+        appendNumber(sb, x + width / 2);
+        sb.append("\" cy=\"");
+        appendNumber(sb, y + height / 2);
+        sb.append("\" rx=\"");
+        appendNumber(sb, width / 2);
+        sb.append("\" ry=\"");
+        appendNumber(sb, height / 2);
+        sb.append("\"/>\n");
+        flushIfNeeded();
+    }
+
+    @Override
+    public void line(double x1, double y1, double x2, double y2, Style style) throws IOException {
+        sb.append("<line class=\"").append(styleClass(style, false)).append("\" x1=\"");
+        appendNumber(sb, x1);
+        sb.append("\" y1=\"");
+        appendNumber(sb, y1);
+        sb.append("\" x2=\"");
+        appendNumber(sb, x2);
+        sb.append("\" y2=\"");
+        appendNumber(sb, y2);
+        sb.append("\"/>\n");
+        flushIfNeeded();
+    }
+
+    @Override
+    public void polygon(double[] xPoints, double[] yPoints, int count, Style style) throws IOException {
+        sb.append("<polygon class=\"").append(styleClass(style, true)).append("\" points=\"");
+        appendPoints(xPoints, yPoints, count);
+        sb.append("\"/>\n");
+        flushIfNeeded();
+    }
+
+    @Override
+    public void polyline(double[] xPoints, double[] yPoints, int count, Style style) throws IOException {
+        sb.append("<polyline class=\"").append(styleClass(style, false)).append("\" points=\"");
+        appendPoints(xPoints, yPoints, count);
+        sb.append("\"/>\n");
+        flushIfNeeded();
+    }
+
+    @Override
+    public void path(byte[] verbs, double[] coords, boolean closed, Style style) throws IOException {
+        sb.append("<path class=\"").append(styleClass(style, closed)).append("\" d=\"");
+        int c = 0;
+        for (byte verb : verbs) {
+            switch (verb) {
+                case PathShape.MOVE: sb.append('M'); break;
+                case PathShape.LINE: sb.append('L'); break;
+                case PathShape.QUAD: sb.append('Q'); break;
+                case PathShape.CUBIC: sb.append('C'); break;
+                default: sb.append('Z'); continue;
+            }
+            int end = c + (verb == PathShape.CUBIC ? 6 : verb == PathShape.QUAD ? 4 : 2);
+            for (; c < end; c += 2) {
+                appendNumber(sb, coords[c]);
+                sb.append(',');
+                appendNumber(sb, coords[c + 1]);
+                sb.append(c + 2 < end ? " " : "");
+            }
+            flushIfNeeded();
+        }
+        sb.append("\"/>\n");
+        flushIfNeeded();
+    }
+
+    @Override
+    public void text(double x, double baselineY, String[] lines, double lineHeight, String fontFamily,
+                     double fontSize, Color fill) throws IOException {
+        sb.append("<text class=\"").append(styleClass(null, fill, 0, null)).append("\" font-family=\"");
+        appendEscaped(fontFamily.equals(TextShape.DEFAULT_FONT) ? "sans-serif" : fontFamily);
+        sb.append("\" font-size=\"");
+        appendNumber(sb, fontSize);
+        sb.append("\">");
+        for (int i = 0; i < lines.length; i++) {
+            sb.append("<tspan x=\"");
+            appendNumber(sb, x);
+            sb.append("\" y=\"");
+            appendNumber(sb, baselineY + i * lineHeight);
+            sb.append("\" xml:space=\"preserve\">");
+            appendEscaped(lines[i]);
+            sb.append("</tspan>");
+        }
+        sb.append("</text>\n");
+        flushIfNeeded();
+    }
+
+    @Override
+    public void beginGroup(double offsetX, double offsetY, double scaleX, double scaleY) throws IOException {
+        sb.append("<g transform=\"matrix(");
+        appendNumber(sb, scaleX);
+        sb.append(" 0 0 ");
+        appendNumber(sb, scaleY);
+        sb.append(' ');
+        appendNumber(sb, offsetX);
+        sb.append(' ');
+        appendNumber(sb, offsetY);
+        sb.append(")\">\n");
+        flushIfNeeded();
+    }
+
+    @Override
+    public void endGroup() throws IOException {
+        sb.append("</g>\n");
+        flushIfNeeded();
+    }
+
+    @Override
+    public void end() throws IOException {
+        sb.append("<style>\n");
+        for (Map.Entry<String, String> entry : styleClasses.entrySet()) {
+            sb.append('.').append(entry.getValue()).append('{').append(entry.getKey()).append("}\n");
+            flushIfNeeded();
+        }
+        sb.append("</style>\n</svg>\n");
+        out.append(sb);
+        sb.setLength(0);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void appendPoints(double[] xPoints, double[] yPoints, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            appendNumber(sb, xPoints[i]);
+            sb.append(',');
+            appendNumber(sb, yPoints[i]);
+            if (sb.length() > FLUSH_THRESHOLD) {
+                out.append(sb);
+                sb.setLength(0);
+            }
+        }
+    }
+
+    private void appendEscaped(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '&': sb.append("&amp;"); break;
+                case '"': sb.append("&quot;"); break;
+                default: sb.append(c); break;
+            }
+        }
+    }
+
+    private String styleClass(Style style, boolean filled) {
+        Map<Style, String> classes = filled ? filledClasses : strokedClasses;
+        String name = classes.get(style);
+        if (name == null) {
+            name = styleClass(style.getStrokePaint(), filled ? style.getFillPaint() : null, style.getWidth(),
+                    style.getDash());
+            classes.put(style, name);
+        }
+        return name;
+    }
+
+    private String styleClass(Color stroke, Color fill, double width, double[] dash) {
+        styleKey.setLength(0);
+        appendPaint(styleKey, "fill", fill);
+        styleKey.append(';');
+        appendPaint(styleKey, "stroke", stroke);
+        if (isVisible(stroke)) {
+            styleKey.append(";stroke-width:");
+            appendNumber(styleKey, width);
+            if (dash != null) {
+                styleKey.append(";stroke-dasharray:");
+                for (int i = 0; i < dash.length; i++) {
+                    if (i > 0) {
+                        styleKey.append(',');
+                    }
+                    appendNumber(styleKey, dash[i]);
+                }
+            }
+        }
+        String key = styleKey.toString();
+        String name = styleClasses.get(key);
+        if (name == null) {
+            name = "s" + styleClasses.size();
+            styleClasses.put(key, name);
+        }
+        return name;
+    }
+
+    private static void appendPaint(StringBuilder target, String property, Color color) {
+        target.append(property).append(':');
+        if (!isVisible(color)) {
+            target.append("none");
+            return;
+        }
+        target.append('#');
+        appendHex(target, color.getRed());
+        appendHex(target, color.getGreen());
+        appendHex(target, color.getBlue());
+        if (color.getOpacity() < 1) {
+            target.append(';').append(property).append("-opacity:");
+            appendNumber(target, color.getOpacity());
+        }
+    }
+
+    private static void appendHex(StringBuilder target, double component) {
+        int value = (int) Math.round(component * 255);
+        target.append(Character.forDigit(value >> 4, 16)).append(Character.forDigit(value & 0xf, 16));
+    }
+
+    private void flushIfNeeded() throws IOException {
+        if (sb.length() > FLUSH_THRESHOLD) {
+            out.append(sb);
+            sb.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.paintoop;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+import java.io.IOException;
+
+public class SymbolInstance extends Shape {
+    private int symbolId;
+    private double offsetX;
+    private double offsetY;
+    private double scaleX;
+    private double scaleY;
+
+    public SymbolInstance(int symbolId, double offsetX, double offsetY, double scaleX, double scaleY) {
+        super(0, 0, 0, 0);
+        if (SymbolTable.shared().get(symbolId) == null) {
+            throw new IllegalArgumentException("Unknown symbol: " + symbolId);
+        }
+        this.symbolId = symbolId;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.scaleX = scaleX;
+        this.scaleY = scaleY;
+        applyTransformToBounds();
+    }
+
+    public SymbolTable.Symbol getSymbol() {
+        return SymbolTable.shared().get(symbolId);
+    }
+
+    public int getSymbolId() {
+        return symbolId;
+    }
+
+    public void setSymbolId(int symbolId) {
+        if (SymbolTable.shared().get(symbolId) == null) {
+            throw new IllegalArgumentException("Unknown symbol: " + symbolId);
+        }
+        this.symbolId = symbolId;
+        applyTransformToBounds();
+    }
+
+    private void applyTransformToBounds() {
+        SymbolTable.Symbol symbol = getSymbol();
+        x = offsetX + symbol.getX() * scaleX;
+        y = offsetY + symbol.getY() * scaleY;
+        width = symbol.getWidth() * scaleX;
+        height = symbol.getHeight() * scaleY;
+    }
+
+    private void applyBoundsToTransform() {
+        SymbolTable.Symbol symbol = getSymbol();
+        scaleX = symbol.getWidth() == 0 ? scaleX : width / symbol.getWidth();
+        scaleY = symbol.getHeight() == 0 ? scaleY : height / symbol.getHeight();
+        offsetX = x - symbol.getX() * scaleX;
+        offsetY = y - symbol.getY() * scaleY;
+    }
+
+    @Override
+    public void draw(GraphicsContext gc) {
+        gc.save();
+        gc.translate(offsetX, offsetY);
+        gc.scale(scaleX, scaleY);
+        SymbolTable.shared().draw(gc, getSymbol());
+        gc.restore();
+
+        drawSelection(gc);
+    }
+
+    @Override
+    public void export(VectorWriter writer) throws IOException {
+        writer.beginGroup(offsetX, offsetY, scaleX, scaleY);
+        for (Shape shape : getSymbol().getShapes()) {
+            shape.export(writer);
+        }
+        writer.endGroup();
+    }
+
+    @Override
+    public boolean contains(double pointX, double pointY) {
+        return super.contains(pointX, pointY)
+                && getSymbol().contains((pointX - offsetX) / scaleX, (pointY - offsetY) / scaleY);
+    }
+
+    @Override
+    public Shape copy() {
+        SymbolInstance copy = new SymbolInstance(symbolId, offsetX, offsetY, scaleX, scaleY);
+        copy.setSelected(this.isSelected);
+        copy.id = id;
+        copy.styles = styles;
+        copy.layer = layer;
+        return copy;
+    }
+
+    @Override
+    public Style getStyle() {
+        return getSymbol().getShapes().get(0).getStyle();
+    }
+
+    @Override
+    public int getStyleId() {
+        return styles.intern(getStyle());
+    }
+
+    @Override
+    void adoptStyles(StyleTable table) {
+        styles = table;
+    }
+
+    @Override
+    public void setStyle(Style style) {
+    }
+
+    @Override
+    boolean replaceStyle(int fromStyleId, int toStyleId) {
+        return false;
+    }
+
+    @Override
+    public void setStrokeColor(Color color) {
+    }
+
+    @Override
+    public void setFillColor(Color color) {
+    }
+
+    @Override
+    public void resize(ResizeType resizeType, double newX, double newY) {
+        super.resize(resizeType, newX, newY);
+        applyBoundsToTransform();
+    }
+
+    @Override
+    public void setBounds(double x, double y, double width, double height) {
+        super.setBounds(x, y, width, height);
+        applyBoundsToTransform();
+    }
+
+    @Override
+    public void setX(double x) {
+        offsetX += x - this.x;
+        this.x = x;
+    }
+
+    @Override
+    public void setY(double y) {
+        offsetY += y - this.y;
+        this.y = y;
+    }
+
+    @Override
+    public void setWidth(double width) {
+        this.width = width;
+        applyBoundsToTransform();
+    }
+
+    @Override
+    public void setHeight(double height) {
+        this.height = height;
+        applyBoundsToTransform();
+    }
+
+    public double getOffsetX() {
+        return offsetX;
+    }
+
+    public double getOffsetY() {
+        return offsetY;
+    }
+
+    public double getScaleX() {
+        return scaleX;
+    }
+
+    public double getScaleY() {
+        return scaleY;
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.paintoop;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.scene.transform.Affine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+public class SymbolTable {
+    private static final int MAX_IMAGE_SIZE = 2048;
+    private static final SymbolTable SHARED = new SymbolTable(32L << 20);
+
+    private volatile Symbol[] symbols = new Symbol[16];
+    private int size = 0;
+    private final LinkedHashMap<Long, Raster> rasters = new LinkedHashMap<>(64, 0.75f, true);
+    private final long budget;
+    private long byteSize = 0;
+    private Canvas canvas;
+    private SnapshotParameters parameters;
+
+    public SymbolTable(long budget) {
+        this.budget = budget;
+    }
+
+    public static SymbolTable shared() {
+        return SHARED;
+    }
+
+    public synchronized int define(String name, Collection<Shape> shapes) {
+        if (shapes.isEmpty()) {
+            throw new IllegalArgumentException("Empty symbol");
+        }
+        List<Shape> copies = new ArrayList<>(shapes.size());
+        for (Shape shape : shapes) {
+            if (containsInstance(shape)) {
+                throw new IllegalArgumentException("Symbol cannot contain symbol instances");
+            }
+            Shape copy = shape.copy();
+            copy.setSelected(false);
+            copy.setId(0);
+            copy.setLayer(0);
+            copy.adoptStyles(StyleTable.shared());
+            copies.add(copy);
+        }
+        Symbol[] current = symbols;
+        if (size == current.length) {
+            Symbol[] grown = new Symbol[size * 2];
+            System.arraycopy(current, 0, grown, 0, size);
+            current = grown;
+        }
+        current[size] = new Symbol(size, name, copies);
+        symbols = current;
+        return size++;
+    }
+
+    public Symbol get(int id) {
+        Symbol[] current = symbols;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public static boolean containsInstance(Shape shape) {
+        if (shape instanceof SymbolInstance) {
+            return true;
+        }
+        if (shape instanceof ShapeGroup) {
+            for (Shape child : ((ShapeGroup) shape).getChildren()) {
+                if (containsInstance(child)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public static List<Shape> expandInstances(Collection<Shape> shapes) {
+        List<Shape> expanded = new ArrayList<>(shapes.size());
+        for (Shape shape : shapes) {
+            expanded.add(expandInstances(shape));
+        }
+        return expanded;
+    }
+
+    public static Shape expandInstances(Shape shape) {
+        if (!containsInstance(shape)) {
+            return shape;
+        }
+        ShapeGroup expanded;
+        if (shape instanceof SymbolInstance) {
+            SymbolInstance instance = (SymbolInstance) shape;
+            List<Shape> copies = new ArrayList<>();
+            for (Shape member : instance.getSymbol().getShapes()) {
+                copies.add(member.copy());
+            }
+            expanded = ShapeGroup.restore(copies, instance.getOffsetX(), instance.getOffsetY(),
+                    instance.getScaleX(), instance.getScaleY());
+        } else {
+            ShapeGroup group = (ShapeGroup) shape;
+            expanded = ShapeGroup.restore(expandInstances(group.getChildren()), group.getOffsetX(),
+                    group.getOffsetY(), group.getScaleX(), group.getScaleY());
+        }
+        expanded.setId(shape.getId());
+        expanded.setLayer(shape.getLayer());
+        return expanded;
+    }
+
+    public void draw(GraphicsContext gc, Symbol symbol) {
+        Affine transform = gc.getTransform();
+        double scale = Math.max(Math.abs(transform.getMxx()), Math.abs(transform.getMyy()));
+        Raster raster = scale > 0 ? raster(symbol, scale) : null;
+        if (raster == null) {
+            for (Shape shape : symbol.shapes) {
+                shape.draw(gc);
+            }
+            return;
+        }
+        gc.drawImage(raster.image, symbol.x - raster.padding, symbol.y - raster.padding,
+                raster.image.getWidth() / raster.rasterScale, raster.image.getHeight() / raster.rasterScale);
+    }
+
+    private Raster raster(Symbol symbol, double scale) {
+        double rasterScale = LabelBitmapCache.bucketScale(scale);
+        Long key = (long) symbol.id << 8 | (Math.getExponent(rasterScale) & 0xff);
+        int styleRevision = StyleTable.shared().getRevision();
+        Raster raster = rasters.get(key);
+        if (raster != null) {
+            if (raster.styleRevision == styleRevision) {
+                return raster;
+            }
+            rasters.remove(key);
+            byteSize -= raster.byteSize();
+        }
+
+        double padding = 1;
+        for (Shape shape : symbol.shapes) {
+            padding = Math.max(padding, strokeWidth(shape) / 2 + 1);
+        }
+        int width = (int) Math.ceil((symbol.width + padding * 2) * rasterScale) + 1;
+        int height = (int) Math.ceil((symbol.height + padding * 2) * rasterScale) + 1;
+        if (width > MAX_IMAGE_SIZE || height > MAX_IMAGE_SIZE) {
+            return null;
+        }
+        raster = new Raster();
+        raster.image = render(symbol, rasterScale, padding, width, height);
+        raster.rasterScale = rasterScale;
+        raster.padding = padding;
+        raster.styleRevision = styleRevision;
+        rasters.put(key, raster);
+        byteSize += raster.byteSize();
+        if (byteSize > budget) {
+            Iterator<Raster> eldest = rasters.values().iterator();
+            while (byteSize > budget && rasters.size() > 1 && eldest.hasNext()) {
+                byteSize -= eldest.next().byteSize();
+                eldest.remove();
+            }
+        }
+        return raster;
+    }
+
+    private WritableImage render(Symbol symbol, double rasterScale, double padding, int width, int height) {
+        if (canvas == null) {
+            canvas = new Canvas(width, height);
+            parameters = new SnapshotParameters();
+            parameters.setFill(Color.TRANSPARENT);
+        } else if (canvas.getWidth() < width || canvas.getHeight() < height) {
+            canvas.setWidth(Math.max(canvas.getWidth(), width));
+            canvas.setHeight(Math.max(canvas.getHeight(), height));
+        }
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        gc.save();
+        gc.scale(rasterScale, rasterScale);
+        gc.translate(padding - symbol.x, padding - symbol.y);
+        for (Shape shape : symbol.shapes) {
+            shape.draw(gc);
+        }
+        gc.restore();
+        parameters.setViewport(new Rectangle2D(0, 0, width, height));
+        return canvas.snapshot(parameters, new WritableImage(width, height));
+    }
+
+    private static double strokeWidth(Shape shape) {
+        if (shape instanceof ShapeGroup) {
+            ShapeGroup group = (ShapeGroup) shape;
+            double width = 0;
+            for (Shape child : group.getChildren()) {
+                width = Math.max(width, strokeWidth(child));
+            }
+            return width * Math.max(group.getScaleX(), group.getScaleY());
+        }
+        return shape.getStyle().getWidth();
+    }
+
+    public static final class Symbol {
+        private final int id;
+        private final String name;
+        private final List<Shape> shapes;
+        private final double x, y, width, height;
+
+        private Symbol(int id, String name, List<Shape> shapes) {
+            this.id = id;
+            this.name = name;
+            this.shapes = Collections.unmodifiableList(shapes);
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            for (Shape shape : shapes) {
+                minX = Math.min(minX, shape.getX());
+                minY = Math.min(minY, shape.getY());
+                maxX = Math.max(maxX, shape.getX() + shape.getWidth());
+                maxY = Math.max(maxY, shape.getY() + shape.getHeight());
+            }
+            this.x = minX;
+            this.y = minY;
+            this.width = maxX - minX;
+            this.height = maxY - minY;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<Shape> getShapes() {
+            return shapes;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+
+        public double getWidth() {
+            return width;
+        }
+
+        public double getHeight() {
+            return height;
+        }
+
+        public boolean contains(double pointX, double pointY) {
+            for (int i = shapes.size() - 1; i >= 0; i--) {
+                if (shapes.get(i).contains(pointX, pointY)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Raster {
+        private WritableImage image;
+        private double rasterScale;
+        private double padding;
+        private int styleRevision;
+
+        long byteSize() {
+            return (long) image.getWidth() * (long) image.getHeight() * 4;
+        }
+    }
+}
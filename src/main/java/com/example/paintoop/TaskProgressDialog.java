@@ -0,0 +1,65 @@
+package com.example.paintoop;
+
+import javafx.concurrent.Task;
+import javafx.concurrent.Worker;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.VBox;
+import javafx.stage.Modality;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+
+public class TaskProgressDialog {
+    private final Stage stage = new Stage();
+
+    public TaskProgressDialog(Window owner, String title, Task<?> task) {
+        Label messageLabel = new Label();
+        messageLabel.textProperty().bind(task.messageProperty());
+
+        ProgressBar progressBar = new ProgressBar();
+        progressBar.setPrefWidth(320);
+        progressBar.progressProperty().bind(task.progressProperty());
+
+        Button cancelButton = new Button("Отмена");
+        cancelButton.setOnAction(e -> task.cancel());
+
+        VBox root = new VBox(10, messageLabel, progressBar, cancelButton);
+        root.setPadding(new Insets(15));
+
+        if (owner != null) {
+            stage.initOwner(owner);
+            stage.initModality(Modality.WINDOW_MODAL);
+        }
+        stage.setTitle(title);
+        stage.setResizable(false);
+        stage.setScene(new Scene(root));
+        stage.setOnCloseRequest(e -> task.cancel());
+
+        task.stateProperty().addListener((observable, oldValue, newValue) -> {
+            if (newValue == Worker.State.SUCCEEDED || newValue == Worker.State.FAILED
+                    || newValue == Worker.State.CANCELLED) {
+                stage.close();
+            }
+        });
+    }
+
+    public static boolean runAndWait(Window owner, String title, Task<?> task) {
+        TaskProgressDialog dialog = new TaskProgressDialog(owner, title, task);
+        Thread thread = new Thread(task, title);
+        thread.setDaemon(true);
+        thread.start();
+        dialog.stage.showAndWait();
+        return task.getState() == Worker.State.SUCCEEDED;
+    }
+
+    public static void runInBackground(Window owner, String title, Task<?> task) {
+        TaskProgressDialog dialog = new TaskProgressDialog(owner, title, task);
+        Thread thread = new Thread(task, title);
+        thread.setDaemon(true);
+        thread.start();
+        dialog.stage.show();
+    }
+}
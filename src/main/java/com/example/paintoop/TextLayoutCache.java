@@ -0,0 +1,181 @@
+package com.example.paintoop;
+
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.ToDoubleFunction;
+
+public class TextLayoutCache {
+    private static final TextLayoutCache SHARED = new TextLayoutCache(4L << 20);
+
+    private final LinkedHashMap<Key, Layout> layouts = new LinkedHashMap<>(256, 0.75f, true);
+    private final long budget;
+    private long byteSize = 0;
+    private Text measurer;
+
+    public TextLayoutCache(long budget) {
+        this.budget = budget;
+    }
+
+    public static TextLayoutCache shared() {
+        return SHARED;
+    }
+
+    public synchronized Layout layout(String text, String family, double size, double wrapWidth) {
+        Key key = new Key(text, family, size, wrapWidth);
+        Layout layout = layouts.get(key);
+        if (layout != null) {
+            return layout;
+        }
+        Font font = Font.font(family, size);
+        if (measurer == null) {
+            measurer = new Text();
+        }
+        measurer.setFont(font);
+        measurer.setText("Ag");
+        double lineHeight = Math.ceil(measurer.getLayoutBounds().getHeight());
+        double baseline = measurer.getBaselineOffset();
+        layout = layout(text, wrapWidth, line -> {
+            measurer.setText(line);
+            return measurer.getLayoutBounds().getWidth();
+        }, lineHeight, baseline);
+        layout.font = font;
+
+        layouts.put(key, layout);
+        byteSize += layout.byteSize;
+        if (byteSize > budget) {
+            Iterator<Layout> eldest = layouts.values().iterator();
+            while (byteSize > budget && layouts.size() > 1 && eldest.hasNext()) {
+                byteSize -= eldest.next().byteSize;
+                eldest.remove();
+            }
+        }
+        return layout;
+    }
+
+    static Layout layout(String text, double wrapWidth, ToDoubleFunction<String> measure,
+                         double lineHeight, double baseline) {
+        List<String> lines = new ArrayList<>();
+        List<Double> widths = new ArrayList<>();
+        for (String paragraph : text.split("\n", -1)) {
+            if (wrapWidth <= 0) {
+                lines.add(paragraph);
+                widths.add(measure.applyAsDouble(paragraph));
+                continue;
+            }
+            String line = null;
+            double lineWidth = 0;
+            for (String word : paragraph.split(" ", -1)) {
+                String candidate = line == null ? word : line + " " + word;
+                double candidateWidth = measure.applyAsDouble(candidate);
+                if (line != null && candidateWidth > wrapWidth) {
+                    lines.add(line);
+                    widths.add(lineWidth);
+                    line = word;
+                    lineWidth = measure.applyAsDouble(word);
+                } else {
+                    line = candidate;
+                    lineWidth = candidateWidth;
+                }
+            }
+            lines.add(line);
+            widths.add(lineWidth);
+        }
+
+        Layout layout = new Layout();
+        layout.lines = lines.toArray(new String[0]);
+        layout.lineWidths = new double[lines.size()];
+        long chars = 0;
+        for (int i = 0; i < layout.lines.length; i++) {
+            layout.lineWidths[i] = widths.get(i);
+            layout.width = Math.max(layout.width, widths.get(i));
+            chars += layout.lines[i].length();
+        }
+        layout.width = Math.max(layout.width, wrapWidth);
+        layout.lineHeight = lineHeight;
+        layout.baseline = baseline;
+        layout.height = lineHeight * layout.lines.length;
+        layout.byteSize = 96 + chars * 2 + layout.lines.length * 56L + text.length() * 2L;
+        return layout;
+    }
+
+    public static final class Layout {
+        private String[] lines;
+        private double[] lineWidths;
+        private double width, height, lineHeight, baseline;
+        private Font font;
+        private long byteSize;
+
+        public String[] getLines() {
+            return lines.clone();
+        }
+
+        public int getLineCount() {
+            return lines.length;
+        }
+
+        public String getLine(int index) {
+            return lines[index];
+        }
+
+        public double getLineWidth(int index) {
+            return lineWidths[index];
+        }
+
+        public double getWidth() {
+            return width;
+        }
+
+        public double getHeight() {
+            return height;
+        }
+
+        public double getLineHeight() {
+            return lineHeight;
+        }
+
+        public double getBaseline() {
+            return baseline;
+        }
+
+        public Font getFont() {
+            return font;
+        }
+    }
+
+    private static final class Key {
+        private final String text;
+        private final String family;
+        private final double size;
+        private final double wrapWidth;
+        private final int hash;
+
+        Key(String text, String family, double size, double wrapWidth) {
+            this.text = text;
+            this.family = family;
+            this.size = size;
+            this.wrapWidth = wrapWidth;
+            this.hash = Objects.hash(text, family, size, wrapWidth);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return size == other.size && wrapWidth == other.wrapWidth
+                    && text.equals(other.text) && family.equals(other.family);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
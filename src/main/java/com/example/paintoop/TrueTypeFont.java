@@ -0,0 +1,152 @@
+package com.example.paintoop;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+public final class TrueTypeFont {
+    private static final int TRUETYPE_VERSION = 0x00010000;
+    private static final int APPLE_TRUETYPE_VERSION = 0x74727565;
+
+    private final String name;
+    private final byte[] data;
+    private final int unitsPerEm;
+    private final int[] boundingBox = new int[4];
+    private final int ascent;
+    private final int descent;
+    private final int[] advances;
+    private final char[] glyphs = new char[0x10000];
+
+    private TrueTypeFont(String name, byte[] data) throws IOException {
+        this.name = name;
+        this.data = data;
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int version = buffer.getInt(0);
+        if (version != TRUETYPE_VERSION && version != APPLE_TRUETYPE_VERSION) {
+            throw new IOException("Unsupported font outlines: " + name);
+        }
+        int head = table(buffer, "head");
+        int hhea = table(buffer, "hhea");
+        int hmtx = table(buffer, "hmtx");
+        int cmap = table(buffer, "cmap");
+
+        unitsPerEm = buffer.getShort(head + 18) & 0xffff;
+        for (int i = 0; i < 4; i++) {
+            boundingBox[i] = buffer.getShort(head + 36 + i * 2);
+        }
+        ascent = buffer.getShort(hhea + 4);
+        descent = buffer.getShort(hhea + 6);
+        int metrics = buffer.getShort(hhea + 34) & 0xffff;
+        advances = new int[metrics];
+        for (int i = 0; i < metrics; i++) {
+            advances[i] = buffer.getShort(hmtx + i * 4) & 0xffff;
+        }
+        readCharacterMap(buffer, cmap);
+    }
+
+    public static TrueTypeFont load(File file) throws IOException {
+        String name = file.getName().replaceFirst("\\.[^.]*$", "").replaceAll("[^A-Za-z0-9-]", "");
+        try {
+            return new TrueTypeFont(name.isEmpty() ? "Font" : name, Files.readAllBytes(file.toPath()));
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupted font file: " + file);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int glyph(char c) {
+        return glyphs[c];
+    }
+
+    public double advance(int glyph) {
+        if (advances.length == 0) {
+            return 0;
+        }
+        return toPdfUnits(advances[Math.min(glyph, advances.length - 1)]);
+    }
+
+    public double getAscent() {
+        return toPdfUnits(ascent);
+    }
+
+    public double getDescent() {
+        return toPdfUnits(descent);
+    }
+
+    public double[] getBoundingBox() {
+        double[] box = new double[4];
+        for (int i = 0; i < 4; i++) {
+            box[i] = toPdfUnits(boundingBox[i]);
+        }
+        return box;
+    }
+
+    private double toPdfUnits(int value) {
+        return unitsPerEm == 0 ? value : value * 1000.0 / unitsPerEm;
+    }
+
+    private void readCharacterMap(ByteBuffer buffer, int cmap) throws IOException {
+        int count = buffer.getShort(cmap + 2) & 0xffff;
+        int subtable = -1;
+        for (int i = 0; i < count; i++) {
+            int record = cmap + 4 + i * 8;
+            int platform = buffer.getShort(record) & 0xffff;
+            int encoding = buffer.getShort(record + 2) & 0xffff;
+            int offset = cmap + buffer.getInt(record + 4);
+            if (buffer.getShort(offset) != 4) {
+                continue;
+            }
+            if (platform == 3 && encoding == 1) {
+                subtable = offset;
+                break;
+            }
+            if (platform == 0 && subtable < 0) {
+                subtable = offset;
+            }
+        }
+        if (subtable < 0) {
+            throw new IOException("No Unicode character map in font: " + name);
+        }
+        int segments = (buffer.getShort(subtable + 6) & 0xffff) / 2;
+        int ends = subtable + 14;
+        int starts = ends + segments * 2 + 2;
+        int deltas = starts + segments * 2;
+        int rangeOffsets = deltas + segments * 2;
+        for (int i = 0; i < segments; i++) {
+            int end = buffer.getShort(ends + i * 2) & 0xffff;
+            int start = buffer.getShort(starts + i * 2) & 0xffff;
+            int delta = buffer.getShort(deltas + i * 2);
+            int rangeOffset = buffer.getShort(rangeOffsets + i * 2) & 0xffff;
+            for (int c = start; c <= end && c < 0xffff; c++) {
+                int glyph;
+                if (rangeOffset == 0) {
+                    glyph = (c + delta) & 0xffff;
+                } else {
+                    int index = buffer.getShort(rangeOffsets + i * 2 + rangeOffset + (c - start) * 2) & 0xffff;
+                    glyph = index == 0 ? 0 : (index + delta) & 0xffff;
+                }
+                glyphs[c] = (char) glyph;
+            }
+        }
+    }
+
+    private static int table(ByteBuffer buffer, String tag) throws IOException {
+        int count = buffer.getShort(4) & 0xffff;
+        for (int i = 0; i < count; i++) {
+            int record = 12 + i * 16;
+            if (buffer.get(record) == tag.charAt(0) && buffer.get(record + 1) == tag.charAt(1)
+                    && buffer.get(record + 2) == tag.charAt(2) && buffer.get(record + 3) == tag.charAt(3)) {
+                return buffer.getInt(record + 8);
+            }
+        }
+        throw new IOException("Missing font table: " + tag);
+    }
+}
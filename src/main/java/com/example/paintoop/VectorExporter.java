@@ -0,0 +1,90 @@
+package com.example.paintoop;
+
+import javafx.concurrent.Task;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+public class VectorExporter extends Task<Integer> {
+    public enum Format {
+        SVG, PDF
+    }
+
+    private static final int PROGRESS_STEP = 1024;
+
+    private final List<Shape> shapes;
+    private final File file;
+    private final Format format;
+    private final double x;
+    private final double y;
+    private final double width;
+    private final double height;
+    private volatile int substitutedCharacters = 0;
+
+    public VectorExporter(List<Shape> shapes, File file, Format format, double x, double y, double width, double height) {
+        this.shapes = shapes;
+        this.file = file;
+        this.format = format;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    protected Integer call() throws IOException {
+        int total = shapes.size();
+        int written = 0;
+        updateMessage("Экспорт " + format + "...");
+        try (OutputStream outputStream = new FileOutputStream(file);
+             VectorWriter writer = format == Format.SVG ? new SvgWriter(outputStream) : new PdfWriter(outputStream)) {
+            writer.begin(width, height);
+            writer.beginGroup(-x, -y, 1, 1);
+            for (Shape shape : shapes) {
+                shape.export(writer);
+                written++;
+                if (written % PROGRESS_STEP == 0) {
+                    if (isCancelled()) {
+                        break;
+                    }
+                    updateProgress(written, total);
+                    updateMessage("Экспортировано фигур: " + written + " из " + total);
+                }
+            }
+            if (!isCancelled()) {
+                writer.endGroup();
+                writer.end();
+                if (writer instanceof PdfWriter) {
+                    substitutedCharacters = ((PdfWriter) writer).getSubstitutedCharacters();
+                }
+            }
+        }
+        if (isCancelled()) {
+            file.delete();
+            return written;
+        }
+        updateProgress(total, total);
+        return written;
+    }
+
+    public int getSubstitutedCharacters() {
+        return substitutedCharacters;
+    }
+
+    public static Format formatFor(String extension) {
+        if (extension == null) {
+            return null;
+        }
+        switch (extension.toLowerCase()) {
+            case ".svg":
+                return Format.SVG;
+            case ".pdf":
+                return Format.PDF;
+            default:
+                return null;
+        }
+    }
+}
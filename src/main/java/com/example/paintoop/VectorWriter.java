@@ -0,0 +1,62 @@
+package com.example.paintoop;
+
+import javafx.scene.paint.Color;
+
+import java.io.IOException;
+
+public abstract class VectorWriter implements AutoCloseable {
+    public abstract void begin(double width, double height) throws IOException;
+
+    public abstract void rect(double x, double y, double width, double height, Style style) throws IOException;
+
+    public abstract void ellipse(double x, double y, double width, double height, Style style) throws IOException;
+
+    public abstract void line(double x1, double y1, double x2, double y2, Style style) throws IOException;
+
+    public abstract void polygon(double[] xPoints, double[] yPoints, int count, Style style) throws IOException;
+
+    public abstract void polyline(double[] xPoints, double[] yPoints, int count, Style style) throws IOException;
+
+    public abstract void path(byte[] verbs, double[] coords, boolean closed, Style style) throws IOException;
+
+    public abstract void text(double x, double baselineY, String[] lines, double lineHeight, String fontFamily,
+                              double fontSize, Color fill) throws IOException;
+
+    public abstract void beginGroup(double offsetX, double offsetY, double scaleX, double scaleY) throws IOException;
+
+    public abstract void endGroup() throws IOException;
+
+    public abstract void end() throws IOException;
+
+    @Override
+    public abstract void close() throws IOException;
+
+    protected static boolean isVisible(Color color) {
+        return color != null && !color.equals(Color.TRANSPARENT) && color.getOpacity() > 0;
+    }
+
+    protected static void appendNumber(StringBuilder sb, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            sb.append('0');
+            return;
+        }
+        long scaled = Math.round(value * 100);
+        if (scaled < 0) {
+            sb.append('-');
+            scaled = -scaled;
+        }
+        sb.append(scaled / 100);
+        long fraction = scaled % 100;
+        if (fraction != 0) {
+            sb.append('.');
+            if (fraction < 10) {
+                sb.append('0');
+                sb.append(fraction);
+            } else if (fraction % 10 == 0) {
+                sb.append(fraction / 10);
+            } else {
+                sb.append(fraction);
+            }
+        }
+    }
+}
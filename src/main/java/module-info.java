@@ -2,6 +2,10 @@ module com.example.paintoop {
     requires javafx.controls;
     requires javafx.fxml;
     requires java.desktop;
+    requires java.xml;
+    requires java.net.http;
+    requires jdk.httpserver;
+    requires jdk.management;
     requires javafx.graphics;
     requires com.fasterxml.jackson.core;
     requires com.fasterxml.jackson.databind;
@@ -0,0 +1,66 @@
+package com.example.paintoop;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AttributeIndexTest {
+    @Test
+    void findsShapesByTypeAndStyle() {
+        AttributeIndex index = new AttributeIndex();
+        Rectangle red = new Rectangle(0, 0, 10, 10, Color.RED, Color.TRANSPARENT);
+        Rectangle blue = new Rectangle(0, 0, 10, 10, Color.BLUE, Color.TRANSPARENT);
+        Ellipse redEllipse = new Ellipse(0, 0, 10, 10, Color.RED, Color.TRANSPARENT);
+        index.addAll(List.of(red, blue, redEllipse));
+
+        assertEquals(3, index.size());
+        assertEquals(2, index.findByStyle(red.getStyleId()).size());
+        assertEquals(List.of(red), index.findSimilar(red, true));
+        assertEquals(2, index.findSimilar(red, false).size());
+        assertEquals(2, index.find(Rectangle.class, null).size());
+        assertEquals(2, index.find(null, style -> Color.RED.equals(style.getStroke())).size());
+        assertEquals(List.of(blue), index.find(Rectangle.class, style -> Color.BLUE.equals(style.getStroke())));
+    }
+
+    @Test
+    void movesShapeBetweenBucketsWhenRestyled() {
+        AttributeIndex index = new AttributeIndex();
+        Rectangle shape = new Rectangle(0, 0, 10, 10, Color.RED, Color.TRANSPARENT);
+        int oldStyle = shape.getStyleId();
+        index.add(shape);
+
+        shape.setStrokeColor(Color.GREEN);
+        index.update(shape);
+        assertTrue(index.findByStyle(oldStyle).isEmpty());
+        assertEquals(List.of(shape), index.findByStyle(shape.getStyleId()));
+
+        index.add(shape);
+        assertEquals(1, index.size());
+        assertEquals(1, index.findByStyle(shape.getStyleId()).size());
+    }
+
+    @Test
+    void removesAndRebuilds() {
+        AttributeIndex index = new AttributeIndex();
+        Line line = new Line(0, 0, 1, 1, Color.BLACK);
+        Line other = new Line(0, 0, 2, 2, Color.BLACK);
+        index.addAll(List.of(line, other));
+
+        index.remove(line);
+        index.remove(line);
+        assertEquals(List.of(other), index.findByStyle(line.getStyleId()));
+
+        index.update(line);
+        assertEquals(1, index.size());
+
+        index.rebuild(List.of(line));
+        assertEquals(List.of(line), index.find(Line.class, null));
+        index.clear();
+        assertEquals(0, index.size());
+        assertTrue(index.find(null, null).isEmpty());
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.paintoop;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkedRepositoryTest {
+    private static final double CHUNK = ChunkedRepository.CHUNK_SIZE;
+
+    private File directory;
+    private final ConcurrentLinkedQueue<Runnable> applied = new ConcurrentLinkedQueue<>();
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("chunks").toFile();
+    }
+
+    @AfterEach
+    void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    void loadRegionReadsUnloadedChunksSynchronously() throws IOException {
+        try (ChunkedRepository repository = new ChunkedRepository(directory, applied::add)) {
+            List<Shape> grid = new ArrayList<>();
+            for (int row = 0; row < 3; row++) {
+                for (int column = 0; column < 3; column++) {
+                    grid.add(new Rectangle(column * CHUNK + 10, row * CHUNK + 10, 20, 20,
+                            Color.BLACK, Color.TRANSPARENT));
+                }
+            }
+            repository.addShapes(grid);
+        }
+
+        try (ChunkedRepository reopened = new ChunkedRepository(directory, applied::add)) {
+            assertEquals(9, reopened.getChunkCount());
+            assertEquals(0, reopened.getResidentShapeCount());
+            assertTrue(reopened.findShapesInRegion(0, 0, CHUNK * 3, CHUNK * 3).isEmpty());
+
+            List<Shape> loaded = reopened.loadRegion(0, 0, CHUNK * 2, CHUNK * 2);
+            assertEquals(4, loaded.size());
+            assertEquals(4, reopened.getResidentChunkCount());
+            assertEquals(4, reopened.findShapesInRegion(0, 0, CHUNK * 2, CHUNK * 2).size());
+            assertEquals(9, reopened.loadRegion(0, 0, CHUNK * 3, CHUNK * 3).size());
+        }
+    }
+
+    @Test
+    void evictedChunksKeepTheirEdits() throws IOException {
+        int count = 100;
+        try (ChunkedRepository repository = new ChunkedRepository(directory, applied::add)) {
+            List<Shape> row = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                row.add(new Rectangle(i * CHUNK + 10, 10, 20, 20, Color.BLACK, Color.TRANSPARENT));
+            }
+            repository.addShapes(row);
+
+            Shape first = repository.loadRegion(0, 0, CHUNK, CHUNK).get(0);
+            first.setX(500);
+            repository.updateShapes(List.of(first));
+
+            for (int i = 1; i < count; i++) {
+                repository.loadRegion(i * CHUNK, 0, CHUNK, CHUNK);
+                repository.findShapesInRegion(i * CHUNK, 0, CHUNK, CHUNK);
+            }
+            assertTrue(repository.getChunksEvicted() > 0);
+            assertTrue(repository.getResidentChunkCount() < count);
+
+            List<Shape> reloaded = repository.loadRegion(0, 0, CHUNK, CHUNK);
+            assertEquals(1, reloaded.size());
+            assertEquals(500.0, reloaded.get(0).getX());
+            assertEquals(count, repository.getAllShapes().size());
+        }
+    }
+
+    @Test
+    void undoRestoresShapesAcrossChunks() throws IOException {
+        try (ChunkedRepository repository = new ChunkedRepository(directory, applied::add)) {
+            Rectangle moved = new Rectangle(10, 10, 20, 20, Color.BLACK, Color.TRANSPARENT);
+            Rectangle removed = new Rectangle(CHUNK + 10, 10, 20, 20, Color.BLACK, Color.TRANSPARENT);
+            repository.addShapes(List.of(moved, removed));
+
+            repository.beginUpdate();
+            repository.saveState();
+            moved.setX(CHUNK * 5);
+            repository.updateShapes(List.of(moved));
+            repository.removeShape(removed);
+            repository.endUpdate();
+            assertEquals(1, repository.loadRegion(CHUNK * 5, 0, CHUNK, CHUNK).size());
+
+            repository.undo();
+            List<Shape> restored = repository.loadRegion(0, 0, CHUNK * 2, CHUNK);
+            assertEquals(2, restored.size());
+            assertTrue(repository.loadRegion(CHUNK * 5, 0, CHUNK, CHUNK).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.paintoop;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class CollaborativeRepositoryTest {
+    private static final long SYNC_TIMEOUT_MS = 10000;
+
+    private CollabRelayServer server;
+    private final List<CollaborativeRepository> clients = new ArrayList<>();
+    private final List<ExecutorService> executors = new ArrayList<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new CollabRelayServer(0);
+        for (int i = 0; i < 3; i++) {
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            executors.add(executor);
+            clients.add(new CollaborativeRepository("127.0.0.1", server.getPort(), executor));
+        }
+    }
+
+    @AfterEach
+    void stopServer() throws Exception {
+        for (int i = 0; i < clients.size(); i++) {
+            clients.get(i).close();
+            executors.get(i).shutdown();
+            executors.get(i).awaitTermination(1, TimeUnit.SECONDS);
+        }
+        server.close();
+    }
+
+    @Test
+    void concurrentEditsConverge() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < clients.size(); i++) {
+                CollaborativeRepository client = clients.get(i);
+                Random random = new Random(round * 31L + i);
+                executors.get(i).execute(() -> {
+                    for (int n = 0; n < 25; n++) {
+                        randomOperation(client, random);
+                    }
+                });
+            }
+        }
+        sync();
+        assertConverged();
+        assertTrue(on(0, () -> clients.get(0).getAllShapes().size()) > 0);
+    }
+
+    @Test
+    void styleChangesReplicateInFull() throws Exception {
+        Rectangle shape = new Rectangle(10, 10, 50, 50, Color.BLACK, Color.WHITE);
+        on(0, () -> {
+            clients.get(0).addShape(shape);
+            return null;
+        });
+        sync();
+        on(0, () -> {
+            shape.setStyle(new Style(Color.RED, Color.BLUE, 7, new double[]{6, 3}, 0.5));
+            shape.setBounds(20, 30, 40, 50);
+            clients.get(0).updateShapes(List.of(shape));
+            return null;
+        });
+        sync();
+        assertConverged();
+        Shape replica = on(1, () -> clients.get(1).getAllShapes().get(0));
+        assertEquals(7.0, replica.getStyle().getWidth());
+        assertArrayEquals(new double[]{6, 3}, replica.getStyle().getDash());
+        assertEquals(20.0, replica.getX());
+    }
+
+    @Test
+    void undoRevertsOnlyLocalChanges() throws Exception {
+        Rectangle first = new Rectangle(0, 0, 10, 10, Color.BLACK, Color.TRANSPARENT);
+        on(0, () -> {
+            clients.get(0).addShape(first);
+            return null;
+        });
+        sync();
+        on(1, () -> {
+            Shape replica = clients.get(1).getAllShapes().get(0);
+            clients.get(1).saveState();
+            replica.setX(100);
+            replica.setFillColor(Color.GREEN);
+            clients.get(1).updateShapes(List.of(replica));
+            return null;
+        });
+        on(2, () -> {
+            clients.get(2).addShape(new Ellipse(50, 50, 10, 10, Color.RED, Color.TRANSPARENT));
+            return null;
+        });
+        sync();
+
+        on(1, () -> {
+            clients.get(1).undo();
+            return null;
+        });
+        sync();
+        assertConverged();
+        List<Shape> shapes = on(0, () -> clients.get(0).getAllShapes());
+        assertEquals(2, shapes.size());
+        assertArrayEquals(ShapeCodec.toBytes(first), ShapeCodec.toBytes(shapes.get(0)));
+    }
+
+    private static void randomOperation(CollaborativeRepository client, Random random) {
+        List<Shape> shapes = client.getAllShapes();
+        int action = shapes.isEmpty() ? 0 : random.nextInt(12);
+        if (action < 3) {
+            client.addShape(new Rectangle(random.nextDouble() * 500, random.nextDouble() * 500, 20, 20,
+                    Color.BLACK, Color.TRANSPARENT));
+            return;
+        }
+        Shape shape = shapes.get(random.nextInt(shapes.size()));
+        if (action < 4) {
+            client.removeShape(shape);
+        } else if (action < 7) {
+            shape.setX(shape.getX() + random.nextDouble() * 10 - 5);
+            shape.setWidth(5 + random.nextDouble() * 50);
+            client.updateShapes(List.of(shape));
+        } else if (action < 9) {
+            shape.setStyle(shape.getStyle().withWidth(1 + random.nextInt(5)).withDash(random.nextInt(4) + 1, 2));
+            client.updateShapes(List.of(shape));
+        } else if (action < 10) {
+            client.bringToFront(shape);
+        } else if (action < 11) {
+            client.restyleAll(shape.getStyleId(), shape.getStyle().withFill(Color.hsb(random.nextInt(360), 1, 1)));
+        } else {
+            client.undo();
+        }
+    }
+
+    private void sync() throws Exception {
+        for (int i = 0; i < clients.size(); i++) {
+            CollaborativeRepository client = clients.get(i);
+            executors.get(i).submit(client::flush).get();
+        }
+        long deadline = System.currentTimeMillis() + SYNC_TIMEOUT_MS;
+        long sent = framesSent();
+        while (server.getFramesRelayed() < sent || !allReceived(sent)) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Clients did not receive all frames");
+            }
+            Thread.sleep(5);
+            sent = framesSent();
+        }
+        for (ExecutorService executor : executors) {
+            executor.submit(() -> { }).get();
+        }
+    }
+
+    private long framesSent() {
+        long sent = 0;
+        for (CollaborativeRepository client : clients) {
+            sent += client.getFramesSent();
+        }
+        return sent;
+    }
+
+    private boolean allReceived(long sent) {
+        for (CollaborativeRepository client : clients) {
+            if (client.getFramesReceived() + client.getFramesSent() < sent) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void assertConverged() throws Exception {
+        List<byte[]> reference = encoded(0);
+        for (int i = 1; i < clients.size(); i++) {
+            List<byte[]> other = encoded(i);
+            assertEquals(reference.size(), other.size(), "shape count of client " + i);
+            for (int n = 0; n < reference.size(); n++) {
+                assertArrayEquals(reference.get(n), other.get(n), "shape " + n + " of client " + i);
+            }
+        }
+    }
+
+    private List<byte[]> encoded(int client) throws Exception {
+        return on(client, () -> {
+            List<byte[]> encoded = new ArrayList<>();
+            for (Shape shape : clients.get(client).getAllShapes()) {
+                encoded.add(ShapeCodec.toBytes(shape));
+            }
+            return encoded;
+        });
+    }
+
+    private <T> T on(int client, Callable<T> action) throws Exception {
+        return executors.get(client).submit(action).get();
+    }
+}
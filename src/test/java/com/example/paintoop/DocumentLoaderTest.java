@@ -0,0 +1,112 @@
+package com.example.paintoop;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DocumentLoaderTest {
+    private File file;
+
+    @BeforeEach
+    void createFile() throws IOException {
+        file = File.createTempFile("document", ".json");
+    }
+
+    @AfterEach
+    void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    void skipsMalformedRecordsAndKeepsTheRest() throws Exception {
+        Files.writeString(file.toPath(), "{\"styles\":[{\"id\":1,\"stroke\":\"#000000ff\",\"fill\":\"#ff0000ff\"}],"
+                + "\"current\":["
+                + "{\"type\":\"rectangle\",\"id\":1,\"x\":0,\"y\":0,\"width\":10,\"height\":10,\"style\":1},"
+                + "{\"type\":\"blob\",\"id\":2,\"x\":0,\"y\":0,\"width\":10,\"height\":10,\"style\":1},"
+                + "{\"type\":\"rectangle\",\"id\":3,\"x\":\"oops\",\"y\":0,\"width\":10,\"height\":10,\"style\":1},"
+                + "{\"type\":\"rectangle\",\"id\":4,\"x\":0,\"y\":0,\"width\":10,\"height\":10,\"style\":99999},"
+                + "{\"type\":\"polyline\",\"id\":5,\"closed\":false,\"points\":[{\"nested\":[1,2]},0,0,5,5],\"style\":1},"
+                + "42,"
+                + "{\"type\":\"polyline\",\"id\":6,\"closed\":true,\"points\":[0,0,5,5,10,0],\"style\":1}"
+                + "],\"history\":[]}");
+
+        RecordingLoader loader = new RecordingLoader(file);
+        assertEquals(2, (int) loader.call());
+        assertEquals(5, loader.getSkippedCount());
+        assertEquals(5, loader.getErrors().size());
+        assertEquals(2, loader.deliveredShapes());
+        assertEquals(1L, loader.batches.get(0).get(0).getId());
+        assertEquals(6L, loader.batches.get(0).get(1).getId());
+    }
+
+    @Test
+    void stopsReadingWhenCancelled() throws Exception {
+        generate(20000);
+        RecordingLoader loader = new RecordingLoader(file);
+        loader.cancelAfterBatches = 1;
+        int loaded = loader.call();
+        assertEquals(1, loader.batches.size());
+        assertTrue(loaded < 20000, "loaded " + loaded + " shapes after cancel");
+        assertTrue(loader.reports < 20000 / 1024);
+    }
+
+    @Test
+    void deliversEveryShapeInBatches() throws Exception {
+        generate(4500);
+        RecordingLoader loader = new RecordingLoader(file);
+        assertEquals(4500, (int) loader.call());
+        assertEquals(3, loader.batches.size());
+        assertEquals(4500, loader.deliveredShapes());
+        assertEquals(0, loader.getSkippedCount());
+    }
+
+    private void generate(int count) throws IOException {
+        DocumentGenerator generator = new DocumentGenerator();
+        generator.setShapeCount(count);
+        generator.setMix("rectangle=1,polyline=1");
+        generator.setSeed(3);
+        generator.write(file);
+    }
+
+    private static final class RecordingLoader extends DocumentLoader {
+        final List<List<Shape>> batches = new ArrayList<>();
+        int cancelAfterBatches = Integer.MAX_VALUE;
+        int reports;
+
+        RecordingLoader(File file) {
+            super(file, batch -> { });
+        }
+
+        @Override
+        void deliver(List<Shape> delivered) {
+            batches.add(delivered);
+        }
+
+        @Override
+        void report(long done, long total, String message) {
+            reports++;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return batches.size() >= cancelAfterBatches;
+        }
+
+        int deliveredShapes() {
+            int count = 0;
+            for (List<Shape> batch : batches) {
+                count += batch.size();
+            }
+            return count;
+        }
+    }
+}
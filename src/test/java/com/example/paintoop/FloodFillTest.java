@@ -0,0 +1,83 @@
+package com.example.paintoop;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FloodFillTest {
+    private static final int WHITE = 0xffffffff;
+    private static final int BLACK = 0xff000000;
+
+    @Test
+    void fillsRegionEnclosedByWall() {
+        int width = 10, height = 8;
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, WHITE);
+        for (int y = 0; y < height; y++) {
+            pixels[y * width + 4] = BLACK;
+        }
+        boolean[] mask = new boolean[pixels.length];
+        int[] bounds = new int[4];
+
+        assertEquals(4 * height, FloodFill.fill(pixels, width, height, 1, 1, 0, mask, bounds));
+        assertArrayEquals(new int[]{0, 0, 3, height - 1}, bounds);
+        assertTrue(mask[3 * width + 3]);
+        assertFalse(mask[3 * width + 4]);
+        assertFalse(mask[3 * width + 5]);
+    }
+
+    @Test
+    void fillsAroundConcaveObstacles() {
+        String[] rows = {
+                "..........",
+                ".########.",
+                ".#......#.",
+                ".#.####.#.",
+                ".#.#..#.#.",
+                ".#.#..#...",
+                ".###..####",
+                ".........."
+        };
+        int width = rows[0].length(), height = rows.length;
+        int[] pixels = new int[width * height];
+        int expected = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean wall = rows[y].charAt(x) == '#';
+                pixels[y * width + x] = wall ? BLACK : WHITE;
+                expected += wall ? 0 : 1;
+            }
+        }
+        boolean[] mask = new boolean[pixels.length];
+        assertEquals(expected, FloodFill.fill(pixels, width, height, 0, 0, 0, mask, new int[4]));
+        assertTrue(mask[4 * width + 4]);
+        assertTrue(mask[2 * width + 2]);
+    }
+
+    @Test
+    void respectsToleranceAndSeedBounds() {
+        int[] pixels = {0xff808080, 0xff828282, 0xff909090};
+        boolean[] mask = new boolean[pixels.length];
+        assertEquals(1, FloodFill.fill(pixels, 3, 1, 0, 0, 0, mask, new int[4]));
+        assertEquals(2, FloodFill.fill(pixels, 3, 1, 0, 0, 4, new boolean[3], new int[4]));
+        assertEquals(3, FloodFill.fill(pixels, 3, 1, 0, 0, 16, new boolean[3], new int[4]));
+        assertEquals(0, FloodFill.fill(pixels, 3, 1, 3, 0, 0, new boolean[3], new int[4]));
+        assertEquals(0, FloodFill.fill(pixels, 3, 1, 0, -1, 0, new boolean[3], new int[4]));
+    }
+
+    @Test
+    void skipsPixelsAlreadyInMask() {
+        int[] pixels = new int[16];
+        Arrays.fill(pixels, WHITE);
+        boolean[] mask = new boolean[16];
+        for (int y = 0; y < 4; y++) {
+            mask[y * 4 + 2] = true;
+        }
+        assertEquals(8, FloodFill.fill(pixels, 4, 4, 0, 0, 0, mask, new int[4]));
+    }
+}
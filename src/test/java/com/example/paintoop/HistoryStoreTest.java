@@ -0,0 +1,227 @@
+package com.example.paintoop;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistoryStoreTest {
+    private HistoryStore store;
+
+    @AfterEach
+    void closeStore() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    void spillsOverBudgetAndPopsInOrder() {
+        store = new HistoryStore(0, 10);
+        List<List<Shape>> pushed = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            List<Shape> state = state(i * 10, i);
+            pushed.add(state);
+            store.push(copy(state));
+        }
+        assertEquals(1, store.getResidentCount());
+        assertEquals(4, store.getSpilledCount());
+        assertTrue(store.getSpillFileSize() > 0);
+
+        for (int i = pushed.size() - 1; i >= 0; i--) {
+            assertSameShapes(pushed.get(i), store.pop());
+        }
+        assertNull(store.pop());
+        assertEquals(0, store.getSpilledCount());
+        assertEquals(0L, store.getSpillFileSize());
+    }
+
+    @Test
+    void discardsStatesBeyondMaxDepth() {
+        store = new HistoryStore(0, 3);
+        List<List<Shape>> pushed = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            pushed.add(state(i, i));
+            store.push(copy(pushed.get(i - 1)));
+        }
+        assertEquals(3, store.size());
+        assertSameShapes(pushed.get(4), store.pop());
+        assertSameShapes(pushed.get(3), store.pop());
+        assertSameShapes(pushed.get(2), store.pop());
+        assertNull(store.pop());
+    }
+
+    @Test
+    void compactsSpillFileWhenOldStatesAreDiscarded() {
+        store = new HistoryStore(0, 3);
+        List<List<Shape>> pushed = new ArrayList<>();
+        long largest = 0;
+        for (int i = 0; i < 40; i++) {
+            pushed.add(state(2000, i));
+            store.push(copy(pushed.get(i)));
+            largest = Math.max(largest, store.getSpillFileSize());
+        }
+        assertTrue(largest < (1 << 20) + 3 * store.getSpilledBytes(), "spill file grew to " + largest + " bytes");
+        for (int i = pushed.size() - 1; i >= pushed.size() - 3; i--) {
+            assertSameShapes(pushed.get(i), store.pop());
+        }
+    }
+
+    @Test
+    void addLastSpillsBehindSpilledStates() {
+        store = new HistoryStore(0, 10);
+        List<Shape> newest = state(5, 1);
+        List<Shape> older = state(5, 2);
+        List<Shape> oldest = state(5, 3);
+        store.push(copy(newest));
+        store.push(copy(state(5, 4)));
+        store.pop();
+        store.addLast(copy(older));
+        store.addLast(copy(oldest));
+        assertEquals(3, store.getSpilledCount());
+        assertSameShapes(newest, store.pop());
+        assertSameShapes(older, store.pop());
+        assertSameShapes(oldest, store.pop());
+    }
+
+    @Test
+    void restylesSpilledStates() throws IOException {
+        store = new HistoryStore(0, 10);
+        StyleTable table = StyleTable.shared();
+        Style previous = new Style(Color.BLACK, Color.rgb(1, 2, 3));
+        int styleId = table.intern(previous);
+        store.push(List.of(new Rectangle(0, 0, 10, 10, styleId)));
+        store.push(state(3, 1));
+        assertEquals(1, store.getSpilledCount());
+
+        table.redefine(styleId, new Style(Color.BLACK, Color.rgb(3, 2, 1)));
+        int preservedId = table.intern(previous);
+        store.replaceStyle(styleId, preservedId);
+        assertEquals(preservedId, writeAndRead(store).get(1).get(0).getStyleId());
+
+        store.pop();
+        assertEquals(preservedId, store.pop().get(0).getStyleId());
+    }
+
+    @Test
+    void writesSpilledStatesAsJson() throws IOException {
+        store = new HistoryStore(0, 10);
+        List<List<Shape>> pushed = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            pushed.add(state(20, i));
+            store.push(copy(pushed.get(i)));
+        }
+        List<List<Shape>> written = writeAndRead(store);
+        assertEquals(4, written.size());
+        for (int i = 0; i < 4; i++) {
+            assertSameShapes(pushed.get(3 - i), written.get(i));
+        }
+    }
+
+    @Test
+    void storesSpilledStatesOnceCompressed() throws IOException {
+        store = new HistoryStore(0, 10);
+        List<Shape> state = state(2000, 7);
+        store.push(copy(state));
+        store.push(state(1, 8));
+        assertEquals(1, store.getSpilledCount());
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = new JsonFactory().createGenerator(json)) {
+            ShapeJson.writeArray(generator, state);
+        }
+        assertTrue(store.getSpilledBytes() < json.getBuffer().length() / 2,
+                store.getSpilledBytes() + " spilled bytes for " + json.getBuffer().length() + " bytes of JSON");
+    }
+
+    @Test
+    void collectsStylesOfSpilledStatesAsWritten() throws IOException {
+        store = new HistoryStore(0, 10);
+        Rectangle unfilled = new Rectangle(0, 0, 10, 10, Color.BLACK, null);
+        store.push(List.of(unfilled));
+        store.push(state(1, 1));
+        assertEquals(1, store.getSpilledCount());
+        BitSet used = new BitSet();
+        store.collectStyles(used);
+        for (List<Shape> written : writeAndRead(store)) {
+            for (Shape shape : written) {
+                assertTrue(used.get(shape.getStyleId()), "style " + shape.getStyleId() + " is not collected");
+            }
+        }
+    }
+
+    @Test
+    void popRasterIgnoresShapeStates() {
+        store = new HistoryStore(0, 10);
+        store.push(state(1, 1));
+        assertNull(store.popRaster());
+        assertEquals(1, store.size());
+    }
+
+    private static List<Shape> state(int count, int seed) {
+        Random random = new Random(seed);
+        List<Shape> shapes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Shape shape = random.nextBoolean()
+                    ? new Rectangle(random.nextDouble() * 1000, random.nextDouble() * 1000, 10, 20,
+                            Color.BLACK, Color.TRANSPARENT)
+                    : new Line(random.nextDouble() * 1000, random.nextDouble() * 1000,
+                            random.nextDouble() * 1000, random.nextDouble() * 1000, Color.RED);
+            shape.setId(seed * 100000L + i);
+            shapes.add(shape);
+        }
+        return shapes;
+    }
+
+    private static List<Shape> copy(List<Shape> state) {
+        List<Shape> copies = new ArrayList<>(state.size());
+        for (Shape shape : state) {
+            copies.add(shape.copy());
+        }
+        return copies;
+    }
+
+    private static List<List<Shape>> writeAndRead(HistoryStore store) throws IOException {
+        Map<Integer, Integer> styles = new HashMap<>();
+        for (int id = 0; id < StyleTable.shared().size(); id++) {
+            styles.put(id, id);
+        }
+        JsonFactory factory = new JsonFactory();
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = factory.createGenerator(json)) {
+            generator.writeStartArray();
+            store.writeStates(generator);
+            generator.writeEndArray();
+        }
+        List<List<Shape>> states = new ArrayList<>();
+        try (JsonParser parser = factory.createParser(json.toString())) {
+            parser.nextToken();
+            while (parser.nextToken() != null && parser.currentToken().isStructStart()) {
+                states.add(ShapeJson.readArray(parser, styles));
+            }
+        }
+        return states;
+    }
+
+    private static void assertSameShapes(List<Shape> expected, List<Shape> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(ShapeCodec.toBytes(expected.get(i)), ShapeCodec.toBytes(actual.get(i)));
+        }
+    }
+}
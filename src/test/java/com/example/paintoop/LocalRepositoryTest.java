@@ -0,0 +1,76 @@
+package com.example.paintoop;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+class LocalRepositoryTest {
+    private File first;
+    private File second;
+
+    @BeforeEach
+    void createFiles() throws IOException {
+        first = File.createTempFile("paintoop-first", ".json");
+        second = File.createTempFile("paintoop-second", ".json");
+        first.delete();
+        second.delete();
+    }
+
+    @AfterEach
+    void deleteFiles() {
+        first.delete();
+        second.delete();
+    }
+
+    @Test
+    void restyleDoesNotChangeOtherDocuments() {
+        LocalRepository one = new LocalRepository(first, true);
+        LocalRepository two = new LocalRepository(second, true);
+        Rectangle mine = new Rectangle(0, 0, 10, 10, Color.BLACK, Color.RED);
+        Rectangle theirs = new Rectangle(0, 0, 10, 10, Color.BLACK, Color.RED);
+        one.addShape(mine);
+        two.addShape(theirs);
+        assertNotSame(one.getStyleTable(), two.getStyleTable());
+
+        one.restyleAll(mine.getStyleId(), mine.getStyle().withFill(Color.BLUE));
+        assertEquals(Color.BLUE, mine.getFillColor());
+        assertEquals(Color.RED, theirs.getFillColor());
+    }
+
+    @Test
+    void savingReleasesOnlyItsOwnStyles() {
+        LocalRepository one = new LocalRepository(first, true);
+        LocalRepository two = new LocalRepository(second, true);
+        Rectangle kept = new Rectangle(0, 0, 10, 10, Color.BLACK, Color.GREEN);
+        two.addShape(kept);
+        Rectangle removed = new Rectangle(0, 0, 10, 10, Color.BLACK, Color.GREEN);
+        one.addShape(removed);
+        one.clearPersistentData();
+        one.addShape(new Rectangle(0, 0, 10, 10, Color.BLACK, Color.ORANGE));
+
+        assertEquals(Color.GREEN, kept.getFillColor());
+        assertEquals(Color.GREEN, two.getAttributeIndex().findByStyle(kept.getStyleId()).get(0).getFillColor());
+    }
+
+    @Test
+    void undoRestoresStylesAfterReload() {
+        LocalRepository one = new LocalRepository(first, true);
+        Rectangle shape = new Rectangle(0, 0, 10, 10, Color.BLACK, Color.RED);
+        one.addShape(shape);
+        one.restyleAll(shape.getStyleId(), shape.getStyle().withFill(Color.BLUE));
+
+        LocalRepository reloaded = new LocalRepository(first, true);
+        List<Shape> shapes = reloaded.getAllShapes();
+        assertEquals(Color.BLUE, shapes.get(0).getFillColor());
+        reloaded.undo();
+        assertEquals(Color.RED, reloaded.getAllShapes().get(0).getFillColor());
+    }
+}
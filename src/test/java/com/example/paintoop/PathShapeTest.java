@@ -0,0 +1,47 @@
+package com.example.paintoop;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PathShapeTest {
+    @Test
+    void boundsReachCubicExtrema() {
+        double[] coords = {0, 0, -40, 100, 140, 100, 100, 0};
+        PathShape cubic = new PathShape(new byte[]{PathShape.MOVE, PathShape.CUBIC}, coords,
+                Color.BLACK, Color.TRANSPARENT);
+        double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+        for (int i = 0; i <= 100000; i++) {
+            double t = i / 100000.0, u = 1 - t;
+            double px = u * u * u * coords[0] + 3 * u * u * t * coords[2] + 3 * u * t * t * coords[4]
+                    + t * t * t * coords[6];
+            minX = Math.min(minX, px);
+            maxX = Math.max(maxX, px);
+        }
+        assertEquals(minX, cubic.getX(), 1e-6);
+        assertEquals(maxX - minX, cubic.getWidth(), 1e-6);
+        assertEquals(0.0, cubic.getY(), 1e-9);
+        assertEquals(75.0, cubic.getHeight(), 1e-9);
+    }
+
+    @Test
+    void boundsReachQuadExtrema() {
+        PathShape quad = new PathShape(new byte[]{PathShape.MOVE, PathShape.QUAD, PathShape.CLOSE},
+                new double[]{0, 0, 50, 100, 100, 0}, Color.BLACK, Color.TRANSPARENT);
+        assertEquals(0.0, quad.getX(), 1e-9);
+        assertEquals(100.0, quad.getWidth(), 1e-9);
+        assertEquals(50.0, quad.getHeight(), 1e-9);
+    }
+
+    @Test
+    void movedPathKeepsExactBounds() {
+        PathShape quad = new PathShape(new byte[]{PathShape.MOVE, PathShape.QUAD},
+                new double[]{0, 0, 50, 100, 100, 0}, Color.BLACK, Color.TRANSPARENT);
+        quad.setBounds(10, 20, 200, 100);
+        assertEquals(10.0, quad.getX(), 1e-9);
+        assertEquals(100.0, quad.getHeight(), 1e-9);
+        assertTrue(quad.contains(110, 120));
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.paintoop;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RemoteRepositoryTest {
+    private final List<File> outboxes = new ArrayList<>();
+    private MockDocumentServer server;
+
+    @AfterEach
+    void cleanUp() {
+        if (server != null) {
+            server.close();
+        }
+        for (File outbox : outboxes) {
+            outbox.delete();
+        }
+    }
+
+    @Test
+    void replaysOfflineEditsOnReconnect() throws Exception {
+        File outbox = outbox();
+        try (RemoteRepository offline = new RemoteRepository(URI.create("http://127.0.0.1:1"), outbox, Runnable::run)) {
+            for (int i = 0; i < 20; i++) {
+                offline.addShape(new Rectangle(i * 10, 0, 5, 5, Color.BLACK, Color.RED));
+            }
+            Shape first = offline.findShapesInRegion(0, 0, 5, 5).get(0);
+            first.setX(3);
+            offline.updateShapes(List.of(first));
+            assertTrue(offline.getPendingOps() > 0);
+        }
+
+        server = new MockDocumentServer(0);
+        try (RemoteRepository online = new RemoteRepository(server.getUri(), outbox, Runnable::run)) {
+            assertTrue(online.getPendingOps() > 0);
+            assertEquals(20, online.findShapesInRegion(0, 0, 1000, 1000).size());
+            assertTrue(online.awaitSynced(5000));
+            assertEquals(0, online.getPendingOps());
+        }
+        assertEquals(20, server.getShapeCount());
+
+        try (RemoteRepository reader = new RemoteRepository(server.getUri(), outbox(), Runnable::run)) {
+            List<Shape> moved = reader.loadRegion(0, 0, 5, 5);
+            assertEquals(1, moved.size());
+            assertEquals(3.0, moved.get(0).getX());
+        }
+    }
+
+    @Test
+    void doesNotReplayAcknowledgedOps() throws Exception {
+        server = new MockDocumentServer(0);
+        File outbox = outbox();
+        try (RemoteRepository writer = new RemoteRepository(server.getUri(), outbox, Runnable::run)) {
+            for (int i = 0; i < 5; i++) {
+                writer.addShape(new Rectangle(i * 10, 0, 5, 5, Color.BLACK, Color.RED));
+            }
+            assertTrue(writer.awaitSynced(5000));
+        }
+        long applied = server.getOpsApplied();
+
+        try (RemoteRepository reopened = new RemoteRepository(server.getUri(), outbox, Runnable::run)) {
+            assertEquals(0, reopened.getPendingOps());
+            assertTrue(reopened.awaitSynced(5000));
+        }
+        assertEquals(applied, server.getOpsApplied());
+        assertEquals(5, server.getShapeCount());
+    }
+
+    @Test
+    void clearAndUndoCoverShapesNotYetFetched() throws Exception {
+        server = new MockDocumentServer(0);
+        try (RemoteRepository writer = new RemoteRepository(server.getUri(), outbox(), Runnable::run)) {
+            for (int i = 0; i < 10; i++) {
+                writer.addShape(new Rectangle(i * 5000, 0, 5, 5, Color.BLACK, Color.RED));
+            }
+            assertTrue(writer.awaitSynced(5000));
+        }
+
+        try (RemoteRepository reader = new RemoteRepository(server.getUri(), outbox(), Runnable::run)) {
+            reader.clear();
+            assertTrue(reader.awaitSynced(5000));
+            assertEquals(0, server.getShapeCount());
+
+            reader.undo();
+            assertTrue(reader.awaitSynced(5000));
+            assertEquals(10, server.getShapeCount());
+            assertEquals(10, reader.getAllShapes().size());
+        }
+    }
+
+    private File outbox() throws IOException {
+        File outbox = File.createTempFile("outbox", ".bin");
+        outbox.delete();
+        outboxes.add(outbox);
+        return outbox;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.paintoop;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShapeCodecTest {
+    @Test
+    void roundTripsBasicShapes() throws IOException {
+        Rectangle rectangle = new Rectangle(10.5, 20.25, 30, 40, Color.RED, Color.web("#0080ff80"));
+        rectangle.setId(7);
+        rectangle.setLayer(3);
+        Shape copy = roundTrip(rectangle);
+        assertTrue(copy instanceof Rectangle);
+        assertEquals(7L, copy.getId());
+        assertEquals(3, copy.getLayer());
+        assertEquals(rectangle.getStyleId(), copy.getStyleId());
+
+        roundTrip(new Ellipse(1, 2, 3, 4, Color.BLACK, Color.TRANSPARENT));
+        roundTrip(new Line(0, 0, 100, -50, Color.GREEN));
+        roundTrip(new Polyline(new double[]{0, 10, 20}, new double[]{0, 5, 0}, true, Color.BLUE, Color.YELLOW));
+    }
+
+    @Test
+    void roundTripsStrokeWidthDashAndOpacity() throws IOException {
+        Rectangle rectangle = new Rectangle(0, 0, 10, 10, Color.BLACK, Color.WHITE);
+        rectangle.setStyle(new Style(Color.BLACK, Color.WHITE, 5, new double[]{4, 2}, 0.25));
+        Shape copy = roundTrip(rectangle);
+        assertEquals(5.0, copy.getStyle().getWidth());
+        assertArrayEquals(new double[]{4, 2}, copy.getStyle().getDash());
+        assertEquals(0.25, copy.getStyle().getOpacity());
+    }
+
+    @Test
+    void roundTripsPathWithAllVerbs() throws IOException {
+        byte[] verbs = {PathShape.MOVE, PathShape.LINE, PathShape.QUAD, PathShape.CUBIC, PathShape.CLOSE};
+        double[] coords = {0, 0, 10, 0, 15, 5, 10, 10, 5, 15, 0, 15, -5, 10};
+        PathShape path = new PathShape(verbs, coords, Color.BLACK, Color.ORANGE);
+        PathShape copy = (PathShape) roundTrip(path);
+        assertArrayEquals(verbs, copy.getVerbs());
+        assertArrayEquals(coords, copy.getCoords());
+    }
+
+    @Test
+    void roundTripsNestedGroups() throws IOException {
+        ShapeGroup inner = new ShapeGroup(List.of(
+                new Rectangle(0, 0, 10, 10, Color.BLACK, Color.TRANSPARENT),
+                new Line(0, 0, 10, 10, Color.RED)));
+        ShapeGroup outer = new ShapeGroup(List.of(inner, new Ellipse(20, 20, 5, 5, Color.BLUE, Color.BLUE)));
+        outer.setBounds(100, 100, 50, 25);
+        ShapeGroup copy = (ShapeGroup) roundTrip(outer);
+        assertEquals(2, copy.getChildCount());
+        assertTrue(copy.getChildren().get(0) instanceof ShapeGroup);
+        assertEquals(outer.getX(), copy.getX(), 1e-9);
+        assertEquals(outer.getWidth(), copy.getWidth(), 1e-9);
+    }
+
+    @Test
+    void roundTripsSymbolInstances() throws IOException {
+        int symbolId = SymbolTable.shared().define("codec-test",
+                List.of(new Rectangle(0, 0, 10, 10, Color.BLACK, Color.GRAY)));
+        SymbolInstance instance = new SymbolInstance(symbolId, 5, 6, 2, 3);
+        SymbolInstance copy = (SymbolInstance) roundTrip(instance);
+        assertEquals(symbolId, copy.getSymbolId());
+        assertEquals(2.0, copy.getScaleX());
+        assertEquals(20.0, copy.getWidth(), 1e-9);
+    }
+
+    @Test
+    void rejectsUnknownTypes() {
+        assertThrows(IOException.class, () -> ShapeCodec.fromBytes(new byte[]{42, 0, 0, 0, 0, 0, 0, 0, 0}));
+    }
+
+    @Test
+    void rejectsInvalidPathDataWithIOException() {
+        byte[] path = ShapeCodec.toBytes(new PathShape(new byte[]{PathShape.MOVE, PathShape.LINE},
+                new double[]{0, 0, 10, 10}, Color.BLACK, Color.TRANSPARENT));
+        byte[] lineFirst = path.clone();
+        lineFirst[13] = PathShape.LINE;
+        assertThrows(IOException.class, () -> ShapeCodec.fromBytes(lineFirst));
+        byte[] badVerb = path.clone();
+        badVerb[14] = 9;
+        assertThrows(IOException.class, () -> ShapeCodec.fromBytes(badVerb));
+        byte[] negativeCount = path.clone();
+        negativeCount[9] = (byte) 0x80;
+        assertThrows(IOException.class, () -> ShapeCodec.fromBytes(negativeCount));
+    }
+
+    @Test
+    void rejectsUnknownSymbols() {
+        byte[] symbol = ShapeCodec.toBytes(new SymbolInstance(SymbolTable.shared().define("missing-test",
+                List.of(new Line(0, 0, 1, 1, Color.BLACK))), 0, 0, 1, 1));
+        symbol[9] = 0x7f;
+        assertThrows(IOException.class, () -> ShapeCodec.fromBytes(symbol));
+    }
+
+    private static Shape roundTrip(Shape shape) throws IOException {
+        byte[] bytes = ShapeCodec.toBytes(shape);
+        Shape copy = ShapeCodec.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        assertEquals(shape.getClass(), copy.getClass());
+        assertArrayEquals(bytes, ShapeCodec.toBytes(copy));
+        return copy;
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.paintoop;
+
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SymbolTableTest {
+    @Test
+    void expandsInstancesIntoPlainGroups() throws IOException {
+        int symbolId = SymbolTable.shared().define("expand-test", List.of(
+                new Rectangle(0, 0, 10, 10, Color.BLACK, Color.GRAY),
+                new Line(0, 10, 10, 0, Color.RED)));
+        SymbolInstance instance = new SymbolInstance(symbolId, 100, 50, 2, 3);
+        instance.setId(42);
+        instance.setLayer(2);
+        Rectangle plain = new Rectangle(0, 0, 5, 5, Color.BLACK, Color.WHITE);
+        ShapeGroup nested = new ShapeGroup(List.of(instance.copy(), new Ellipse(0, 0, 4, 4, Color.BLUE, Color.BLUE)));
+
+        List<Shape> expanded = SymbolTable.expandInstances(List.of(instance, plain, nested));
+        assertSame(plain, expanded.get(1));
+        Shape group = expanded.get(0);
+        assertTrue(group instanceof ShapeGroup);
+        assertEquals(42L, group.getId());
+        assertEquals(2, group.getLayer());
+        assertEquals(instance.getX(), group.getX(), 1e-9);
+        assertEquals(instance.getY(), group.getY(), 1e-9);
+        assertEquals(instance.getWidth(), group.getWidth(), 1e-9);
+        assertEquals(instance.getHeight(), group.getHeight(), 1e-9);
+        for (Shape shape : expanded) {
+            assertFalse(SymbolTable.containsInstance(shape));
+            ShapeCodec.fromBytes(ShapeCodec.toBytes(shape));
+        }
+        assertEquals(nested.getWidth(), expanded.get(2).getWidth(), 1e-9);
+    }
+}